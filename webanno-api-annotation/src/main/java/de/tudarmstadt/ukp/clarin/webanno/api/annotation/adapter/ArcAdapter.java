@@ -28,6 +28,7 @@ import static org.apache.uima.fit.util.CasUtil.selectCovered;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
@@ -98,18 +99,16 @@ public class ArcAdapter
      */
     private final String attachType;
 
-    private boolean deletable;
-
     /**
      * Allow multiple annotations of the same layer (only when the type value is different)
      */
-    private boolean allowStacking;
+    private final boolean allowStacking;
 
-    private boolean crossMultipleSentence;
+    private final boolean crossMultipleSentence;
 
-    private AnnotationLayer layer;
+    private final AnnotationLayer layer;
 
-    private Map<String, AnnotationFeature> features;
+    private final Map<String, AnnotationFeature> features;
 
     public ArcAdapter(AnnotationLayer aLayer, long aTypeId, String aTypeName,
             String aTargetFeatureName, String aSourceFeatureName, /* String aArcSpanType, */
@@ -123,6 +122,8 @@ public class ArcAdapter
         // arcSpanType = aArcSpanType;
         attachFeatureName = aAttacheFeatureName;
         attachType = aAttachType;
+        allowStacking = aLayer.isAllowStacking();
+        crossMultipleSentence = aLayer.isCrossSentence();
 
         features = new LinkedHashMap<String, AnnotationFeature>();
         for (AnnotationFeature f : aFeatures) {
@@ -293,7 +294,7 @@ public class ArcAdapter
     @Override
     public boolean isDeletable()
     {
-        return deletable;
+        return false;
     }
 
     @Override
@@ -348,21 +349,11 @@ public class ArcAdapter
         return crossMultipleSentence;
     }
 
-    public void setCrossMultipleSentence(boolean crossMultipleSentence)
-    {
-        this.crossMultipleSentence = crossMultipleSentence;
-    }
-
     public boolean isAllowStacking()
     {
         return allowStacking;
     }
 
-    public void setAllowStacking(boolean allowStacking)
-    {
-        this.allowStacking = allowStacking;
-    }
-
     // FIXME this is the version that treats each tag as a separate type in brat - should be removed
     // public static String getBratTypeName(TypeAdapter aAdapter, AnnotationFS aFs,
     // List<AnnotationFeature> aFeatures)
@@ -411,7 +402,8 @@ public class ArcAdapter
     @Override
     public Collection<AnnotationFeature> listFeatures()
     {
-        return features.values();
+        // Adapters are shared, so callers must not change the features
+        return Collections.unmodifiableCollection(features.values());
     }
 
     public String getSourceFeatureName()
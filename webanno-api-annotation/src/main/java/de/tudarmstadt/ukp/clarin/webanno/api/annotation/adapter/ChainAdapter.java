@@ -62,7 +62,7 @@ public class ChainAdapter
     /**
      * The UIMA type name.
      */
-    private String annotationTypeName;
+    private final String annotationTypeName;
 
     /**
      * The feature of an UIMA annotation for the first span in the chain
@@ -76,13 +76,11 @@ public class ChainAdapter
 
     // private boolean singleTokenBehavior = false;
 
-    private boolean deletable;
+    private final boolean linkedListBehavior;
 
-    private boolean linkedListBehavior;
+    private final AnnotationLayer layer;
 
-    private AnnotationLayer layer;
-
-    private Map<String, AnnotationFeature> features;
+    private final Map<String, AnnotationFeature> features;
 
     public ChainAdapter(AnnotationLayer aLayer, long aLayerId, String aTypeName,
             String aLabelFeatureName, String aFirstFeatureName, String aNextFeatureName,
@@ -93,6 +91,7 @@ public class ChainAdapter
         annotationTypeName = aTypeName;
         chainFirstFeatureName = aFirstFeatureName;
         linkNextFeatureName = aNextFeatureName;
+        linkedListBehavior = aLayer.isLinkedListBehavior();
 
         features = new LinkedHashMap<String, AnnotationFeature>();
         for (AnnotationFeature f : aFeatures) {
@@ -360,15 +359,10 @@ public class ChainAdapter
         return annotationTypeName;
     }
 
-    public void setDeletable(boolean deletable)
-    {
-        this.deletable = deletable;
-    }
-
     @Override
     public boolean isDeletable()
     {
-        return deletable;
+        return false;
     }
 
     @Override
@@ -559,11 +553,6 @@ public class ChainAdapter
      *
      * @param aBehaveLikeSet whether to behave like a set.
      */
-    public void setLinkedListBehavior(boolean aBehaveLikeSet)
-    {
-        linkedListBehavior = aBehaveLikeSet;
-    }
-
     public boolean isLinkedListBehavior()
     {
         return linkedListBehavior;
@@ -578,7 +567,8 @@ public class ChainAdapter
     @Override
     public Collection<AnnotationFeature> listFeatures()
     {
-        return features.values();
+        // Adapters are shared, so callers must not change the features
+        return Collections.unmodifiableCollection(features.values());
     }
     
     public String getLinkNextFeatureName()
@@ -30,6 +30,7 @@ import static org.apache.uima.fit.util.JCasUtil.selectCovered;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -63,26 +64,24 @@ public class SpanAdapter
      * The minimum offset of the annotation is on token, and the annotation can't span multiple
      * tokens too
      */
-    private boolean lockToTokenOffsets;
+    private final boolean lockToTokenOffsets;
 
     /**
      * The minimum offset of the annotation is on token, and the annotation can span multiple token
      * too
      */
-    private boolean allowMultipleToken;
+    private final boolean allowMultipleToken;
 
     /**
      * Allow multiple annotations of the same layer (only when the type value is different)
      */
-    private boolean allowStacking;
+    private final boolean allowStacking;
 
-    private boolean crossMultipleSentence;
+    private final boolean crossMultipleSentence;
 
-    private boolean deletable;
+    private final AnnotationLayer layer;
 
-    private AnnotationLayer layer;
-
-    private Map<String, AnnotationFeature> features;
+    private final Map<String, AnnotationFeature> features;
 
     // value NILL for a token when the training file do not have annotations provided
     private final static String NILL = "__nill__";
@@ -90,6 +89,10 @@ public class SpanAdapter
     public SpanAdapter(AnnotationLayer aLayer, Collection<AnnotationFeature> aFeatures)
     {
         layer = aLayer;
+        lockToTokenOffsets = aLayer.isLockToTokenOffset();
+        allowMultipleToken = aLayer.isMultipleTokens();
+        allowStacking = aLayer.isAllowStacking();
+        crossMultipleSentence = aLayer.isCrossSentence();
 
         // Using a sorted map here so we have reliable positions in the map when iterating. We use
         // these positions to remember the armed slots!
@@ -105,17 +108,7 @@ public class SpanAdapter
      * the specified type will be created for each token. If this is not set, a single annotation
      * covering all tokens is created.
      *
-     * @param aSingleTokenBehavior
-     *            whether to enable the behavior.
-     */
-    public void setLockToTokenOffsets(boolean aSingleTokenBehavior)
-    {
-        lockToTokenOffsets = aSingleTokenBehavior;
-    }
-
-    /**
      * @return whether the behavior is enabled.
-     * @see #setLockToTokenOffsets(boolean)
      */
     public boolean isLockToTokenOffsets()
     {
@@ -127,31 +120,16 @@ public class SpanAdapter
         return allowMultipleToken;
     }
 
-    public void setAllowMultipleToken(boolean allowMultipleToken)
-    {
-        this.allowMultipleToken = allowMultipleToken;
-    }
-
     public boolean isAllowStacking()
     {
         return allowStacking;
     }
 
-    public void setAllowStacking(boolean allowStacking)
-    {
-        this.allowStacking = allowStacking;
-    }
-
     public boolean isCrossMultipleSentence()
     {
         return crossMultipleSentence;
     }
 
-    public void setCrossMultipleSentence(boolean crossMultipleSentence)
-    {
-        this.crossMultipleSentence = crossMultipleSentence;
-    }
-
     /**
      * Add new span annotation into the CAS and return the the id of the span annotation
      *
@@ -400,15 +378,10 @@ public class SpanAdapter
         return layer.getName();
     }
 
-    public void setDeletable(boolean aDeletable)
-    {
-        this.deletable = aDeletable;
-    }
-
     @Override
     public boolean isDeletable()
     {
-        return deletable;
+        return false;
     }
 
     @Override
@@ -490,6 +463,7 @@ public class SpanAdapter
     @Override
     public Collection<AnnotationFeature> listFeatures()
     {
-        return features.values();
+        // Adapters are shared, so callers must not change the features
+        return Collections.unmodifiableCollection(features.values());
     }
 }
@@ -28,6 +28,9 @@ import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationLayer;
 
 /**
  * Type Adapters for span, arc, and chain annotations
+ * <p>
+ * An adapter takes its behavior from the layer when it is created and does not change afterwards,
+ * so adapters can be shared.
  */
 public interface TypeAdapter
 {
@@ -97,6 +100,9 @@ public interface TypeAdapter
      */
     void delete(JCas aJCas, VID aVid);
 
+    /**
+     * @return the layer of the adapter. It is shared and must not be modified.
+     */
     AnnotationLayer getLayer();
     
     Collection<AnnotationFeature> listFeatures();
@@ -68,6 +68,17 @@ public abstract class ColoringStrategy
 
     public static ColoringStrategy getBestStrategy(AnnotationSchemaService aService, AnnotationLayer aLayer,
             AnnotationPreference aPreferences, Map<String[], Queue<String>> aColorQueues)
+    {
+        return getBestStrategy(aLayer, aService.listAnnotationFeature(aLayer), aPreferences,
+                aColorQueues);
+    }
+
+    /**
+     * Decide on the coloring strategy for a layer whose features have already been fetched.
+     */
+    public static ColoringStrategy getBestStrategy(AnnotationLayer aLayer,
+            List<AnnotationFeature> aFeatures, AnnotationPreference aPreferences,
+            Map<String[], Queue<String>> aColorQueues)
     {
         // Decide on coloring strategy for the current layer
         ColoringStrategy coloringStrategy;
@@ -77,7 +88,7 @@ public abstract class ColoringStrategy
         else if (aPreferences.isStaticColor()) {
             int threshold;
 
-            if (WebAnnoConst.SPAN_TYPE.equals(aLayer.getType()) && !hasLinkFeature(aService, aLayer)) {
+            if (WebAnnoConst.SPAN_TYPE.equals(aLayer.getType()) && !hasLinkFeature(aFeatures)) {
                 threshold = Integer.MAX_VALUE; // No filtering
             }
             else {
@@ -92,7 +103,7 @@ public abstract class ColoringStrategy
         else {
             String[] palette;
 
-            if (WebAnnoConst.SPAN_TYPE.equals(aLayer.getType()) && !hasLinkFeature(aService, aLayer)) {
+            if (WebAnnoConst.SPAN_TYPE.equals(aLayer.getType()) && !hasLinkFeature(aFeatures)) {
                 palette = PALETTE_NORMAL;
             }
             else {
@@ -107,9 +118,9 @@ public abstract class ColoringStrategy
         return coloringStrategy;
     }
 
-    private static boolean hasLinkFeature(AnnotationSchemaService aService, AnnotationLayer aLayer)
+    private static boolean hasLinkFeature(List<AnnotationFeature> aFeatures)
     {
-        for (AnnotationFeature feature : aService.listAnnotationFeature(aLayer)) {
+        for (AnnotationFeature feature : aFeatures) {
             if (!LinkMode.NONE.equals(feature.getLinkMode())) {
                 return true;
             }
@@ -17,7 +17,11 @@
  */
 package de.tudarmstadt.ukp.clarin.webanno.api.annotation.util;
 
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
 
 import javax.persistence.NoResultException;
 
@@ -27,6 +31,8 @@ import org.apache.uima.cas.Feature;
 import org.apache.uima.cas.FeatureStructure;
 import org.apache.uima.cas.Type;
 import org.apache.uima.cas.text.AnnotationFS;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import de.tudarmstadt.ukp.clarin.webanno.api.AnnotationSchemaService;
 import de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst;
@@ -46,6 +52,13 @@ import de.tudarmstadt.ukp.clarin.webanno.model.Project;
  */
 public final class TypeUtil
 {
+    private static final Logger LOG = LoggerFactory.getLogger(TypeUtil.class);
+
+    /**
+     * Key of the adapters in the derived schema data.
+     */
+    private static final String ADAPTERS = TypeUtil.class.getName() + ".adapters";
+
 	private TypeUtil() {
 		// No instances
 	}
@@ -71,36 +84,77 @@ public final class TypeUtil
         return layer;
 	}
 
+    /**
+     * Get the adapter for the given layer. The adapters of all layers of a project are created at
+     * once and shared until the schema of the project changes. Adapters cannot be reconfigured,
+     * so sharing them is safe.
+     * Layers which have not been saved yet get a new adapter on every call.
+     *
+     * @param aRepo
+     *            the annotation schema service.
+     * @param aLayer
+     *            the layer.
+     * @return the adapter.
+     */
     public static TypeAdapter getAdapter(AnnotationSchemaService aRepo, AnnotationLayer aLayer)
+    {
+        if (aLayer.getId() != 0 && aLayer.getProject() != null) {
+            Map<Long, TypeAdapter> adapters = aRepo.getDerivedSchemaData(aLayer.getProject(),
+                    ADAPTERS, project -> createAdapters(aRepo, project));
+            TypeAdapter adapter = adapters != null ? adapters.get(aLayer.getId()) : null;
+            if (adapter != null) {
+                return adapter;
+            }
+        }
+
+        return getAdapter(aLayer, aRepo.listAnnotationFeature(aLayer));
+    }
+
+    private static Map<Long, TypeAdapter> createAdapters(AnnotationSchemaService aRepo,
+            Project aProject)
+    {
+        Map<Long, TypeAdapter> adapters = new HashMap<>();
+        for (Entry<AnnotationLayer, List<AnnotationFeature>> e : aRepo
+                .listAnnotationFeaturesByLayer(aProject).entrySet()) {
+            try {
+                adapters.put(e.getKey().getId(), getAdapter(e.getKey(), e.getValue()));
+            }
+            catch (RuntimeException ex) {
+                // Broken layers fail again when their adapter is actually requested - until then
+                // they should not affect the other layers
+                LOG.debug("Unable to create adapter for layer [{}]({})", e.getKey().getName(),
+                        e.getKey().getId(), ex);
+            }
+        }
+        return Collections.unmodifiableMap(adapters);
+    }
+
+    /**
+     * Get the adapter for a layer whose features have already been fetched, e.g. using
+     * {@link AnnotationSchemaService#listAnnotationFeaturesByLayer(Project)}.
+     *
+     * @param aLayer
+     *            the layer.
+     * @param aFeatures
+     *            all features of the layer.
+     * @return the adapter.
+     */
+    public static TypeAdapter getAdapter(AnnotationLayer aLayer,
+            List<AnnotationFeature> aFeatures)
     {
         if (aLayer.getType().equals(WebAnnoConst.SPAN_TYPE)) {
-            SpanAdapter adapter = new SpanAdapter(aLayer, aRepo.listAnnotationFeature(aLayer));
-            adapter.setLockToTokenOffsets(aLayer.isLockToTokenOffset());
-            adapter.setAllowStacking(aLayer.isAllowStacking());
-            adapter.setAllowMultipleToken(aLayer.isMultipleTokens());
-            adapter.setCrossMultipleSentence(aLayer.isCrossSentence());
-            return adapter;
+            return new SpanAdapter(aLayer, aFeatures);
         }
         else if (aLayer.getType().equals(WebAnnoConst.RELATION_TYPE)) {
-            ArcAdapter adapter = new ArcAdapter(aLayer, aLayer.getId(), aLayer.getName(),
+            return new ArcAdapter(aLayer, aLayer.getId(), aLayer.getName(),
                     WebAnnoConst.FEAT_REL_TARGET, WebAnnoConst.FEAT_REL_SOURCE,
                     aLayer.getAttachFeature() == null ? null : aLayer.getAttachFeature().getName(),
-                    aLayer.getAttachType().getName(), aRepo.listAnnotationFeature(aLayer));
-
-            adapter.setCrossMultipleSentence(aLayer.isCrossSentence());
-            adapter.setAllowStacking(aLayer.isAllowStacking());
-
-            return adapter;
+                    aLayer.getAttachType().getName(), aFeatures);
             // default is chain (based on operation, change to CoreferenceLinK)
         }
         else if (aLayer.getType().equals(WebAnnoConst.CHAIN_TYPE)) {
-            ChainAdapter adapter = new ChainAdapter(aLayer, aLayer.getId(), aLayer.getName()
-                    + ChainAdapter.CHAIN, aLayer.getName(), "first", "next",
-                    aRepo.listAnnotationFeature(aLayer));
-
-            adapter.setLinkedListBehavior(aLayer.isLinkedListBehavior());
-
-            return adapter;
+            return new ChainAdapter(aLayer, aLayer.getId(), aLayer.getName()
+                    + ChainAdapter.CHAIN, aLayer.getName(), "first", "next", aFeatures);
         }
         else {
             throw new IllegalArgumentException("No adapter for type with name [" + aLayer.getName()
@@ -21,27 +21,44 @@ import static de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst.CHAIN_TYPE;
 import static de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst.RELATION_TYPE;
 import static de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst.SPAN_TYPE;
 import static java.util.Arrays.asList;
+import static java.util.Comparator.comparing;
+import static java.util.Comparator.naturalOrder;
+import static java.util.Comparator.nullsFirst;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.zip.ZipFile;
 
+import javax.annotation.Resource;
 import javax.persistence.EntityManager;
 import javax.persistence.NoResultException;
 import javax.persistence.PersistenceContext;
 
+import org.apache.commons.lang3.SerializationUtils;
+import org.hibernate.annotations.QueryHints;
 import org.apache.uima.UIMAException;
 import org.apache.uima.cas.CAS;
 import org.apache.uima.cas.TypeSystem;
 import org.apache.uima.cas.impl.CASCompleteSerializer;
 import org.apache.uima.cas.impl.CASImpl;
 import org.apache.uima.cas.impl.Serialization;
-import org.apache.uima.fit.factory.JCasFactory;
 import org.apache.uima.fit.factory.TypeSystemDescriptionFactory;
+import org.apache.uima.resource.ResourceInitializationException;
 import org.apache.uima.resource.metadata.TypeDescription;
 import org.apache.uima.resource.metadata.TypeSystemDescription;
 import org.apache.uima.resource.metadata.impl.TypeSystemDescription_impl;
@@ -52,6 +69,8 @@ import org.slf4j.MDC;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.core.io.ClassPathResource;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import de.tudarmstadt.ukp.clarin.webanno.api.AnnotationSchemaService;
 import de.tudarmstadt.ukp.clarin.webanno.api.ProjectLifecycleAware;
@@ -75,6 +94,12 @@ import de.tudarmstadt.ukp.dkpro.core.api.syntax.type.dependency.DependencyFlavor
 
 /**
  * Implementation of methods defined in the {@link AnnotationSchemaService} interface
+ * <p>
+ * The layers, features, tagsets and tags of a project are read from the database at once into a
+ * {@link ProjectSchema snapshot} which serves the project-related lookups until the schema of
+ * the project changes. The entities of the snapshot are handed out directly and are shared by
+ * all callers, so they must not be modified. Code which edits an entity, e.g. in the project
+ * settings, has to work on a copy of it.
  */
 public class AnnotationSchemaServiceImpl
     implements AnnotationSchemaService, ProjectLifecycleAware
@@ -87,17 +112,44 @@ public class AnnotationSchemaServiceImpl
     @PersistenceContext
     private EntityManager entityManager;
 
+    @Resource(name = "storageMetrics")
+    private StorageMetrics metrics = new StorageMetrics();
+
+    private final AtomicLong schemaVersionCounter = new AtomicLong();
+    private final Map<Long, Long> schemaVersions = new ConcurrentHashMap<>();
+    private final Map<Long, ProjectTypeSystem> typeSystems = new ConcurrentHashMap<>();
+    private final Map<Long, ProjectSchema> schemas = new ConcurrentHashMap<>();
+    private final ThreadLocal<Map<Long, ProjectSchema>> privateSchemas = ThreadLocal
+            .withInitial(HashMap::new);
+    private volatile TypeSystemDescription builtInTypes;
+
     public AnnotationSchemaServiceImpl()
     {
         // Nothing to do
     }
 
+    /**
+     * This constructor must only be used for unit tests.
+     */
+    AnnotationSchemaServiceImpl(EntityManager aEntityManager)
+    {
+        this();
+        entityManager = aEntityManager;
+    }
+
     @Override
     @Transactional
     public void createTag(Tag aTag)
         throws IOException
     {
-        entityManager.persist(aTag);
+        if (aTag.getId() == 0) {
+            entityManager.persist(aTag);
+        }
+        else {
+            entityManager.merge(aTag);
+        }
+
+        schemaChanged(aTag.getTagSet().getProject(), schema -> schema.putTag(aTag));
 
         try (MDC.MDCCloseable closable = MDC.putCloseable(Logging.KEY_PROJECT_ID,
                 String.valueOf(aTag.getTagSet().getProject().getId()))) {
@@ -122,6 +174,8 @@ public class AnnotationSchemaServiceImpl
             entityManager.merge(aTagSet);
         }
         
+        schemaChanged(aTagSet.getProject(), schema -> schema.putTagSet(aTagSet));
+        
         try (MDC.MDCCloseable closable = MDC.putCloseable(Logging.KEY_PROJECT_ID,
                 String.valueOf(aTagSet.getProject().getId()))) {
             Project project = aTagSet.getProject();
@@ -142,6 +196,8 @@ public class AnnotationSchemaServiceImpl
             entityManager.merge(aLayer);
         }
         
+        schemaChanged(aLayer.getProject(), schema -> schema.putLayer(aLayer));
+        
         try (MDC.MDCCloseable closable = MDC.putCloseable(Logging.KEY_PROJECT_ID,
                 String.valueOf(aLayer.getProject().getId()))) {
             Project project = aLayer.getProject();
@@ -160,15 +216,21 @@ public class AnnotationSchemaServiceImpl
         else {
             entityManager.merge(aFeature);
         }
+        
+        schemaChanged(aFeature.getProject(), schema -> schema.putFeature(aFeature));
     }
 
     @Override
     @Transactional
     public Tag getTag(String aTagName, TagSet aTagSet)
     {
-        return entityManager
-                .createQuery("FROM Tag WHERE name = :name AND" + " tagSet =:tagSet", Tag.class)
-                .setParameter("name", aTagName).setParameter("tagSet", aTagSet).getSingleResult();
+        for (Tag tag : getSchema(aTagSet.getProject()).getTags(aTagSet)) {
+            if (Objects.equals(aTagName, tag.getName())) {
+                return tag;
+            }
+        }
+        throw new NoResultException("No tag [" + aTagName + "] in tagset [" + aTagSet.getName()
+                + "]");
     }
 
     @Override
@@ -189,15 +251,11 @@ public class AnnotationSchemaServiceImpl
     public boolean existsTagSet(String aName, Project aProject)
     {
         try {
-            entityManager
-                    .createQuery("FROM TagSet WHERE name = :name AND project = :project",
-                            TagSet.class).setParameter("name", aName)
-                    .setParameter("project", aProject).getSingleResult();
+            getTagSet(aName, aProject);
             return true;
         }
         catch (NoResultException e) {
             return false;
-
         }
     }
 
@@ -205,34 +263,19 @@ public class AnnotationSchemaServiceImpl
     @Transactional(noRollbackFor = NoResultException.class)
     public boolean existsTagSet(Project aProject)
     {
-        try {
-            entityManager.createQuery("FROM TagSet WHERE  project = :project", TagSet.class)
-                    .setParameter("project", aProject).getSingleResult();
-            return true;
-        }
-        catch (NoResultException e) {
-            return false;
-
-        }
+        return !getSchema(aProject).tagSets.isEmpty();
     }
 
     @Override
     @Transactional(noRollbackFor = NoResultException.class)
     public boolean existsLayer(String aName, String aType, Project aProject)
     {
-        try {
-            entityManager
-                    .createQuery(
-                            "FROM AnnotationLayer WHERE name = :name AND type = :type AND project = :project",
-                            AnnotationLayer.class).setParameter("name", aName)
-                    .setParameter("type", aType).setParameter("project", aProject)
-                    .getSingleResult();
-            return true;
-        }
-        catch (NoResultException e) {
-            return false;
-
+        for (AnnotationLayer layer : getSchema(aProject).layers) {
+            if (Objects.equals(aName, layer.getName()) && Objects.equals(aType, layer.getType())) {
+                return true;
+            }
         }
+        return false;
     }
 
     @Override
@@ -240,15 +283,11 @@ public class AnnotationSchemaServiceImpl
     {
 
         try {
-            entityManager
-                    .createQuery("FROM AnnotationFeature WHERE name = :name AND layer = :layer",
-                            AnnotationFeature.class).setParameter("name", aName)
-                    .setParameter("layer", aLayer).getSingleResult();
+            getFeature(aName, aLayer);
             return true;
         }
         catch (NoResultException e) {
             return false;
-
         }
     }
 
@@ -256,55 +295,86 @@ public class AnnotationSchemaServiceImpl
     @Transactional
     public TagSet getTagSet(String aName, Project aProject)
     {
-        return entityManager
-                .createQuery("FROM TagSet WHERE name = :name AND project =:project", TagSet.class)
-                .setParameter("name", aName).setParameter("project", aProject).getSingleResult();
+        for (TagSet tagSet : getSchema(aProject).tagSets) {
+            if (Objects.equals(aName, tagSet.getName())) {
+                return tagSet;
+            }
+        }
+        throw new NoResultException("No tagset [" + aName + "] in project ["
+                + aProject.getName() + "]");
     }
 
     @Override
     @Transactional
     public TagSet getTagSet(long aId)
     {
+        for (ProjectSchema schema : getCurrentSchemas()) {
+            TagSet tagSet = schema.tagSetsById.get(aId);
+            if (tagSet != null) {
+                return tagSet;
+            }
+        }
+
         return entityManager.createQuery("FROM TagSet WHERE id = :id", TagSet.class)
-                .setParameter("id", aId).getSingleResult();
+                .setParameter("id", aId).setHint(QueryHints.CACHEABLE, true).getSingleResult();
     }
 
     @Override
     @Transactional
     public AnnotationLayer getLayer(long aId)
     {
+        for (ProjectSchema schema : getCurrentSchemas()) {
+            AnnotationLayer layer = schema.layersById.get(aId);
+            if (layer != null) {
+                return layer;
+            }
+        }
+
         return entityManager
                 .createQuery("FROM AnnotationLayer WHERE id = :id", AnnotationLayer.class)
-                .setParameter("id", aId).getSingleResult();
+                .setParameter("id", aId).setHint(QueryHints.CACHEABLE, true).getSingleResult();
     }
 
     @Override
     @Transactional(noRollbackFor = NoResultException.class)
     public AnnotationLayer getLayer(String aName, Project aProject)
     {
-        return entityManager
-                .createQuery("From AnnotationLayer where name = :name AND project =:project",
-                        AnnotationLayer.class).setParameter("name", aName)
-                .setParameter("project", aProject).getSingleResult();
+        for (AnnotationLayer layer : getSchema(aProject).layers) {
+            if (Objects.equals(aName, layer.getName())) {
+                return layer;
+            }
+        }
+        throw new NoResultException("No layer [" + aName + "] in project ["
+                + aProject.getName() + "]");
     }
 
     @Override
     @Transactional(noRollbackFor = NoResultException.class)
     public AnnotationFeature getFeature(long aId)
     {
+        for (ProjectSchema schema : getCurrentSchemas()) {
+            AnnotationFeature feature = schema.featuresById.get(aId);
+            if (feature != null) {
+                return feature;
+            }
+        }
+
         return entityManager
                 .createQuery("From AnnotationFeature where id = :id", AnnotationFeature.class)
-                .setParameter("id", aId).getSingleResult();
+                .setParameter("id", aId).setHint(QueryHints.CACHEABLE, true).getSingleResult();
     }
 
     @Override
     @Transactional(noRollbackFor = NoResultException.class)
     public AnnotationFeature getFeature(String aName, AnnotationLayer aLayer)
     {
-        return entityManager
-                .createQuery("From AnnotationFeature where name = :name AND layer = :layer",
-                        AnnotationFeature.class).setParameter("name", aName)
-                .setParameter("layer", aLayer).getSingleResult();
+        for (AnnotationFeature feature : getSchema(aLayer.getProject()).getFeatures(aLayer)) {
+            if (Objects.equals(aName, feature.getName())) {
+                return feature;
+            }
+        }
+        throw new NoResultException("No feature [" + aName + "] on layer [" + aLayer.getName()
+                + "]");
     }
 
     @Override
@@ -729,38 +799,45 @@ public class AnnotationSchemaServiceImpl
     @Transactional
     public List<AnnotationLayer> listAnnotationLayer(Project aProject)
     {
-        return entityManager
-                .createQuery("FROM AnnotationLayer WHERE project =:project ORDER BY uiName",
-                        AnnotationLayer.class).setParameter("project", aProject).getResultList();
+        return new ArrayList<>(getSchema(aProject).layers);
     }
 
     @Override
     @Transactional
     public List<AnnotationLayer> listAttachedRelationLayers(AnnotationLayer aLayer)
     {
-        return entityManager
-                .createQuery(
-                        "SELECT l FROM AnnotationLayer l LEFT JOIN l.attachFeature f "
-                        + "WHERE l.type = :type AND "
-                        + "(l.attachType = :attachType OR f.type = :attachTypeName) "
-                        + "ORDER BY l.uiName",
-                        AnnotationLayer.class).setParameter("type", RELATION_TYPE)
-                .setParameter("attachType", aLayer)
-                .setParameter("attachTypeName", aLayer.getName()).getResultList();
+        List<AnnotationLayer> layers = new ArrayList<>();
+        for (AnnotationLayer layer : getSchema(aLayer.getProject()).layers) {
+            if (!RELATION_TYPE.equals(layer.getType())) {
+                continue;
+            }
+
+            boolean attachedToLayer = layer.getAttachType() != null
+                    && layer.getAttachType().getId() == aLayer.getId();
+            boolean attachedToFeature = layer.getAttachFeature() != null
+                    && Objects.equals(aLayer.getName(), layer.getAttachFeature().getType());
+            if (attachedToLayer || attachedToFeature) {
+                layers.add(layer);
+            }
+        }
+        return layers;
     }
 
     @Override
     @Transactional
     public List<AnnotationFeature> listAttachedLinkFeatures(AnnotationLayer aLayer)
     {
-        return entityManager
-                .createQuery(
-                        "FROM AnnotationFeature WHERE linkMode in (:modes) AND project = :project AND "
-                                + "type in (:attachType) ORDER BY uiName", AnnotationFeature.class)
-                .setParameter("modes", asList(LinkMode.SIMPLE, LinkMode.WITH_ROLE))
-                .setParameter("attachType", asList(aLayer.getName(), CAS.TYPE_NAME_ANNOTATION))
-                // Checking for project is necessary because type match is string-based
-                .setParameter("project", aLayer.getProject()).getResultList();
+        // Checking for project is necessary because type match is string-based
+        List<LinkMode> modes = asList(LinkMode.SIMPLE, LinkMode.WITH_ROLE);
+        List<String> attachTypes = asList(aLayer.getName(), CAS.TYPE_NAME_ANNOTATION);
+        List<AnnotationFeature> features = new ArrayList<>();
+        for (AnnotationFeature feature : getSchema(aLayer.getProject()).features) {
+            if (modes.contains(feature.getLinkMode())
+                    && attachTypes.contains(feature.getType())) {
+                features.add(feature);
+            }
+        }
+        return features;
     }
 
     @Override
@@ -771,19 +848,44 @@ public class AnnotationSchemaServiceImpl
             return new ArrayList<AnnotationFeature>();
         }
 
-        return entityManager
-                .createQuery("FROM AnnotationFeature  WHERE layer =:layer ORDER BY uiName",
-                        AnnotationFeature.class).setParameter("layer", aLayer).getResultList();
+        return new ArrayList<>(getSchema(aLayer.getProject()).getFeatures(aLayer));
     }
 
     @Override
     @Transactional
     public List<AnnotationFeature> listAnnotationFeature(Project aProject)
     {
-        return entityManager
-                .createQuery(
-                        "FROM AnnotationFeature f WHERE project =:project ORDER BY f.layer.uiName, f.uiName",
-                        AnnotationFeature.class).setParameter("project", aProject).getResultList();
+        ProjectSchema schema = getSchema(aProject);
+        List<AnnotationFeature> features = new ArrayList<>();
+        for (AnnotationLayer layer : schema.layers) {
+            features.addAll(schema.getFeatures(layer));
+        }
+        return features;
+    }
+
+    @Override
+    @Transactional
+    public Map<AnnotationLayer, List<AnnotationFeature>> listAnnotationFeaturesByLayer(
+            Project aProject)
+    {
+        ProjectSchema schema = getSchema(aProject);
+        Map<AnnotationLayer, List<AnnotationFeature>> result = new LinkedHashMap<>();
+        for (AnnotationLayer layer : schema.layers) {
+            result.put(layer, new ArrayList<>(schema.getFeatures(layer)));
+        }
+        return result;
+    }
+
+    @Override
+    @Transactional
+    public Map<TagSet, List<Tag>> listTagsByTagSet(Project aProject)
+    {
+        ProjectSchema schema = getSchema(aProject);
+        Map<TagSet, List<Tag>> result = new LinkedHashMap<>();
+        for (TagSet tagSet : schema.tagSets) {
+            result.put(tagSet, new ArrayList<>(schema.getTags(tagSet)));
+        }
+        return result;
     }
 
     @Override
@@ -797,14 +899,7 @@ public class AnnotationSchemaServiceImpl
     @Transactional
     public List<Tag> listTags(TagSet aTagSet)
     {
-        List<Tag> tags = entityManager
-                .createQuery("FROM Tag WHERE tagSet = :tagSet ORDER BY name ASC", Tag.class)
-                .setParameter("tagSet", aTagSet).getResultList();
-        // FIXME ?!? This loop appears to make absolutely not sense!
-        for (int i = 0; i < tags.size(); i++) {
-            tags.get(i).setName(tags.get(i).getName());
-        }
-        return tags;
+        return new ArrayList<>(getSchema(aTagSet.getProject()).getTags(aTagSet));
     }
 
     @Override
@@ -819,16 +914,16 @@ public class AnnotationSchemaServiceImpl
     @Transactional(noRollbackFor = NoResultException.class)
     public List<TagSet> listTagSets(Project aProject)
     {
-        return entityManager
-                .createQuery("FROM TagSet where project = :project ORDER BY name ASC", TagSet.class)
-                .setParameter("project", aProject).getResultList();
+        return new ArrayList<>(getSchema(aProject).tagSets);
     }
 
     @Override
     @Transactional
     public void removeTag(Tag aTag)
     {
-        entityManager.remove(aTag);
+        entityManager.remove(entityManager.merge(aTag));
+        
+        schemaChanged(aTag.getTagSet().getProject(), schema -> schema.removeTag(aTag));
     }
 
     @Override
@@ -836,31 +931,39 @@ public class AnnotationSchemaServiceImpl
     public void removeTagSet(TagSet aTagSet)
     {
         for (Tag tag : listTags(aTagSet)) {
-            entityManager.remove(tag);
+            entityManager.remove(entityManager.merge(tag));
         }
-        entityManager.remove(aTagSet);
+        entityManager.remove(entityManager.merge(aTagSet));
+        
+        schemaChanged(aTagSet.getProject(), schema -> schema.removeTagSet(aTagSet));
     }
 
     @Override
     @Transactional
     public void removeAnnotationFeature(AnnotationFeature aFeature)
     {
-        entityManager.remove(aFeature);
+        entityManager.remove(entityManager.merge(aFeature));
+        
+        schemaChanged(aFeature.getProject(), schema -> schema.removeFeature(aFeature));
     }
 
     @Override
     @Transactional
     public void removeAnnotationLayer(AnnotationLayer aLayer)
     {
-        entityManager.remove(aLayer);
+        entityManager.remove(entityManager.merge(aLayer));
+        
+        schemaChanged(aLayer.getProject(), schema -> schema.removeLayer(aLayer));
     }
 
 	@Override
 	@Transactional
 	public void removeAllTags(TagSet aTagSet) {
 		for (Tag tag : listTags(aTagSet)) {
-			entityManager.remove(tag);
+			entityManager.remove(entityManager.merge(tag));
 		}
+		
+		schemaChanged(aTagSet.getProject(), schema -> schema.removeTags(aTagSet));
 	}
 	
     @Override
@@ -868,11 +971,12 @@ public class AnnotationSchemaServiceImpl
     {
         // Create a new type system from scratch
         List<TypeSystemDescription> types = new ArrayList<TypeSystemDescription>();
-        for (AnnotationLayer type : listAnnotationLayer(aProject)) {
+        ProjectSchema schema = getSchema(aProject);
+        for (AnnotationLayer type : schema.layers) {
             if (type.getType().equals(SPAN_TYPE) && !type.isBuiltIn()) {
                 TypeSystemDescription tsd = new TypeSystemDescription_impl();
                 TypeDescription td = tsd.addType(type.getName(), "", CAS.TYPE_NAME_ANNOTATION);
-                List<AnnotationFeature> features = listAnnotationFeature(type);
+                List<AnnotationFeature> features = schema.getFeatures(type);
                 for (AnnotationFeature feature : features) {
                     generateFeature(tsd, td, feature);
                 }
@@ -887,7 +991,7 @@ public class AnnotationSchemaServiceImpl
                 td.addFeature(WebAnnoConst.FEAT_REL_TARGET, "", attachType.getName());
                 td.addFeature(WebAnnoConst.FEAT_REL_SOURCE, "", attachType.getName());
 
-                List<AnnotationFeature> features = listAnnotationFeature(type);
+                List<AnnotationFeature> features = schema.getFeatures(type);
                 for (AnnotationFeature feature : features) {
                     generateFeature(tsd, td, feature);
                 }
@@ -946,19 +1050,230 @@ public class AnnotationSchemaServiceImpl
         }
     }
 
+    @Override
+    public TypeSystemDescription getFullProjectTypeSystem(Project aProject)
+        throws ResourceInitializationException
+    {
+        return getProjectTypeSystem(aProject).description;
+    }
+
+    @Override
+    public CAS createProjectCas(Project aProject)
+        throws ResourceInitializationException
+    {
+        return CasCreationUtils.createCas(getProjectTypeSystem(aProject).typeSystem, null, null,
+                null);
+    }
+
+    @Override
+    public long getSchemaVersion(Project aProject)
+    {
+        Long version = schemaVersions.get(aProject.getId());
+        return version != null ? version : 0;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T getDerivedSchemaData(Project aProject, Object aKey, Function<Project, T> aLoader)
+    {
+        // Stored with the snapshot, so it is discarded along with it. Within a transaction which
+        // changes the schema, the private snapshot drops the data whenever it is updated.
+        return (T) getSchema(aProject).derivedData.computeIfAbsent(aKey,
+                k -> aLoader.apply(aProject));
+    }
+
+    /**
+     * Mark the schema of the given project as changed. The version is changed again when the
+     * current transaction completes, so that a type system built concurrently from the data
+     * before the commit is not used any further.
+     * 
+     * @param aUpdate
+     *            applies the change to the private snapshot of the current transaction, so the
+     *            snapshot does not have to be loaded again from the database after every change.
+     */
+    private void schemaChanged(Project aProject, Consumer<ProjectSchema> aUpdate)
+    {
+        long projectId = aProject.getId();
+        schemaVersions.put(projectId, schemaVersionCounter.incrementAndGet());
+
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            return;
+        }
+        
+        // Until the transaction completes, only the transaction itself may see the changes
+        Map<Long, ProjectSchema> changed = privateSchemas.get();
+        if (changed.isEmpty()) {
+            TransactionSynchronizationManager
+                    .registerSynchronization(new TransactionSynchronizationAdapter()
+                    {
+                        @Override
+                        public void afterCompletion(int aStatus)
+                        {
+                            for (Long id : changed.keySet()) {
+                                schemaVersions.put(id, schemaVersionCounter.incrementAndGet());
+                            }
+                            privateSchemas.remove();
+                        }
+                    });
+        }
+        
+        ProjectSchema schema = changed.get(projectId);
+        if (schema != null) {
+            aUpdate.accept(schema);
+        }
+        else {
+            // Not loaded yet - it is loaded including the change when it is first needed
+            changed.put(projectId, null);
+        }
+    }
+
+    /**
+     * Get the schema snapshot of the given project. If the schema has changed since the snapshot
+     * was taken, a new snapshot replaces the old one. Within a transaction which changes the
+     * schema, a private snapshot is used which is not shared with other threads. It is loaded
+     * once and then kept up-to-date with the changes made by the transaction.
+     */
+    private ProjectSchema getSchema(Project aProject)
+    {
+        long version = getSchemaVersion(aProject);
+        Map<Long, ProjectSchema> changed = privateSchemas.get();
+        boolean inTransaction = changed.containsKey(aProject.getId());
+
+        ProjectSchema schema = inTransaction ? changed.get(aProject.getId())
+                : schemas.get(aProject.getId());
+        if (schema != null && (inTransaction || schema.version == version)) {
+            return schema;
+        }
+
+        long start = System.currentTimeMillis();
+        schema = loadSchema(aProject, version);
+        if (inTransaction) {
+            changed.put(aProject.getId(), schema);
+        }
+        else {
+            schemas.put(aProject.getId(), schema);
+        }
+
+        log.debug("Loaded schema of project [{}]({}) at schema version {} in {}ms",
+                aProject.getName(), aProject.getId(), version,
+                System.currentTimeMillis() - start);
+
+        return schema;
+    }
+
+    /**
+     * @return the snapshots which are up-to-date and visible to the current thread.
+     */
+    private List<ProjectSchema> getCurrentSchemas()
+    {
+        Map<Long, ProjectSchema> changed = privateSchemas.get();
+        List<ProjectSchema> current = new ArrayList<>();
+        for (ProjectSchema schema : schemas.values()) {
+            Long version = schemaVersions.get(schema.projectId);
+            if (schema.version == (version != null ? version : 0)
+                    && !changed.containsKey(schema.projectId)) {
+                current.add(schema);
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Read the schema of the given project from the database.
+     */
+    @SuppressWarnings("unchecked")
+    ProjectSchema loadSchema(Project aProject, long aVersion)
+    {
+        List<AnnotationLayer> layers = entityManager
+                .createQuery("FROM AnnotationLayer WHERE project = :project ORDER BY uiName",
+                        AnnotationLayer.class)
+                .setParameter("project", aProject).setHint(QueryHints.CACHEABLE, true)
+                .getResultList();
+        List<AnnotationFeature> features = entityManager
+                .createQuery("FROM AnnotationFeature WHERE project = :project ORDER BY uiName",
+                        AnnotationFeature.class)
+                .setParameter("project", aProject).setHint(QueryHints.CACHEABLE, true)
+                .getResultList();
+        List<TagSet> tagSets = entityManager
+                .createQuery("FROM TagSet WHERE project = :project ORDER BY name ASC",
+                        TagSet.class)
+                .setParameter("project", aProject).setHint(QueryHints.CACHEABLE, true)
+                .getResultList();
+        List<Tag> tags = entityManager
+                .createQuery("FROM Tag WHERE tagSet.project = :project ORDER BY name ASC",
+                        Tag.class)
+                .setParameter("project", aProject).setHint(QueryHints.CACHEABLE, true)
+                .getResultList();
+
+        // The snapshot must not share instances with the persistence context, otherwise merging
+        // changes in a transaction would modify the snapshot before the changes are committed.
+        // Copying everything at once makes the features refer to the layers of the snapshot and
+        // the tags to its tagsets.
+        Object[] copies = SerializationUtils.clone(new Object[] { new ArrayList<>(layers),
+                new ArrayList<>(features), new ArrayList<>(tagSets), new ArrayList<>(tags) });
+        return new ProjectSchema(aProject.getId(), aVersion, (List<AnnotationLayer>) copies[0],
+                (List<AnnotationFeature>) copies[1], (List<TagSet>) copies[2],
+                (List<Tag>) copies[3]);
+    }
+
+    private static <T extends Serializable> T copy(T aEntity)
+    {
+        return SerializationUtils.clone(aEntity);
+    }
+
+    private ProjectTypeSystem getProjectTypeSystem(Project aProject)
+        throws ResourceInitializationException
+    {
+        long version = getSchemaVersion(aProject);
+        ProjectTypeSystem ts = typeSystems.get(aProject.getId());
+        if (ts != null && ts.version == version) {
+            return ts;
+        }
+
+        // Scanning the classpath for the built-in types is expensive and they do not change at
+        // runtime, so we do it only once. The merging below must not see the shared instance.
+        if (builtInTypes == null) {
+            builtInTypes = TypeSystemDescriptionFactory.createTypeSystemDescription();
+        }
+
+        List<TypeSystemDescription> projectTypes = getProjectTypes(aProject);
+        projectTypes.add((TypeSystemDescription) builtInTypes.clone());
+        TypeSystemDescription allTypes = CasCreationUtils.mergeTypeSystems(projectTypes);
+
+        // Prepare template for new CASes
+        CAS newCas = CasCreationUtils.createCas(allTypes, null, null);
+        CASCompleteSerializer template = Serialization.serializeCASComplete((CASImpl) newCas);
+
+        ts = new ProjectTypeSystem(version, allTypes, newCas.getTypeSystem(),
+                CasPersistenceUtils.getFingerprint(newCas), template);
+        typeSystems.put(aProject.getId(), ts);
+
+        log.debug("Created type system for project [{}]({}) at schema version {}",
+                aProject.getName(), aProject.getId(), version);
+
+        return ts;
+    }
+
     @Override
     public void upgradeCas(CAS aCas, SourceDocument aSourceDocument, String aUser)
         throws UIMAException, IOException
     {
-        TypeSystemDescription builtInTypes = TypeSystemDescriptionFactory
-                .createTypeSystemDescription();
-        List<TypeSystemDescription> projectTypes = getProjectTypes(aSourceDocument.getProject());
-        projectTypes.add(builtInTypes);
-        TypeSystemDescription allTypes = CasCreationUtils.mergeTypeSystems(projectTypes);
+        ProjectTypeSystem projectTypeSystem = getProjectTypeSystem(aSourceDocument.getProject());
+
+        // If the CAS already uses the current type system of the project, there is nothing to
+        // upgrade. CASes read from the repository share the type system instance of their
+        // fingerprint, so the expensive part of the fingerprint is usually computed only once.
+        if (projectTypeSystem.fingerprint
+                .equals(CasPersistenceUtils.getFingerprint(aCas))) {
+            log.debug("CAS of user [{}] for document [{}]({}) is up-to-date", aUser,
+                    aSourceDocument.getName(), aSourceDocument.getId());
+            return;
+        }
+
+        long start = System.nanoTime();
 
         // Prepare template for new CAS
-        CAS newCas = JCasFactory.createJCas(allTypes).getCas();
-        CASCompleteSerializer serializer = Serialization.serializeCASComplete((CASImpl) newCas);
+        CASCompleteSerializer serializer = projectTypeSystem.template;
 
         // Save old type system
         TypeSystem oldTypeSystem = aCas.getTypeSystem();
@@ -977,6 +1292,9 @@ public class AnnotationSchemaServiceImpl
         // Make sure JCas is properly initialized too
         aCas.getJCas();
 
+        metrics.record(StorageMetrics.Operation.UPGRADE, aSourceDocument, aUser,
+                System.nanoTime() - start, os2.size());
+
         try (MDC.MDCCloseable closable = MDC.putCloseable(
                 Logging.KEY_PROJECT_ID,
                 String.valueOf(aSourceDocument.getProject().getId()))) {
@@ -1012,6 +1330,9 @@ public class AnnotationSchemaServiceImpl
         for (TagSet tagSet : listTagSets(aProject)) {
             removeTagSet(tagSet);
         }
+
+        typeSystems.remove(aProject.getId());
+        schemas.remove(aProject.getId());
     }
 
     @Override
@@ -1023,4 +1344,273 @@ public class AnnotationSchemaServiceImpl
     {
         // Nothing at the moment
     }
+
+    /**
+     * The layers, features, tagsets and tags of a project at a given schema version. A shared
+     * snapshot is not modified after it has been created, except for adding data derived from it.
+     * Only the private snapshot of a transaction is updated with the changes the transaction makes.
+     */
+    static final class ProjectSchema
+    {
+        private static final Comparator<AnnotationLayer> LAYER_ORDER = comparing(
+                AnnotationLayer::getUiName, nullsFirst(naturalOrder()));
+        private static final Comparator<AnnotationFeature> FEATURE_ORDER = comparing(
+                AnnotationFeature::getUiName, nullsFirst(naturalOrder()));
+        private static final Comparator<TagSet> TAGSET_ORDER = comparing(TagSet::getName,
+                nullsFirst(naturalOrder()));
+        private static final Comparator<Tag> TAG_ORDER = comparing(Tag::getName,
+                nullsFirst(naturalOrder()));
+        
+        private final long projectId;
+        private final long version;
+        private final List<AnnotationLayer> layerList;
+        private final List<AnnotationFeature> featureList;
+        private final List<TagSet> tagSetList;
+        private final List<AnnotationLayer> layers;
+        private final List<AnnotationFeature> features;
+        private final List<TagSet> tagSets;
+        private final Map<Long, AnnotationLayer> layersById = new HashMap<>();
+        private final Map<Long, AnnotationFeature> featuresById = new HashMap<>();
+        private final Map<Long, TagSet> tagSetsById = new HashMap<>();
+        private final Map<Long, Tag> tagsById = new HashMap<>();
+        private final Map<Long, List<AnnotationFeature>> featuresByLayer = new HashMap<>();
+        private final Map<Long, List<Tag>> tagsByTagSet = new HashMap<>();
+        private final Map<Object, Object> derivedData = new ConcurrentHashMap<>();
+
+        /**
+         * @param aLayers
+         *            the layers ordered by their UI name.
+         * @param aFeatures
+         *            the features ordered by their UI name.
+         * @param aTagSets
+         *            the tagsets ordered by their name.
+         * @param aTags
+         *            the tags ordered by their name.
+         */
+        ProjectSchema(long aProjectId, long aVersion, List<AnnotationLayer> aLayers,
+                List<AnnotationFeature> aFeatures, List<TagSet> aTagSets, List<Tag> aTags)
+        {
+            projectId = aProjectId;
+            version = aVersion;
+            layerList = new ArrayList<>(aLayers);
+            featureList = new ArrayList<>(aFeatures);
+            tagSetList = new ArrayList<>(aTagSets);
+            layers = Collections.unmodifiableList(layerList);
+            features = Collections.unmodifiableList(featureList);
+            tagSets = Collections.unmodifiableList(tagSetList);
+
+            for (AnnotationLayer layer : layers) {
+                layersById.put(layer.getId(), layer);
+            }
+            for (TagSet tagSet : tagSets) {
+                tagSetsById.put(tagSet.getId(), tagSet);
+            }
+            for (AnnotationFeature feature : features) {
+                featuresById.put(feature.getId(), feature);
+                if (feature.getLayer() != null) {
+                    featuresByLayer
+                            .computeIfAbsent(feature.getLayer().getId(), k -> new ArrayList<>())
+                            .add(feature);
+                }
+            }
+            for (Tag tag : aTags) {
+                tagsById.put(tag.getId(), tag);
+                if (tag.getTagSet() != null) {
+                    tagsByTagSet.computeIfAbsent(tag.getTagSet().getId(), k -> new ArrayList<>())
+                            .add(tag);
+                }
+            }
+        }
+
+        /**
+         * @return the features of the given layer ordered by their UI name.
+         */
+        List<AnnotationFeature> getFeatures(AnnotationLayer aLayer)
+        {
+            List<AnnotationFeature> result = featuresByLayer.get(aLayer.getId());
+            return result != null ? Collections.unmodifiableList(result)
+                    : Collections.emptyList();
+        }
+
+        /**
+         * @return the tags of the given tagset ordered by their name.
+         */
+        List<Tag> getTags(TagSet aTagSet)
+        {
+            List<Tag> result = tagsByTagSet.get(aTagSet.getId());
+            return result != null ? Collections.unmodifiableList(result)
+                    : Collections.emptyList();
+        }
+
+        void putLayer(AnnotationLayer aLayer)
+        {
+            removeLayer(aLayer.getId(), false);
+            AnnotationLayer layer = copy(aLayer);
+            layersById.put(layer.getId(), layer);
+            insert(layerList, layer, LAYER_ORDER);
+            // Like in a loaded snapshot, the features refer to the layer instance of the snapshot
+            for (AnnotationFeature feature : featuresByLayer.getOrDefault(layer.getId(),
+                    Collections.emptyList())) {
+                feature.setLayer(layer);
+            }
+            derivedData.clear();
+        }
+
+        void removeLayer(AnnotationLayer aLayer)
+        {
+            removeLayer(aLayer.getId(), true);
+            derivedData.clear();
+        }
+
+        private void removeLayer(long aLayerId, boolean aWithFeatures)
+        {
+            if (layersById.remove(aLayerId) != null) {
+                layerList.removeIf(layer -> layer.getId() == aLayerId);
+            }
+            if (aWithFeatures) {
+                List<AnnotationFeature> removed = featuresByLayer.remove(aLayerId);
+                if (removed != null) {
+                    for (AnnotationFeature feature : removed) {
+                        featuresById.remove(feature.getId());
+                    }
+                    featureList.removeIf(feature -> feature.getLayer() != null
+                            && feature.getLayer().getId() == aLayerId);
+                }
+            }
+        }
+
+        void putFeature(AnnotationFeature aFeature)
+        {
+            removeFeature(aFeature.getId());
+            AnnotationFeature feature = copy(aFeature);
+            if (feature.getLayer() != null && layersById.containsKey(feature.getLayer().getId())) {
+                feature.setLayer(layersById.get(feature.getLayer().getId()));
+            }
+            featuresById.put(feature.getId(), feature);
+            insert(featureList, feature, FEATURE_ORDER);
+            if (feature.getLayer() != null) {
+                insert(featuresByLayer.computeIfAbsent(feature.getLayer().getId(),
+                        k -> new ArrayList<>()), feature, FEATURE_ORDER);
+            }
+            derivedData.clear();
+        }
+
+        void removeFeature(AnnotationFeature aFeature)
+        {
+            removeFeature(aFeature.getId());
+            derivedData.clear();
+        }
+
+        private void removeFeature(long aFeatureId)
+        {
+            AnnotationFeature old = featuresById.remove(aFeatureId);
+            if (old == null) {
+                return;
+            }
+            featureList.removeIf(feature -> feature == old);
+            if (old.getLayer() != null) {
+                List<AnnotationFeature> byLayer = featuresByLayer.get(old.getLayer().getId());
+                if (byLayer != null) {
+                    byLayer.removeIf(feature -> feature == old);
+                }
+            }
+        }
+
+        void putTagSet(TagSet aTagSet)
+        {
+            TagSet old = tagSetsById.remove(aTagSet.getId());
+            if (old != null) {
+                tagSetList.removeIf(tagSet -> tagSet == old);
+            }
+            TagSet tagSet = copy(aTagSet);
+            tagSetsById.put(tagSet.getId(), tagSet);
+            insert(tagSetList, tagSet, TAGSET_ORDER);
+            for (Tag tag : tagsByTagSet.getOrDefault(tagSet.getId(), Collections.emptyList())) {
+                tag.setTagSet(tagSet);
+            }
+            derivedData.clear();
+        }
+
+        void removeTagSet(TagSet aTagSet)
+        {
+            TagSet old = tagSetsById.remove(aTagSet.getId());
+            if (old != null) {
+                tagSetList.removeIf(tagSet -> tagSet == old);
+            }
+            removeTags(aTagSet);
+        }
+
+        void putTag(Tag aTag)
+        {
+            removeTag(aTag);
+            Tag tag = copy(aTag);
+            if (tag.getTagSet() != null && tagSetsById.containsKey(tag.getTagSet().getId())) {
+                tag.setTagSet(tagSetsById.get(tag.getTagSet().getId()));
+            }
+            tagsById.put(tag.getId(), tag);
+            if (tag.getTagSet() != null) {
+                insert(tagsByTagSet.computeIfAbsent(tag.getTagSet().getId(),
+                        k -> new ArrayList<>()), tag, TAG_ORDER);
+            }
+        }
+
+        void removeTag(Tag aTag)
+        {
+            // Look up the tagset in the snapshot since the tag may have been moved to another one
+            Tag old = tagsById.remove(aTag.getId());
+            if (old != null && old.getTagSet() != null) {
+                List<Tag> tags = tagsByTagSet.get(old.getTagSet().getId());
+                if (tags != null) {
+                    tags.removeIf(tag -> tag == old);
+                }
+            }
+            derivedData.clear();
+        }
+
+        void removeTags(TagSet aTagSet)
+        {
+            List<Tag> removed = tagsByTagSet.remove(aTagSet.getId());
+            if (removed != null) {
+                for (Tag tag : removed) {
+                    tagsById.remove(tag.getId());
+                }
+            }
+            derivedData.clear();
+        }
+
+        /**
+         * Insert the item after all items which are not ordered after it. Searching from the end
+         * keeps adding items in order cheap, e.g. when importing a tagset.
+         */
+        private static <T> void insert(List<T> aList, T aItem, Comparator<T> aOrder)
+        {
+            int i = aList.size();
+            while (i > 0 && aOrder.compare(aList.get(i - 1), aItem) > 0) {
+                i--;
+            }
+            aList.add(i, aItem);
+        }
+    }
+
+    /**
+     * The merged type system of a project at a given schema version.
+     */
+    private static final class ProjectTypeSystem
+    {
+        private final long version;
+        private final TypeSystemDescription description;
+        private final TypeSystem typeSystem;
+        private final String fingerprint;
+        private final CASCompleteSerializer template;
+
+        public ProjectTypeSystem(long aVersion, TypeSystemDescription aDescription,
+                TypeSystem aTypeSystem, String aFingerprint, CASCompleteSerializer aTemplate)
+        {
+            version = aVersion;
+            description = aDescription;
+            typeSystem = aTypeSystem;
+            fingerprint = aFingerprint;
+            template = aTemplate;
+        }
+    }
 }
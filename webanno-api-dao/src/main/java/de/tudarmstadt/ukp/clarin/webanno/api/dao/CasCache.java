@@ -0,0 +1,245 @@
+/*
+ * Copyright 2017
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.CasStorageBackend.Version;
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
+
+/**
+ * Bounded in-memory cache of serialized CASes keyed by document and user. The least recently
+ * used entries are evicted when either the maximum number of entries or the memory budget is
+ * exceeded.
+ * <p>
+ * Each entry remembers the version of the stored CAS it was loaded from or written to. An entry
+ * is only served if the stored CAS has not changed since, so modifications made to the repository
+ * behind the back of the cache (e.g. by an import) are picked up.
+ * <p>
+ * The cache only holds the serialized data, so every caller deserializes its own CAS instance.
+ * CASes are not thread-safe, and changes made by one caller must not become visible to others
+ * before they have been written. A hit thus saves reading the CAS from the storage backend and
+ * running the CAS doctor on it, but not the deserialization. Callers must hold the lock of the
+ * respective CAS in the {@link CasStorageServiceImpl} when accessing the cache.
+ */
+public class CasCache
+{
+    private final int maxEntries;
+    private final long maxSize;
+
+    private final Map<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long size = 0;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * @param aMaxEntries
+     *            the maximum number of CASes in the cache. If this is {@code 0}, the cache is
+     *            disabled.
+     * @param aMaxSize
+     *            the maximum size (in bytes) of the serialized CASes in the cache.
+     */
+    public CasCache(int aMaxEntries, long aMaxSize)
+    {
+        maxEntries = aMaxEntries;
+        maxSize = aMaxSize;
+    }
+
+    /**
+     * Get the cached CAS for the given document and user if it is still current with respect to
+     * the given version of the stored CAS.
+     *
+     * @return the serialized CAS or {@code null} if there is no current CAS in the cache.
+     */
+    public byte[] get(SourceDocument aDocument, String aUsername, Version aVersion)
+    {
+        if (!isEnabled()) {
+            return null;
+        }
+
+        Entry entry;
+        synchronized (entries) {
+            Key key = new Key(aDocument.getId(), aUsername);
+            entry = entries.get(key);
+            if (entry != null && !entry.version.equals(aVersion)) {
+                remove(key);
+                entry = null;
+            }
+        }
+
+        if (entry != null) {
+            hits.incrementAndGet();
+            return entry.data;
+        }
+        else {
+            misses.incrementAndGet();
+            return null;
+        }
+    }
+
+    /**
+     * Put the given serialized CAS into the cache. This must be called after the CAS has been
+     * written or read such that the version of the stored CAS can be recorded.
+     */
+    public void put(SourceDocument aDocument, String aUsername, byte[] aData, Version aVersion)
+    {
+        if (!isEnabled()) {
+            return;
+        }
+
+        Entry entry = new Entry(aData, aVersion);
+
+        synchronized (entries) {
+            Key key = new Key(aDocument.getId(), aUsername);
+            remove(key);
+
+            // A CAS larger than the whole budget is not cached at all
+            if (entry.size > maxSize) {
+                return;
+            }
+
+            entries.put(key, entry);
+            size += entry.size;
+
+            // Evict the least recently used entries until we are within the limits again
+            Iterator<Entry> i = entries.values().iterator();
+            while (i.hasNext() && (entries.size() > maxEntries || size > maxSize)) {
+                Entry eldest = i.next();
+                size -= eldest.size;
+                i.remove();
+            }
+        }
+    }
+
+    /**
+     * Remove the CAS for the given document and user from the cache.
+     */
+    public void remove(SourceDocument aDocument, String aUsername)
+    {
+        synchronized (entries) {
+            remove(new Key(aDocument.getId(), aUsername));
+        }
+    }
+
+    /**
+     * Remove all CASes of the given document from the cache, e.g. because the document has been
+     * deleted.
+     */
+    public void removeAll(SourceDocument aDocument)
+    {
+        synchronized (entries) {
+            Iterator<Map.Entry<Key, Entry>> i = entries.entrySet().iterator();
+            while (i.hasNext()) {
+                Map.Entry<Key, Entry> e = i.next();
+                if (e.getKey().documentId == aDocument.getId()) {
+                    size -= e.getValue().size;
+                    i.remove();
+                }
+            }
+        }
+    }
+
+    private void remove(Key aKey)
+    {
+        Entry old = entries.remove(aKey);
+        if (old != null) {
+            size -= old.size;
+        }
+    }
+
+    public boolean isEnabled()
+    {
+        return maxEntries > 0 && maxSize > 0;
+    }
+
+    public long getHits()
+    {
+        return hits.get();
+    }
+
+    public long getMisses()
+    {
+        return misses.get();
+    }
+
+    public int getEntryCount()
+    {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    /**
+     * @return the size (in bytes) of all serialized CASes in the cache.
+     */
+    public long getSize()
+    {
+        synchronized (entries) {
+            return size;
+        }
+    }
+
+    private static final class Key
+    {
+        private final long documentId;
+        private final String username;
+
+        public Key(long aDocumentId, String aUsername)
+        {
+            documentId = aDocumentId;
+            username = aUsername;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return 31 * Long.hashCode(documentId) + username.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object aOther)
+        {
+            if (this == aOther) {
+                return true;
+            }
+            if (!(aOther instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) aOther;
+            return documentId == other.documentId && username.equals(other.username);
+        }
+    }
+
+    private static final class Entry
+    {
+        private final byte[] data;
+        private final Version version;
+        private final long size;
+
+        public Entry(byte[] aData, Version aVersion)
+        {
+            data = aData;
+            version = aVersion;
+            size = aData.length;
+        }
+    }
+}
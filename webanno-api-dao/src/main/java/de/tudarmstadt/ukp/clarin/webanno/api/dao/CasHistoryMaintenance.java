@@ -0,0 +1,483 @@
+/*
+ * Copyright 2017
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.function.BiFunction;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.slf4j.MDC;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.CasHistoryStore.Snapshot;
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.StorageMetrics.Operation;
+import de.tudarmstadt.ukp.clarin.webanno.model.Project;
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
+import de.tudarmstadt.ukp.clarin.webanno.support.logging.Logging;
+
+/**
+ * Creates and prunes the history snapshots of CAS files in the background.
+ * <p>
+ * Saving a CAS only records that the CAS has changed. If the saved version is due for a snapshot,
+ * i.e. if the latest snapshot is older than the backup interval, it is also staged as a hard link
+ * (or if that is not supported, as a copy) next to the CAS file. Thus, the version is preserved
+ * even if the CAS is saved again before the maintenance runs. When the maintenance runs, the
+ * staged versions are turned into snapshots and the history is pruned according to the maximum
+ * number and age of snapshots to keep. The lists of snapshots of the most recently changed CASes
+ * are kept in memory, so the annotation folder is usually scanned only the first time a CAS is
+ * seen. Versions which are still staged when the application stops are picked up again by
+ * {@link #recoverStaged} on the next start.
+ */
+public class CasHistoryMaintenance
+{
+    /**
+     * Maximum number of CASes for which the list of snapshots is kept in memory.
+     */
+    public static final int DEFAULT_INDEX_SIZE = 10_000;
+
+    private static final String STAGED_SUFFIX = ".staged";
+
+    private static final Pattern STAGED_PATTERN = Pattern
+            .compile("(.+)\\.ser\\.([0-9]+)" + Pattern.quote(STAGED_SUFFIX));
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private final CasHistoryStore store;
+    private final BiFunction<SourceDocument, String, ReadWriteLock> lockProvider;
+    private final long backupInterval;
+    private final long backupKeepTime;
+    private final int backupKeepNumber;
+
+    private final Map<String, Change> changes = new ConcurrentHashMap<>();
+    private final Map<String, List<Snapshot>> index = Collections
+            .synchronizedMap(new LinkedHashMap<String, List<Snapshot>>(16, 0.75f, true)
+            {
+                private static final long serialVersionUID = -1620733384592853162L;
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, List<Snapshot>> aEldest)
+                {
+                    return size() > DEFAULT_INDEX_SIZE;
+                }
+            });
+
+    private final AtomicLong snapshotsCreated = new AtomicLong();
+    private final AtomicLong snapshotsRemoved = new AtomicLong();
+    private final AtomicLong reclaimedBytes = new AtomicLong();
+
+    private StorageMetrics metrics = new StorageMetrics();
+
+    /**
+     * @param aStore
+     *            the store holding the snapshots.
+     * @param aLockProvider
+     *            provides the lock guarding the CAS file of a given document and user.
+     * @param aBackupInterval
+     *            minimum time between two snapshots of the same CAS.
+     * @param aBackupKeepNumber
+     *            maximum number of snapshots to keep per CAS ({@code 0} for unlimited).
+     * @param aBackupKeepTime
+     *            maximum age of snapshots to keep ({@code 0} for unlimited).
+     */
+    public CasHistoryMaintenance(CasHistoryStore aStore,
+            BiFunction<SourceDocument, String, ReadWriteLock> aLockProvider, long aBackupInterval,
+            int aBackupKeepNumber, long aBackupKeepTime)
+    {
+        store = aStore;
+        lockProvider = aLockProvider;
+        backupInterval = aBackupInterval;
+        backupKeepNumber = aBackupKeepNumber;
+        backupKeepTime = aBackupKeepTime;
+    }
+
+    public void setMetrics(StorageMetrics aMetrics)
+    {
+        metrics = aMetrics;
+    }
+
+    /**
+     * Record that the given CAS file has been written. If the new version is due for a snapshot,
+     * it is staged. Otherwise, this does not touch the disk. The CAS file must have been replaced,
+     * not modified in place, and the caller must hold the write lock for the CAS.
+     */
+    public void casWritten(SourceDocument aDocument, String aUsername, File aCasFile)
+    {
+        String key = getKey(aDocument, aUsername);
+        long timestamp = aCasFile.lastModified();
+
+        // Changes are never modified because the maintenance identifies them by instance
+        changes.compute(key, (k, previous) -> {
+            List<Staged> staged = previous != null ? new ArrayList<>(previous.staged)
+                    : new ArrayList<>();
+
+            Long latest = null;
+            if (!staged.isEmpty()) {
+                latest = staged.get(staged.size() - 1).timestamp;
+            }
+            else {
+                List<Snapshot> history = index.get(k);
+                if (history != null && !history.isEmpty()) {
+                    latest = history.get(history.size() - 1).getTimestamp();
+                }
+            }
+
+            // If the history is not known yet, the version is staged anyway. The maintenance
+            // then decides whether a snapshot is actually needed.
+            if (latest == null || latest + backupInterval < timestamp) {
+                File file = new File(aCasFile.getParentFile(),
+                        aUsername + ".ser." + timestamp + STAGED_SUFFIX);
+                try {
+                    stage(aCasFile, file);
+                    staged.add(new Staged(file, timestamp));
+                }
+                catch (IOException e) {
+                    log.warn("Unable to stage version of user [{}] for document [{}]({}) for "
+                            + "the history", aUsername, aDocument.getName(), aDocument.getId(),
+                            e);
+                }
+            }
+
+            return new Change(aDocument, aUsername, aCasFile, staged);
+        });
+    }
+
+    private static void stage(File aCasFile, File aStagedFile)
+        throws IOException
+    {
+        Files.deleteIfExists(aStagedFile.toPath());
+        try {
+            Files.createLink(aStagedFile.toPath(), aCasFile.toPath());
+        }
+        catch (UnsupportedOperationException | IOException e) {
+            Files.copy(aCasFile.toPath(), aStagedFile.toPath());
+        }
+    }
+
+    /**
+     * Pick up the versions staged in the given annotation folder which have not been turned into
+     * snapshots yet, e.g. because the application has been stopped before the maintenance ran.
+     * They are handled by the next run of the maintenance. Versions of CASes which no longer exist
+     * or for which no history is kept are deleted.
+     *
+     * @return the number of versions picked up.
+     */
+    public int recoverStaged(SourceDocument aDocument, File aAnnotationFolder)
+    {
+        File[] files = aAnnotationFolder.listFiles((d, n) -> n.endsWith(STAGED_SUFFIX));
+        if (files == null) {
+            return 0;
+        }
+
+        int recovered = 0;
+        for (File file : files) {
+            Matcher matcher = STAGED_PATTERN.matcher(file.getName());
+            if (!matcher.matches() || backupInterval <= 0) {
+                FileUtils.deleteQuietly(file);
+                continue;
+            }
+
+            String username = matcher.group(1);
+            File casFile = new File(aAnnotationFolder, username + ".ser");
+            if (!casFile.exists()) {
+                FileUtils.deleteQuietly(file);
+                continue;
+            }
+
+            Staged recoveredVersion = new Staged(file, Long.parseLong(matcher.group(2)));
+            changes.compute(getKey(aDocument, username), (k, previous) -> {
+                List<Staged> staged = previous != null ? new ArrayList<>(previous.staged)
+                        : new ArrayList<>();
+                if (staged.stream().noneMatch(s -> s.file.equals(file))) {
+                    staged.add(recoveredVersion);
+                }
+                // The maintenance expects the versions in the order in which they were saved
+                staged.sort(Comparator.comparingLong(s -> s.timestamp));
+                return new Change(previous != null ? previous.document : aDocument, username,
+                        casFile, staged);
+            });
+            recovered++;
+        }
+        return recovered;
+    }
+
+    /**
+     * Remove the history of the given CAS because the CAS has been deleted. The caller must hold
+     * the write lock for the CAS.
+     *
+     * @return the number of bytes reclaimed on disk.
+     */
+    public long casDeleted(SourceDocument aDocument, String aUsername, File aAnnotationFolder)
+        throws IOException
+    {
+        String key = getKey(aDocument, aUsername);
+        Change change = changes.remove(key);
+        if (change != null) {
+            change.staged.forEach(s -> FileUtils.deleteQuietly(s.file));
+        }
+        index.remove(key);
+
+        long reclaimed = store.removeHistory(aDocument, aUsername, aAnnotationFolder);
+        reclaimedBytes.addAndGet(reclaimed);
+        return reclaimed;
+    }
+
+    /**
+     * Remove the history of all CASes of the given document because the document has been
+     * deleted. If the maintenance is running, this waits for it to finish.
+     *
+     * @return the number of bytes reclaimed on disk.
+     */
+    public synchronized long documentDeleted(SourceDocument aDocument, File aAnnotationFolder)
+        throws IOException
+    {
+        String prefix = aDocument.getId() + "/";
+        changes.keySet().removeIf(key -> key.startsWith(prefix));
+        synchronized (index) {
+            index.keySet().removeIf(key -> key.startsWith(prefix));
+        }
+        File[] staged = aAnnotationFolder.listFiles((d, n) -> n.endsWith(STAGED_SUFFIX));
+        if (staged != null) {
+            for (File file : staged) {
+                FileUtils.deleteQuietly(file);
+            }
+        }
+
+        long reclaimed = store.removeHistory(aDocument, aAnnotationFolder);
+        reclaimedBytes.addAndGet(reclaimed);
+        return reclaimed;
+    }
+
+    /**
+     * Create snapshots for all CASes that have been written since the last run and prune their
+     * history.
+     *
+     * @return the number of bytes reclaimed on disk during this run.
+     */
+    public synchronized long runMaintenance()
+    {
+        List<Change> pending = new ArrayList<>(changes.values());
+        if (pending.isEmpty()) {
+            return 0;
+        }
+
+        long created = snapshotsCreated.get();
+        long removed = snapshotsRemoved.get();
+        long reclaimed = 0;
+        for (Change change : pending) {
+            if (!changes.remove(getKey(change.document, change.username), change)) {
+                // Changed again in the meantime - will be handled as part of the newer change
+                continue;
+            }
+
+            long start = System.nanoTime();
+            try {
+                reclaimed += maintain(change);
+            }
+            catch (Exception e) {
+                log.error("Unable to maintain history of user [{}] for document [{}]({}) in "
+                        + "project [{}]({})", change.username, change.document.getName(),
+                        change.document.getId(), change.document.getProject().getName(),
+                        change.document.getProject().getId(), e);
+            }
+            finally {
+                metrics.record(Operation.HISTORY, change.document, change.username,
+                        System.nanoTime() - start, 0);
+            }
+        }
+
+        reclaimedBytes.addAndGet(reclaimed);
+
+        log.info("History maintenance: {} CASes changed, {} snapshots created, {} removed, "
+                + "{} reclaimed", pending.size(), snapshotsCreated.get() - created,
+                snapshotsRemoved.get() - removed, FileUtils.byteCountToDisplaySize(reclaimed));
+
+        return reclaimed;
+    }
+
+    private long maintain(Change aChange)
+        throws IOException
+    {
+        String key = getKey(aChange.document, aChange.username);
+        SourceDocument document = aChange.document;
+        long reclaimed = 0;
+
+        // Hold the lock so that the CAS is not deleted while we work on its history
+        ReadWriteLock lock = lockProvider.apply(document, aChange.username);
+        lock.readLock().lock();
+        try {
+            // If the CAS is gone, the document has been deleted in the meantime
+            if (!aChange.casFile.exists()) {
+                aChange.staged.forEach(s -> FileUtils.deleteQuietly(s.file));
+                index.remove(key);
+                return 0;
+            }
+
+            List<Snapshot> history = index.get(key);
+            if (history == null) {
+                history = store.listSnapshots(aChange.casFile.getParentFile(), aChange.username);
+            }
+            history = new ArrayList<>(history);
+
+            // Check for each staged version if we need to make a new snapshot. If there is no
+            // history yet but we should keep history, then we create a snapshot in any case.
+            // Otherwise, we check if the newest snapshot is significantly older than the staged
+            // version.
+            int created = 0;
+            for (Staged staged : aChange.staged) {
+                try {
+                    if (history.isEmpty() || history.get(history.size() - 1).getTimestamp()
+                            + backupInterval < staged.timestamp) {
+                        history.add(store.addSnapshot(document, aChange.username, staged.file,
+                                staged.timestamp));
+                        snapshotsCreated.incrementAndGet();
+                        created++;
+                    }
+                }
+                finally {
+                    FileUtils.deleteQuietly(staged.file);
+                }
+            }
+
+            if (created == 0) {
+                index.put(key, history);
+                return 0;
+            }
+
+            // Prune history based on number of backups. The newest snapshot is kept in any case.
+            if (backupKeepNumber > 0 && backupKeepNumber < history.size()) {
+                int toRemove = history.size() - backupKeepNumber;
+                for (Snapshot s : history.subList(0, toRemove)) {
+                    reclaimed += removeSnapshot(aChange, s, "surplus");
+                }
+                history = new ArrayList<>(history.subList(toRemove, history.size()));
+            }
+
+            // Prune history based on time relative to the newest snapshot which itself is kept in
+            // any case
+            if (backupKeepTime > 0) {
+                long now = history.get(history.size() - 1).getTimestamp();
+                List<Snapshot> remaining = new ArrayList<>();
+                for (Snapshot s : history.subList(0, history.size() - 1)) {
+                    if ((s.getTimestamp() + backupKeepTime) < now) {
+                        reclaimed += removeSnapshot(aChange, s, "outdated");
+                    }
+                    else {
+                        remaining.add(s);
+                    }
+                }
+                remaining.add(history.get(history.size() - 1));
+                history = remaining;
+            }
+
+            index.put(key, history);
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+
+        return reclaimed;
+    }
+
+    private long removeSnapshot(Change aChange, Snapshot aSnapshot, String aReason)
+        throws IOException
+    {
+        long freed = store.removeSnapshot(aChange.document, aChange.username, aSnapshot);
+        snapshotsRemoved.incrementAndGet();
+
+        try (MDC.MDCCloseable closable = MDC.putCloseable(Logging.KEY_PROJECT_ID,
+                String.valueOf(aChange.document.getProject().getId()))) {
+            Project project = aChange.document.getProject();
+            log.info("Removed {} history file [{}] of user [{}] for document [{}]({}) in "
+                    + "project [{}]({})", aReason, aSnapshot.getFile().getName(),
+                    aChange.username, aChange.document.getName(), aChange.document.getId(),
+                    project.getName(), project.getId());
+        }
+
+        return freed;
+    }
+
+    public long getSnapshotsCreated()
+    {
+        return snapshotsCreated.get();
+    }
+
+    public long getSnapshotsRemoved()
+    {
+        return snapshotsRemoved.get();
+    }
+
+    /**
+     * @return the total number of bytes reclaimed on disk by pruning the history.
+     */
+    public long getReclaimedBytes()
+    {
+        return reclaimedBytes.get();
+    }
+
+    private static String getKey(SourceDocument aDocument, String aUsername)
+    {
+        return aDocument.getId() + "/" + aUsername;
+    }
+
+    private static final class Change
+    {
+        private final SourceDocument document;
+        private final String username;
+        private final File casFile;
+        private final List<Staged> staged;
+
+        public Change(SourceDocument aDocument, String aUsername, File aCasFile,
+                List<Staged> aStaged)
+        {
+            document = aDocument;
+            username = aUsername;
+            casFile = aCasFile;
+            staged = aStaged;
+        }
+    }
+
+    /**
+     * A version of a CAS file which is preserved until the maintenance has decided whether to
+     * make a snapshot of it.
+     */
+    private static final class Staged
+    {
+        private final File file;
+        private final long timestamp;
+
+        public Staged(File aFile, long aTimestamp)
+        {
+            file = aFile;
+            timestamp = aTimestamp;
+        }
+    }
+}
@@ -0,0 +1,404 @@
+/*
+ * Copyright 2017
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao;
+
+import static de.tudarmstadt.ukp.clarin.webanno.api.ProjectService.PROJECT;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+
+import de.tudarmstadt.ukp.clarin.webanno.model.Project;
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
+
+/**
+ * Content-addressed store for the history of CAS files.
+ * <p>
+ * The content of a snapshot is stored as a compressed blob named by the SHA-1 hash of the CAS
+ * file in the history folder of the project. Identical snapshots, e.g. of a CAS which has been
+ * saved again without changes since the last backup, are stored only once. Note that the CASes of
+ * different users are hardly ever identical because each CAS records the name of its user in
+ * its metadata.
+ * <p>
+ * Next to the CAS file, each snapshot is represented by a small reference file
+ * {@code <user>.ser.<timestamp>.ref} which contains the hash of the blob. For every reference,
+ * there is also a marker file in the {@code <hash>.refs} folder next to the blob. The blob is
+ * deleted when the last reference to it has been removed, so no scan of the repository is
+ * required to collect unused blobs.
+ * <p>
+ * Blobs and markers are shared between all processes working on the repository, e.g. the web
+ * application and the command line tools. Changes to them are guarded by a lock file in the
+ * history folder.
+ * <p>
+ * Full copies of CAS files ({@code <user>.ser.<timestamp>.bak}) created by earlier versions are
+ * listed as snapshots as well, so they are subject to the same pruning rules.
+ */
+public class CasHistoryStore
+{
+    /**
+     * Name of the folder within a project folder that holds the history blobs.
+     */
+    public static final String HISTORY_FOLDER = "history";
+
+    private static final String REF_SUFFIX = ".ref";
+    private static final String LEGACY_SUFFIX = ".bak";
+    private static final String BLOB_SUFFIX = ".gz";
+    private static final String REFS_SUFFIX = ".refs";
+    private static final String LOCK_FILE = ".lock";
+
+    /**
+     * File locks are held by the JVM, not by the thread, so the threads of this JVM need to be
+     * serialized separately.
+     */
+    private static final Object JVM_LOCK = new Object();
+
+    private final File dir;
+
+    public CasHistoryStore(File aRepositoryDir)
+    {
+        dir = aRepositoryDir;
+    }
+
+    /**
+     * Add a snapshot of the given CAS file to the history.
+     *
+     * @param aDocument
+     *            the document the CAS belongs to.
+     * @param aUsername
+     *            the user the CAS belongs to.
+     * @param aCasFile
+     *            the CAS file.
+     * @param aTimestamp
+     *            the time of the snapshot.
+     * @return the new snapshot.
+     */
+    public Snapshot addSnapshot(SourceDocument aDocument, String aUsername, File aCasFile,
+            long aTimestamp)
+        throws IOException
+    {
+        File historyFolder = getHistoryFolder(aDocument.getProject());
+
+        // Compress the CAS into a temporary file and compute the hash while doing so. That way
+        // the CAS file needs to be read only once.
+        File tempBlob = File.createTempFile("snapshot", ".tmp", historyFolder);
+        String hash;
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            try (
+                    InputStream is = new DigestInputStream(
+                            new BufferedInputStream(new FileInputStream(aCasFile)), digest);
+                    OutputStream os = new GZIPOutputStream(
+                            new BufferedOutputStream(new FileOutputStream(tempBlob)));
+            ) {
+                IOUtils.copy(is, os);
+            }
+            hash = toHex(digest.digest());
+
+            File blob = getBlobFile(historyFolder, hash);
+            withLock(historyFolder, () -> {
+                if (blob.exists()) {
+                    // Deduplicate - we already have this content
+                    FileUtils.forceDelete(tempBlob);
+                }
+                else if (!tempBlob.renameTo(blob)) {
+                    throw new IOException("Cannot rename [" + tempBlob + "] to [" + blob + "]");
+                }
+
+                File refsFolder = getRefsFolder(historyFolder, hash);
+                FileUtils.forceMkdir(refsFolder);
+                FileUtils.touch(new File(refsFolder, getMarkerName(aDocument, aUsername,
+                        aTimestamp)));
+                return null;
+            });
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+        finally {
+            FileUtils.deleteQuietly(tempBlob);
+        }
+
+        File ref = new File(aCasFile.getParentFile(),
+                aUsername + ".ser." + aTimestamp + REF_SUFFIX);
+        FileUtils.writeStringToFile(ref, hash, UTF_8);
+
+        return new Snapshot(ref, aTimestamp, hash);
+    }
+
+    /**
+     * List the snapshots of the given user in the given annotation folder, oldest one first.
+     */
+    public List<Snapshot> listSnapshots(File aAnnotationFolder, String aUsername)
+        throws IOException
+    {
+        Matcher matcher = Pattern.compile(Pattern.quote(aUsername) + "\\.ser\\.([0-9]+)("
+                + Pattern.quote(REF_SUFFIX) + "|" + Pattern.quote(LEGACY_SUFFIX) + ")")
+                .matcher("");
+
+        List<Snapshot> snapshots = new ArrayList<>();
+        File[] files = aAnnotationFolder.listFiles();
+        if (files == null) {
+            return snapshots;
+        }
+
+        for (File file : files) {
+            if (matcher.reset(file.getName()).matches()) {
+                snapshots.add(toSnapshot(file, matcher.group(1), matcher.group(2)));
+            }
+        }
+
+        Collections.sort(snapshots, Comparator.comparingLong(Snapshot::getTimestamp));
+
+        return snapshots;
+    }
+
+    /**
+     * Remove the snapshots of all users in the given annotation folder, e.g. because the
+     * document has been deleted. Blobs which are no longer referenced are removed as well.
+     *
+     * @return the number of bytes freed on disk.
+     */
+    public long removeHistory(SourceDocument aDocument, File aAnnotationFolder)
+        throws IOException
+    {
+        Matcher matcher = Pattern.compile("(.+)\\.ser\\.([0-9]+)(" + Pattern.quote(REF_SUFFIX)
+                + "|" + Pattern.quote(LEGACY_SUFFIX) + ")").matcher("");
+
+        long freed = 0;
+        File[] files = aAnnotationFolder.listFiles();
+        if (files == null) {
+            return freed;
+        }
+
+        for (File file : files) {
+            if (matcher.reset(file.getName()).matches()) {
+                freed += removeSnapshot(aDocument, matcher.group(1),
+                        toSnapshot(file, matcher.group(2), matcher.group(3)));
+            }
+        }
+
+        return freed;
+    }
+
+    /**
+     * Remove the snapshots of the given user in the given annotation folder, e.g. because the CAS
+     * of the user has been deleted. Blobs which are no longer referenced are removed as well.
+     *
+     * @return the number of bytes freed on disk.
+     */
+    public long removeHistory(SourceDocument aDocument, String aUsername, File aAnnotationFolder)
+        throws IOException
+    {
+        long freed = 0;
+        for (Snapshot snapshot : listSnapshots(aAnnotationFolder, aUsername)) {
+            freed += removeSnapshot(aDocument, aUsername, snapshot);
+        }
+        return freed;
+    }
+
+    private static Snapshot toSnapshot(File aFile, String aTimestamp, String aSuffix)
+        throws IOException
+    {
+        long timestamp = Long.parseLong(aTimestamp);
+        if (REF_SUFFIX.equals(aSuffix)) {
+            return new Snapshot(aFile, timestamp, FileUtils.readFileToString(aFile, UTF_8).trim());
+        }
+        else {
+            return new Snapshot(aFile, timestamp, null);
+        }
+    }
+
+    /**
+     * Remove the given snapshot. If this was the last snapshot referring to the blob, the blob is
+     * removed as well.
+     *
+     * @return the number of bytes freed on disk.
+     */
+    public long removeSnapshot(SourceDocument aDocument, String aUsername, Snapshot aSnapshot)
+        throws IOException
+    {
+        long freed = aSnapshot.file.length();
+        FileUtils.forceDelete(aSnapshot.file);
+
+        if (aSnapshot.isLegacy()) {
+            return freed;
+        }
+
+        File historyFolder = getHistoryFolder(aDocument.getProject());
+        return freed + withLock(historyFolder, () -> {
+            File refsFolder = getRefsFolder(historyFolder, aSnapshot.hash);
+            FileUtils.deleteQuietly(new File(refsFolder,
+                    getMarkerName(aDocument, aUsername, aSnapshot.timestamp)));
+
+            String[] remaining = refsFolder.list();
+            if (remaining == null || remaining.length == 0) {
+                File blob = getBlobFile(historyFolder, aSnapshot.hash);
+                long blobSize = blob.length();
+                FileUtils.deleteQuietly(blob);
+                FileUtils.deleteQuietly(refsFolder);
+                return blobSize;
+            }
+            return 0L;
+        });
+    }
+
+    /**
+     * Open the content of the given snapshot, i.e. the CAS file as it was at the time the
+     * snapshot was taken.
+     */
+    public InputStream openSnapshot(Project aProject, Snapshot aSnapshot)
+        throws IOException
+    {
+        if (aSnapshot.isLegacy()) {
+            return new BufferedInputStream(new FileInputStream(aSnapshot.file));
+        }
+
+        File blob = getBlobFile(getHistoryFolder(aProject), aSnapshot.hash);
+        return new GZIPInputStream(new BufferedInputStream(new FileInputStream(blob)));
+    }
+
+    private File getHistoryFolder(Project aProject)
+        throws IOException
+    {
+        File historyFolder = new File(dir, PROJECT + aProject.getId() + "/" + HISTORY_FOLDER);
+        FileUtils.forceMkdir(historyFolder);
+        return historyFolder;
+    }
+
+    /**
+     * Run the given action while holding the lock on the blobs and markers in the given history
+     * folder. The lock excludes both the other threads of this JVM and other processes.
+     */
+    private static <T> T withLock(File aHistoryFolder, LockedAction<T> aAction)
+        throws IOException
+    {
+        synchronized (JVM_LOCK) {
+            try (
+                    FileChannel channel = FileChannel.open(
+                            new File(aHistoryFolder, LOCK_FILE).toPath(), CREATE, WRITE);
+                    FileLock lock = channel.lock();
+            ) {
+                return aAction.run();
+            }
+        }
+    }
+
+    private static File getBlobFile(File aHistoryFolder, String aHash)
+    {
+        return new File(aHistoryFolder, aHash + BLOB_SUFFIX);
+    }
+
+    private static File getRefsFolder(File aHistoryFolder, String aHash)
+    {
+        return new File(aHistoryFolder, aHash + REFS_SUFFIX);
+    }
+
+    private static String getMarkerName(SourceDocument aDocument, String aUsername,
+            long aTimestamp)
+    {
+        return aDocument.getId() + "-" + aTimestamp + "-" + aUsername;
+    }
+
+    private static String toHex(byte[] aBytes)
+    {
+        StringBuilder hex = new StringBuilder();
+        for (byte b : aBytes) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    @FunctionalInterface
+    private interface LockedAction<T>
+    {
+        T run()
+            throws IOException;
+    }
+
+    /**
+     * A snapshot of a CAS file in the history.
+     */
+    public static class Snapshot
+    {
+        private final File file;
+        private final long timestamp;
+        private final String hash;
+
+        public Snapshot(File aFile, long aTimestamp, String aHash)
+        {
+            file = aFile;
+            timestamp = aTimestamp;
+            hash = aHash;
+        }
+
+        /**
+         * @return the reference file or in case of a legacy snapshot the full copy of the CAS
+         *         file.
+         */
+        public File getFile()
+        {
+            return file;
+        }
+
+        public long getTimestamp()
+        {
+            return timestamp;
+        }
+
+        /**
+         * @return the hash of the content or {@code null} for legacy snapshots.
+         */
+        public String getHash()
+        {
+            return hash;
+        }
+
+        /**
+         * @return whether this snapshot is a full copy of the CAS file created by an earlier
+         *         version.
+         */
+        public boolean isLegacy()
+        {
+            return hash == null;
+        }
+    }
+}
@@ -0,0 +1,269 @@
+/*
+ * Copyright 2017
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao;
+
+import static de.tudarmstadt.ukp.clarin.webanno.api.ProjectService.ANNOTATION;
+import static de.tudarmstadt.ukp.clarin.webanno.api.ProjectService.DOCUMENT;
+import static de.tudarmstadt.ukp.clarin.webanno.api.ProjectService.PROJECT;
+import static java.nio.file.StandardOpenOption.APPEND;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.CasStorageBackend.Version;
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
+
+/**
+ * Append-only journals of the changes made to the stored CASes:
+ * {@code project/<project>/document/<document>/annotation/<user>.journal}.
+ * <p>
+ * A journal starts with a header identifying the stored CAS it applies to by its version and
+ * checksum, followed by one record per change. The checksum makes sure a journal is never applied
+ * to a different CAS which only happens to have the same version, e.g. because it has been written
+ * within the timestamp resolution of the file system and has the same length. The stored CAS
+ * plus the changes of the journal make up the current state of the CAS. Once the CAS is stored
+ * again, the journal is deleted. A journal which does not match the stored CAS, e.g. because the
+ * process died between storing the CAS and deleting the journal, is ignored.
+ * <p>
+ * The journals are kept next to the CAS files of the {@link FileSystemCasStorageBackend}, so
+ * journaling is only available with that backend.
+ * <p>
+ * Records carry a checksum, so a record that was only partially written is detected. It is
+ * discarded together with everything after it.
+ * <p>
+ * The caller must make sure there are never two concurrent operations on the journal of the
+ * same document and user.
+ */
+public class CasJournal
+{
+    public static final String JOURNAL_SUFFIX = ".journal";
+
+    private static final int HEADER_MAGIC = 0x57414a48;
+    private static final int RECORD_MAGIC = 0x57414a52;
+    private static final int HEADER_SIZE = 4 + 8 + 8 + 8;
+    private static final int RECORD_HEADER_SIZE = 4 + 4 + 8;
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private final File dir;
+
+    public CasJournal(File aDir)
+    {
+        dir = aDir;
+    }
+
+    public File getJournalFile(SourceDocument aDocument, String aUsername)
+    {
+        return new File(new File(dir, PROJECT + aDocument.getProject().getId() + DOCUMENT
+                + aDocument.getId() + ANNOTATION), aUsername + JOURNAL_SUFFIX);
+    }
+
+    /**
+     * @return the size of the journal in bytes or {@code 0} if there is no journal.
+     */
+    public long getSize(SourceDocument aDocument, String aUsername)
+    {
+        return getJournalFile(aDocument, aUsername).length();
+    }
+
+    public boolean exists(SourceDocument aDocument, String aUsername)
+    {
+        return getJournalFile(aDocument, aUsername).exists();
+    }
+
+    /**
+     * Append a record to the journal. If there is no journal yet or the journal belongs to a
+     * different version of the stored CAS, a new journal is started.
+     *
+     * @param aCasVersion
+     *            the version of the stored CAS the record applies to.
+     * @param aCasChecksum
+     *            the CRC32 checksum of the stored CAS the record applies to.
+     * @return the size of the journal in bytes after appending the record.
+     */
+    public long append(SourceDocument aDocument, String aUsername, Version aCasVersion,
+            long aCasChecksum, byte[] aRecord)
+        throws IOException
+    {
+        File file = getJournalFile(aDocument, aUsername);
+        if (file.exists() && !matches(file, aCasVersion, aCasChecksum)) {
+            FileUtils.forceDelete(file);
+        }
+        FileUtils.forceMkdir(file.getParentFile());
+
+        CRC32 crc = new CRC32();
+        crc.update(aRecord);
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), CREATE, WRITE, APPEND)) {
+            ByteBuffer buffer = ByteBuffer.allocate(
+                    (channel.size() == 0 ? HEADER_SIZE : 0) + RECORD_HEADER_SIZE);
+            if (channel.size() == 0) {
+                buffer.putInt(HEADER_MAGIC);
+                buffer.putLong(aCasVersion.getTimestamp());
+                buffer.putLong(aCasVersion.getLength());
+                buffer.putLong(aCasChecksum);
+            }
+            buffer.putInt(RECORD_MAGIC);
+            buffer.putInt(aRecord.length);
+            buffer.putLong(crc.getValue());
+            buffer.flip();
+
+            ByteBuffer[] buffers = { buffer, ByteBuffer.wrap(aRecord) };
+            while (buffers[1].hasRemaining()) {
+                channel.write(buffers);
+            }
+            channel.force(false);
+            return channel.size();
+        }
+    }
+
+    /**
+     * Read the records of the journal in the order in which they have been appended.
+     *
+     * @param aCasVersion
+     *            the version of the stored CAS.
+     * @param aCasChecksum
+     *            the CRC32 checksum of the stored CAS.
+     * @return the records or an empty list if there is no journal for the stored CAS.
+     */
+    public List<byte[]> read(SourceDocument aDocument, String aUsername, Version aCasVersion,
+            long aCasChecksum)
+        throws IOException
+    {
+        File file = getJournalFile(aDocument, aUsername);
+        if (!file.exists()) {
+            return Collections.emptyList();
+        }
+
+        if (!matches(file, aCasVersion, aCasChecksum)) {
+            log.info("Ignoring outdated journal of annotation document [{}]({}) for user [{}]",
+                    aDocument.getName(), aDocument.getId(), aUsername);
+            FileUtils.forceDelete(file);
+            return Collections.emptyList();
+        }
+
+        List<byte[]> records = new ArrayList<>();
+        long validLength = HEADER_SIZE;
+        try (DataInputStream is = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)))) {
+            is.skipBytes(HEADER_SIZE);
+            while (true) {
+                byte[] record;
+                try {
+                    if (is.readInt() != RECORD_MAGIC) {
+                        break;
+                    }
+                    int length = is.readInt();
+                    long checksum = is.readLong();
+                    if (length < 0 || validLength + RECORD_HEADER_SIZE + length > file
+                            .length()) {
+                        break;
+                    }
+                    record = new byte[length];
+                    is.readFully(record);
+                    CRC32 crc = new CRC32();
+                    crc.update(record);
+                    if (crc.getValue() != checksum) {
+                        break;
+                    }
+                }
+                catch (EOFException e) {
+                    break;
+                }
+                records.add(record);
+                validLength += RECORD_HEADER_SIZE + record.length;
+            }
+        }
+
+        // Cut off a partially written record, so the next record is appended after the last
+        // complete one
+        if (validLength < file.length()) {
+            log.warn("Truncating incomplete journal of annotation document [{}]({}) for user "
+                    + "[{}] to {} records", aDocument.getName(), aDocument.getId(), aUsername,
+                    records.size());
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                raf.setLength(validLength);
+            }
+        }
+
+        return records;
+    }
+
+    /**
+     * Delete the journal. Does nothing if there is no journal.
+     */
+    public void delete(SourceDocument aDocument, String aUsername)
+        throws IOException
+    {
+        File file = getJournalFile(aDocument, aUsername);
+        if (file.exists()) {
+            FileUtils.forceDelete(file);
+        }
+    }
+
+    /**
+     * @return the users for which there is a journal for the given document.
+     */
+    public List<String> listUsers(SourceDocument aDocument)
+    {
+        List<String> users = new ArrayList<>();
+        File[] files = getJournalFile(aDocument, "").getParentFile()
+                .listFiles((d, n) -> n.endsWith(JOURNAL_SUFFIX));
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                users.add(name.substring(0, name.length() - JOURNAL_SUFFIX.length()));
+            }
+        }
+        return users;
+    }
+
+    /**
+     * @return whether the journal applies to the given stored CAS. A journal with an incomplete
+     *         header applies to nothing.
+     */
+    private static boolean matches(File aFile, Version aCasVersion, long aCasChecksum)
+        throws IOException
+    {
+        try (DataInputStream is = new DataInputStream(new FileInputStream(aFile))) {
+            return is.readInt() == HEADER_MAGIC
+                    && aCasVersion.equals(new Version(is.readLong(), is.readLong()))
+                    && is.readLong() == aCasChecksum;
+        }
+        catch (EOFException e) {
+            return false;
+        }
+    }
+}
@@ -20,52 +20,706 @@ package de.tudarmstadt.ukp.clarin.webanno.api.dao;
 import static org.apache.uima.cas.impl.Serialization.deserializeCASComplete;
 import static org.apache.uima.cas.impl.Serialization.serializeCASComplete;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
 
 import org.apache.commons.io.FileUtils;
+import org.apache.uima.cas.CAS;
 import org.apache.uima.cas.CASException;
+import org.apache.uima.cas.FSIndex;
+import org.apache.uima.cas.FSIndexRepository;
+import org.apache.uima.cas.Feature;
+import org.apache.uima.cas.Type;
+import org.apache.uima.cas.TypeSystem;
 import org.apache.uima.cas.impl.CASCompleteSerializer;
+import org.apache.uima.cas.impl.CASImpl;
+import org.apache.uima.cas.impl.Serialization;
 import org.apache.uima.jcas.JCas;
+import org.apache.uima.resource.ResourceInitializationException;
+import org.apache.uima.resource.metadata.TypeSystemDescription;
+import org.apache.uima.util.CasCreationUtils;
 
+/**
+ * Reading and writing of CAS files in the repository.
+ * <p>
+ * Two formats are supported:
+ * <ul>
+ * <li><b>legacy</b> - a Java-serialized {@link CASCompleteSerializer} which contains the full
+ * type system in every file. This format is self-contained and used e.g. for project export.</li>
+ * <li><b>compact</b> - a short header followed by the CAS data in UIMA compressed binary form 4.
+ * The header refers to a type system by its fingerprint. The type system itself is stored only
+ * once per project in the type system folder of the project.</li>
+ * </ul>
+ * <p>
+ * Form 4 keeps every feature structure at its address. WebAnno uses the addresses as annotation
+ * IDs in the browser, so they must not change when a CAS is written and read again. Files written
+ * in version 1 of the compact format use form 6 which does not preserve the addresses. They
+ * remain readable and are converted the next time they are written.
+ * <p>
+ * Reading automatically detects the format, so existing legacy files remain readable. They are
+ * converted to the compact format the next time they are written.
+ * <p>
+ * Files are accessed through NIO channels. They are not memory-mapped: a mapping stays in place
+ * until it is garbage-collected, and on Windows, a mapped file can neither be deleted nor replaced,
+ * e.g. when the previous version of a CAS is moved aside before writing a new one.
+ */
 public final class CasPersistenceUtils
 {
+    /**
+     * Name of the folder within a project folder that holds the shared type systems referenced by
+     * CAS files in the compact format.
+     */
+    public static final String TYPE_SYSTEM_FOLDER = "typesystem";
+
+    private static final byte[] COMPACT_MAGIC = { 'W', 'A', 'C', 'A', 'S' };
+    private static final int COMPACT_VERSION = 2;
+
+    private static final int MAX_CACHED_TYPE_SYSTEMS = 64;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final Map<TypeSystem, String> fingerprints = Collections
+            .synchronizedMap(new WeakHashMap<>());
+
+    private static final Map<File, TypeSystemTemplate> templates = Collections
+            .synchronizedMap(new LinkedHashMap<File, TypeSystemTemplate>(16, 0.75f, true)
+            {
+                private static final long serialVersionUID = -4536137613449466538L;
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<File, TypeSystemTemplate> aEldest)
+                {
+                    return size() > MAX_CACHED_TYPE_SYSTEMS;
+                }
+            });
 
     private CasPersistenceUtils()
     {
         // No instances
     }
 
+    /**
+     * Writes the CAS in the self-contained legacy format.
+     */
     public static void writeSerializedCas(JCas aJCas, File aFile)
-            throws IOException
-        {
-            FileUtils.forceMkdir(aFile.getParentFile());
+        throws IOException
+    {
+        try (OutputStream os = createCasFile(aFile)) {
+            writeSerializedCas(aJCas, os);
+        }
+    }
 
-            try (ObjectOutputStream os = new ObjectOutputStream(new FileOutputStream(aFile))) {
-                CASCompleteSerializer serializer = serializeCASComplete(aJCas.getCasImpl());
-                os.writeObject(serializer);
-            }
+    /**
+     * Writes the CAS in the self-contained legacy format.
+     */
+    public static void writeSerializedCas(JCas aJCas, OutputStream aStream)
+        throws IOException
+    {
+        ObjectOutputStream os = new ObjectOutputStream(aStream);
+        CASCompleteSerializer serializer = serializeCASComplete(aJCas.getCasImpl());
+        os.writeObject(serializer);
+        os.flush();
+    }
+
+    /**
+     * Writes the CAS in the compact format. The type system of the CAS is stored in the given type
+     * system folder unless it is already present there.
+     */
+    public static void writeSerializedCas(JCas aJCas, File aFile, File aTypeSystemFolder)
+        throws IOException
+    {
+        try (OutputStream os = createCasFile(aFile)) {
+            writeSerializedCas(aJCas, os, aTypeSystemFolder);
         }
+    }
 
-        public static void readSerializedCas(JCas aJCas, File aFile)
-            throws IOException
-        {
-            try (ObjectInputStream is = new ObjectInputStream(new FileInputStream(aFile))) {
-                CASCompleteSerializer serializer = (CASCompleteSerializer) is.readObject();
+    /**
+     * Writes the CAS in the compact format to the given stream. The stream is not closed.
+     */
+    public static void writeSerializedCas(JCas aJCas, OutputStream aStream,
+            File aTypeSystemFolder)
+        throws IOException
+    {
+        CAS cas = aJCas.getCas();
+        TypeSystemTemplate template = getOrCreateTemplate(cas, aTypeSystemFolder);
+
+        try {
+            DataOutputStream header = new DataOutputStream(aStream);
+            header.write(COMPACT_MAGIC);
+            header.writeInt(COMPACT_VERSION);
+            header.writeUTF(template.fingerprint);
+            header.flush();
+
+            Serialization.serializeWithCompression(cas, aStream);
+            aStream.flush();
+        }
+        catch (IOException e) {
+            throw e;
+        }
+        catch (Exception e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Reads a CAS in the legacy format.
+     */
+    public static void readSerializedCas(JCas aJCas, File aFile)
+        throws IOException
+    {
+        readSerializedCas(aJCas, aFile, null);
+    }
+
+    /**
+     * Reads a CAS in either the legacy or the compact format. If the CAS is in the compact format,
+     * the type system is looked up in the given type system folder.
+     */
+    public static void readSerializedCas(JCas aJCas, File aFile, File aTypeSystemFolder)
+        throws IOException
+    {
+        try (InputStream is = openCasFile(aFile)) {
+            readSerializedCas(aJCas, is, aTypeSystemFolder);
+        }
+    }
+
+    /**
+     * Reads a CAS in either the legacy or the compact format from the given buffer. The buffer is
+     * not modified.
+     * 
+     * @see #readSerializedCas(JCas, File, File)
+     */
+    public static void readSerializedCas(JCas aJCas, ByteBuffer aBuffer, File aTypeSystemFolder)
+        throws IOException
+    {
+        readSerializedCas(aJCas, new ByteBufferInputStream(aBuffer.duplicate()),
+                aTypeSystemFolder);
+    }
+
+    /**
+     * Reads a CAS in either the legacy or the compact format from the given stream. The stream is
+     * not closed.
+     * 
+     * @see #readSerializedCas(JCas, File, File)
+     */
+    public static void readSerializedCas(JCas aJCas, InputStream aStream,
+            File aTypeSystemFolder)
+        throws IOException
+    {
+        InputStream is = aStream.markSupported() ? aStream
+                : new BufferedInputStream(aStream, BUFFER_SIZE);
+        try {
+            if (isCompact(is)) {
+                if (aTypeSystemFolder == null) {
+                    throw new IOException(
+                            "CAS is in compact format, but no type system folder was given");
+                }
+
+                DataInputStream header = new DataInputStream(is);
+                header.readFully(new byte[COMPACT_MAGIC.length]);
+                int version = header.readInt();
+                if (version < 1 || version > COMPACT_VERSION) {
+                    throw new IOException("Unsupported CAS file version [" + version + "]");
+                }
+                String fingerprint = header.readUTF();
+
+                TypeSystemTemplate template = getTemplate(fingerprint, aTypeSystemFolder);
+                deserializeCASComplete(template.serializer, aJCas.getCasImpl());
+                Serialization.deserializeCAS(aJCas.getCas(), is, (TypeSystem) null, null);
+            }
+            else {
+                ObjectInputStream ois = new ObjectInputStream(is);
+                CASCompleteSerializer serializer = (CASCompleteSerializer) ois.readObject();
                 deserializeCASComplete(serializer, aJCas.getCasImpl());
-                // Initialize the JCas sub-system which is the most often used API in DKPro Core
-                // components
-                aJCas.getCas().getJCas();
             }
-            catch (CASException e) {
-                throw new IOException(e);
+
+            // Initialize the JCas sub-system which is the most often used API in DKPro Core
+            // components
+            aJCas.getCas().getJCas();
+        }
+        catch (CASException e) {
+            throw new IOException(e);
+        }
+        catch (ClassNotFoundException e) {
+            throw new IOException(e);
+        }
+        catch (IOException e) {
+            throw e;
+        }
+        catch (Exception e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Reads a CAS in either the legacy or the compact format into a new CAS. If the CAS is in the
+     * compact format, the CAS is borrowed from the given pool. A CAS in the legacy format carries
+     * its own type system, so it is always newly created.
+     */
+    public static CAS readSerializedCas(CasPool aPool, File aFile, File aTypeSystemFolder)
+        throws IOException
+    {
+        try (InputStream is = openCasFile(aFile)) {
+            return readSerializedCas(aPool, is, aTypeSystemFolder);
+        }
+    }
+
+    /**
+     * Reads a CAS in either the legacy or the compact format from the given buffer. The buffer is
+     * not modified.
+     * 
+     * @see #readSerializedCas(CasPool, File, File)
+     */
+    public static CAS readSerializedCas(CasPool aPool, ByteBuffer aBuffer,
+            File aTypeSystemFolder)
+        throws IOException
+    {
+        return readSerializedCas(aPool, new ByteBufferInputStream(aBuffer.duplicate()),
+                aTypeSystemFolder);
+    }
+
+    /**
+     * Reads a CAS in either the legacy or the compact format from the given stream. The stream is
+     * not closed.
+     * 
+     * @see #readSerializedCas(CasPool, File, File)
+     */
+    public static CAS readSerializedCas(CasPool aPool, InputStream aStream,
+            File aTypeSystemFolder)
+        throws IOException
+    {
+        InputStream is = aStream.markSupported() ? aStream
+                : new BufferedInputStream(aStream, BUFFER_SIZE);
+        try {
+            if (!isCompact(is)) {
+                CAS cas = CasCreationUtils.createCas((TypeSystemDescription) null, null, null);
+                ObjectInputStream ois = new ObjectInputStream(is);
+                CASCompleteSerializer serializer = (CASCompleteSerializer) ois.readObject();
+                deserializeCASComplete(serializer, (CASImpl) cas);
+                cas.getJCas();
+                return cas;
             }
-            catch (ClassNotFoundException e) {
+
+            DataInputStream header = new DataInputStream(is);
+            header.readFully(new byte[COMPACT_MAGIC.length]);
+            int version = header.readInt();
+            if (version < 1 || version > COMPACT_VERSION) {
+                throw new IOException("Unsupported CAS file version [" + version + "]");
+            }
+            String fingerprint = header.readUTF();
+
+            TypeSystemTemplate template = getTemplate(fingerprint, aTypeSystemFolder);
+            CAS cas;
+            if (template.defaultIndexes) {
+                cas = aPool.borrow(fingerprint, template.typeSystem);
+            }
+            else {
+                // Pooled CASes only have the default index definitions
+                cas = CasCreationUtils.createCas((TypeSystemDescription) null, null, null);
+                deserializeCASComplete(template.serializer, (CASImpl) cas);
+            }
+            Serialization.deserializeCAS(cas, is, (TypeSystem) null, null);
+
+            // Initialize the JCas sub-system which is the most often used API in DKPro Core
+            // components
+            cas.getJCas();
+            return cas;
+        }
+        catch (IOException e) {
+            throw e;
+        }
+        catch (Exception e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Checks if the given file contains a CAS in the compact format.
+     */
+    public static boolean isCompact(File aFile)
+        throws IOException
+    {
+        try (InputStream is = new BufferedInputStream(new FileInputStream(aFile),
+                COMPACT_MAGIC.length)) {
+            return isCompact(is);
+        }
+    }
+
+    /**
+     * Opens a CAS file for reading through a buffer. The returned stream supports marking, so it
+     * can be passed to {@link #isCompact(InputStream)} directly. The file is released as soon as
+     * the stream is closed.
+     */
+    public static InputStream openCasFile(File aFile)
+        throws IOException
+    {
+        return new BufferedInputStream(Channels.newInputStream(openChannel(aFile)),
+                BUFFER_SIZE);
+    }
+
+    /**
+     * Reads the raw contents of a CAS file into a read-only buffer on the heap, e.g. to serve it
+     * without parsing it first.
+     */
+    public static ByteBuffer readCasFile(File aFile)
+        throws IOException
+    {
+        try (FileChannel channel = openChannel(aFile)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("CAS file [" + aFile + "] is too large: " + size
+                        + " bytes");
+            }
+
+            ByteBuffer buffer = ByteBuffer.allocate((int) size);
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                // Read until the buffer is full
+            }
+            buffer.flip();
+            return buffer.asReadOnlyBuffer();
+        }
+    }
+
+    private static FileChannel openChannel(File aFile)
+        throws IOException
+    {
+        try {
+            return FileChannel.open(aFile.toPath(), StandardOpenOption.READ);
+        }
+        catch (NoSuchFileException e) {
+            // Callers expect the same exception as when using a FileInputStream
+            throw new FileNotFoundException(aFile.getPath());
+        }
+    }
+
+    /**
+     * Creates a CAS file for writing, replacing any existing file. Writes are collected in a
+     * buffer and passed on to the file channel in large blocks.
+     */
+    private static OutputStream createCasFile(File aFile)
+        throws IOException
+    {
+        FileUtils.forceMkdir(aFile.getParentFile());
+        FileChannel channel = FileChannel.open(aFile.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        return new BufferedOutputStream(Channels.newOutputStream(channel), BUFFER_SIZE);
+    }
+
+    /**
+     * Checks if the stream starts with the header of the compact format. The stream must support
+     * marking and is reset to its original position.
+     */
+    public static boolean isCompact(InputStream aStream)
+        throws IOException
+    {
+        aStream.mark(COMPACT_MAGIC.length);
+        try {
+            byte[] magic = new byte[COMPACT_MAGIC.length];
+            int read = 0;
+            while (read < magic.length) {
+                int n = aStream.read(magic, read, magic.length - read);
+                if (n < 0) {
+                    return false;
+                }
+                read += n;
+            }
+            return Arrays.equals(COMPACT_MAGIC, magic);
+        }
+        finally {
+            aStream.reset();
+        }
+    }
+
+    /**
+     * Calculates a fingerprint of the type system and the index definitions of the given CAS.
+     * CASes with the same fingerprint have the same internal layout, i.e. the same type and
+     * feature codes, so the data of one CAS can be deserialized into the other without any
+     * mapping.
+     */
+    public static String getFingerprint(CAS aCas)
+    {
+        MessageDigest digest = createDigest();
+        digest.update(getTypeSystemFingerprint(aCas.getTypeSystem())
+                .getBytes(StandardCharsets.UTF_8));
+        for (String index : getIndexDefinitions(aCas)) {
+            digest.update((byte) '\n');
+            digest.update(index.getBytes(StandardCharsets.UTF_8));
+        }
+        return toHex(digest.digest());
+    }
+
+    private static String getTypeSystemFingerprint(TypeSystem aTypeSystem)
+    {
+        String fingerprint = fingerprints.get(aTypeSystem);
+        if (fingerprint != null) {
+            return fingerprint;
+        }
+
+        // Types and features are visited in the order of their codes, so the fingerprint changes
+        // if the same types are defined in a different order
+        MessageDigest digest = createDigest();
+        Iterator<Type> i = aTypeSystem.getTypeIterator();
+        while (i.hasNext()) {
+            Type type = i.next();
+            Type parent = aTypeSystem.getParent(type);
+            digest.update((type.getName() + "<" + (parent != null ? parent.getName() : ""))
+                    .getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) '\n');
+        }
+        Iterator<Feature> f = aTypeSystem.getFeatures();
+        while (f.hasNext()) {
+            Feature feature = f.next();
+            // Arrays of different element types may share the same range name
+            Type range = feature.getRange();
+            Type elementType = range.isArray() ? range.getComponentType() : null;
+            digest.update((feature.getName() + ":" + range.getName()
+                    + (elementType != null ? "[" + elementType.getName() + "]" : ""))
+                            .getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) '\n');
+        }
+        fingerprint = toHex(digest.digest());
+
+        fingerprints.put(aTypeSystem, fingerprint);
+        return fingerprint;
+    }
+
+    private static List<String> getIndexDefinitions(CAS aCas)
+    {
+        List<String> indexes = new ArrayList<>();
+        FSIndexRepository repository = aCas.getIndexRepository();
+        Iterator<String> i = repository.getLabels();
+        while (i.hasNext()) {
+            String label = i.next();
+            FSIndex<?> index = repository.getIndex(label);
+            indexes.add(label + ":" + index.getIndexingStrategy() + ":"
+                    + index.getType().getName());
+        }
+        Collections.sort(indexes);
+        return indexes;
+    }
+
+    private static MessageDigest createDigest()
+    {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String toHex(byte[] aBytes)
+    {
+        StringBuilder hex = new StringBuilder();
+        for (byte b : aBytes) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    private static TypeSystemTemplate getOrCreateTemplate(CAS aCas, File aTypeSystemFolder)
+        throws IOException
+    {
+        String fingerprint = getFingerprint(aCas);
+        File file = new File(aTypeSystemFolder, fingerprint + ".ser");
+
+        TypeSystemTemplate template = templates.get(file);
+        if (template != null) {
+            return template;
+        }
+
+        synchronized (templates) {
+            if (file.exists()) {
+                return getTemplate(fingerprint, aTypeSystemFolder);
+            }
+
+            try {
+                // Store the type system and the index definitions of the CAS together with the
+                // data of an empty CAS
+                CAS emptyCas = CasCreationUtils.createCas(aCas.getTypeSystem(), null, null,
+                        null);
+                CASCompleteSerializer serializer = new CASCompleteSerializer();
+                serializer.setCasMgrSerializer(Serialization.serializeCASMgr((CASImpl) aCas));
+                serializer.setCasSerializer(Serialization.serializeCAS(emptyCas));
+
+                FileUtils.forceMkdir(aTypeSystemFolder);
+                File tempFile = new File(aTypeSystemFolder, fingerprint + ".ser.tmp");
+                try (ObjectOutputStream os = new ObjectOutputStream(
+                        new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+                    os.writeObject(serializer);
+                }
+                if (!tempFile.renameTo(file)) {
+                    FileUtils.deleteQuietly(tempFile);
+                    throw new IOException("Cannot rename file [" + tempFile + "] to [" + file
+                            + "]");
+                }
+
+                template = new TypeSystemTemplate(fingerprint, serializer, aCas.getTypeSystem(),
+                        hasDefaultIndexes(aCas));
+                templates.put(file, template);
+                return template;
+            }
+            catch (IOException e) {
+                throw e;
+            }
+            catch (Exception e) {
                 throw new IOException(e);
             }
         }
+    }
+
+    private static TypeSystemTemplate getTemplate(String aFingerprint, File aTypeSystemFolder)
+        throws IOException
+    {
+        File file = new File(aTypeSystemFolder, aFingerprint + ".ser");
+
+        TypeSystemTemplate template = templates.get(file);
+        if (template != null) {
+            return template;
+        }
+
+        if (!file.exists()) {
+            throw new IOException("Type system [" + aFingerprint + "] not found in ["
+                    + aTypeSystemFolder + "]");
+        }
+
+        try (ObjectInputStream is = new ObjectInputStream(
+                new BufferedInputStream(new FileInputStream(file)))) {
+            CASCompleteSerializer serializer = (CASCompleteSerializer) is.readObject();
+            CAS cas = CasCreationUtils.createCas((TypeSystemDescription) null, null, null);
+            deserializeCASComplete(serializer, (CASImpl) cas);
+            template = new TypeSystemTemplate(aFingerprint, serializer, cas.getTypeSystem(),
+                    hasDefaultIndexes(cas));
+            templates.put(file, template);
+            return template;
+        }
+        catch (IOException e) {
+            throw e;
+        }
+        catch (Exception e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Checks if the CAS only uses the index definitions with which every CAS is created.
+     */
+    private static boolean hasDefaultIndexes(CAS aCas)
+        throws ResourceInitializationException
+    {
+        CAS defaultCas = CasCreationUtils.createCas(aCas.getTypeSystem(), null, null, null);
+        return getIndexDefinitions(aCas).equals(getIndexDefinitions(defaultCas));
+    }
+
+    /**
+     * Stream over the remaining bytes of a buffer.
+     */
+    private static class ByteBufferInputStream
+        extends InputStream
+    {
+        private final ByteBuffer buffer;
+
+        public ByteBufferInputStream(ByteBuffer aBuffer)
+        {
+            buffer = aBuffer;
+        }
+
+        @Override
+        public int read()
+        {
+            return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] aBytes, int aOffset, int aLength)
+        {
+            if (aLength == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int length = Math.min(aLength, buffer.remaining());
+            buffer.get(aBytes, aOffset, length);
+            return length;
+        }
+
+        @Override
+        public long skip(long aCount)
+        {
+            int count = (int) Math.max(0, Math.min(aCount, buffer.remaining()));
+            buffer.position(buffer.position() + count);
+            return count;
+        }
+
+        @Override
+        public int available()
+        {
+            return buffer.remaining();
+        }
+
+        @Override
+        public boolean markSupported()
+        {
+            return true;
+        }
+
+        @Override
+        public synchronized void mark(int aReadLimit)
+        {
+            buffer.mark();
+        }
+
+        @Override
+        public synchronized void reset()
+        {
+            buffer.reset();
+        }
+    }
+
+    /**
+     * A type system stored in the type system folder of a project.
+     */
+    private static class TypeSystemTemplate
+    {
+        private final String fingerprint;
+        private final CASCompleteSerializer serializer;
+        private final TypeSystem typeSystem;
+        private final boolean defaultIndexes;
+
+        public TypeSystemTemplate(String aFingerprint, CASCompleteSerializer aSerializer,
+                TypeSystem aTypeSystem, boolean aDefaultIndexes)
+        {
+            fingerprint = aFingerprint;
+            serializer = aSerializer;
+            typeSystem = aTypeSystem;
+            defaultIndexes = aDefaultIndexes;
+        }
+    }
 }
@@ -0,0 +1,160 @@
+/*
+ * Copyright 2017
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.TypeSystem;
+import org.apache.uima.resource.ResourceInitializationException;
+import org.apache.uima.util.CasCreationUtils;
+
+/**
+ * Pool of empty CAS instances per type system.
+ * <p>
+ * Creating a CAS allocates the heaps, the indexes and the JCas cover class infrastructure. CASes
+ * returned to the pool are reset and handed out again to the next caller that needs a CAS with
+ * the same type system.
+ * <p>
+ * A CAS that is never returned is not leaked - the pool does not hold on to borrowed instances,
+ * so it is simply garbage collected. If the type system of a borrowed CAS has been replaced in
+ * the meantime (e.g. by upgrading the CAS), it is discarded when returned.
+ */
+public class CasPool
+{
+    private static final int MAX_TYPE_SYSTEMS = 16;
+
+    private final int maxIdle;
+
+    private final Map<String, Deque<CAS>> idle = new LinkedHashMap<String, Deque<CAS>>(16,
+            0.75f, true)
+    {
+        private static final long serialVersionUID = 6335281622163340460L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Deque<CAS>> aEldest)
+        {
+            return size() > MAX_TYPE_SYSTEMS;
+        }
+    };
+
+    private final Map<CAS, Borrowed> borrowed = Collections.synchronizedMap(new WeakHashMap<>());
+
+    private final AtomicLong created = new AtomicLong();
+    private final AtomicLong reused = new AtomicLong();
+
+    /**
+     * @param aMaxIdle
+     *            the maximum number of idle CASes kept per type system.
+     */
+    public CasPool(int aMaxIdle)
+    {
+        maxIdle = aMaxIdle;
+    }
+
+    /**
+     * Borrow an empty CAS using the given type system.
+     *
+     * @param aKey
+     *            the fingerprint of the type system.
+     * @param aTypeSystem
+     *            the type system.
+     * @return an empty CAS.
+     */
+    public CAS borrow(String aKey, TypeSystem aTypeSystem)
+        throws ResourceInitializationException
+    {
+        CAS cas = null;
+        synchronized (idle) {
+            Deque<CAS> pool = idle.get(aKey);
+            if (pool != null) {
+                cas = pool.poll();
+            }
+        }
+
+        if (cas != null && cas.getTypeSystem() == aTypeSystem) {
+            reused.incrementAndGet();
+        }
+        else {
+            cas = CasCreationUtils.createCas(aTypeSystem, null, null, null);
+            created.incrementAndGet();
+        }
+
+        borrowed.put(cas, new Borrowed(aKey, aTypeSystem));
+        return cas;
+    }
+
+    /**
+     * Return a CAS to the pool. CASes which have not been borrowed from the pool or whose type
+     * system has changed are ignored.
+     */
+    public void release(CAS aCas)
+    {
+        Borrowed info = borrowed.remove(aCas);
+        if (info == null || aCas.getTypeSystem() != info.typeSystem) {
+            return;
+        }
+
+        aCas.reset();
+
+        synchronized (idle) {
+            Deque<CAS> pool = idle.get(info.key);
+            if (pool == null) {
+                pool = new ArrayDeque<>();
+                idle.put(info.key, pool);
+            }
+            if (pool.size() < maxIdle) {
+                pool.push(aCas);
+            }
+        }
+    }
+
+    /**
+     * @return the number of CASes which had to be newly created.
+     */
+    public long getCreated()
+    {
+        return created.get();
+    }
+
+    /**
+     * @return the number of times a CAS from the pool could be reused.
+     */
+    public long getReused()
+    {
+        return reused.get();
+    }
+
+    private static final class Borrowed
+    {
+        private final String key;
+        private final TypeSystem typeSystem;
+
+        public Borrowed(String aKey, TypeSystem aTypeSystem)
+        {
+            key = aKey;
+            typeSystem = aTypeSystem;
+        }
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright 2017
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
+
+/**
+ * Stores the serialized CASes of the users for each document.
+ * <p>
+ * A backend only deals with bytes. Serialization, caching, locking and the write-behind are
+ * handled by the {@link CasStorageServiceImpl}, which also guarantees that there are never two
+ * concurrent operations on the CAS of the same document and user. Operations on different CASes
+ * may happen concurrently.
+ */
+public interface CasStorageBackend
+{
+    /**
+     * @return the version of the stored CAS or {@code null} if there is no CAS.
+     */
+    Version getVersion(SourceDocument aDocument, String aUsername)
+        throws IOException;
+
+    /**
+     * Open the stored CAS for reading. The caller must close the stream.
+     *
+     * @throws FileNotFoundException
+     *             if there is no CAS.
+     */
+    InputStream read(SourceDocument aDocument, String aUsername)
+        throws IOException;
+
+    /**
+     * Store a new version of the CAS. If the writer fails, the previous version (if any) remains
+     * in place.
+     */
+    void write(SourceDocument aDocument, String aUsername, StreamWriter aWriter)
+        throws IOException;
+
+    /**
+     * Delete the stored CAS. Does nothing if there is no CAS.
+     */
+    void delete(SourceDocument aDocument, String aUsername)
+        throws IOException;
+
+    /**
+     * Delete the stored CASes of all users for the given document.
+     */
+    void delete(SourceDocument aDocument)
+        throws IOException;
+
+    /**
+     * Perform periodic maintenance, e.g. reclaim space taken up by overwritten CASes. This is
+     * called regularly from a background thread.
+     *
+     * @return the number of bytes reclaimed.
+     */
+    long runMaintenance()
+        throws IOException;
+
+    /**
+     * Release all resources held by the backend.
+     */
+    void close()
+        throws IOException;
+
+    /**
+     * Writes the data of a CAS to the stream provided by the backend.
+     */
+    @FunctionalInterface
+    interface StreamWriter
+    {
+        void write(OutputStream aStream)
+            throws IOException;
+    }
+
+    /**
+     * Identifies a version of a stored CAS. Two versions are equal if they have the same timestamp
+     * and length.
+     */
+    final class Version
+    {
+        private final long timestamp;
+        private final long length;
+
+        public Version(long aTimestamp, long aLength)
+        {
+            timestamp = aTimestamp;
+            length = aLength;
+        }
+
+        public long getTimestamp()
+        {
+            return timestamp;
+        }
+
+        public long getLength()
+        {
+            return length;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return 31 * Long.hashCode(timestamp) + Long.hashCode(length);
+        }
+
+        @Override
+        public boolean equals(Object aOther)
+        {
+            if (this == aOther) {
+                return true;
+            }
+            if (!(aOther instanceof Version)) {
+                return false;
+            }
+            Version other = (Version) aOther;
+            return timestamp == other.timestamp && length == other.length;
+        }
+
+        @Override
+        public String toString()
+        {
+            return "[" + timestamp + ", " + length + "]";
+        }
+    }
+}
@@ -20,31 +20,64 @@ package de.tudarmstadt.ukp.clarin.webanno.api.dao;
 import static de.tudarmstadt.ukp.clarin.webanno.api.ProjectService.ANNOTATION;
 import static de.tudarmstadt.ukp.clarin.webanno.api.ProjectService.DOCUMENT;
 import static de.tudarmstadt.ukp.clarin.webanno.api.ProjectService.PROJECT;
+import static de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst.INITIAL_CAS_PSEUDO_USER;
+import static de.tudarmstadt.ukp.clarin.webanno.api.dao.StorageMetrics.Operation.DOCTOR;
+import static de.tudarmstadt.ukp.clarin.webanno.api.dao.StorageMetrics.Operation.READ;
+import static de.tudarmstadt.ukp.clarin.webanno.api.dao.StorageMetrics.Operation.WRITE;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileFilter;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.util.Arrays;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
 
 import javax.annotation.Resource;
 
 import org.apache.commons.io.FileUtils;
-import org.apache.commons.io.comparator.LastModifiedFileComparator;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.CountingInputStream;
 import org.apache.uima.UIMAException;
 import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.Marker;
+import org.apache.uima.cas.impl.Serialization;
 import org.apache.uima.jcas.JCas;
-import org.apache.uima.resource.metadata.TypeSystemDescription;
-import org.apache.uima.util.CasCreationUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.slf4j.MDC;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.dao.DataRetrievalFailureException;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
 
 import de.tudarmstadt.ukp.clarin.webanno.api.CasStorageService;
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.CasStorageBackend.Version;
 import de.tudarmstadt.ukp.clarin.webanno.diag.CasDoctor;
+import de.tudarmstadt.ukp.clarin.webanno.diag.CasDoctor.LogMessage;
 import de.tudarmstadt.ukp.clarin.webanno.diag.CasDoctorException;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocument;
 import de.tudarmstadt.ukp.clarin.webanno.model.Project;
@@ -54,11 +87,97 @@ import de.tudarmstadt.ukp.clarin.webanno.support.logging.Logging;
 import de.tudarmstadt.ukp.dkpro.core.api.metadata.type.DocumentMetaData;
 
 public class CasStorageServiceImpl
-    implements CasStorageService
+    implements CasStorageService, InitializingBean, DisposableBean
 {
     private final Logger log = LoggerFactory.getLogger(getClass());
 
-    private final Object lock = new Object();
+    /**
+     * Number of lock stripes used to guard the CAS files. Each (document, user) pair is mapped to
+     * one of the stripes such that access to different CASes can proceed concurrently while access
+     * to the same CAS is serialized.
+     */
+    public static final int DEFAULT_LOCK_STRIPES = 256;
+
+    public static final int DEFAULT_CACHE_SIZE = 100;
+    public static final long DEFAULT_CACHE_MEMORY = 256;
+
+    /**
+     * Maximum number of idle CAS instances kept per type system.
+     */
+    public static final int DEFAULT_POOL_SIZE = 8;
+
+    /**
+     * Interval (in seconds) in which the maintenance of the storage backend runs.
+     */
+    public static final long DEFAULT_STORAGE_MAINTENANCE_INTERVAL = 60;
+
+    /**
+     * The CAS doctor analyzes every CAS before it is written and after it is read.
+     */
+    public static final String DOCTOR_MODE_SYNC = "sync";
+
+    /**
+     * The CAS doctor analyzes the stored CAS in the background after it has been written. Repairs
+     * are still performed synchronously.
+     */
+    public static final String DOCTOR_MODE_ASYNC = "async";
+
+    /**
+     * Maximum number of CASes waiting for the background analysis. If more CASes are written,
+     * some of them are not analyzed.
+     */
+    public static final int DEFAULT_DOCTOR_QUEUE_SIZE = 100;
+
+    /**
+     * Maximum number of CASes for which the outcome of the background analysis is remembered.
+     */
+    public static final int DEFAULT_DOCTOR_STATE_SIZE = 10_000;
+
+    /**
+     * Name of the folder within a project folder that holds the copies of the CASes in which the
+     * CAS doctor has found problems. These copies are kept outside of the storage backend, so
+     * they are never mistaken for the CASes of actual users.
+     */
+    public static final String QUARANTINE_FOLDER = "quarantine";
+
+    /**
+     * Size of the journal relative to the size of the stored CAS above which the full CAS is
+     * written again instead of appending to the journal.
+     */
+    public static final double DEFAULT_JOURNAL_COMPACTION_THRESHOLD = 0.5;
+
+    /**
+     * Time (in seconds) after the last change after which a journal is folded into the stored
+     * CAS.
+     */
+    public static final long DEFAULT_JOURNAL_COMPACTION_INTERVAL = 300;
+
+    private final ReadWriteLock[] locks;
+
+    private CasStorageBackend backend;
+    private ScheduledExecutorService storageScheduler;
+
+    private CasCache cache;
+
+    private final CasPool casPool = new CasPool(DEFAULT_POOL_SIZE);
+    private final Map<CAS, Version> borrowedVersions = Collections
+            .synchronizedMap(new WeakHashMap<>());
+
+    private CasHistoryMaintenance historyMaintenance;
+    private ScheduledExecutorService historyScheduler;
+
+    private final Map<String, PendingWrite> pendingWrites = new ConcurrentHashMap<>();
+    private ScheduledExecutorService flusher;
+
+    private ExecutorService doctorExecutor;
+    private final Set<String> pendingAnalyses = ConcurrentHashMap.newKeySet();
+    private final Map<String, Version> analyzedVersions = createBoundedMap(
+            DEFAULT_DOCTOR_STATE_SIZE);
+    private final Map<String, QuarantinedCas> quarantine = createBoundedMap(
+            DEFAULT_DOCTOR_STATE_SIZE);
+
+    private CasJournal journal;
+    private final Map<String, JournalState> journalStates = new ConcurrentHashMap<>();
 
     @Value(value = "${repository.path}")
     private File dir;
@@ -71,13 +190,335 @@ public class CasStorageServiceImpl
 
     @Value(value = "${backup.keep.number}")
     private int backupKeepNumber;
+
+    @Value(value = "${backup.maintenance.interval}")
+    private long backupMaintenanceInterval;
+
+    @Value(value = "${cas.cache.size}")
+    private int cacheSize;
+
+    @Value(value = "${cas.cache.memory}")
+    private long cacheMemory;
+
+    @Value(value = "${cas.write-behind.interval}")
+    private long writeBehindInterval;
+
+    @Value(value = "${cas.storage.backend}")
+    private String backendName;
+
+    @Value(value = "${cas.journal.enabled}")
+    private boolean journalEnabled;
+
+    @Value(value = "${cas.journal.compaction.threshold}")
+    private double journalCompactionThreshold = DEFAULT_JOURNAL_COMPACTION_THRESHOLD;
+
+    @Value(value = "${cas.journal.compaction.interval}")
+    private long journalCompactionInterval = DEFAULT_JOURNAL_COMPACTION_INTERVAL;
+
+    @Value(value = "${debug.casDoctor.mode}")
+    private String doctorMode = DOCTOR_MODE_SYNC;
+
+    @Value(value = "${debug.casDoctor.sampleRate}")
+    private double doctorSampleRate = 1.0;
     
     @Resource(name = "casDoctor")
     private CasDoctor casDoctor;
+
+    @Resource(name = "storageMetrics")
+    private StorageMetrics metrics = new StorageMetrics();
     
     public CasStorageServiceImpl()
     {
-        // Nothing to do
+        this(DEFAULT_LOCK_STRIPES);
+    }
+
+    public CasStorageServiceImpl(int aLockStripes)
+    {
+        if (aLockStripes < 1) {
+            throw new IllegalArgumentException("Number of lock stripes must be at least 1 but was ["
+                    + aLockStripes + "]");
+        }
+        
+        locks = new ReadWriteLock[aLockStripes];
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new ReentrantReadWriteLock();
+        }
+    }
+
+    /**
+     * This constructor must only be used for unit tests.
+     */
+    public CasStorageServiceImpl(File aDir, CasDoctor aCasDoctor)
+    {
+        this(aDir, aCasDoctor, FileSystemCasStorageBackend.NAME);
+    }
+
+    /**
+     * This constructor must only be used for unit tests.
+     */
+    public CasStorageServiceImpl(File aDir, CasDoctor aCasDoctor, String aBackendName)
+    {
+        this();
+        dir = aDir;
+        casDoctor = aCasDoctor;
+        cacheSize = DEFAULT_CACHE_SIZE;
+        cacheMemory = DEFAULT_CACHE_MEMORY;
+        backendName = aBackendName;
+        afterPropertiesSet();
+    }
+
+    @Override
+    public void afterPropertiesSet()
+    {
+        backend = createBackend(backendName, dir);
+        log.info("CAS storage backend: {}", backend);
+
+        if (!DOCTOR_MODE_SYNC.equals(doctorMode) && !DOCTOR_MODE_ASYNC.equals(doctorMode)) {
+            throw new IllegalArgumentException("Unsupported CAS doctor mode [" + doctorMode + "]");
+        }
+        if (isAsyncDoctor() || doctorSampleRate < 1.0) {
+            log.info("CAS doctor: {} ({}% of writes)", doctorMode, doctorSampleRate * 100);
+        }
+
+        storageScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "cas-storage-maintenance");
+            t.setDaemon(true);
+            return t;
+        });
+        storageScheduler.scheduleWithFixedDelay(this::runStorageMaintenance,
+                DEFAULT_STORAGE_MAINTENANCE_INTERVAL, DEFAULT_STORAGE_MAINTENANCE_INTERVAL,
+                TimeUnit.SECONDS);
+
+        // The history is kept next to the CAS files, so it only works if there are CAS files
+        if (backupInterval > 0 && !(backend instanceof FileSystemCasStorageBackend)) {
+            log.warn("CAS history is not supported by the [{}] storage backend - disabled",
+                    backend);
+            backupInterval = 0;
+        }
+
+        cache = new CasCache(cacheSize, cacheMemory * 1024 * 1024);
+        historyMaintenance = new CasHistoryMaintenance(new CasHistoryStore(dir), this::getLock,
+                backupInterval, backupKeepNumber, backupKeepTime);
+        historyMaintenance.setMetrics(metrics);
+        if (backend instanceof FileSystemCasStorageBackend) {
+            // Scanning the repository may take a while, so it must not delay the startup
+            storageScheduler.execute(this::recoverStagedVersions);
+        }
+        metrics.setCaches(cache, casPool);
+        if (cache.isEnabled()) {
+            log.info("CAS cache: {} CASes / {} MB", cacheSize, cacheMemory);
+        }
+        else {
+            log.info("CAS cache: disabled");
+        }
+        
+        if (writeBehindInterval > 0) {
+            log.info("CAS write-behind: {} seconds", writeBehindInterval);
+        }
+
+        journal = new CasJournal(dir);
+        checkJournalSupported();
+        if (journalEnabled) {
+            log.info("CAS journal: compaction at {}% of the CAS size or after {} seconds",
+                    journalCompactionThreshold * 100, journalCompactionInterval);
+        }
+        
+        if (backupInterval > 0 && backupMaintenanceInterval > 0) {
+            historyScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "cas-history-maintenance");
+                t.setDaemon(true);
+                return t;
+            });
+            historyScheduler.scheduleWithFixedDelay(historyMaintenance::runMaintenance,
+                    backupMaintenanceInterval, backupMaintenanceInterval, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Hand the versions staged for the history which have been left behind by a previous run of
+     * the application back to the history maintenance.
+     */
+    void recoverStagedVersions()
+    {
+        File[] projectFolders = new File(dir, PROJECT).listFiles(File::isDirectory);
+        if (projectFolders == null) {
+            return;
+        }
+
+        int recovered = 0;
+        for (File projectFolder : projectFolders) {
+            File[] documentFolders = new File(projectFolder, DOCUMENT)
+                    .listFiles(File::isDirectory);
+            if (!projectFolder.getName().matches("\\d+") || documentFolders == null) {
+                continue;
+            }
+
+            Project project = new Project();
+            project.setId(Long.parseLong(projectFolder.getName()));
+            for (File documentFolder : documentFolders) {
+                if (!documentFolder.getName().matches("\\d+")) {
+                    continue;
+                }
+
+                // The maintenance only needs the IDs to locate the CAS and its history
+                SourceDocument document = new SourceDocument();
+                document.setId(Long.parseLong(documentFolder.getName()));
+                document.setProject(project);
+                recovered += historyMaintenance.recoverStaged(document,
+                        new File(documentFolder, ANNOTATION));
+            }
+        }
+
+        if (recovered > 0) {
+            log.info("CAS history: picked up {} versions staged before the last shutdown",
+                    recovered);
+        }
+    }
+
+    @Override
+    public void destroy()
+        throws IOException
+    {
+        synchronized (pendingWrites) {
+            if (flusher != null) {
+                flusher.shutdownNow();
+                flusher = null;
+            }
+        }
+
+        synchronized (pendingAnalyses) {
+            if (doctorExecutor != null) {
+                doctorExecutor.shutdownNow();
+                doctorExecutor = null;
+            }
+        }
+        
+        // Persist whatever has not been written yet before shutting down
+        flush();
+        
+        if (historyScheduler != null) {
+            historyScheduler.shutdownNow();
+            historyScheduler = null;
+        }
+        historyMaintenance.runMaintenance();
+
+        if (storageScheduler != null) {
+            storageScheduler.shutdownNow();
+            storageScheduler = null;
+        }
+        backend.close();
+    }
+
+    /**
+     * Create the storage backend with the given name.
+     *
+     * @param aName
+     *            the name of the backend as used in the {@code cas.storage.backend} setting.
+     * @param aDir
+     *            the repository folder.
+     * @return the backend.
+     */
+    public static CasStorageBackend createBackend(String aName, File aDir)
+    {
+        switch (aName) {
+        case FileSystemCasStorageBackend.NAME:
+            return new FileSystemCasStorageBackend(aDir);
+        case SegmentCasStorageBackend.NAME:
+            return new SegmentCasStorageBackend(aDir);
+        default:
+            throw new IllegalArgumentException("Unsupported CAS storage backend [" + aName + "]");
+        }
+    }
+
+    void runStorageMaintenance()
+    {
+        try {
+            backend.runMaintenance();
+        }
+        catch (Exception e) {
+            log.error("Unable to maintain CAS storage", e);
+        }
+
+        compactIdleJournals();
+    }
+
+    /**
+     * Set the interval (in seconds) in which modified CASes are written to disk. If this is
+     * {@code 0}, CASes are written immediately.
+     */
+    public void setWriteBehindInterval(long aWriteBehindInterval)
+    {
+        writeBehindInterval = aWriteBehindInterval;
+    }
+
+    /**
+     * Set whether changes to a CAS are appended to a journal instead of writing the full CAS.
+     */
+    public void setJournalEnabled(boolean aJournalEnabled)
+    {
+        journalEnabled = aJournalEnabled;
+        checkJournalSupported();
+    }
+
+    /**
+     * The journal is kept next to the CAS files and refers to them by their version and checksum,
+     * so it only works if there are CAS files.
+     */
+    private void checkJournalSupported()
+    {
+        if (journalEnabled && backend != null
+                && !(backend instanceof FileSystemCasStorageBackend)) {
+            log.warn("CAS journal is not supported by the [{}] storage backend - disabled",
+                    backend);
+            journalEnabled = false;
+        }
+    }
+
+    /**
+     * Set the size of the journal relative to the size of the stored CAS above which the full CAS
+     * is written again.
+     */
+    public void setJournalCompactionThreshold(double aJournalCompactionThreshold)
+    {
+        journalCompactionThreshold = aJournalCompactionThreshold;
+    }
+
+    /**
+     * Set the time (in seconds) after the last change after which a journal is folded into the
+     * stored CAS.
+     */
+    public void setJournalCompactionInterval(long aJournalCompactionInterval)
+    {
+        journalCompactionInterval = aJournalCompactionInterval;
+    }
+
+    /**
+     * Set whether the CAS doctor runs synchronously ({@link #DOCTOR_MODE_SYNC}) or in the
+     * background ({@link #DOCTOR_MODE_ASYNC}).
+     */
+    public void setDoctorMode(String aDoctorMode)
+    {
+        doctorMode = aDoctorMode;
+    }
+
+    /**
+     * Set the share of writes (between {@code 0} and {@code 1}) after which the CAS doctor
+     * analyzes the CAS.
+     */
+    public void setDoctorSampleRate(double aDoctorSampleRate)
+    {
+        doctorSampleRate = aDoctorSampleRate;
+    }
+
+    private boolean isAsyncDoctor()
+    {
+        return DOCTOR_MODE_ASYNC.equals(doctorMode);
+    }
+
+    private boolean isSampled()
+    {
+        return doctorSampleRate >= 1.0
+                || ThreadLocalRandom.current().nextDouble() < doctorSampleRate;
     }
 
     /**
@@ -101,6 +542,37 @@ public class CasStorageServiceImpl
                 aDocument.getProject().getId());
         // DebugUtils.smallStack();
 
+        // In the asynchronous mode, the CAS is analyzed after it has been written
+        if (!isAsyncDoctor() && isSampled()) {
+            analyzeBeforeWrite(aDocument, aJcas, aUserName);
+        }
+        
+        ReadWriteLock lock = getLock(aDocument, aUserName);
+        metrics.lock(lock.writeLock(), WRITE, aDocument);
+        try {
+            // In the journal mode, only the changes are written if possible
+            if (journalEnabled && appendToJournal(aDocument, aJcas, aUserName)) {
+                return;
+            }
+            
+            // The first version of a CAS is always written immediately because the existence of
+            // the CAS indicates that the annotation document has been created.
+            if (writeBehindInterval > 0 && backend.getVersion(aDocument, aUserName) != null) {
+                scheduleWrite(aDocument, aJcas, aUserName);
+            }
+            else {
+                pendingWrites.remove(getPendingWriteKey(aDocument, aUserName));
+                writeCasFile(aDocument, aJcas, aUserName);
+            }
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void analyzeBeforeWrite(SourceDocument aDocument, JCas aJcas, String aUserName)
+    {
+        long doctorStart = System.nanoTime();
         try {
             casDoctor.analyze(aDocument.getProject(), aJcas.getCas());
         }
@@ -123,199 +595,459 @@ public class CasStorageServiceImpl
                     + aDocument.getProject().getName() + "] ("
                     + aDocument.getProject().getId() + ")", e);
         }
-        
-        synchronized (lock) {
-            File annotationFolder = getAnnotationFolder(aDocument);
-            FileUtils.forceMkdir(annotationFolder);
-
-            final String username = aUserName;
+        finally {
+            metrics.record(DOCTOR, aDocument, aUserName, System.nanoTime() - doctorStart, 0);
+        }
+    }
 
-            File currentVersion = new File(annotationFolder, username + ".ser");
-            File oldVersion = new File(annotationFolder, username + ".ser.old");
+    /**
+     * Write the CAS to the storage backend including the management of the history. The caller
+     * must hold the write lock for the CAS.
+     */
+    private void writeCasFile(SourceDocument aDocument, JCas aJcas, String aUserName)
+        throws IOException
+    {
+        writeCasFile(aDocument, createSnapshot(aDocument, aJcas, aUserName), aUserName);
+    }
 
-            // Save current version
-            try {
-                // Make a backup of the current version of the file before overwriting
-                if (currentVersion.exists()) {
-                    renameFile(currentVersion, oldVersion);
-                }
+    /**
+     * Capture the state of the CAS as it is going to be written. The CAS instance stays with the
+     * caller who may continue to modify it, so everything that is written later - possibly by
+     * another thread - is taken from the snapshot. The caller must hold the write lock for the
+     * CAS.
+     */
+    private CasSnapshot createSnapshot(SourceDocument aDocument, JCas aJcas, String aUserName)
+        throws IOException
+    {
+        // Now write the new version to "<username>.ser" or CURATION_USER.ser
+        DocumentMetaData md;
+        try {
+            md = DocumentMetaData.get(aJcas);
+        }
+        catch (IllegalArgumentException e) {
+            md = DocumentMetaData.create(aJcas);
+        }
+        md.setDocumentId(aUserName);
 
-                // Now write the new version to "<username>.ser" or CURATION_USER.ser
-                DocumentMetaData md;
-                try {
-                    md = DocumentMetaData.get(aJcas);
-                }
-                catch (IllegalArgumentException e) {
-                    md = DocumentMetaData.create(aJcas);
-                }
-                md.setDocumentId(aUserName);
-
-                File targetPath = getAnnotationFolder(aDocument);
-                CasPersistenceUtils.writeSerializedCas(aJcas,
-                        new File(targetPath, aUserName + ".ser"));
-
-                try (MDC.MDCCloseable closable = MDC.putCloseable(Logging.KEY_PROJECT_ID,
-                        String.valueOf(aDocument.getProject().getId()))) {
-                    Project project = aDocument.getProject();
-                    log.info(
-                            "Updated annotations for user [{}] on document [{}]({}) in project [{}]({})",
-                            aUserName, aDocument.getName(), aDocument.getId(), project.getName(),
-                            project.getId());
-                }                
-
-                // If the saving was successful, we delete the old version
-                if (oldVersion.exists()) {
-                    FileUtils.forceDelete(oldVersion);
-                }
-            }
-            catch (IOException e) {
-                // If we could not save the new version, restore the old one.
-                FileUtils.forceDelete(currentVersion);
-                // If this is the first version, there is no old version, so do not restore anything
-                if (oldVersion.exists()) {
-                    renameFile(oldVersion, currentVersion);
-                }
-                // Now abort anyway
-                throw e;
-            }
+        return new CasSnapshot(serializeCas(aDocument.getProject(), aJcas));
+    }
 
-            // Manage history
-            if (backupInterval > 0) {
-                // Determine the reference point in time based on the current version
-                long now = currentVersion.lastModified();
+    /**
+     * Write the CAS snapshot to the storage backend including the management of the history. The
+     * caller must hold the write lock for the CAS.
+     */
+    private void writeCasFile(SourceDocument aDocument, CasSnapshot aSnapshot, String aUserName)
+        throws IOException
+    {
+        // The serialized CAS is written to the backend and also kept in the cache
+        long start = System.nanoTime();
+        byte[] data = aSnapshot.data;
+        try {
+            backend.write(aDocument, aUserName, os -> os.write(data));
+        }
+        catch (IOException e) {
+            cache.remove(aDocument, aUserName);
+            throw e;
+        }
+        metrics.record(WRITE, aDocument, aUserName, System.nanoTime() - start, data.length);
 
-                // Get all history files for the current user
-                File[] history = annotationFolder.listFiles(new FileFilter()
-                {
-                    private final Matcher matcher = Pattern.compile(
-                            Pattern.quote(username) + "\\.ser\\.[0-9]+\\.bak").matcher("");
+        // The new version contains all changes recorded in the journal. Should deleting the
+        // journal fail, it is ignored anyway because it no longer matches the stored CAS.
+        journalStates.remove(getPendingWriteKey(aDocument, aUserName));
+        try {
+            journal.delete(aDocument, aUserName);
+        }
+        catch (IOException e) {
+            log.warn("Unable to delete journal of annotation document [{}]({}) for user [{}]",
+                    aDocument.getName(), aDocument.getId(), aUserName, e);
+        }
 
-                    @Override
-                    public boolean accept(File aFile)
-                    {
-                        // Check if the filename matches the pattern given above.
-                        return matcher.reset(aFile.getName()).matches();
-                    }
-                });
+        Version version = backend.getVersion(aDocument, aUserName);
+        if (journalEnabled) {
+            // Changes are journaled relative to the CAS instance handed out by readCas, so in
+            // the journal mode, the CAS is always loaded from the backend
+            cache.remove(aDocument, aUserName);
+        }
+        else {
+            cache.put(aDocument, aUserName, data, version);
+        }
 
-                // Sort the files (oldest one first)
-                Arrays.sort(history, LastModifiedFileComparator.LASTMODIFIED_COMPARATOR);
-
-                // Check if we need to make a new history file
-                boolean historyFileCreated = false;
-                File historyFile = new File(annotationFolder, username + ".ser." + now + ".bak");
-                if (history.length == 0) {
-                    // If there is no history yet but we should keep history, then we create a
-                    // history file in any case.
-                    FileUtils.copyFile(currentVersion, historyFile);
-                    historyFileCreated = true;
-                }
-                else {
-                    // Check if the newest history file is significantly older than the current one
-                    File latestHistory = history[history.length - 1];
-                    if (latestHistory.lastModified() + backupInterval < now) {
-                        FileUtils.copyFile(currentVersion, historyFile);
-                        historyFileCreated = true;
-                    }
-                }
+        try (MDC.MDCCloseable closable = MDC.putCloseable(Logging.KEY_PROJECT_ID,
+                String.valueOf(aDocument.getProject().getId()))) {
+            Project project = aDocument.getProject();
+            log.info(
+                    "Updated annotations for user [{}] on document [{}]({}) in project [{}]({})",
+                    aUserName, aDocument.getName(), aDocument.getId(), project.getName(),
+                    project.getId());
+        }                
 
-                // Prune history based on number of backup
-                if (historyFileCreated) {
-                    // The new version is not in the history, so we keep that in any case. That
-                    // means we need to keep one less.
-                    int toKeep = Math.max(backupKeepNumber - 1, 0);
-                    if ((backupKeepNumber > 0) && (toKeep < history.length)) {
-                        // Copy the oldest files to a new array
-                        File[] toRemove = new File[history.length - toKeep];
-                        System.arraycopy(history, 0, toRemove, 0, toRemove.length);
-
-                        // Restrict the history to what is left
-                        File[] newHistory = new File[toKeep];
-                        if (toKeep > 0) {
-                            System.arraycopy(history, toRemove.length, newHistory, 0,
-                                    newHistory.length);
-                        }
-                        history = newHistory;
-
-                        // Remove these old files
-                        for (File file : toRemove) {
-                            FileUtils.forceDelete(file);
-                            
-                            try (MDC.MDCCloseable closable = MDC.putCloseable(
-                                    Logging.KEY_PROJECT_ID,
-                                    String.valueOf(aDocument.getProject().getId()))) {
-                                Project project = aDocument.getProject();
-                                log.info(
-                                        "Removed surplus history file [{}] of user [{}] for "
-                                                + "document [{}]({}) in project [{}]({})",
-                                        file.getName(), aUserName, aDocument.getName(),
-                                        aDocument.getId(), project.getName(), project.getId());
-                            }
-                        }
-                    }
+        // The history is managed in the background
+        if (backupInterval > 0) {
+            historyMaintenance.casWritten(aDocument, aUserName,
+                    ((FileSystemCasStorageBackend) backend).getCasFile(aDocument, aUserName));
+        }
 
-                    // Prune history based on time
-                    if (backupKeepTime > 0) {
-                        for (File file : history) {
-                            if ((file.lastModified() + backupKeepTime) < now) {
-                                FileUtils.forceDelete(file);
-                                
-                                try (MDC.MDCCloseable closable = MDC.putCloseable(
-                                        Logging.KEY_PROJECT_ID,
-                                        String.valueOf(aDocument.getProject().getId()))) {
-                                    Project project = aDocument.getProject();
-                                    log.info(
-                                            "Removed outdated history file [{}] of user [{}] for "
-                                                    + "document [{}]({}) in project [{}]({})",
-                                            file.getName(), aUserName, aDocument.getName(),
-                                            aDocument.getId(), project.getName(), project.getId());
-                                }
-                            }
-                        }
-                    }
-                }
-            }
+        if (isAsyncDoctor() && isSampled()) {
+            scheduleAnalysis(aDocument, aUserName);
         }
     }
 
     /**
-     * For a given {@link SourceDocument}, return the {@link AnnotationDocument} for the user or for
-     * the CURATION_USER
+     * Append the changes made to the CAS since it has been loaded or last been written to the
+     * journal. This is only possible for the CAS which has been loaded from the storage and as
+     * long as the journal is not too large. The caller must hold the write lock for the CAS.
      *
-     * @param aDocument
-     *            the {@link SourceDocument}
-     * @param aUsername
-     *            the {@link User} who annotates the {@link SourceDocument} or the CURATION_USER
+     * @return whether the changes have been journaled. If not, the full CAS needs to be written.
      */
-    @Override
-    public JCas readCas(SourceDocument aDocument, String aUsername)
+    private boolean appendToJournal(SourceDocument aDocument, JCas aJcas, String aUserName)
         throws IOException
     {
-        log.debug("Reading annotation document [{}] ({}) for user [{}] in project [{}] ({})",
-                aDocument.getName(), aDocument.getId(), aUsername, aDocument.getProject().getName(),
-                aDocument.getProject().getId());
+        String key = getPendingWriteKey(aDocument, aUserName);
+        JournalState state = journalStates.get(key);
+        if (state == null || state.jcas != aJcas || !state.marker.isValid()
+                || pendingWrites.containsKey(key)) {
+            return false;
+        }
 
-        // DebugUtils.smallStack();
+        // Make sure nothing else has changed the stored CAS in the meantime
+        if (!state.casVersion.equals(backend.getVersion(aDocument, aUserName))
+                || state.size != journal.getSize(aDocument, aUserName)) {
+            journalStates.remove(key);
+            return false;
+        }
 
-        synchronized (lock) {
-            File annotationFolder = getAnnotationFolder(aDocument);
+        // Rather write the full CAS than replay a long journal every time the CAS is loaded
+        if (state.size > state.casVersion.getLength() * journalCompactionThreshold) {
+            return false;
+        }
 
-            String file = aUsername + ".ser";
+        long start = System.nanoTime();
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        Serialization.serializeCAS(aJcas.getCas(), bos, state.marker);
+        try {
+            state.size = journal.append(aDocument, aUserName, state.casVersion,
+                    state.casChecksum, bos.toByteArray());
+        }
+        catch (IOException e) {
+            log.warn("Unable to journal changes of annotation document [{}]({}) for user [{}] - "
+                    + "writing the full CAS", aDocument.getName(), aDocument.getId(), aUserName,
+                    e);
+            journalStates.remove(key);
+            return false;
+        }
+        state.marker = aJcas.getCas().createMarker();
+        state.lastChange = System.currentTimeMillis();
+        metrics.record(WRITE, aDocument, aUserName, System.nanoTime() - start, bos.size());
 
-            try {
-                File serializedCasFile = new File(annotationFolder, file);
-                if (!serializedCasFile.exists()) {
-                    throw new FileNotFoundException("Annotation document of user [" + aUsername
+        log.debug("Journaled changes of annotation document [{}]({}) for user [{}]: {} bytes",
+                aDocument.getName(), aDocument.getId(), aUserName, bos.size());
+
+        if (isAsyncDoctor() && isSampled()) {
+            scheduleAnalysis(aDocument, aUserName);
+        }
+        
+        return true;
+    }
+
+    /**
+     * Fold the journal into a new version of the stored CAS. The caller must not hold the lock
+     * for the CAS.
+     */
+    private void compactJournal(SourceDocument aDocument, String aUsername)
+        throws IOException
+    {
+        ReadWriteLock lock = getLock(aDocument, aUsername);
+        metrics.lock(lock.writeLock(), WRITE, aDocument);
+        try {
+            String key = getPendingWriteKey(aDocument, aUsername);
+            // A pending write replaces the stored CAS and the journal anyway
+            if (pendingWrites.containsKey(key)) {
+                return;
+            }
+            
+            if (!journal.exists(aDocument, aUsername)
+                    || backend.getVersion(aDocument, aUsername) == null) {
+                journalStates.remove(key);
+                return;
+            }
+
+            // The stored CAS is written back as it is - changes which have not been saved yet
+            // are not persisted by accident
+            CAS cas = readCasFromBackend(aDocument, aUsername);
+            try {
+                writeCasFile(aDocument, cas.getJCas(), aUsername);
+            }
+            finally {
+                casPool.release(cas);
+            }
+            
+            log.debug("Compacted journal of annotation document [{}]({}) for user [{}]",
+                    aDocument.getName(), aDocument.getId(), aUsername);
+        }
+        catch (UIMAException e) {
+            throw new DataRetrievalFailureException("Unable to parse annotation", e);
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Fold the journals which have not changed for a while into the stored CASes. CASes which
+     * have been loaded but not changed for a while are no longer tracked, so they do not stay in
+     * memory. Changing them later writes the full CAS.
+     */
+    private void compactIdleJournals()
+    {
+        long idleSince = System.currentTimeMillis()
+                - TimeUnit.SECONDS.toMillis(journalCompactionInterval);
+        for (JournalState state : new ArrayList<>(journalStates.values())) {
+            if (state.size == 0 && state.lastChange <= idleSince) {
+                journalStates.remove(getPendingWriteKey(state.document, state.username), state);
+            }
+            else if (state.size > 0 && state.lastChange <= idleSince) {
+                try {
+                    compactJournal(state.document, state.username);
+                }
+                catch (Exception e) {
+                    log.error("Unable to compact journal of annotation document [{}]({}) for "
+                            + "user [{}]", state.document.getName(), state.document.getId(),
+                            state.username, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the version of the stored CAS including its journal. The version changes whenever a
+     * change is journaled, so it can be used to tell if e.g. a cached CAS is still current.
+     *
+     * @return the version or {@code null} if there is no CAS.
+     */
+    private Version getStoredVersion(SourceDocument aDocument, String aUsername)
+        throws IOException
+    {
+        Version version = backend.getVersion(aDocument, aUsername);
+        if (version == null) {
+            return null;
+        }
+        long journalSize = journal.getSize(aDocument, aUsername);
+        return journalSize > 0
+                ? new Version(version.getTimestamp(), version.getLength() + journalSize)
+                : version;
+    }
+
+    /**
+     * Remember a snapshot of the CAS to be written later. If there is already a write pending for
+     * the CAS, the two writes are coalesced. The caller must hold the write lock for the CAS.
+     */
+    private void scheduleWrite(SourceDocument aDocument, JCas aJcas, String aUserName)
+        throws IOException
+    {
+        String key = getPendingWriteKey(aDocument, aUserName);
+        CasSnapshot snapshot = createSnapshot(aDocument, aJcas, aUserName);
+        String owner = getCurrentUsername();
+        PendingWrite pending = pendingWrites.get(key);
+        if (pending != null) {
+            pending.snapshot = snapshot;
+            pending.owner = owner;
+            log.debug("Coalesced write of annotation document [{}]({}) for user [{}]",
+                    aDocument.getName(), aDocument.getId(), aUserName);
+            return;
+        }
+        
+        pending = new PendingWrite(aDocument, aUserName, snapshot, owner);
+        pendingWrites.put(key, pending);
+        // The cached CAS is outdated now
+        cache.remove(aDocument, aUserName);
+        
+        final PendingWrite write = pending;
+        synchronized (pendingWrites) {
+            if (flusher == null) {
+                flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+                    Thread t = new Thread(r, "cas-write-behind");
+                    t.setDaemon(true);
+                    return t;
+                });
+            }
+            flusher.schedule(() -> flushPendingWrite(write), writeBehindInterval,
+                    TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Write the given pending CAS to disk unless it has been written already or has been
+     * superseded by an immediate write.
+     */
+    private void flushPendingWrite(PendingWrite aWrite)
+    {
+        ReadWriteLock lock = getLock(aWrite.document, aWrite.username);
+        metrics.lock(lock.writeLock(), WRITE, aWrite.document);
+        try {
+            String key = getPendingWriteKey(aWrite.document, aWrite.username);
+            if (!pendingWrites.remove(key, aWrite)) {
+                return;
+            }
+            
+            // If the CAS is gone, the document has been deleted in the meantime
+            if (backend.getVersion(aWrite.document, aWrite.username) == null) {
+                return;
+            }
+            
+            writeCasFile(aWrite.document, aWrite.snapshot, aWrite.username);
+        }
+        catch (Exception e) {
+            log.error("Unable to write annotation document [{}]({}) for user [{}] in project "
+                    + "[{}]({}) - will retry", aWrite.document.getName(), aWrite.document.getId(),
+                    aWrite.username, aWrite.document.getProject().getName(),
+                    aWrite.document.getProject().getId(), e);
+            // Try again later unless the CAS has been written again in the meantime
+            if (pendingWrites.putIfAbsent(getPendingWriteKey(aWrite.document, aWrite.username),
+                    aWrite) == null) {
+                synchronized (pendingWrites) {
+                    if (flusher != null) {
+                        flusher.schedule(() -> flushPendingWrite(aWrite), writeBehindInterval,
+                                TimeUnit.SECONDS);
+                    }
+                }
+            }
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void flush(SourceDocument aDocument)
+        throws IOException
+    {
+        for (PendingWrite write : new ArrayList<>(pendingWrites.values())) {
+            if (write.document.getId() == aDocument.getId()) {
+                flush(write);
+            }
+        }
+
+        // Afterwards, the stored CASes are complete without their journals
+        for (String username : journal.listUsers(aDocument)) {
+            compactJournal(aDocument, username);
+        }
+    }
+
+    @Override
+    public void flush(String aUsername)
+        throws IOException
+    {
+        for (PendingWrite write : new ArrayList<>(pendingWrites.values())) {
+            if (aUsername.equals(write.owner != null ? write.owner : write.username)) {
+                flush(write);
+            }
+        }
+    }
+
+    @Override
+    public void flush()
+        throws IOException
+    {
+        List<PendingWrite> writes = new ArrayList<>(pendingWrites.values());
+        if (!writes.isEmpty()) {
+            log.info("Writing {} pending annotation documents", writes.size());
+        }
+        
+        for (PendingWrite write : writes) {
+            flush(write);
+        }
+
+        for (JournalState state : new ArrayList<>(journalStates.values())) {
+            if (state.size > 0) {
+                compactJournal(state.document, state.username);
+            }
+        }
+    }
+    
+    private void flush(PendingWrite aWrite)
+        throws IOException
+    {
+        ReadWriteLock lock = getLock(aWrite.document, aWrite.username);
+        metrics.lock(lock.writeLock(), WRITE, aWrite.document);
+        try {
+            String key = getPendingWriteKey(aWrite.document, aWrite.username);
+            if (pendingWrites.remove(key, aWrite)) {
+                if (backend.getVersion(aWrite.document, aWrite.username) != null) {
+                    writeCasFile(aWrite.document, aWrite.snapshot, aWrite.username);
+                }
+            }
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * For a given {@link SourceDocument}, return the {@link AnnotationDocument} for the user or for
+     * the CURATION_USER
+     *
+     * @param aDocument
+     *            the {@link SourceDocument}
+     * @param aUsername
+     *            the {@link User} who annotates the {@link SourceDocument} or the CURATION_USER
+     */
+    @Override
+    public JCas readCas(SourceDocument aDocument, String aUsername)
+        throws IOException
+    {
+        log.debug("Reading annotation document [{}] ({}) for user [{}] in project [{}] ({})",
+                aDocument.getName(), aDocument.getId(), aUsername, aDocument.getProject().getName(),
+                aDocument.getProject().getId());
+
+        // DebugUtils.smallStack();
+
+        ReadWriteLock lock = getLock(aDocument, aUsername);
+        metrics.lock(lock.readLock(), READ, aDocument);
+        try {
+            try {
+                Version version = getStoredVersion(aDocument, aUsername);
+                if (version == null) {
+                    throw new FileNotFoundException("Annotation document of user [" + aUsername
                             + "] for source document [" + aDocument.getName() + "] ("
                             + aDocument.getId() + ") not found in project["
                             + aDocument.getProject().getName() + "] ("
                             + aDocument.getProject().getId() + ")");
                 }
 
-                CAS cas = CasCreationUtils.createCas((TypeSystemDescription) null, null, null);
-                CasPersistenceUtils.readSerializedCas(cas.getJCas(), serializedCasFile);
+                // A CAS that is still waiting to be written is more recent than the file
+                PendingWrite pending = pendingWrites
+                        .get(getPendingWriteKey(aDocument, aUsername));
+                if (pending != null) {
+                    return deserializeCas(aDocument.getProject(), pending.snapshot.data)
+                            .getJCas();
+                }
+
+                // The cached CAS has already been analyzed when it was loaded or written. Every
+                // caller gets its own copy, so changes do not leak to other callers before they
+                // have been written.
+                byte[] cachedData = cache.get(aDocument, aUsername, version);
+                if (cachedData != null) {
+                    return deserializeCas(aDocument.getProject(), cachedData).getJCas();
+                }
+
+                LoadedCas loaded = loadCas(aDocument, aUsername);
+                CAS cas = loaded.cas;
+
+                // Changes are tracked before the analysis, so repairs end up in the journal too
+                if (journalEnabled) {
+                    journalStates.put(getPendingWriteKey(aDocument, aUsername),
+                            new JournalState(aDocument, aUsername, cas.getJCas(),
+                                    cas.createMarker(), loaded.casVersion, loaded.casChecksum,
+                                    journal.getSize(aDocument, aUsername)));
+                }
+
+                analyzeAfterRead(aDocument, aUsername, cas, version);
 
-                analyzeAndRepair(aDocument, aUsername, cas);
+                // The cache holds the state after the repairs, so they are not applied again
+                if (!journalEnabled && cache.isEnabled()) {
+                    cache.put(aDocument, aUsername,
+                            serializeCas(aDocument.getProject(), cas.getJCas()), version);
+                }
 
                 return cas.getJCas();
             }
@@ -323,10 +1055,43 @@ public class CasStorageServiceImpl
                 throw new DataRetrievalFailureException("Unable to parse annotation", e);
             }
         }
+        finally {
+            lock.readLock().unlock();
+        }
     }
     
     @Override
     public void analyzeAndRepair(SourceDocument aDocument, String aUsername, CAS aCas)
+    {
+        long start = System.nanoTime();
+        try {
+            doAnalyzeAndRepair(aDocument, aUsername, aCas);
+        }
+        finally {
+            metrics.record(DOCTOR, aDocument, aUsername, System.nanoTime() - start, 0);
+        }
+    }
+
+    /**
+     * Analyze a CAS which has just been read from the backend. In the asynchronous mode, the
+     * stored version is analyzed in the background unless this has already happened, e.g. after
+     * it was written. The caller must hold the lock for the CAS.
+     */
+    private void analyzeAfterRead(SourceDocument aDocument, String aUsername, CAS aCas,
+            Version aVersion)
+    {
+        if (isAsyncDoctor() && !casDoctor.isRepairsActive()) {
+            if (aVersion == null || !aVersion.equals(
+                    analyzedVersions.get(getPendingWriteKey(aDocument, aUsername)))) {
+                scheduleAnalysis(aDocument, aUsername);
+            }
+        }
+        else {
+            analyzeAndRepair(aDocument, aUsername, aCas);
+        }
+    }
+
+    private void doAnalyzeAndRepair(SourceDocument aDocument, String aUsername, CAS aCas)
     {
         // Check if repairs are active - if this is the case, we only need to run the repairs
         // because the repairs do an analysis as a pre- and post-condition. 
@@ -342,6 +1107,10 @@ public class CasStorageServiceImpl
                         + aDocument.getProject().getId() + ")", e);
             }
         }
+        // In the asynchronous mode, the analysis takes place after the CAS has been written
+        else if (isAsyncDoctor()) {
+            return;
+        }
         // If the repairs are not active, then we run the analysis explicitly
         else {
             try {
@@ -385,22 +1154,760 @@ public class CasStorageServiceImpl
         return annotationFolder;
     }
     
+    @Override
+    public File getTypeSystemFolder(Project aProject)
+        throws IOException
+    {
+        File typeSystemFolder = new File(dir, PROJECT + aProject.getId() + "/"
+                + CasPersistenceUtils.TYPE_SYSTEM_FOLDER);
+        FileUtils.forceMkdir(typeSystemFolder);
+        return typeSystemFolder;
+    }
+
+    @Override
+    public void exportCas(SourceDocument aDocument, String aUsername, OutputStream aStream)
+        throws IOException
+    {
+        ReadWriteLock lock = getLock(aDocument, aUsername);
+        metrics.lock(lock.readLock(), READ, aDocument);
+        try {
+            if (backend.getVersion(aDocument, aUsername) == null) {
+                throw new FileNotFoundException("Annotation document of user [" + aUsername
+                        + "] for source document [" + aDocument.getName() + "] ("
+                        + aDocument.getId() + ") not found in project["
+                        + aDocument.getProject().getName() + "] ("
+                        + aDocument.getProject().getId() + ")");
+            }
+
+            PendingWrite pending = pendingWrites.get(getPendingWriteKey(aDocument, aUsername));
+            CAS cas = pending != null
+                    ? deserializeCas(aDocument.getProject(), pending.snapshot.data)
+                    : readCasFromBackend(aDocument, aUsername);
+            try {
+                CasPersistenceUtils.writeSerializedCas(cas.getJCas(), aStream);
+            }
+            finally {
+                casPool.release(cas);
+            }
+        }
+        catch (UIMAException e) {
+            throw new DataRetrievalFailureException("Unable to parse annotation", e);
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
     /**
-     * Renames a file.
-     *
-     * @throws IOException
-     *             if the file cannot be renamed.
-     * @return the target file.
+     * @return the history maintenance, e.g. to access its statistics.
      */
-    private static File renameFile(File aFrom, File aTo)
+    public CasHistoryMaintenance getHistoryMaintenance()
+    {
+        return historyMaintenance;
+    }
+
+    /**
+     * @return the number of CASes loaded in the journal mode which are tracked for changes.
+     */
+    int getJournalStateCount()
+    {
+        return journalStates.size();
+    }
+
+    /**
+     * @return the CAS cache, e.g. to access its statistics.
+     */
+    public CasCache getCache()
+    {
+        return cache;
+    }
+
+    @Override
+    public JCas borrowCas(SourceDocument aDocument, String aUsername)
+        throws IOException
+    {
+        return borrowCas(aDocument, aUsername, true);
+    }
+
+    @Override
+    public JCas borrowCas(SourceDocument aDocument, String aUsername, boolean aAnalyzeAndRepair)
         throws IOException
     {
-        if (!aFrom.renameTo(aTo)) {
-            throw new IOException("Cannot renamed file [" + aFrom + "] to [" + aTo + "]");
+        // Make sure we get the latest state from disk
+        PendingWrite pending = pendingWrites.get(getPendingWriteKey(aDocument, aUsername));
+        if (pending != null) {
+            flush(pending);
         }
+        
+        ReadWriteLock lock = getLock(aDocument, aUsername);
+        metrics.lock(lock.readLock(), READ, aDocument);
+        try {
+            if (backend.getVersion(aDocument, aUsername) == null) {
+                throw new FileNotFoundException("Annotation document of user [" + aUsername
+                        + "] for source document [" + aDocument.getName() + "] ("
+                        + aDocument.getId() + ") not found in project["
+                        + aDocument.getProject().getName() + "] ("
+                        + aDocument.getProject().getId() + ")");
+            }
 
-        // We are not sure if File is mutable. This makes sure we get a new file
-        // in any case.
-        return new File(aTo.getPath());
+            Version version = getStoredVersion(aDocument, aUsername);
+            CAS cas = readCasFromBackend(aDocument, aUsername);
+            borrowedVersions.put(cas, version);
+            if (aAnalyzeAndRepair) {
+                analyzeAfterRead(aDocument, aUsername, cas, version);
+            }
+            return cas.getJCas();
+        }
+        catch (UIMAException e) {
+            throw new DataRetrievalFailureException("Unable to parse annotation", e);
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean writeCasIfUnchanged(SourceDocument aDocument, JCas aJcas, String aUserName)
+        throws IOException
+    {
+        Version borrowedVersion = borrowedVersions.get(aJcas.getCas());
+        if (borrowedVersion == null) {
+            throw new IllegalArgumentException("CAS has not been borrowed");
+        }
+
+        if (!isAsyncDoctor() && isSampled()) {
+            analyzeBeforeWrite(aDocument, aJcas, aUserName);
+        }
+
+        ReadWriteLock lock = getLock(aDocument, aUserName);
+        metrics.lock(lock.writeLock(), WRITE, aDocument);
+        try {
+            if (pendingWrites.containsKey(getPendingWriteKey(aDocument, aUserName))
+                    || !borrowedVersion.equals(getStoredVersion(aDocument, aUserName))) {
+                log.info("Not writing annotation document [{}]({}) for user [{}] because it has "
+                        + "been changed in the meantime", aDocument.getName(), aDocument.getId(),
+                        aUserName);
+                return false;
+            }
+
+            writeCasFile(aDocument, aJcas, aUserName);
+            borrowedVersions.put(aJcas.getCas(), getStoredVersion(aDocument, aUserName));
+            return true;
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void returnCas(JCas aJCas)
+    {
+        if (aJCas == null) {
+            return;
+        }
+
+        // Only CASes handed out by borrowCas are reused. Any other CAS, e.g. one obtained from
+        // readCas, may still be referenced by the storage and must not be reset. The journal
+        // only tracks CASes obtained from readCas, so a borrowed CAS is never tracked.
+        CAS cas = aJCas.getCas();
+        if (borrowedVersions.remove(cas) == null) {
+            log.warn("Ignoring returned CAS which has not been borrowed");
+            return;
+        }
+
+        casPool.release(cas);
+    }
+
+    /**
+     * @return the CAS pool, e.g. to access its statistics.
+     */
+    public CasPool getCasPool()
+    {
+        return casPool;
+    }
+
+    @Override
+    public boolean existsCas(SourceDocument aDocument, String aUsername)
+        throws IOException
+    {
+        ReadWriteLock lock = getLock(aDocument, aUsername);
+        lock.readLock().lock();
+        try {
+            return pendingWrites.containsKey(getPendingWriteKey(aDocument, aUsername))
+                    || backend.getVersion(aDocument, aUsername) != null;
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void importCas(SourceDocument aDocument, String aUsername, InputStream aStream)
+        throws IOException
+    {
+        ReadWriteLock lock = getLock(aDocument, aUsername);
+        lock.writeLock().lock();
+        try {
+            pendingWrites.remove(getPendingWriteKey(aDocument, aUsername));
+            journalStates.remove(getPendingWriteKey(aDocument, aUsername));
+            cache.remove(aDocument, aUsername);
+            journal.delete(aDocument, aUsername);
+            backend.write(aDocument, aUsername, os -> IOUtils.copy(aStream, os));
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void writeInitialCas(SourceDocument aDocument, JCas aJcas)
+        throws IOException
+    {
+        String key = getPendingWriteKey(aDocument, INITIAL_CAS_PSEUDO_USER);
+        ReadWriteLock lock = getLock(aDocument, INITIAL_CAS_PSEUDO_USER);
+        metrics.lock(lock.writeLock(), WRITE, aDocument);
+        try {
+            pendingWrites.remove(key);
+            journalStates.remove(key);
+            cache.remove(aDocument, INITIAL_CAS_PSEUDO_USER);
+            journal.delete(aDocument, INITIAL_CAS_PSEUDO_USER);
+
+            long start = System.nanoTime();
+            byte[] data = createSnapshot(aDocument, aJcas, INITIAL_CAS_PSEUDO_USER).data;
+            backend.write(aDocument, INITIAL_CAS_PSEUDO_USER, os -> os.write(data));
+            metrics.record(WRITE, aDocument, INITIAL_CAS_PSEUDO_USER, System.nanoTime() - start,
+                    data.length);
+
+            // The caller has analyzed the CAS, so the copies need not be analyzed again
+            analyzedVersions.put(key, backend.getVersion(aDocument, INITIAL_CAS_PSEUDO_USER));
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void copyCas(SourceDocument aDocument, String aSourceUsername, String aTargetUsername)
+        throws IOException
+    {
+        // Make sure we copy the latest state
+        PendingWrite pending = pendingWrites.get(getPendingWriteKey(aDocument, aSourceUsername));
+        if (pending != null) {
+            flush(pending);
+        }
+
+        // Both CASes may share a lock stripe. A read lock cannot be upgraded, so in that case
+        // only the write lock is taken. Otherwise, the locks are taken in the order of the
+        // stripes to avoid deadlocks between concurrent copies.
+        int sourceStripe = getLockStripe(aDocument, aSourceUsername);
+        int targetStripe = getLockStripe(aDocument, aTargetUsername);
+        List<Lock> held = new ArrayList<>();
+        if (sourceStripe == targetStripe) {
+            held.add(locks[targetStripe].writeLock());
+        }
+        else if (sourceStripe < targetStripe) {
+            held.add(locks[sourceStripe].readLock());
+            held.add(locks[targetStripe].writeLock());
+        }
+        else {
+            held.add(locks[targetStripe].writeLock());
+            held.add(locks[sourceStripe].readLock());
+        }
+        for (Lock lock : held) {
+            metrics.lock(lock, WRITE, aDocument);
+        }
+        try {
+            Version sourceVersion = getStoredVersion(aDocument, aSourceUsername);
+            if (sourceVersion == null) {
+                throw new FileNotFoundException("Annotation document of user ["
+                        + aSourceUsername + "] for source document [" + aDocument.getName()
+                        + "] (" + aDocument.getId() + ") not found in project["
+                        + aDocument.getProject().getName() + "] ("
+                        + aDocument.getProject().getId() + ")");
+            }
+
+            String targetKey = getPendingWriteKey(aDocument, aTargetUsername);
+            pendingWrites.remove(targetKey);
+            journalStates.remove(targetKey);
+            cache.remove(aDocument, aTargetUsername);
+            journal.delete(aDocument, aTargetUsername);
+
+            // The copy is stored from the CAS of the original with its journal applied, so that
+            // it carries the document ID of the target user
+            CAS cas = readCasFromBackend(aDocument, aSourceUsername);
+            try {
+                writeCasFile(aDocument, cas.getJCas(), aTargetUsername);
+            }
+            catch (UIMAException e) {
+                throw new DataRetrievalFailureException("Unable to parse annotation", e);
+            }
+            finally {
+                casPool.release(cas);
+            }
+            Version version = backend.getVersion(aDocument, aTargetUsername);
+
+            // If the original has already passed the asynchronous analysis, so has the copy
+            analyzedVersions.remove(targetKey);
+            if (sourceVersion.equals(analyzedVersions
+                    .get(getPendingWriteKey(aDocument, aSourceUsername)))) {
+                analyzedVersions.put(targetKey, version);
+            }
+
+            try (MDC.MDCCloseable closable = MDC.putCloseable(Logging.KEY_PROJECT_ID,
+                    String.valueOf(aDocument.getProject().getId()))) {
+                Project project = aDocument.getProject();
+                log.info("Copied annotations of user [{}] to user [{}] on document [{}]({}) in "
+                        + "project [{}]({})", aSourceUsername, aTargetUsername,
+                        aDocument.getName(), aDocument.getId(), project.getName(),
+                        project.getId());
+            }
+        }
+        finally {
+            for (int i = held.size() - 1; i >= 0; i--) {
+                held.get(i).unlock();
+            }
+        }
+    }
+
+    @Override
+    public void deleteCas(SourceDocument aDocument, String aUsername)
+        throws IOException
+    {
+        ReadWriteLock lock = getLock(aDocument, aUsername);
+        lock.writeLock().lock();
+        try {
+            pendingWrites.remove(getPendingWriteKey(aDocument, aUsername));
+            journalStates.remove(getPendingWriteKey(aDocument, aUsername));
+            cache.remove(aDocument, aUsername);
+            journal.delete(aDocument, aUsername);
+            backend.delete(aDocument, aUsername);
+            FileUtils.deleteQuietly(getQuarantineFile(aDocument, aUsername));
+            // The history may also exist if it has been disabled in the meantime
+            if (backend instanceof FileSystemCasStorageBackend) {
+                historyMaintenance.casDeleted(aDocument, aUsername,
+                        ((FileSystemCasStorageBackend) backend).getAnnotationFolder(aDocument));
+            }
+            analyzedVersions.remove(getPendingWriteKey(aDocument, aUsername));
+            quarantine.remove(getPendingWriteKey(aDocument, aUsername));
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void deleteCas(SourceDocument aDocument)
+        throws IOException
+    {
+        for (PendingWrite write : new ArrayList<>(pendingWrites.values())) {
+            if (write.document.getId() == aDocument.getId()) {
+                pendingWrites.remove(getPendingWriteKey(write.document, write.username), write);
+            }
+        }
+        cache.removeAll(aDocument);
+        for (String username : journal.listUsers(aDocument)) {
+            journal.delete(aDocument, username);
+        }
+        backend.delete(aDocument);
+
+        FileUtils.deleteQuietly(getQuarantineFolder(aDocument));
+        if (backend instanceof FileSystemCasStorageBackend) {
+            historyMaintenance.documentDeleted(aDocument,
+                    ((FileSystemCasStorageBackend) backend).getAnnotationFolder(aDocument));
+        }
+
+        String prefix = aDocument.getId() + "/";
+        journalStates.keySet().removeIf(key -> key.startsWith(prefix));
+        synchronized (analyzedVersions) {
+            analyzedVersions.keySet().removeIf(key -> key.startsWith(prefix));
+        }
+        synchronized (quarantine) {
+            quarantine.keySet().removeIf(key -> key.startsWith(prefix));
+        }
+    }
+
+    /**
+     * Serialize the CAS into the format in which it is stored in the backend.
+     */
+    private byte[] serializeCas(Project aProject, JCas aJcas)
+        throws IOException
+    {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        CasPersistenceUtils.writeSerializedCas(aJcas, bos, getTypeSystemFolder(aProject));
+        return bos.toByteArray();
+    }
+
+    /**
+     * Deserialize a CAS produced by {@link #serializeCas} into a CAS from the pool.
+     */
+    private CAS deserializeCas(Project aProject, byte[] aData)
+        throws IOException
+    {
+        return CasPersistenceUtils.readSerializedCas(casPool, new ByteArrayInputStream(aData),
+                getTypeSystemFolder(aProject));
+    }
+
+    /**
+     * Read a CAS from the backend into a CAS from the pool. The caller must hold the lock for the
+     * CAS.
+     */
+    private CAS readCasFromBackend(SourceDocument aDocument, String aUsername)
+        throws IOException
+    {
+        return loadCas(aDocument, aUsername).cas;
+    }
+
+    /**
+     * Read a CAS from the backend into a CAS from the pool and apply the changes recorded in its
+     * journal. The caller must hold the lock for the CAS.
+     */
+    private LoadedCas loadCas(SourceDocument aDocument, String aUsername)
+        throws IOException
+    {
+        long start = System.nanoTime();
+        Version version = backend.getVersion(aDocument, aUsername);
+        CRC32 checksum = new CRC32();
+        CAS cas;
+        long bytes;
+        try (CountingInputStream is = new CountingInputStream(
+                new CheckedInputStream(backend.read(aDocument, aUsername), checksum))) {
+            cas = CasPersistenceUtils.readSerializedCas(casPool, is,
+                    getTypeSystemFolder(aDocument.getProject()));
+            // The checksum must cover the whole stored CAS
+            IOUtils.skip(is, Long.MAX_VALUE);
+            bytes = is.getByteCount();
+        }
+
+        if (version != null) {
+            try {
+                for (byte[] record : journal.read(aDocument, aUsername, version,
+                        checksum.getValue())) {
+                    Serialization.deserializeCAS(cas, new ByteArrayInputStream(record));
+                    bytes += record.length;
+                }
+            }
+            catch (IOException | RuntimeException e) {
+                casPool.release(cas);
+                throw e;
+            }
+        }
+
+        metrics.record(READ, aDocument, aUsername, System.nanoTime() - start, bytes);
+        return new LoadedCas(cas, version, checksum.getValue());
+    }
+
+    /**
+     * Analyze the stored CAS in the background. If an analysis of the CAS is already waiting, the
+     * request is ignored because that analysis picks up the latest version anyway.
+     */
+    private void scheduleAnalysis(SourceDocument aDocument, String aUsername)
+    {
+        String key = getPendingWriteKey(aDocument, aUsername);
+        if (!pendingAnalyses.add(key)) {
+            return;
+        }
+
+        try {
+            synchronized (pendingAnalyses) {
+                if (doctorExecutor == null) {
+                    doctorExecutor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                            new ArrayBlockingQueue<>(DEFAULT_DOCTOR_QUEUE_SIZE), r -> {
+                                Thread t = new Thread(r, "cas-doctor");
+                                t.setDaemon(true);
+                                return t;
+                            });
+                }
+                doctorExecutor.execute(() -> {
+                    // Writes happening from now on need to be analyzed again
+                    pendingAnalyses.remove(key);
+                    analyzeStoredCas(aDocument, aUsername);
+                });
+            }
+        }
+        catch (RejectedExecutionException e) {
+            pendingAnalyses.remove(key);
+            log.debug("CAS doctor is busy - not analyzing annotation document [{}]({}) for user "
+                    + "[{}]", aDocument.getName(), aDocument.getId(), aUsername);
+        }
+    }
+
+    /**
+     * Analyze the stored CAS and quarantine it if the CAS doctor finds problems. The CAS is read
+     * into a private copy, so it is analyzed without blocking the user.
+     */
+    private void analyzeStoredCas(SourceDocument aDocument, String aUsername)
+    {
+        String key = getPendingWriteKey(aDocument, aUsername);
+        ReadWriteLock lock = getLock(aDocument, aUsername);
+        try {
+            Version version;
+            CAS cas;
+            metrics.lock(lock.readLock(), DOCTOR, aDocument);
+            try {
+                version = getStoredVersion(aDocument, aUsername);
+                if (version == null || version.equals(analyzedVersions.get(key))) {
+                    return;
+                }
+                cas = readCasFromBackend(aDocument, aUsername);
+            }
+            finally {
+                lock.readLock().unlock();
+            }
+
+            List<LogMessage> messages = new ArrayList<>();
+            boolean ok;
+            long start = System.nanoTime();
+            try {
+                ok = casDoctor.analyze(aDocument.getProject(), cas, messages, false);
+            }
+            finally {
+                casPool.release(cas);
+                metrics.record(DOCTOR, aDocument, aUsername, System.nanoTime() - start, 0);
+            }
+
+            analyzedVersions.put(key, version);
+            if (ok) {
+                releaseFromQuarantine(aDocument, aUsername);
+            }
+            else {
+                quarantine(aDocument, aUsername, version, messages);
+            }
+        }
+        catch (Exception e) {
+            log.error("Unable to analyze annotation document [{}]({}) for user [{}]",
+                    aDocument.getName(), aDocument.getId(), aUsername, e);
+        }
+    }
+
+    private void quarantine(SourceDocument aDocument, String aUsername, Version aVersion,
+            List<LogMessage> aMessages)
+        throws IOException
+    {
+        List<String> messages = new ArrayList<>();
+        aMessages.forEach(m -> messages.add(String.format("[%s] %s", m.level, m.message)));
+        quarantine.put(getPendingWriteKey(aDocument, aUsername), new QuarantinedCas(aDocument,
+                aUsername, System.currentTimeMillis(), messages));
+
+        // Keep a copy of the broken version for inspection - unless it has already been
+        // overwritten, in which case the new version is analyzed anyway
+        ReadWriteLock lock = getLock(aDocument, aUsername);
+        lock.readLock().lock();
+        try {
+            if (aVersion.equals(getStoredVersion(aDocument, aUsername))) {
+                try (InputStream is = backend.read(aDocument, aUsername)) {
+                    FileUtils.copyInputStreamToFile(is, getQuarantineFile(aDocument, aUsername));
+                }
+            }
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+
+        try (MDC.MDCCloseable closable = MDC.putCloseable(Logging.KEY_PROJECT_ID,
+                String.valueOf(aDocument.getProject().getId()))) {
+            StringBuilder detailMsg = new StringBuilder();
+            detailMsg.append("CAS Doctor found problems for user [" + aUsername
+                    + "] in source document [" + aDocument.getName() + "] ("
+                    + aDocument.getId() + ") in project [" + aDocument.getProject().getName()
+                    + "] (" + aDocument.getProject().getId() + ") - quarantined\n");
+            messages.forEach(m -> detailMsg.append("- ").append(m).append('\n'));
+            log.error(detailMsg.toString());
+        }
+    }
+
+    private void releaseFromQuarantine(SourceDocument aDocument, String aUsername)
+        throws IOException
+    {
+        boolean quarantined = quarantine
+                .remove(getPendingWriteKey(aDocument, aUsername)) != null;
+        File quarantineFile = getQuarantineFile(aDocument, aUsername);
+        if (quarantined || quarantineFile.exists()) {
+            FileUtils.deleteQuietly(quarantineFile);
+            log.info("Annotation document [{}]({}) for user [{}] released from quarantine",
+                    aDocument.getName(), aDocument.getId(), aUsername);
+        }
+    }
+
+    @Override
+    public boolean isQuarantined(SourceDocument aDocument, String aUsername)
+        throws IOException
+    {
+        return quarantine.containsKey(getPendingWriteKey(aDocument, aUsername))
+                || getQuarantineFile(aDocument, aUsername).exists();
+    }
+
+    private File getQuarantineFolder(SourceDocument aDocument)
+    {
+        return new File(dir, PROJECT + aDocument.getProject().getId() + "/" + QUARANTINE_FOLDER
+                + "/" + aDocument.getId());
+    }
+
+    private File getQuarantineFile(SourceDocument aDocument, String aUsername)
+    {
+        return new File(getQuarantineFolder(aDocument), aUsername + ".ser");
+    }
+
+    /**
+     * @return the CASes which have been quarantined since the application was started - at most
+     *         the {@link #DEFAULT_DOCTOR_STATE_SIZE} most recent ones.
+     */
+    public List<QuarantinedCas> getQuarantine()
+    {
+        synchronized (quarantine) {
+            return new ArrayList<>(quarantine.values());
+        }
+    }
+
+    /**
+     * @return the storage metrics.
+     */
+    public StorageMetrics getMetrics()
+    {
+        return metrics;
+    }
+
+    /**
+     * @return the storage backend.
+     */
+    public CasStorageBackend getBackend()
+    {
+        return backend;
+    }
+
+    /**
+     * @return the journal of changes to the stored CASes.
+     */
+    public CasJournal getJournal()
+    {
+        return journal;
+    }
+
+    /**
+     * Get the lock guarding the CAS of the given user for the given document. Locks are striped,
+     * so unrelated CASes may occasionally share a lock, but the same CAS always maps to the same
+     * lock.
+     */
+    ReadWriteLock getLock(SourceDocument aDocument, String aUsername)
+    {
+        return locks[getLockStripe(aDocument, aUsername)];
+    }
+
+    private int getLockStripe(SourceDocument aDocument, String aUsername)
+    {
+        int hash = 31 * Long.hashCode(aDocument.getId()) + aUsername.hashCode();
+        // Spread the bits a bit because document IDs are sequential
+        hash ^= (hash >>> 16);
+        return (hash & Integer.MAX_VALUE) % locks.length;
+    }
+    
+    /**
+     * @return the name of the user on whose behalf the current thread acts or {@code null} if
+     *         there is none, e.g. in a background thread.
+     */
+    private static String getCurrentUsername()
+    {
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        return authentication != null ? authentication.getName() : null;
+    }
+
+    /**
+     * Create a thread-safe map which forgets the least recently used entries once it holds more
+     * than the given number of entries.
+     */
+    private static <V> Map<String, V> createBoundedMap(int aMaxSize)
+    {
+        return Collections.synchronizedMap(new LinkedHashMap<String, V>(16, 0.75f, true)
+        {
+            private static final long serialVersionUID = 2818342451307212585L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, V> aEldest)
+            {
+                return size() > aMaxSize;
+            }
+        });
+    }
+
+    private static String getPendingWriteKey(SourceDocument aDocument, String aUsername)
+    {
+        return aDocument.getId() + "/" + aUsername;
+    }
+    
+    /**
+     * A CAS as it has been loaded from the storage.
+     */
+    private static final class LoadedCas
+    {
+        private final CAS cas;
+        private final Version casVersion;
+        private final long casChecksum;
+
+        public LoadedCas(CAS aCas, Version aCasVersion, long aCasChecksum)
+        {
+            cas = aCas;
+            casVersion = aCasVersion;
+            casChecksum = aCasChecksum;
+        }
+    }
+
+    /**
+     * Tracks the changes made to a CAS loaded from the storage, so they can be appended to the
+     * journal of the stored CAS.
+     */
+    private static final class JournalState
+    {
+        private final SourceDocument document;
+        private final String username;
+        private final JCas jcas;
+        private final Version casVersion;
+        private final long casChecksum;
+        private volatile Marker marker;
+        private volatile long size;
+        private volatile long lastChange = System.currentTimeMillis();
+
+        public JournalState(SourceDocument aDocument, String aUsername, JCas aJcas,
+                Marker aMarker, Version aCasVersion, long aCasChecksum, long aSize)
+        {
+            document = aDocument;
+            username = aUsername;
+            jcas = aJcas;
+            marker = aMarker;
+            casVersion = aCasVersion;
+            casChecksum = aCasChecksum;
+            size = aSize;
+        }
+    }
+
+    /**
+     * The serialized state of a CAS at the time it was saved.
+     */
+    private static final class CasSnapshot
+    {
+        private final byte[] data;
+
+        public CasSnapshot(byte[] aData)
+        {
+            data = aData;
+        }
+    }
+
+    /**
+     * A CAS which has been modified but not yet been written to disk.
+     */
+    private static class PendingWrite
+    {
+        private final SourceDocument document;
+        private final String username;
+        private volatile CasSnapshot snapshot;
+        private volatile String owner;
+
+        public PendingWrite(SourceDocument aDocument, String aUsername, CasSnapshot aSnapshot,
+                String aOwner)
+        {
+            document = aDocument;
+            username = aUsername;
+            snapshot = aSnapshot;
+            owner = aOwner;
+        }
     }
 }
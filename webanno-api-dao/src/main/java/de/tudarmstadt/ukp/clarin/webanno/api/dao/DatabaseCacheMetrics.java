@@ -0,0 +1,189 @@
+/*
+ * Copyright 2017
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao;
+
+import java.beans.ConstructorProperties;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.PersistenceUnit;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.stat.SecondLevelCacheStatistics;
+import org.hibernate.stat.Statistics;
+
+/**
+ * Exposes the hit rates of the Hibernate second-level cache and query cache which can be enabled
+ * using {@code database.cache.enabled}. Statistics are only collected if
+ * {@code database.cache.statistics} is set or if they are switched on at runtime via JMX (see
+ * {@link DatabaseCacheMetricsMXBean}).
+ */
+public class DatabaseCacheMetrics
+    implements DatabaseCacheMetricsMXBean
+{
+    @PersistenceUnit
+    private EntityManagerFactory entityManagerFactory;
+
+    private SessionFactory getSessionFactory()
+    {
+        return entityManagerFactory.unwrap(SessionFactory.class);
+    }
+
+    private Statistics getHibernateStatistics()
+    {
+        return getSessionFactory().getStatistics();
+    }
+
+    @Override
+    public boolean isCacheEnabled()
+    {
+        SessionFactory sessionFactory = getSessionFactory();
+        return sessionFactory instanceof SessionFactoryImplementor
+                && ((SessionFactoryImplementor) sessionFactory).getSettings()
+                        .isSecondLevelCacheEnabled();
+    }
+
+    @Override
+    public boolean isStatisticsEnabled()
+    {
+        return getHibernateStatistics().isStatisticsEnabled();
+    }
+
+    @Override
+    public void setStatisticsEnabled(boolean aEnabled)
+    {
+        getHibernateStatistics().setStatisticsEnabled(aEnabled);
+    }
+
+    @Override
+    public long getSecondLevelCacheHitCount()
+    {
+        return getHibernateStatistics().getSecondLevelCacheHitCount();
+    }
+
+    @Override
+    public long getSecondLevelCacheMissCount()
+    {
+        return getHibernateStatistics().getSecondLevelCacheMissCount();
+    }
+
+    @Override
+    public long getSecondLevelCachePutCount()
+    {
+        return getHibernateStatistics().getSecondLevelCachePutCount();
+    }
+
+    @Override
+    public long getQueryCacheHitCount()
+    {
+        return getHibernateStatistics().getQueryCacheHitCount();
+    }
+
+    @Override
+    public long getQueryCacheMissCount()
+    {
+        return getHibernateStatistics().getQueryCacheMissCount();
+    }
+
+    @Override
+    public long getQueryCachePutCount()
+    {
+        return getHibernateStatistics().getQueryCachePutCount();
+    }
+
+    @Override
+    public long getQueryExecutionCount()
+    {
+        return getHibernateStatistics().getQueryExecutionCount();
+    }
+
+    @Override
+    public List<RegionStatistics> getRegions()
+    {
+        Statistics statistics = getHibernateStatistics();
+        String[] regionNames = statistics.getSecondLevelCacheRegionNames();
+        Arrays.sort(regionNames);
+
+        List<RegionStatistics> result = new ArrayList<>();
+        for (String regionName : regionNames) {
+            SecondLevelCacheStatistics region = statistics
+                    .getSecondLevelCacheStatistics(regionName);
+            if (region == null) {
+                continue;
+            }
+            result.add(new RegionStatistics(regionName, region.getHitCount(),
+                    region.getMissCount(), region.getPutCount(),
+                    region.getElementCountInMemory()));
+        }
+        return result;
+    }
+
+    @Override
+    public void reset()
+    {
+        getHibernateStatistics().clear();
+    }
+
+    public static class RegionStatistics
+    {
+        private final String region;
+        private final long hitCount;
+        private final long missCount;
+        private final long putCount;
+        private final long elementCount;
+
+        @ConstructorProperties({ "region", "hitCount", "missCount", "putCount", "elementCount" })
+        public RegionStatistics(String aRegion, long aHitCount, long aMissCount, long aPutCount,
+                long aElementCount)
+        {
+            region = aRegion;
+            hitCount = aHitCount;
+            missCount = aMissCount;
+            putCount = aPutCount;
+            elementCount = aElementCount;
+        }
+
+        public String getRegion()
+        {
+            return region;
+        }
+
+        public long getHitCount()
+        {
+            return hitCount;
+        }
+
+        public long getMissCount()
+        {
+            return missCount;
+        }
+
+        public long getPutCount()
+        {
+            return putCount;
+        }
+
+        public long getElementCount()
+        {
+            return elementCount;
+        }
+    }
+}
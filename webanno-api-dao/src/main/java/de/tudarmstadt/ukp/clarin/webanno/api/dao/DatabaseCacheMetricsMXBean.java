@@ -0,0 +1,67 @@
+/*
+ * Copyright 2017
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao;
+
+import java.util.List;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.DatabaseCacheMetrics.RegionStatistics;
+
+/**
+ * JMX view on the {@link DatabaseCacheMetrics}.
+ */
+public interface DatabaseCacheMetricsMXBean
+{
+    /**
+     * @return whether the second-level cache is enabled ({@code database.cache.enabled}).
+     */
+    boolean isCacheEnabled();
+
+    /**
+     * @return whether statistics are collected. If not, all counters remain at zero.
+     */
+    boolean isStatisticsEnabled();
+
+    void setStatisticsEnabled(boolean aEnabled);
+
+    long getSecondLevelCacheHitCount();
+
+    long getSecondLevelCacheMissCount();
+
+    long getSecondLevelCachePutCount();
+
+    long getQueryCacheHitCount();
+
+    long getQueryCacheMissCount();
+
+    long getQueryCachePutCount();
+
+    /**
+     * @return the number of queries which were actually sent to the database.
+     */
+    long getQueryExecutionCount();
+
+    /**
+     * @return the statistics for each cache region.
+     */
+    List<RegionStatistics> getRegions();
+
+    /**
+     * Discard all statistics collected so far.
+     */
+    void reset();
+}
@@ -18,6 +18,8 @@
 package de.tudarmstadt.ukp.clarin.webanno.api.dao;
 
 import static de.tudarmstadt.ukp.clarin.webanno.api.ProjectService.*;
+import static de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst.CORRECTION_USER;
+import static de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst.CURATION_USER;
 import static de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst.INITIAL_CAS_PSEUDO_USER;
 import static org.apache.commons.io.IOUtils.closeQuietly;
 import static org.apache.commons.io.IOUtils.copyLarge;
@@ -29,8 +31,10 @@ import java.io.OutputStream;
 import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.TreeMap;
 import java.util.zip.ZipFile;
 
@@ -45,8 +49,6 @@ import org.apache.uima.cas.CAS;
 import org.apache.uima.cas.CASException;
 import org.apache.uima.jcas.JCas;
 import org.apache.uima.resource.ResourceInitializationException;
-import org.apache.uima.resource.metadata.TypeSystemDescription;
-import org.apache.uima.util.CasCreationUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.slf4j.MDC;
@@ -179,8 +181,29 @@ public class DocumentServiceImpl
     public boolean existsCas(SourceDocument aSourceDocument, String aUsername)
         throws IOException
     {
-        return new File(casStorageService.getAnnotationFolder(aSourceDocument), aUsername + ".ser")
-                .exists();
+        return casStorageService.existsCas(aSourceDocument, aUsername);
+    }
+
+    @Override
+    @Transactional(noRollbackFor = NoResultException.class)
+    public List<String> listCasUsers(SourceDocument aDocument)
+        throws IOException
+    {
+        Set<String> users = new LinkedHashSet<>();
+        users.add(INITIAL_CAS_PSEUDO_USER);
+        for (AnnotationDocument annotationDocument : listAllAnnotationDocuments(aDocument)) {
+            users.add(annotationDocument.getUser());
+        }
+        users.add(CURATION_USER);
+        users.add(CORRECTION_USER);
+
+        List<String> casUsers = new ArrayList<>();
+        for (String user : users) {
+            if (existsCas(aDocument, user)) {
+                casUsers.add(user);
+            }
+        }
+        return casUsers;
     }
 
     @Override
@@ -209,6 +232,7 @@ public class DocumentServiceImpl
     }
 
     @Override
+    @Deprecated
     public File getCasFile(SourceDocument aDocument, String aUser)
     {
         File documentUri = new File(dir.getAbsolutePath() + PROJECT
@@ -363,6 +387,8 @@ public class DocumentServiceImpl
         
         entityManager.remove(aDocument);
 
+        casStorageService.deleteCas(aDocument);
+
         String path = dir.getAbsolutePath() + PROJECT + aDocument.getProject().getId() + DOCUMENT
                 + aDocument.getId();
         // remove from file both source and related annotation file
@@ -461,8 +487,7 @@ public class DocumentServiceImpl
         JCas jcas = importExportService.importCasFromFile(getSourceDocumentFile(aDocument),
                 aDocument.getProject(), aDocument.getFormat());
         casStorageService.analyzeAndRepair(aDocument, INITIAL_CAS_PSEUDO_USER, jcas.getCas());
-        CasPersistenceUtils.writeSerializedCas(jcas,
-                getCasFile(aDocument, INITIAL_CAS_PSEUDO_USER));
+        casStorageService.writeInitialCas(aDocument, jcas);
         
         return jcas;
     }
@@ -471,13 +496,9 @@ public class DocumentServiceImpl
     public JCas readInitialCas(SourceDocument aDocument)
         throws CASException, ResourceInitializationException, IOException
     {
-        JCas jcas = CasCreationUtils.createCas((TypeSystemDescription) null, null, null).getJCas();
-        
-        CasPersistenceUtils.readSerializedCas(jcas, getCasFile(aDocument, INITIAL_CAS_PSEUDO_USER));
-        
-        casStorageService.analyzeAndRepair(aDocument, INITIAL_CAS_PSEUDO_USER, jcas.getCas());
-        
-        return jcas;
+        // The initial CAS is handed over to the caller for good, so it is never returned to the
+        // pool. Borrowing it nevertheless saves setting up a new CAS from scratch.
+        return casStorageService.borrowCas(aDocument, INITIAL_CAS_PSEUDO_USER);
     }
 
     @Override
@@ -515,21 +536,33 @@ public class DocumentServiceImpl
         throws IOException
     {
         // If there is no CAS yet for the annotation document, create one.
-        JCas jcas = null;
+        JCas jcas;
         SourceDocument aDocument = aAnnotationDocument.getDocument();
         String user = aAnnotationDocument.getUser();
         if (!existsCas(aAnnotationDocument.getDocument(), user)) {
-            // Convert the source file into an annotation CAS
-            try {
-                if (!existsInitialCas(aDocument)) {
-                    jcas = createInitialCas(aDocument);
-                }
+            copyInitialCas(aDocument, user);
+            jcas = casStorageService.readCas(aDocument, user);
+        }
+        else {
+            // Read existing CAS
+            // We intentionally do not upgrade the CAS here because in general the IDs
+            // must remain stable. If an upgrade is required the caller should do it
+            jcas = casStorageService.readCas(aDocument, user);
+        }
 
-                // Ok, so at this point, we either have the lazily converted CAS already loaded
-                // or we know that we can load the existing initial CAS.
-                if (jcas == null) {
-                    jcas = readInitialCas(aDocument);
-                }
+        return jcas;
+    }
+
+    /**
+     * Create the CAS of the given user as a copy of the initial CAS of the document.
+     */
+    private void copyInitialCas(SourceDocument aDocument, String aUsername)
+        throws IOException
+    {
+        // Convert the source file into an annotation CAS
+        if (!existsInitialCas(aDocument)) {
+            try {
+                createInitialCas(aDocument);
             }
             catch (Exception e) {
                 log.error("The reader for format [" + aDocument.getFormat()
@@ -537,16 +570,9 @@ public class DocumentServiceImpl
                 throw new IOException("The reader for format [" + aDocument.getFormat()
                         + "] is unable to digest data" + e.getMessage());
             }
-            casStorageService.writeCas(aDocument, jcas, user);
-        }
-        else {
-            // Read existing CAS
-            // We intentionally do not upgrade the CAS here because in general the IDs
-            // must remain stable. If an upgrade is required the caller should do it
-            jcas = casStorageService.readCas(aDocument, user);
         }
 
-        return jcas;
+        casStorageService.copyCas(aDocument, INITIAL_CAS_PSEUDO_USER, aUsername);
     }
     
     @Override
@@ -0,0 +1,180 @@
+/*
+ * Copyright 2017
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao;
+
+import static de.tudarmstadt.ukp.clarin.webanno.api.ProjectService.ANNOTATION;
+import static de.tudarmstadt.ukp.clarin.webanno.api.ProjectService.DOCUMENT;
+import static de.tudarmstadt.ukp.clarin.webanno.api.ProjectService.PROJECT;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.apache.commons.io.FileUtils;
+
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
+
+/**
+ * Stores each CAS in its own file in the repository:
+ * {@code project/<project>/document/<document>/annotation/<user>.ser}.
+ */
+public class FileSystemCasStorageBackend
+    implements CasStorageBackend
+{
+    public static final String NAME = "filesystem";
+
+    private final File dir;
+
+    public FileSystemCasStorageBackend(File aDir)
+    {
+        dir = aDir;
+    }
+
+    /**
+     * Get the folder where the annotations of the given document are stored.
+     */
+    public File getAnnotationFolder(SourceDocument aDocument)
+    {
+        return new File(dir, PROJECT + aDocument.getProject().getId() + DOCUMENT
+                + aDocument.getId() + ANNOTATION);
+    }
+
+    /**
+     * Get the file containing the CAS of the given user for the given document.
+     */
+    public File getCasFile(SourceDocument aDocument, String aUsername)
+    {
+        return new File(getAnnotationFolder(aDocument), aUsername + ".ser");
+    }
+
+    @Override
+    public Version getVersion(SourceDocument aDocument, String aUsername)
+    {
+        File casFile = getCasFile(aDocument, aUsername);
+        if (!casFile.exists()) {
+            return null;
+        }
+        return new Version(casFile.lastModified(), casFile.length());
+    }
+
+    @Override
+    public InputStream read(SourceDocument aDocument, String aUsername)
+        throws IOException
+    {
+        // Throws a FileNotFoundException if the file does not exist
+        return CasPersistenceUtils.openCasFile(getCasFile(aDocument, aUsername));
+    }
+
+    @Override
+    public void write(SourceDocument aDocument, String aUsername, StreamWriter aWriter)
+        throws IOException
+    {
+        File annotationFolder = getAnnotationFolder(aDocument);
+        FileUtils.forceMkdir(annotationFolder);
+
+        File currentVersion = new File(annotationFolder, aUsername + ".ser");
+        File oldVersion = new File(annotationFolder, aUsername + ".ser.old");
+
+        try {
+            // Make a backup of the current version of the file before overwriting
+            if (currentVersion.exists()) {
+                renameFile(currentVersion, oldVersion);
+            }
+
+            try (OutputStream os = new BufferedOutputStream(
+                    new FileOutputStream(currentVersion))) {
+                aWriter.write(os);
+            }
+
+            // If the saving was successful, we delete the old version
+            if (oldVersion.exists()) {
+                FileUtils.forceDelete(oldVersion);
+            }
+        }
+        catch (IOException e) {
+            // If we could not save the new version, restore the old one.
+            FileUtils.deleteQuietly(currentVersion);
+            // If this is the first version, there is no old version, so do not restore anything
+            if (oldVersion.exists()) {
+                renameFile(oldVersion, currentVersion);
+            }
+            // Now abort anyway
+            throw e;
+        }
+    }
+
+    @Override
+    public void delete(SourceDocument aDocument, String aUsername)
+        throws IOException
+    {
+        File casFile = getCasFile(aDocument, aUsername);
+        if (casFile.exists()) {
+            FileUtils.forceDelete(casFile);
+        }
+    }
+
+    @Override
+    public void delete(SourceDocument aDocument)
+        throws IOException
+    {
+        File[] casFiles = getAnnotationFolder(aDocument)
+                .listFiles((d, n) -> n.endsWith(".ser") || n.endsWith(".ser.old")
+                        || n.endsWith(".ser.tmp"));
+        if (casFiles != null) {
+            for (File casFile : casFiles) {
+                FileUtils.forceDelete(casFile);
+            }
+        }
+    }
+
+    @Override
+    public long runMaintenance()
+    {
+        // Nothing to do
+        return 0;
+    }
+
+    @Override
+    public void close()
+    {
+        // Nothing to do
+    }
+
+    /**
+     * Renames a file.
+     *
+     * @throws IOException
+     *             if the file cannot be renamed.
+     */
+    private static void renameFile(File aFrom, File aTo)
+        throws IOException
+    {
+        if (!aFrom.renameTo(aTo)) {
+            throw new IOException("Cannot renamed file [" + aFrom + "] to [" + aTo + "]");
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return NAME;
+    }
+}
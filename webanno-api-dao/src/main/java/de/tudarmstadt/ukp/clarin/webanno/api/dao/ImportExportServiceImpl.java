@@ -53,13 +53,9 @@ import org.apache.uima.cas.FeatureStructure;
 import org.apache.uima.cas.Type;
 import org.apache.uima.collection.CollectionReader;
 import org.apache.uima.fit.factory.CollectionReaderFactory;
-import org.apache.uima.fit.factory.JCasFactory;
-import org.apache.uima.fit.factory.TypeSystemDescriptionFactory;
 import org.apache.uima.fit.util.CasUtil;
 import org.apache.uima.fit.util.JCasUtil;
 import org.apache.uima.jcas.JCas;
-import org.apache.uima.resource.metadata.TypeSystemDescription;
-import org.apache.uima.util.CasCreationUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.slf4j.MDC;
@@ -136,35 +132,34 @@ public class ImportExportServiceImpl
             String aFileName, Mode aMode, boolean aStripExtension)
         throws UIMAException, IOException, ClassNotFoundException
     {
-        File annotationFolder = casStorageService.getAnnotationFolder(aDocument);
-        String serializedCasFileName;
+        String username;
         // for Correction, it will export the corrected document (of the logged in user)
         // (CORRECTION_USER.ser is the automated result displayed for the user to correct it, not
         // the final result) for automation, it will export either the corrected document
         // (Annotated) or the automated document
         if (aMode.equals(Mode.ANNOTATION) || aMode.equals(Mode.AUTOMATION)
                 || aMode.equals(Mode.CORRECTION)) {
-            serializedCasFileName = aUser + ".ser";
+            username = aUser;
         }
         // The merge result will be exported
         else {
-            serializedCasFileName = WebAnnoConst.CURATION_USER + ".ser";
+            username = WebAnnoConst.CURATION_USER;
         }
 
-        // Read file
-        File serializedCasFile = new File(annotationFolder, serializedCasFileName);
-        if (!serializedCasFile.exists()) {
-            throw new FileNotFoundException("CAS file [" + serializedCasFileName
-                    + "] not found in [" + annotationFolder + "]");
+        // Read file - the CAS is modified by the upgrade, so we must not use a shared one
+        JCas jcas = casStorageService.borrowCas(aDocument, username);
+        File exportFile;
+        try {
+            CAS cas = jcas.getCas();
+            
+            // Update type system the CAS
+            annotationService.upgradeCas(cas, aDocument, aUser);
+            
+            exportFile = exportCasToFile(cas, aDocument, aFileName, aWriter, aStripExtension);
+        }
+        finally {
+            casStorageService.returnCas(jcas);
         }
-
-        CAS cas = CasCreationUtils.createCas((TypeSystemDescription) null, null, null);
-        CasPersistenceUtils.readSerializedCas(cas.getJCas(), serializedCasFile);
-
-        // Update type system the CAS
-        annotationService.upgradeCas(cas, aDocument, aUser);
-        
-        File exportFile = exportCasToFile(cas, aDocument, aFileName, aWriter, aStripExtension);
 
         Project project = aDocument.getProject();
         
@@ -213,8 +208,7 @@ public class ImportExportServiceImpl
 
         // Copy the initial conversion of the file into the repository
         if (cas != null) {
-            CasPersistenceUtils.writeSerializedCas(cas,
-                    documentService.getCasFile(aDocument, INITIAL_CAS_PSEUDO_USER));
+            casStorageService.writeInitialCas(aDocument, cas);
         }
 
         try (MDC.MDCCloseable closable = MDC.putCloseable(Logging.KEY_PROJECT_ID,
@@ -336,12 +330,7 @@ public class ImportExportServiceImpl
         }
         
         // Prepare a CAS with the project type system
-        TypeSystemDescription builtInTypes = TypeSystemDescriptionFactory
-                .createTypeSystemDescription();
-        List<TypeSystemDescription> projectTypes = annotationService.getProjectTypes(aProject);
-        projectTypes.add(builtInTypes);
-        TypeSystemDescription allTypes = CasCreationUtils.mergeTypeSystems(projectTypes);
-        CAS cas = JCasFactory.createJCas(allTypes).getCas();
+        CAS cas = annotationService.createProjectCas(aProject);
 
         // Convert the source document to CAS
         CollectionReader reader = CollectionReaderFactory.createReader(readerClass,
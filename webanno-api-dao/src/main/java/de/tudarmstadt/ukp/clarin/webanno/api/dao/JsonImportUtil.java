@@ -21,6 +21,7 @@ import java.io.IOException;
 import java.io.InputStream;
 
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.SerializationUtils;
 
 import com.fasterxml.jackson.core.JsonParseException;
 import com.fasterxml.jackson.databind.JsonMappingException;
@@ -63,8 +64,9 @@ public class JsonImportUtil
         throws IOException
     {
         String importedTagSetName = importedTagSet.getName();
-        de.tudarmstadt.ukp.clarin.webanno.model.TagSet tagsetInUse = aAnnotationService
-                .getTagSet(importedTagSetName, project);
+        // The schema service hands out shared instances, so we update a copy
+        TagSet tagsetInUse = SerializationUtils
+                .clone(aAnnotationService.getTagSet(importedTagSetName, project));
         // Remove all tags associated with Tagset
         aAnnotationService.removeAllTags(tagsetInUse);
         // Copy and update TagSet Information from imported tagset
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2017
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free histogram of durations with exponentially growing buckets. Bucket {@code i} counts
+ * the durations of up to {@code 2^i} microseconds, so percentiles are accurate within a factor of
+ * two, which is sufficient to tell a slow operation from a fast one.
+ */
+public class LatencyHistogram
+{
+    /**
+     * The last regular bucket holds durations of up to 2^26 µs (about 67 seconds). Longer
+     * durations go into an overflow bucket.
+     */
+    private static final int BUCKETS = 28;
+
+    private final LongAdder[] buckets = new LongAdder[BUCKETS];
+    private final LongAdder count = new LongAdder();
+    private final LongAdder total = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    public LatencyHistogram()
+    {
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Record a duration.
+     *
+     * @param aNanos
+     *            the duration in nanoseconds.
+     */
+    public void record(long aNanos)
+    {
+        long nanos = Math.max(aNanos, 0);
+        long micros = TimeUnit.NANOSECONDS.toMicros(nanos);
+        // Smallest i such that micros <= 2^i
+        int bucket = micros <= 1 ? 0 : 64 - Long.numberOfLeadingZeros(micros - 1);
+        buckets[Math.min(bucket, BUCKETS - 1)].increment();
+        count.increment();
+        total.add(nanos);
+        max.accumulateAndGet(nanos, Math::max);
+    }
+
+    public long getCount()
+    {
+        return count.sum();
+    }
+
+    /**
+     * @return the mean duration in milliseconds.
+     */
+    public double getMean()
+    {
+        long n = count.sum();
+        return n == 0 ? 0 : toMillis(total.sum()) / n;
+    }
+
+    /**
+     * @return the maximum duration in milliseconds.
+     */
+    public double getMax()
+    {
+        return toMillis(max.get());
+    }
+
+    /**
+     * Get an upper bound of the given percentile.
+     *
+     * @param aPercentile
+     *            the percentile between {@code 0} and {@code 1}, e.g. {@code 0.99}.
+     * @return the duration in milliseconds below which the given share of the durations lie.
+     */
+    public double getPercentile(double aPercentile)
+    {
+        long[] counts = new long[BUCKETS];
+        long n = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = buckets[i].sum();
+            n += counts[i];
+        }
+
+        if (n == 0) {
+            return 0;
+        }
+
+        long threshold = (long) Math.ceil(aPercentile * n);
+        long cumulative = 0;
+        for (int i = 0; i < BUCKETS - 1; i++) {
+            cumulative += counts[i];
+            if (cumulative >= threshold) {
+                // The bound of the bucket may exceed the largest duration actually seen
+                return Math.min((1L << i) / 1000.0, getMax());
+            }
+        }
+
+        return getMax();
+    }
+
+    private static double toMillis(long aNanos)
+    {
+        return aNanos / 1_000_000.0;
+    }
+}
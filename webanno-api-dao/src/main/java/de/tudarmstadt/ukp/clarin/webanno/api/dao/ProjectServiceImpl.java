@@ -45,6 +45,7 @@ import javax.persistence.PersistenceContext;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
+import org.hibernate.annotations.QueryHints;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.slf4j.MDC;
@@ -182,7 +183,8 @@ public class ProjectServiceImpl
     {
         try {
             entityManager.createQuery("FROM Project WHERE name = :name", Project.class)
-                    .setParameter("name", aName).getSingleResult();
+                    .setParameter("name", aName).setHint(QueryHints.CACHEABLE, true)
+                    .getSingleResult();
             return true;
         }
         catch (NoResultException ex) {
@@ -198,7 +200,8 @@ public class ProjectServiceImpl
                 .createQuery(
                         "FROM ProjectPermission WHERE user = :user AND " + "project =:project",
                         ProjectPermission.class).setParameter("user", aUser.getUsername())
-                .setParameter("project", aProject).getResultList();
+                .setParameter("project", aProject).setHint(QueryHints.CACHEABLE, true)
+                .getResultList();
         // if at least one permission level exist
         if (projectPermissions.size() > 0) {
             return true;
@@ -220,7 +223,7 @@ public class ProjectServiceImpl
                                     + "project =:project AND level =:level",
                             ProjectPermission.class).setParameter("user", aUser.getUsername())
                     .setParameter("project", aProject).setParameter("level", aLevel)
-                    .getSingleResult();
+                    .setHint(QueryHints.CACHEABLE, true).getSingleResult();
             return true;
         }
         catch (NoResultException ex) {
@@ -299,7 +302,8 @@ public class ProjectServiceImpl
         return entityManager
                 .createQuery("FROM ProjectPermission WHERE user =:user AND " + "project =:project",
                         ProjectPermission.class).setParameter("user", aUser.getUsername())
-                .setParameter("project", aProject).getResultList();
+                .setParameter("project", aProject).setHint(QueryHints.CACHEABLE, true)
+                .getResultList();
     }
 
     @Override
@@ -310,7 +314,8 @@ public class ProjectServiceImpl
                 .createQuery(
                         "SELECT DISTINCT user FROM ProjectPermission WHERE "
                                 + "project =:project ORDER BY user ASC", String.class)
-                .setParameter("project", aProject).getResultList();
+                .setParameter("project", aProject).setHint(QueryHints.CACHEABLE, true)
+                .getResultList();
 
         List<User> users = new ArrayList<User>();
 
@@ -331,7 +336,8 @@ public class ProjectServiceImpl
                         "SELECT DISTINCT user FROM ProjectPermission WHERE "
                                 + "project =:project AND level =:level ORDER BY user ASC",
                         String.class).setParameter("project", aProject)
-                .setParameter("level", aPermissionLevel).getResultList();
+                .setParameter("level", aPermissionLevel).setHint(QueryHints.CACHEABLE, true)
+                .getResultList();
         List<User> users = new ArrayList<User>();
         for (String username : usernames) {
             if (userRepository.exists(username)) {
@@ -346,14 +352,15 @@ public class ProjectServiceImpl
     public Project getProject(String aName)
     {
         return entityManager.createQuery("FROM Project WHERE name = :name", Project.class)
-                .setParameter("name", aName).getSingleResult();
+                .setParameter("name", aName).setHint(QueryHints.CACHEABLE, true)
+                .getSingleResult();
     }
 
     @Override
     public Project getProject(long aId)
     {
         return entityManager.createQuery("FROM Project WHERE id = :id", Project.class)
-                .setParameter("id", aId).getSingleResult();
+                .setParameter("id", aId).setHint(QueryHints.CACHEABLE, true).getSingleResult();
     }
 
     @Override
@@ -378,7 +385,8 @@ public class ProjectServiceImpl
     {
         return entityManager
                 .createQuery("FROM ProjectPermission WHERE project =:project",
-                        ProjectPermission.class).setParameter("project", aProject).getResultList();
+                        ProjectPermission.class).setParameter("project", aProject)
+                .setHint(QueryHints.CACHEABLE, true).getResultList();
     }
 
     @Override
@@ -436,7 +444,7 @@ public class ProjectServiceImpl
     public List<Project> listProjects()
     {
         return entityManager.createQuery("FROM Project  ORDER BY name ASC ", Project.class)
-                .getResultList();
+                .setHint(QueryHints.CACHEABLE, true).getResultList();
     }
 
     @Override
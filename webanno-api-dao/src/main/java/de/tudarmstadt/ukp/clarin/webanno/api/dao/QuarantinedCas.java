@@ -0,0 +1,70 @@
+/*
+ * Copyright 2017
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao;
+
+import java.util.Collections;
+import java.util.List;
+
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
+
+/**
+ * A CAS in which the background analysis of the CAS doctor has found problems. A copy of the
+ * broken version is kept in the storage backend until a later version passes the analysis.
+ */
+public class QuarantinedCas
+{
+    private final SourceDocument document;
+    private final String username;
+    private final long timestamp;
+    private final List<String> messages;
+
+    public QuarantinedCas(SourceDocument aDocument, String aUsername, long aTimestamp,
+            List<String> aMessages)
+    {
+        document = aDocument;
+        username = aUsername;
+        timestamp = aTimestamp;
+        messages = Collections.unmodifiableList(aMessages);
+    }
+
+    public SourceDocument getDocument()
+    {
+        return document;
+    }
+
+    public String getUsername()
+    {
+        return username;
+    }
+
+    /**
+     * @return the time when the problems were found.
+     */
+    public long getTimestamp()
+    {
+        return timestamp;
+    }
+
+    /**
+     * @return the problems reported by the CAS doctor.
+     */
+    public List<String> getMessages()
+    {
+        return messages;
+    }
+}
@@ -0,0 +1,788 @@
+/*
+ * Copyright 2017
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao;
+
+import static de.tudarmstadt.ukp.clarin.webanno.api.ProjectService.PROJECT;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.CountingInputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.tudarmstadt.ukp.clarin.webanno.model.Project;
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
+
+/**
+ * Stores the CASes of a project in a few large append-only segment files instead of one file per
+ * CAS: {@code project/<project>/cas-segments/<id>.seg}.
+ * <p>
+ * Each write appends a record to the active segment. An in-memory index maps each CAS to the
+ * location of its latest record. The index is rebuilt by scanning the segments when a project is
+ * accessed for the first time. Records carry a checksum, so a record that was only partially
+ * written (e.g. because of a crash) is detected and truncated.
+ * <p>
+ * Overwritten and deleted CASes leave garbage in the segments. {@link #runMaintenance()} compacts
+ * the segments of a project once the share of garbage exceeds a threshold. Compaction copies the
+ * live records of all but the active segment into a new segment. Reads and writes continue while
+ * the records are copied and are only blocked while the new segment is swapped in.
+ */
+public class SegmentCasStorageBackend
+    implements CasStorageBackend
+{
+    public static final String NAME = "segment";
+
+    public static final String SEGMENT_FOLDER = "cas-segments";
+
+    public static final long DEFAULT_MAX_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    /**
+     * Share of garbage in the segments of a project above which the segments are compacted.
+     */
+    public static final double DEFAULT_COMPACTION_THRESHOLD = 0.5;
+
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final int RECORD_MAGIC = 0x57415352;
+    private static final int TOMBSTONE = -1;
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private final File dir;
+    private final long maxSegmentSize;
+    private final double compactionThreshold;
+
+    private final Map<Long, ProjectStore> stores = new ConcurrentHashMap<>();
+
+    public SegmentCasStorageBackend(File aDir)
+    {
+        this(aDir, DEFAULT_MAX_SEGMENT_SIZE, DEFAULT_COMPACTION_THRESHOLD);
+    }
+
+    public SegmentCasStorageBackend(File aDir, long aMaxSegmentSize, double aCompactionThreshold)
+    {
+        dir = aDir;
+        maxSegmentSize = aMaxSegmentSize;
+        compactionThreshold = aCompactionThreshold;
+    }
+
+    @Override
+    public Version getVersion(SourceDocument aDocument, String aUsername)
+        throws IOException
+    {
+        Location location = getStore(aDocument.getProject()).index
+                .get(new Key(aDocument.getId(), aUsername));
+        return location != null ? new Version(location.timestamp, location.length) : null;
+    }
+
+    @Override
+    public InputStream read(SourceDocument aDocument, String aUsername)
+        throws IOException
+    {
+        ProjectStore store = getStore(aDocument.getProject());
+        byte[] data = store.read(new Key(aDocument.getId(), aUsername));
+        if (data == null) {
+            throw new FileNotFoundException("Annotation document of user [" + aUsername
+                    + "] for source document [" + aDocument.getName() + "] ("
+                    + aDocument.getId() + ") not found in segments of project ["
+                    + aDocument.getProject().getName() + "] (" + aDocument.getProject().getId()
+                    + ")");
+        }
+        return new ByteArrayInputStream(data);
+    }
+
+    @Override
+    public void write(SourceDocument aDocument, String aUsername, StreamWriter aWriter)
+        throws IOException
+    {
+        // Serialize first - if the writer fails, nothing has been appended yet
+        RecordBuffer buffer = new RecordBuffer();
+        aWriter.write(buffer);
+
+        getStore(aDocument.getProject()).append(new Key(aDocument.getId(), aUsername), buffer);
+    }
+
+    @Override
+    public void delete(SourceDocument aDocument, String aUsername)
+        throws IOException
+    {
+        getStore(aDocument.getProject()).append(new Key(aDocument.getId(), aUsername), null);
+    }
+
+    @Override
+    public void delete(SourceDocument aDocument)
+        throws IOException
+    {
+        ProjectStore store = getStore(aDocument.getProject());
+        for (Key key : new ArrayList<>(store.index.keySet())) {
+            if (key.documentId == aDocument.getId()) {
+                store.append(key, null);
+            }
+        }
+    }
+
+    /**
+     * Compact the segments of all projects with too much garbage. Also releases the resources
+     * held for projects which have been deleted in the meantime.
+     *
+     * @return the number of bytes reclaimed.
+     */
+    @Override
+    public long runMaintenance()
+        throws IOException
+    {
+        long reclaimed = 0;
+        for (ProjectStore store : new ArrayList<>(stores.values())) {
+            if (!store.folder.exists()) {
+                stores.remove(store.projectId, store);
+                store.close();
+                continue;
+            }
+
+            if (store.getGarbageRatio() > compactionThreshold) {
+                reclaimed += store.compact();
+            }
+        }
+        return reclaimed;
+    }
+
+    /**
+     * Compact the segments of the given project regardless of the amount of garbage.
+     *
+     * @return the number of bytes reclaimed.
+     */
+    public long compact(Project aProject)
+        throws IOException
+    {
+        return getStore(aProject).compact();
+    }
+
+    /**
+     * @return the total size of the segments of the given project.
+     */
+    public long getSize(Project aProject)
+        throws IOException
+    {
+        return getStore(aProject).getSize();
+    }
+
+    @Override
+    public void close()
+        throws IOException
+    {
+        for (ProjectStore store : stores.values()) {
+            store.close();
+        }
+        stores.clear();
+    }
+
+    private ProjectStore getStore(Project aProject)
+        throws IOException
+    {
+        ProjectStore store = stores.get(aProject.getId());
+        if (store != null) {
+            return store;
+        }
+
+        synchronized (stores) {
+            store = stores.get(aProject.getId());
+            if (store == null) {
+                store = new ProjectStore(aProject.getId(),
+                        new File(dir, PROJECT + aProject.getId() + "/" + SEGMENT_FOLDER));
+                store.open();
+                stores.put(aProject.getId(), store);
+            }
+            return store;
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return NAME;
+    }
+
+    /**
+     * The segments and the index of a single project.
+     */
+    private final class ProjectStore
+    {
+        private final long projectId;
+        private final File folder;
+
+        /**
+         * Held for reading by all operations that access a segment and for writing while
+         * segments are swapped during compaction.
+         */
+        private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+        /**
+         * Serializes appends to the active segment.
+         */
+        private final Object appendMonitor = new Object();
+
+        private final NavigableMap<Integer, Segment> segments = new ConcurrentSkipListMap<>();
+        private final Map<Key, Location> index = new ConcurrentHashMap<>();
+        private final Map<Key, Tombstone> tombstones = new ConcurrentHashMap<>();
+
+        public ProjectStore(long aProjectId, File aFolder)
+        {
+            projectId = aProjectId;
+            folder = aFolder;
+        }
+
+        /**
+         * Rebuild the index by replaying all segments in order.
+         */
+        public void open()
+            throws IOException
+        {
+            FileUtils.forceMkdir(folder);
+
+            // Left over from an interrupted compaction
+            File[] leftovers = folder.listFiles((d, n) -> n.endsWith(SEGMENT_SUFFIX + ".tmp"));
+            for (File file : leftovers) {
+                FileUtils.forceDelete(file);
+            }
+
+            File[] files = folder.listFiles((d, n) -> n.endsWith(SEGMENT_SUFFIX));
+            List<Integer> ids = new ArrayList<>();
+            for (File file : files) {
+                ids.add(Integer.parseInt(file.getName().substring(0,
+                        file.getName().length() - SEGMENT_SUFFIX.length())));
+            }
+            ids.sort(null);
+
+            for (int i = 0; i < ids.size(); i++) {
+                Segment segment = new Segment(ids.get(i), getSegmentFile(ids.get(i)));
+                long valid = replay(segment);
+                if (valid < segment.size) {
+                    if (i == ids.size() - 1) {
+                        log.warn("Truncating incomplete record at offset {} in segment [{}]",
+                                valid, segment.file);
+                        segment.channel.truncate(valid);
+                    }
+                    else {
+                        log.error("Ignoring corrupt data after offset {} in segment [{}]", valid,
+                                segment.file);
+                    }
+                    segment.size = valid;
+                }
+                segments.put(segment.id, segment);
+            }
+
+            if (segments.isEmpty()) {
+                segments.put(1, new Segment(1, getSegmentFile(1)));
+            }
+        }
+
+        /**
+         * Replay the records of the given segment into the index.
+         *
+         * @return the offset up to which the segment contains valid records.
+         */
+        private long replay(Segment aSegment)
+            throws IOException
+        {
+            long valid = 0;
+            CRC32 crc = new CRC32();
+            try (CountingInputStream counter = new CountingInputStream(
+                    new BufferedInputStream(new FileInputStream(aSegment.file)))) {
+                DataInputStream is = new DataInputStream(new CheckedInputStream(counter, crc));
+                while (valid < aSegment.size) {
+                    crc.reset();
+                    if (is.readInt() != RECORD_MAGIC) {
+                        break;
+                    }
+                    long documentId = is.readLong();
+                    String username = is.readUTF();
+                    long timestamp = is.readLong();
+                    int length = is.readInt();
+                    long offset = counter.getByteCount();
+                    if (length > 0) {
+                        IOUtils.skipFully(is, length);
+                    }
+                    long checksum = crc.getValue();
+                    if ((is.readInt() & 0xFFFFFFFFL) != checksum) {
+                        break;
+                    }
+                    valid = counter.getByteCount();
+
+                    Key key = new Key(documentId, username);
+                    if (length == TOMBSTONE) {
+                        index.remove(key);
+                        tombstones.put(key, new Tombstone(aSegment.id, false));
+                    }
+                    else {
+                        index.put(key, new Location(aSegment.id, offset, length, timestamp));
+                        tombstones.remove(key);
+                    }
+                }
+            }
+            catch (EOFException e) {
+                // Incomplete record at the end of the segment
+            }
+            return valid;
+        }
+
+        public byte[] read(Key aKey)
+            throws IOException
+        {
+            lock.readLock().lock();
+            try {
+                Location location = index.get(aKey);
+                if (location == null) {
+                    return null;
+                }
+
+                Segment segment = segments.get(location.segmentId);
+                ByteBuffer buffer = ByteBuffer.allocate(location.length);
+                long position = location.offset;
+                while (buffer.hasRemaining()) {
+                    int n = segment.channel.read(buffer, position);
+                    if (n < 0) {
+                        throw new EOFException("Unexpected end of segment [" + segment.file
+                                + "]");
+                    }
+                    position += n;
+                }
+                return buffer.array();
+            }
+            finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        /**
+         * Append a record for the given CAS. If the data is {@code null}, a tombstone is appended
+         * instead.
+         */
+        public void append(Key aKey, RecordBuffer aData)
+            throws IOException
+        {
+            lock.readLock().lock();
+            try {
+                synchronized (appendMonitor) {
+                    Location previous = index.get(aKey);
+                    if (aData == null && previous == null) {
+                        // Nothing to delete
+                        return;
+                    }
+
+                    Segment segment = getActiveSegment();
+
+                    // Make sure every version of a CAS gets a distinct timestamp
+                    long timestamp = System.currentTimeMillis();
+                    if (previous != null && previous.timestamp >= timestamp) {
+                        timestamp = previous.timestamp + 1;
+                    }
+
+                    long end;
+                    if (aData != null) {
+                        end = writeRecord(segment.channel, segment.size, aKey, timestamp,
+                                aData.getBuffer(), aData.size());
+                    }
+                    else {
+                        end = writeRecord(segment.channel, segment.size, aKey, timestamp, null,
+                                TOMBSTONE);
+                    }
+                    segment.size = end;
+
+                    if (aData != null) {
+                        // The payload is followed by the checksum
+                        index.put(aKey, new Location(segment.id,
+                                end - aData.size() - Integer.BYTES, aData.size(), timestamp));
+                        tombstones.remove(aKey);
+                    }
+                    else {
+                        index.remove(aKey);
+                        tombstones.put(aKey, new Tombstone(segment.id, false));
+                    }
+                }
+            }
+            finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        /**
+         * Get the segment to append to, starting a new one if the current one is full. The caller
+         * must hold the append monitor.
+         */
+        private Segment getActiveSegment()
+            throws IOException
+        {
+            Segment active = segments.lastEntry().getValue();
+            if (active.size >= maxSegmentSize) {
+                active = rollSegment();
+            }
+            return active;
+        }
+
+        /**
+         * Start a new active segment. The caller must hold the append monitor.
+         */
+        private Segment rollSegment()
+            throws IOException
+        {
+            int id = segments.lastKey() + 1;
+            Segment segment = new Segment(id, getSegmentFile(id));
+            segments.put(id, segment);
+            return segment;
+        }
+
+        public long compact()
+            throws IOException
+        {
+            synchronized (this) {
+                // Seal the current segment, so all segments except the new active one can be
+                // compacted while writes go on.
+                List<Segment> sealed;
+                lock.readLock().lock();
+                try {
+                    synchronized (appendMonitor) {
+                        if (segments.lastEntry().getValue().size > 0) {
+                            rollSegment();
+                        }
+                        sealed = new ArrayList<>(segments.headMap(segments.lastKey()).values());
+                    }
+                }
+                finally {
+                    lock.readLock().unlock();
+                }
+
+                if (sealed.isEmpty()) {
+                    return 0;
+                }
+
+                long before = 0;
+                for (Segment segment : sealed) {
+                    before += segment.size;
+                }
+
+                // The compacted segment replaces the newest sealed segment, so it is replayed
+                // before any of the records written since.
+                int targetId = sealed.get(sealed.size() - 1).id;
+                File tempFile = new File(folder, targetId + SEGMENT_SUFFIX + ".tmp");
+                Map<Key, Location[]> moved = new HashMap<>();
+                Map<Key, Tombstone> carried = new HashMap<>();
+                long size = 0;
+                try (FileChannel out = FileChannel.open(tempFile.toPath(), CREATE, WRITE,
+                        READ)) {
+                    out.truncate(0);
+                    for (Map.Entry<Key, Location> e : index.entrySet()) {
+                        Location location = e.getValue();
+                        Segment segment = segments.get(location.segmentId);
+                        if (!sealed.contains(segment)) {
+                            continue;
+                        }
+
+                        ByteBuffer buffer = ByteBuffer.allocate(location.length);
+                        long position = location.offset;
+                        while (buffer.hasRemaining()) {
+                            int n = segment.channel.read(buffer, position);
+                            if (n < 0) {
+                                throw new EOFException(
+                                        "Unexpected end of segment [" + segment.file + "]");
+                            }
+                            position += n;
+                        }
+
+                        long end = writeRecord(out, size, e.getKey(), location.timestamp,
+                                buffer.array(), location.length);
+                        moved.put(e.getKey(), new Location[] { location,
+                                new Location(targetId, end - location.length - Integer.BYTES,
+                                        location.length, location.timestamp) });
+                        size = end;
+                    }
+
+                    // A tombstone must survive one compaction because the deletion of the
+                    // older segments could be interrupted by a crash, which would bring the
+                    // deleted CAS back. Once it has been carried over, no older record for
+                    // the CAS remains, so it can be dropped.
+                    for (Map.Entry<Key, Tombstone> e : tombstones.entrySet()) {
+                        Tombstone tombstone = e.getValue();
+                        if (tombstone.carried || !sealed.contains(segments.get(
+                                tombstone.segmentId))) {
+                            continue;
+                        }
+                        size = writeRecord(out, size, e.getKey(), 0, null, TOMBSTONE);
+                        carried.put(e.getKey(), tombstone);
+                    }
+
+                    out.force(true);
+                }
+
+                // Swap in the compacted segment
+                lock.writeLock().lock();
+                try {
+                    for (Segment segment : sealed) {
+                        segment.channel.close();
+                        segments.remove(segment.id);
+                    }
+
+                    File targetFile = getSegmentFile(targetId);
+                    Files.move(tempFile.toPath(), targetFile.toPath(), ATOMIC_MOVE);
+                    for (Segment segment : sealed) {
+                        if (segment.id != targetId) {
+                            FileUtils.forceDelete(segment.file);
+                        }
+                    }
+                    segments.put(targetId, new Segment(targetId, targetFile));
+
+                    // Records written since have precedence over the copied ones
+                    for (Map.Entry<Key, Location[]> e : moved.entrySet()) {
+                        index.replace(e.getKey(), e.getValue()[0], e.getValue()[1]);
+                    }
+
+                    for (Map.Entry<Key, Tombstone> e : tombstones.entrySet()) {
+                        Tombstone tombstone = e.getValue();
+                        if (carried.containsKey(e.getKey())) {
+                            tombstones.replace(e.getKey(), tombstone,
+                                    new Tombstone(targetId, true));
+                        }
+                        else if (tombstone.segmentId <= targetId) {
+                            tombstones.remove(e.getKey(), tombstone);
+                        }
+                    }
+                }
+                finally {
+                    lock.writeLock().unlock();
+                }
+
+                long reclaimed = before - size;
+                log.info("Compacted {} segments of project [{}]: {} reclaimed", sealed.size(),
+                        projectId, FileUtils.byteCountToDisplaySize(reclaimed));
+                return reclaimed;
+            }
+        }
+
+        public long getSize()
+        {
+            long size = 0;
+            for (Segment segment : segments.values()) {
+                size += segment.size;
+            }
+            return size;
+        }
+
+        public double getGarbageRatio()
+        {
+            long size = getSize();
+            if (size < maxSegmentSize / 4) {
+                // Not worth the effort
+                return 0;
+            }
+
+            long live = 0;
+            for (Location location : index.values()) {
+                live += location.length;
+            }
+            return 1.0 - ((double) live / size);
+        }
+
+        public void close()
+            throws IOException
+        {
+            lock.writeLock().lock();
+            try {
+                for (Segment segment : segments.values()) {
+                    segment.channel.close();
+                }
+            }
+            finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        private File getSegmentFile(int aId)
+        {
+            return new File(folder, aId + SEGMENT_SUFFIX);
+        }
+    }
+
+    /**
+     * Write a record at the given position. If the data is {@code null}, a tombstone is written.
+     *
+     * @return the position after the record.
+     */
+    private static long writeRecord(FileChannel aChannel, long aPosition, Key aKey,
+            long aTimestamp, byte[] aData, int aLength)
+        throws IOException
+    {
+        ByteArrayOutputStream headerBuffer = new ByteArrayOutputStream(64);
+        DataOutputStream header = new DataOutputStream(headerBuffer);
+        header.writeInt(RECORD_MAGIC);
+        header.writeLong(aKey.documentId);
+        header.writeUTF(aKey.username);
+        header.writeLong(aTimestamp);
+        header.writeInt(aData != null ? aLength : TOMBSTONE);
+        header.flush();
+
+        CRC32 crc = new CRC32();
+        byte[] headerBytes = headerBuffer.toByteArray();
+        crc.update(headerBytes);
+        if (aData != null) {
+            crc.update(aData, 0, aLength);
+        }
+
+        ByteBuffer checksum = ByteBuffer.allocate(Integer.BYTES);
+        checksum.putInt((int) crc.getValue());
+        checksum.flip();
+
+        long position = aPosition;
+        position = writeFully(aChannel, position, ByteBuffer.wrap(headerBytes));
+        if (aData != null) {
+            position = writeFully(aChannel, position, ByteBuffer.wrap(aData, 0, aLength));
+        }
+        position = writeFully(aChannel, position, checksum);
+        return position;
+    }
+
+    private static long writeFully(FileChannel aChannel, long aPosition, ByteBuffer aBuffer)
+        throws IOException
+    {
+        long position = aPosition;
+        while (aBuffer.hasRemaining()) {
+            position += aChannel.write(aBuffer, position);
+        }
+        return position;
+    }
+
+    /**
+     * Gives access to the internal buffer to avoid copying the serialized CAS.
+     */
+    private static final class RecordBuffer
+        extends ByteArrayOutputStream
+    {
+        public RecordBuffer()
+        {
+            super(8192);
+        }
+
+        public byte[] getBuffer()
+        {
+            return buf;
+        }
+    }
+
+    private static final class Segment
+    {
+        private final int id;
+        private final File file;
+        private final FileChannel channel;
+        private volatile long size;
+
+        public Segment(int aId, File aFile)
+            throws IOException
+        {
+            id = aId;
+            file = aFile;
+            channel = FileChannel.open(aFile.toPath(), CREATE, READ, WRITE);
+            size = channel.size();
+        }
+    }
+
+    private static final class Location
+    {
+        private final int segmentId;
+        private final long offset;
+        private final int length;
+        private final long timestamp;
+
+        public Location(int aSegmentId, long aOffset, int aLength, long aTimestamp)
+        {
+            segmentId = aSegmentId;
+            offset = aOffset;
+            length = aLength;
+            timestamp = aTimestamp;
+        }
+    }
+
+    private static final class Tombstone
+    {
+        private final int segmentId;
+        private final boolean carried;
+
+        public Tombstone(int aSegmentId, boolean aCarried)
+        {
+            segmentId = aSegmentId;
+            carried = aCarried;
+        }
+    }
+
+    private static final class Key
+    {
+        private final long documentId;
+        private final String username;
+
+        public Key(long aDocumentId, String aUsername)
+        {
+            documentId = aDocumentId;
+            username = aUsername;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return 31 * Long.hashCode(documentId) + username.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object aOther)
+        {
+            if (this == aOther) {
+                return true;
+            }
+            if (!(aOther instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) aOther;
+            return documentId == other.documentId && username.equals(other.username);
+        }
+    }
+}
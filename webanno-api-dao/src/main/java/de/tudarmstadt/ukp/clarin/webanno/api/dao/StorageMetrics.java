@@ -0,0 +1,533 @@
+/*
+ * Copyright 2017
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao;
+
+import java.beans.ConstructorProperties;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+
+import org.springframework.beans.factory.annotation.Value;
+
+import de.tudarmstadt.ukp.clarin.webanno.model.Project;
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
+
+/**
+ * Collects latency, data volume and lock wait times of the CAS storage, broken down by project and
+ * operation. Operations which take longer than a configurable threshold are additionally recorded
+ * individually including the document and user, so the cause of latency spikes can be tracked
+ * down.
+ * <p>
+ * The metrics are exposed via JMX (see {@link StorageMetricsMXBean}) and via the
+ * {@code /admin/metrics} endpoint, together with the statistics of the {@link CasCache} and the
+ * {@link CasPool} used by the storage.
+ */
+public class StorageMetrics
+    implements StorageMetricsMXBean
+{
+    public enum Operation
+    {
+        /**
+         * Reading a CAS from the storage.
+         */
+        READ,
+
+        /**
+         * Writing a CAS to the storage.
+         */
+        WRITE,
+
+        /**
+         * Upgrading a CAS to the current type system of the project.
+         */
+        UPGRADE,
+
+        /**
+         * Creating and pruning snapshots of the CAS history.
+         */
+        HISTORY,
+
+        /**
+         * Checking or repairing a CAS using the CAS doctor.
+         */
+        DOCTOR
+    }
+
+    public static final long DEFAULT_SLOW_THRESHOLD = 1000;
+
+    /**
+     * Maximum number of slow operations to remember.
+     */
+    public static final int MAX_SLOW_OPERATIONS = 100;
+
+    private final Map<Key, OperationMetrics> metrics = new ConcurrentHashMap<>();
+    private final Deque<SlowOperation> slowOperations = new ArrayDeque<>();
+
+    @Value(value = "${cas.metrics.slow-threshold}")
+    private volatile long slowThreshold = DEFAULT_SLOW_THRESHOLD;
+
+    private volatile CasCache cache;
+    private volatile CasPool pool;
+
+    /**
+     * Record an operation on the CAS of the given user for the given document.
+     *
+     * @param aOperation
+     *            the operation.
+     * @param aDocument
+     *            the document.
+     * @param aUsername
+     *            the user.
+     * @param aNanos
+     *            the duration of the operation in nanoseconds.
+     * @param aBytes
+     *            the number of bytes read or written or {@code 0} if not applicable.
+     */
+    public void record(Operation aOperation, SourceDocument aDocument, String aUsername,
+            long aNanos, long aBytes)
+    {
+        OperationMetrics m = get(aOperation, aDocument.getProject());
+        m.latency.record(aNanos);
+        m.bytes.add(aBytes);
+
+        long millis = TimeUnit.NANOSECONDS.toMillis(aNanos);
+        if (millis >= slowThreshold) {
+            SlowOperation slow = new SlowOperation(System.currentTimeMillis(),
+                    aOperation.name(), aDocument.getProject().getId(),
+                    aDocument.getProject().getName(), aDocument.getId(), aDocument.getName(),
+                    aUsername, millis, aBytes);
+            synchronized (slowOperations) {
+                slowOperations.addLast(slow);
+                while (slowOperations.size() > MAX_SLOW_OPERATIONS) {
+                    slowOperations.removeFirst();
+                }
+            }
+        }
+    }
+
+    /**
+     * Acquire the given lock and record the time spent waiting for it.
+     *
+     * @param aLock
+     *            the lock guarding the CAS.
+     * @param aOperation
+     *            the operation for which the lock is acquired.
+     * @param aDocument
+     *            the document.
+     */
+    public void lock(Lock aLock, Operation aOperation, SourceDocument aDocument)
+    {
+        // Do not bother with the clock if the lock is free
+        if (aLock.tryLock()) {
+            get(aOperation, aDocument.getProject()).lockWait.record(0);
+            return;
+        }
+
+        long start = System.nanoTime();
+        aLock.lock();
+        get(aOperation, aDocument.getProject()).lockWait.record(System.nanoTime() - start);
+    }
+
+    @Override
+    public List<Statistics> getStatistics()
+    {
+        List<Statistics> result = new ArrayList<>();
+        for (Map.Entry<Key, OperationMetrics> e : metrics.entrySet()) {
+            OperationMetrics m = e.getValue();
+            result.add(new Statistics(e.getKey().projectId, m.projectName,
+                    e.getKey().operation.name(), m.latency.getCount(), m.bytes.sum(),
+                    m.latency.getMean(), m.latency.getPercentile(0.5),
+                    m.latency.getPercentile(0.95), m.latency.getPercentile(0.99),
+                    m.latency.getMax(), m.lockWait.getMean(), m.lockWait.getPercentile(0.99),
+                    m.lockWait.getMax()));
+        }
+        result.sort(Comparator.comparingLong(Statistics::getProjectId)
+                .thenComparing(Statistics::getOperation));
+        return result;
+    }
+
+    @Override
+    public List<SlowOperation> getSlowOperations()
+    {
+        synchronized (slowOperations) {
+            return new ArrayList<>(slowOperations);
+        }
+    }
+
+    /**
+     * Set the cache and the pool whose statistics are reported along with the metrics.
+     */
+    public void setCaches(CasCache aCache, CasPool aPool)
+    {
+        cache = aCache;
+        pool = aPool;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The counters are kept by the cache and the pool themselves and are not affected by
+     * {@link #reset()}.
+     */
+    @Override
+    public CacheStatistics getCacheStatistics()
+    {
+        CasCache c = cache;
+        CasPool p = pool;
+        return new CacheStatistics(c != null && c.isEnabled(), c != null ? c.getEntryCount() : 0,
+                c != null ? c.getSize() : 0, c != null ? c.getHits() : 0,
+                c != null ? c.getMisses() : 0, p != null ? p.getCreated() : 0,
+                p != null ? p.getReused() : 0);
+    }
+
+    @Override
+    public long getSlowThreshold()
+    {
+        return slowThreshold;
+    }
+
+    @Override
+    public void setSlowThreshold(long aSlowThreshold)
+    {
+        slowThreshold = aSlowThreshold;
+    }
+
+    @Override
+    public void reset()
+    {
+        metrics.clear();
+        synchronized (slowOperations) {
+            slowOperations.clear();
+        }
+    }
+
+    private OperationMetrics get(Operation aOperation, Project aProject)
+    {
+        return metrics.computeIfAbsent(new Key(aProject.getId(), aOperation),
+            k -> new OperationMetrics(aProject.getName()));
+    }
+
+    private static final class Key
+    {
+        private final long projectId;
+        private final Operation operation;
+
+        public Key(long aProjectId, Operation aOperation)
+        {
+            projectId = aProjectId;
+            operation = aOperation;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return 31 * Long.hashCode(projectId) + operation.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object aOther)
+        {
+            if (!(aOther instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) aOther;
+            return projectId == other.projectId && operation == other.operation;
+        }
+    }
+
+    private static final class OperationMetrics
+    {
+        private final String projectName;
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final LatencyHistogram lockWait = new LatencyHistogram();
+        private final LongAdder bytes = new LongAdder();
+
+        public OperationMetrics(String aProjectName)
+        {
+            projectName = aProjectName;
+        }
+    }
+
+    /**
+     * The metrics of one operation in one project. Durations are in milliseconds.
+     */
+    public static final class Statistics
+    {
+        private final long projectId;
+        private final String projectName;
+        private final String operation;
+        private final long count;
+        private final long bytes;
+        private final double meanTime;
+        private final double medianTime;
+        private final double p95Time;
+        private final double p99Time;
+        private final double maxTime;
+        private final double meanLockWait;
+        private final double p99LockWait;
+        private final double maxLockWait;
+
+        @ConstructorProperties({ "projectId", "projectName", "operation", "count", "bytes",
+                "meanTime", "medianTime", "p95Time", "p99Time", "maxTime", "meanLockWait",
+                "p99LockWait", "maxLockWait" })
+        public Statistics(long aProjectId, String aProjectName, String aOperation, long aCount,
+                long aBytes, double aMeanTime, double aMedianTime, double aP95Time,
+                double aP99Time, double aMaxTime, double aMeanLockWait, double aP99LockWait,
+                double aMaxLockWait)
+        {
+            projectId = aProjectId;
+            projectName = aProjectName;
+            operation = aOperation;
+            count = aCount;
+            bytes = aBytes;
+            meanTime = aMeanTime;
+            medianTime = aMedianTime;
+            p95Time = aP95Time;
+            p99Time = aP99Time;
+            maxTime = aMaxTime;
+            meanLockWait = aMeanLockWait;
+            p99LockWait = aP99LockWait;
+            maxLockWait = aMaxLockWait;
+        }
+
+        public long getProjectId()
+        {
+            return projectId;
+        }
+
+        public String getProjectName()
+        {
+            return projectName;
+        }
+
+        public String getOperation()
+        {
+            return operation;
+        }
+
+        public long getCount()
+        {
+            return count;
+        }
+
+        public long getBytes()
+        {
+            return bytes;
+        }
+
+        public double getMeanTime()
+        {
+            return meanTime;
+        }
+
+        public double getMedianTime()
+        {
+            return medianTime;
+        }
+
+        public double getP95Time()
+        {
+            return p95Time;
+        }
+
+        public double getP99Time()
+        {
+            return p99Time;
+        }
+
+        public double getMaxTime()
+        {
+            return maxTime;
+        }
+
+        public double getMeanLockWait()
+        {
+            return meanLockWait;
+        }
+
+        public double getP99LockWait()
+        {
+            return p99LockWait;
+        }
+
+        public double getMaxLockWait()
+        {
+            return maxLockWait;
+        }
+    }
+
+    /**
+     * The statistics of the CAS cache and the CAS pool.
+     */
+    public static final class CacheStatistics
+    {
+        private final boolean cacheEnabled;
+        private final int cacheEntries;
+        private final long cacheSize;
+        private final long cacheHits;
+        private final long cacheMisses;
+        private final long poolCreated;
+        private final long poolReused;
+
+        @ConstructorProperties({ "cacheEnabled", "cacheEntries", "cacheSize", "cacheHits",
+                "cacheMisses", "poolCreated", "poolReused" })
+        public CacheStatistics(boolean aCacheEnabled, int aCacheEntries, long aCacheSize,
+                long aCacheHits, long aCacheMisses, long aPoolCreated, long aPoolReused)
+        {
+            cacheEnabled = aCacheEnabled;
+            cacheEntries = aCacheEntries;
+            cacheSize = aCacheSize;
+            cacheHits = aCacheHits;
+            cacheMisses = aCacheMisses;
+            poolCreated = aPoolCreated;
+            poolReused = aPoolReused;
+        }
+
+        public boolean isCacheEnabled()
+        {
+            return cacheEnabled;
+        }
+
+        public int getCacheEntries()
+        {
+            return cacheEntries;
+        }
+
+        /**
+         * @return the size (in bytes) of all serialized CASes in the cache.
+         */
+        public long getCacheSize()
+        {
+            return cacheSize;
+        }
+
+        public long getCacheHits()
+        {
+            return cacheHits;
+        }
+
+        public long getCacheMisses()
+        {
+            return cacheMisses;
+        }
+
+        /**
+         * @return the number of CASes which the pool had to create.
+         */
+        public long getPoolCreated()
+        {
+            return poolCreated;
+        }
+
+        /**
+         * @return the number of times a CAS from the pool could be reused.
+         */
+        public long getPoolReused()
+        {
+            return poolReused;
+        }
+    }
+
+    /**
+     * An individual operation which took longer than the slow threshold.
+     */
+    public static final class SlowOperation
+    {
+        private final long timestamp;
+        private final String operation;
+        private final long projectId;
+        private final String projectName;
+        private final long documentId;
+        private final String documentName;
+        private final String username;
+        private final long time;
+        private final long bytes;
+
+        @ConstructorProperties({ "timestamp", "operation", "projectId", "projectName",
+                "documentId", "documentName", "username", "time", "bytes" })
+        public SlowOperation(long aTimestamp, String aOperation, long aProjectId,
+                String aProjectName, long aDocumentId, String aDocumentName, String aUsername,
+                long aTime, long aBytes)
+        {
+            timestamp = aTimestamp;
+            operation = aOperation;
+            projectId = aProjectId;
+            projectName = aProjectName;
+            documentId = aDocumentId;
+            documentName = aDocumentName;
+            username = aUsername;
+            time = aTime;
+            bytes = aBytes;
+        }
+
+        public long getTimestamp()
+        {
+            return timestamp;
+        }
+
+        public String getOperation()
+        {
+            return operation;
+        }
+
+        public long getProjectId()
+        {
+            return projectId;
+        }
+
+        public String getProjectName()
+        {
+            return projectName;
+        }
+
+        public long getDocumentId()
+        {
+            return documentId;
+        }
+
+        public String getDocumentName()
+        {
+            return documentName;
+        }
+
+        public String getUsername()
+        {
+            return username;
+        }
+
+        /**
+         * @return the duration in milliseconds.
+         */
+        public long getTime()
+        {
+            return time;
+        }
+
+        public long getBytes()
+        {
+            return bytes;
+        }
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright 2017
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao;
+
+import java.util.List;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.StorageMetrics.CacheStatistics;
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.StorageMetrics.SlowOperation;
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.StorageMetrics.Statistics;
+
+/**
+ * JMX view on the {@link StorageMetrics}.
+ */
+public interface StorageMetricsMXBean
+{
+    /**
+     * @return the statistics for each project and operation.
+     */
+    List<Statistics> getStatistics();
+
+    /**
+     * @return the most recent operations which took longer than the slow threshold.
+     */
+    List<SlowOperation> getSlowOperations();
+
+    /**
+     * @return the statistics of the CAS cache and the CAS pool.
+     */
+    CacheStatistics getCacheStatistics();
+
+    /**
+     * @return the duration (in milliseconds) above which an operation is considered slow.
+     */
+    long getSlowThreshold();
+
+    void setSlowThreshold(long aSlowThreshold);
+
+    /**
+     * Discard all statistics collected so far.
+     */
+    void reset();
+}
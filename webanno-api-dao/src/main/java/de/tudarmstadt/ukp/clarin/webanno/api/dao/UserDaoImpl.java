@@ -23,6 +23,7 @@ import javax.persistence.EntityManager;
 import javax.persistence.NoResultException;
 import javax.persistence.PersistenceContext;
 
+import org.hibernate.annotations.QueryHints;
 import org.springframework.stereotype.Repository;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -47,7 +48,8 @@ public class UserDaoImpl
 	{
 		return entityManager
 				.createQuery("FROM " + User.class.getName() + " o WHERE o.username = :username")
-				.setParameter("username", aUsername).getResultList().size() > 0;
+				.setParameter("username", aUsername).setHint(QueryHints.CACHEABLE, true)
+				.getResultList().size() > 0;
 	}
 
 	   @Override
@@ -95,7 +97,8 @@ public class UserDaoImpl
 		}
 		return entityManager
 				.createQuery("FROM " + User.class.getName() + " o WHERE o.username = :username",
-						User.class).setParameter("username", aUsername).getSingleResult();
+						User.class).setParameter("username", aUsername)
+				.setHint(QueryHints.CACHEABLE, true).getSingleResult();
 	}
 
 	@Override
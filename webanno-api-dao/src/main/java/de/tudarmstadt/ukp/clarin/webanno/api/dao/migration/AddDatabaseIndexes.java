@@ -0,0 +1,214 @@
+/*
+ * Copyright 2017
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao.migration;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonMap;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.Resource;
+import javax.persistence.Index;
+import javax.persistence.Table;
+import javax.sql.DataSource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.SmartLifecycle;
+
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocument;
+import de.tudarmstadt.ukp.clarin.webanno.model.ProjectPermission;
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
+
+/**
+ * WebAnno versions until 3.2.x did not declare the composite indexes on the annotation documents,
+ * source documents and project permissions. Hibernate only adds them to existing databases if
+ * {@code database.generate} is set to {@code update}, so this migration creates those which are
+ * still missing. The indexes are taken from the {@link Table} annotations of the entities.
+ */
+public class AddDatabaseIndexes
+    implements SmartLifecycle
+{
+    static final List<Class<?>> ENTITIES = asList(AnnotationDocument.class,
+            SourceDocument.class, ProjectPermission.class);
+
+    /**
+     * The previous names of indexes which have been renamed, by their current name. Snapshot
+     * builds of 3.3.0 created these indexes under the previous name.
+     */
+    static final Map<String, String> RENAMED_INDEXES = singletonMap(
+            "idx_annotation_document_project_user_state", "idx_annotation_document_project_user");
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private boolean running = false;
+
+    @Resource(name = "dataSource")
+    private DataSource dataSource;
+
+    @Override
+    public boolean isRunning()
+    {
+        return running;
+    }
+
+    @Override
+    public void start()
+    {
+        running = true;
+        doMigration();
+    }
+
+    @Override
+    public void stop()
+    {
+        running = false;
+    }
+
+    @Override
+    public int getPhase()
+    {
+        return Integer.MIN_VALUE;
+    }
+
+    @Override
+    public boolean isAutoStartup()
+    {
+        return true;
+    }
+
+    @Override
+    public void stop(Runnable aCallback)
+    {
+        stop();
+        aCallback.run();
+    }
+
+    private void doMigration()
+    {
+        try (Connection connection = dataSource.getConnection()) {
+            for (String index : createMissingIndexes(connection)) {
+                log.info("DATABASE UPGRADE PERFORMED: created index [{}]", index);
+            }
+        }
+        catch (SQLException e) {
+            // The indexes only speed up queries - WebAnno works without them
+            log.error("Unable to create database indexes", e);
+        }
+    }
+
+    /**
+     * Create the indexes declared on the {@link #ENTITIES} which do not exist yet. Tables which
+     * do not exist yet are skipped - Hibernate creates their indexes along with them. If an index
+     * exists under its {@link #RENAMED_INDEXES previous name}, it is dropped and created again
+     * under its current name.
+     *
+     * @param aConnection
+     *            the database connection.
+     * @return the names of the indexes which were created.
+     * @throws SQLException
+     *             if the database could not be inspected or an index could not be created.
+     */
+    static List<String> createMissingIndexes(Connection aConnection)
+        throws SQLException
+    {
+        List<String> created = new ArrayList<>();
+        for (Class<?> entity : ENTITIES) {
+            Table table = entity.getAnnotation(Table.class);
+            Set<String> existing = getIndexNames(aConnection, table.name());
+            if (existing == null) {
+                continue;
+            }
+
+            for (Index index : table.indexes()) {
+                if (existing.contains(index.name().toLowerCase(Locale.ROOT))) {
+                    continue;
+                }
+
+                String previousName = RENAMED_INDEXES.get(index.name());
+                if (previousName != null
+                        && existing.contains(previousName.toLowerCase(Locale.ROOT))) {
+                    dropIndex(aConnection, table.name(), previousName);
+                }
+
+                try (Statement statement = aConnection.createStatement()) {
+                    statement.executeUpdate("CREATE INDEX " + index.name() + " ON "
+                            + table.name() + " (" + index.columnList() + ")");
+                }
+                created.add(index.name());
+            }
+        }
+        return created;
+    }
+
+    private static void dropIndex(Connection aConnection, String aTable, String aIndex)
+        throws SQLException
+    {
+        // Index names are only unique per table in MySQL, so it needs to know the table
+        String product = aConnection.getMetaData().getDatabaseProductName()
+                .toLowerCase(Locale.ROOT);
+        boolean perTable = product.contains("mysql") || product.contains("mariadb");
+        try (Statement statement = aConnection.createStatement()) {
+            statement.executeUpdate(
+                    "DROP INDEX " + aIndex + (perTable ? " ON " + aTable : ""));
+        }
+    }
+
+    /**
+     * @return the lower-cased names of the indexes on the given table or {@code null} if the
+     *         table does not exist.
+     */
+    private static Set<String> getIndexNames(Connection aConnection, String aTable)
+        throws SQLException
+    {
+        DatabaseMetaData metaData = aConnection.getMetaData();
+        String catalog = aConnection.getCatalog();
+
+        // Databases differ in whether they store unquoted names in upper or lower case
+        for (String name : asList(aTable, aTable.toUpperCase(Locale.ROOT),
+                aTable.toLowerCase(Locale.ROOT))) {
+            try (ResultSet tables = metaData.getTables(catalog, null, name, null)) {
+                if (!tables.next()) {
+                    continue;
+                }
+            }
+
+            Set<String> indexes = new HashSet<>();
+            try (ResultSet rs = metaData.getIndexInfo(catalog, null, name, false, true)) {
+                while (rs.next()) {
+                    String index = rs.getString("INDEX_NAME");
+                    if (index != null) {
+                        indexes.add(index.toLowerCase(Locale.ROOT));
+                    }
+                }
+            }
+            return indexes;
+        }
+        return null;
+    }
+}
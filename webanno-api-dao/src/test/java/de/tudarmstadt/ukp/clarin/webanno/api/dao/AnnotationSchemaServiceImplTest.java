@@ -0,0 +1,397 @@
+/*
+ * Copyright 2017
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao;
+
+import static de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst.RELATION_TYPE;
+import static de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst.SPAN_TYPE;
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+import javax.persistence.EntityManager;
+import javax.persistence.TypedQuery;
+
+import org.apache.commons.lang3.SerializationUtils;
+import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.TypeSystem;
+import org.apache.uima.resource.metadata.TypeSystemDescription;
+import org.apache.uima.resource.metadata.impl.TypeSystemDescription_impl;
+import org.apache.uima.util.CasCreationUtils;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.AnnotationSchemaServiceImpl.ProjectSchema;
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationFeature;
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationLayer;
+import de.tudarmstadt.ukp.clarin.webanno.model.Project;
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
+import de.tudarmstadt.ukp.clarin.webanno.model.Tag;
+import de.tudarmstadt.ukp.clarin.webanno.model.TagSet;
+import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Token;
+import de.tudarmstadt.ukp.dkpro.core.api.syntax.type.dependency.Dependency;
+
+public class AnnotationSchemaServiceImplTest
+{
+    private AnnotationSchemaServiceImpl sut;
+    private SourceDocument document;
+
+    @Before
+    public void setup()
+    {
+        // No layers in the database - the project uses only the built-in types
+        sut = new AnnotationSchemaServiceImpl()
+        {
+            @Override
+            public List<TypeSystemDescription> getProjectTypes(Project aProject)
+            {
+                return new ArrayList<>();
+            }
+        };
+
+        Project project = new Project();
+        project.setId(1);
+        project.setName("test");
+        document = new SourceDocument();
+        document.setId(1);
+        document.setName("test.txt");
+        document.setProject(project);
+    }
+
+    @Test
+    public void testUpToDateCasIsNotUpgraded()
+        throws Exception
+    {
+        CAS cas = sut.createProjectCas(document.getProject());
+        cas.setDocumentText("This is a test.");
+        TypeSystem typeSystem = cas.getTypeSystem();
+
+        sut.upgradeCas(cas, document, "user");
+
+        assertSame(typeSystem, cas.getTypeSystem());
+        assertEquals("This is a test.", cas.getDocumentText());
+    }
+
+    @Test
+    public void testOutdatedCasIsUpgraded()
+        throws Exception
+    {
+        CAS cas = CasCreationUtils.createCas(new TypeSystemDescription_impl(), null, null);
+        cas.setDocumentText("This is a test.");
+        TypeSystem typeSystem = cas.getTypeSystem();
+
+        sut.upgradeCas(cas, document, "user");
+
+        assertNotSame(typeSystem, cas.getTypeSystem());
+        assertNotNull(cas.getTypeSystem().getType(Token.class.getName()));
+        assertEquals("This is a test.", cas.getDocumentText());
+    }
+
+    @Test
+    public void testSchemaSnapshot()
+        throws Exception
+    {
+        Project project = document.getProject();
+        AnnotationLayer token = new AnnotationLayer(Token.class.getName(), "Token", SPAN_TYPE,
+                project, true);
+        token.setId(1);
+        AnnotationLayer dependency = new AnnotationLayer(Dependency.class.getName(),
+                "Dependency", RELATION_TYPE, project, true);
+        dependency.setId(2);
+        dependency.setAttachType(token);
+        AnnotationFeature value = new AnnotationFeature();
+        value.setId(1);
+        value.setName("value");
+        value.setUiName("value");
+        value.setLayer(token);
+        value.setProject(project);
+        TagSet tagSet = new TagSet();
+        tagSet.setId(1);
+        tagSet.setName("tags");
+        tagSet.setProject(project);
+        Tag a = new Tag();
+        a.setId(1);
+        a.setName("A");
+        a.setTagSet(tagSet);
+        Tag b = new Tag();
+        b.setId(2);
+        b.setName("B");
+        b.setTagSet(tagSet);
+
+        List<Long> loads = new ArrayList<>();
+        AnnotationSchemaServiceImpl service = new AnnotationSchemaServiceImpl(
+                noopEntityManager())
+        {
+            @Override
+            ProjectSchema loadSchema(Project aProject, long aVersion)
+            {
+                loads.add(aVersion);
+                return new ProjectSchema(aProject.getId(), aVersion, asList(dependency, token),
+                        asList(value), asList(tagSet), asList(a, b));
+            }
+        };
+
+        // All lookups are served from a single snapshot
+        assertEquals(asList(dependency, token), service.listAnnotationLayer(project));
+        assertEquals(token, service.getLayer(Token.class.getName(), project));
+        assertEquals(dependency, service.getLayer(2));
+        assertEquals(asList(dependency), service.listAttachedRelationLayers(token));
+        assertEquals(asList(value), service.listAnnotationFeature(token));
+        assertEquals(asList(value), service.listAnnotationFeature(project));
+        assertEquals(asList(a, b), service.listTags(tagSet));
+        assertTrue(service.existsTag("A", tagSet));
+        assertFalse(service.existsTag("C", tagSet));
+        assertTrue(service.existsLayer(Token.class.getName(), SPAN_TYPE, project));
+        assertFalse(service.existsLayer(Token.class.getName(), RELATION_TYPE, project));
+        assertEquals(1, loads.size());
+
+        // Callers share the entities of the snapshot, but the lists belong to them
+        AnnotationLayer layer = service.getLayer(1);
+        assertSame(layer, service.getLayer(Token.class.getName(), project));
+        service.listAnnotationLayer(project).clear();
+        assertEquals(2, service.listAnnotationLayer(project).size());
+
+        // Callers which edit an entity work on a copy, so the snapshot is not affected
+        AnnotationLayer copy = SerializationUtils.clone(layer);
+        copy.setUiName("Changed");
+        assertEquals("Token", service.getLayer(1).getUiName());
+
+        // Changing the schema replaces the snapshot
+        service.createLayer(copy);
+        service.listAnnotationLayer(project);
+        assertEquals(2, loads.size());
+    }
+
+    @Test
+    public void testProjectListingQueryCount()
+        throws Exception
+    {
+        Project project = document.getProject();
+        List<AnnotationLayer> layers = new ArrayList<>();
+        List<AnnotationFeature> features = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            AnnotationLayer layer = new AnnotationLayer("webanno.custom.Layer" + i, "Layer " + i,
+                    SPAN_TYPE, project, false);
+            layer.setId(i + 1);
+            layers.add(layer);
+            for (int j = 0; j < 2; j++) {
+                AnnotationFeature feature = new AnnotationFeature();
+                feature.setId(i * 2 + j + 1);
+                feature.setName("feature" + j);
+                feature.setUiName("Feature " + j);
+                feature.setType(CAS.TYPE_NAME_STRING);
+                feature.setLayer(layer);
+                feature.setProject(project);
+                features.add(feature);
+            }
+        }
+        List<TagSet> tagSets = new ArrayList<>();
+        List<Tag> tags = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            TagSet tagSet = new TagSet();
+            tagSet.setId(i + 1);
+            tagSet.setName("tags" + i);
+            tagSet.setProject(project);
+            tagSets.add(tagSet);
+            for (int j = 0; j < 20; j++) {
+                Tag tag = new Tag();
+                tag.setId(i * 20 + j + 1);
+                tag.setName("tag" + j);
+                tag.setTagSet(tagSet);
+                tags.add(tag);
+            }
+        }
+
+        Map<Class<?>, List<?>> tables = new HashMap<>();
+        tables.put(AnnotationLayer.class, layers);
+        tables.put(AnnotationFeature.class, features);
+        tables.put(TagSet.class, tagSets);
+        tables.put(Tag.class, tags);
+        List<String> queries = new ArrayList<>();
+        ClassLoader cl = getClass().getClassLoader();
+        EntityManager entityManager = (EntityManager) Proxy.newProxyInstance(cl,
+                new Class<?>[] { EntityManager.class }, (proxy, method, args) -> {
+                    if (!"createQuery".equals(method.getName())) {
+                        return null;
+                    }
+                    queries.add((String) args[0]);
+                    List<?> result = tables.get(args[1]);
+                    return Proxy.newProxyInstance(cl, new Class<?>[] { TypedQuery.class },
+                            (query, m, a) -> "getResultList".equals(m.getName()) ? result
+                                    : query);
+                });
+        AnnotationSchemaServiceImpl service = new AnnotationSchemaServiceImpl(entityManager);
+
+        // Everything a render needs about the schema of the project
+        Map<AnnotationLayer, List<AnnotationFeature>> featuresByLayer = service
+                .listAnnotationFeaturesByLayer(project);
+        Map<TagSet, List<Tag>> tagsByTagSet = service.listTagsByTagSet(project);
+        List<TypeSystemDescription> types = service.getProjectTypes(project);
+
+        // The schema is loaded once - independent of the number of layers and tagsets
+        assertEquals(4, queries.size());
+
+        assertEquals(layers, new ArrayList<>(featuresByLayer.keySet()));
+        assertEquals(features.subList(0, 2), featuresByLayer.get(layers.get(0)));
+        for (Map.Entry<AnnotationLayer, List<AnnotationFeature>> e : featuresByLayer
+                .entrySet()) {
+            for (AnnotationFeature feature : e.getValue()) {
+                assertSame(e.getKey(), feature.getLayer());
+            }
+        }
+        assertEquals(tagSets, new ArrayList<>(tagsByTagSet.keySet()));
+        assertEquals(tags.subList(20, 40), tagsByTagSet.get(tagSets.get(1)));
+        assertEquals(layers.size(), types.size());
+
+        // Further renders do not access the database at all
+        for (int i = 0; i < 10; i++) {
+            service.listAnnotationFeaturesByLayer(project);
+            service.listTagsByTagSet(project);
+            service.getProjectTypes(project);
+            for (AnnotationLayer layer : layers) {
+                service.listAnnotationFeature(layer);
+            }
+        }
+        assertEquals(4, queries.size());
+    }
+
+    @Test
+    public void testDerivedSchemaData()
+        throws Exception
+    {
+        Project project = document.getProject();
+        AnnotationLayer token = new AnnotationLayer(Token.class.getName(), "Token", SPAN_TYPE,
+                project, true);
+        token.setId(1);
+        AnnotationSchemaServiceImpl service = new AnnotationSchemaServiceImpl(
+                noopEntityManager())
+        {
+            @Override
+            ProjectSchema loadSchema(Project aProject, long aVersion)
+            {
+                return new ProjectSchema(aProject.getId(), aVersion, asList(token), asList(),
+                        asList(), asList());
+            }
+        };
+
+        List<Project> loads = new ArrayList<>();
+        Function<Project, Object> loader = p -> {
+            loads.add(p);
+            return new Object();
+        };
+
+        // The data is created once per schema version
+        Object data = service.getDerivedSchemaData(project, "key", loader);
+        assertSame(data, service.getDerivedSchemaData(project, "key", loader));
+        assertEquals(1, loads.size());
+
+        // Different kinds of data do not interfere
+        assertNotSame(data, service.getDerivedSchemaData(project, "other", loader));
+        assertEquals(2, loads.size());
+
+        // Changing the schema discards the data
+        service.createLayer(service.getLayer(1));
+        assertNotSame(data, service.getDerivedSchemaData(project, "key", loader));
+        assertEquals(3, loads.size());
+    }
+
+    @Test
+    public void testSchemaChangesInTransaction()
+        throws Exception
+    {
+        Project project = document.getProject();
+        TagSet tagSet = new TagSet();
+        tagSet.setId(1);
+        tagSet.setName("tags");
+        tagSet.setProject(project);
+
+        List<Long> loads = new ArrayList<>();
+        AnnotationSchemaServiceImpl service = new AnnotationSchemaServiceImpl(
+                noopEntityManager())
+        {
+            @Override
+            ProjectSchema loadSchema(Project aProject, long aVersion)
+            {
+                loads.add(aVersion);
+                return new ProjectSchema(aProject.getId(), aVersion, asList(), asList(),
+                        asList(tagSet), asList());
+            }
+        };
+
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            // Importing a tagset checks for each tag whether it exists before creating it
+            for (int i = 0; i < 1000; i++) {
+                Tag tag = new Tag();
+                tag.setId(i + 1);
+                tag.setName(String.format("tag%04d", 999 - i));
+                tag.setTagSet(tagSet);
+                assertFalse(service.existsTag(tag.getName(), tagSet));
+                service.createTag(tag);
+                assertTrue(service.existsTag(tag.getName(), tagSet));
+            }
+
+            // The shared snapshot is loaded before the first change. The private snapshot is
+            // loaded once after it and then updated with the changes.
+            assertEquals(2, loads.size());
+            List<Tag> tags = service.listTags(tagSet);
+            assertEquals(1000, tags.size());
+            assertEquals("tag0000", tags.get(0).getName());
+            assertEquals("tag0999", tags.get(999).getName());
+            assertEquals(1, TransactionSynchronizationManager.getSynchronizations().size());
+
+            Tag removed = service.getTag("tag0500", tagSet);
+            service.removeTag(removed);
+            assertFalse(service.existsTag("tag0500", tagSet));
+            assertEquals(999, service.listTags(tagSet).size());
+            assertEquals(2, loads.size());
+
+            for (TransactionSynchronization sync : TransactionSynchronizationManager
+                    .getSynchronizations()) {
+                sync.afterCompletion(TransactionSynchronization.STATUS_COMMITTED);
+            }
+        }
+        finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+
+        // After the commit, the shared snapshot is loaded again from the database
+        service.listTags(tagSet);
+        assertEquals(3, loads.size());
+        service.listTags(tagSet);
+        assertEquals(3, loads.size());
+    }
+
+    private EntityManager noopEntityManager()
+    {
+        return (EntityManager) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] { EntityManager.class }, (proxy, method, args) -> null);
+    }
+}
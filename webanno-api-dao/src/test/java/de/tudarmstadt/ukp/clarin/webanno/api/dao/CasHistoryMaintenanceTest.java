@@ -0,0 +1,167 @@
+/*
+ * Copyright 2017
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.InputStream;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.CasHistoryStore.Snapshot;
+import de.tudarmstadt.ukp.clarin.webanno.model.Project;
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
+
+public class CasHistoryMaintenanceTest
+{
+    private static final long INTERVAL = 1000;
+
+    @Rule
+    public TemporaryFolder repository = new TemporaryFolder();
+
+    private CasHistoryStore store;
+    private CasHistoryMaintenance sut;
+    private SourceDocument document;
+    private File casFile;
+
+    @Before
+    public void setup()
+        throws Exception
+    {
+        store = new CasHistoryStore(repository.getRoot());
+        ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+        sut = new CasHistoryMaintenance(store, (d, u) -> lock, INTERVAL, 2, 0);
+
+        Project project = new Project();
+        project.setId(1);
+        document = new SourceDocument();
+        document.setId(1);
+        document.setProject(project);
+
+        File annotationFolder = repository.newFolder("project", "1", "document", "1",
+                "annotation");
+        casFile = new File(annotationFolder, "user.ser");
+    }
+
+    @Test
+    public void testSnapshotsAreCreatedAndPruned()
+        throws Exception
+    {
+        long time = 1_000_000_000_000L;
+
+        // Nothing happens if no CAS has been written
+        assertEquals(0, sut.runMaintenance());
+
+        // Each change separated by more than the interval results in a snapshot
+        for (int i = 0; i < 4; i++) {
+            writeCas("version " + i, time + i * 2 * INTERVAL);
+            sut.runMaintenance();
+        }
+
+        // A change within the interval does not result in a snapshot
+        writeCas("version 4", time + 6 * INTERVAL + 1);
+        sut.runMaintenance();
+
+        assertEquals(4, sut.getSnapshotsCreated());
+        assertEquals(2, sut.getSnapshotsRemoved());
+        assertTrue(sut.getReclaimedBytes() > 0);
+
+        List<Snapshot> history = store.listSnapshots(casFile.getParentFile(), "user");
+        assertEquals(2, history.size());
+        assertEquals(time + 4 * INTERVAL, history.get(0).getTimestamp());
+        assertEquals(time + 6 * INTERVAL, history.get(1).getTimestamp());
+    }
+
+    @Test
+    public void testIntermediateVersionsArePreserved()
+        throws Exception
+    {
+        long time = 1_000_000_000_000L;
+
+        writeCas("version 0", time);
+        sut.runMaintenance();
+
+        // Several versions are saved before the maintenance runs again
+        writeCas("version 1", time + 2 * INTERVAL);
+        writeCas("version 2", time + 2 * INTERVAL + 1);
+        writeCas("version 3", time + 4 * INTERVAL);
+        sut.runMaintenance();
+
+        // Each snapshot holds the version saved at its time, not the latest one
+        List<Snapshot> history = store.listSnapshots(casFile.getParentFile(), "user");
+        assertEquals(2, history.size());
+        assertEquals(time + 2 * INTERVAL, history.get(0).getTimestamp());
+        try (InputStream is = store.openSnapshot(document.getProject(), history.get(0))) {
+            assertEquals("version 1", IOUtils.toString(is, UTF_8));
+        }
+        try (InputStream is = store.openSnapshot(document.getProject(), history.get(1))) {
+            assertEquals("version 3", IOUtils.toString(is, UTF_8));
+        }
+
+        // No staged versions are left behind
+        assertEquals(0, casFile.getParentFile().list((d, n) -> n.endsWith(".staged")).length);
+    }
+
+    @Test
+    public void testStagedVersionsAreRecovered()
+        throws Exception
+    {
+        long time = 1_000_000_000_000L;
+        File annotationFolder = casFile.getParentFile();
+
+        // Versions left behind by a previous run which stopped before the maintenance ran
+        FileUtils.writeStringToFile(casFile, "version 1", UTF_8);
+        FileUtils.writeStringToFile(new File(annotationFolder, "user.ser." + time + ".staged"),
+                "version 0", UTF_8);
+        FileUtils.writeStringToFile(
+                new File(annotationFolder, "deleted.ser." + time + ".staged"), "version 0",
+                UTF_8);
+
+        // The version of the deleted CAS is dropped, the other one becomes a snapshot
+        assertEquals(1, sut.recoverStaged(document, annotationFolder));
+        sut.runMaintenance();
+
+        List<Snapshot> history = store.listSnapshots(annotationFolder, "user");
+        assertEquals(1, history.size());
+        assertEquals(time, history.get(0).getTimestamp());
+        try (InputStream is = store.openSnapshot(document.getProject(), history.get(0))) {
+            assertEquals("version 0", IOUtils.toString(is, UTF_8));
+        }
+        assertEquals(0, annotationFolder.list((d, n) -> n.endsWith(".staged")).length);
+    }
+
+    private void writeCas(String aContent, long aTimestamp)
+        throws Exception
+    {
+        // Like the storage backend, replace the file instead of modifying it in place
+        FileUtils.deleteQuietly(casFile);
+        FileUtils.writeStringToFile(casFile, aContent, UTF_8);
+        casFile.setLastModified(aTimestamp);
+        sut.casWritten(document, "user", casFile);
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright 2017
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.InputStream;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.CasHistoryStore.Snapshot;
+import de.tudarmstadt.ukp.clarin.webanno.model.Project;
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
+
+public class CasHistoryStoreTest
+{
+    @Rule
+    public TemporaryFolder repository = new TemporaryFolder();
+
+    private CasHistoryStore sut;
+    private SourceDocument document;
+    private File annotationFolder;
+    private File historyFolder;
+
+    @Before
+    public void setup()
+        throws Exception
+    {
+        sut = new CasHistoryStore(repository.getRoot());
+
+        Project project = new Project();
+        project.setId(1);
+        document = new SourceDocument();
+        document.setId(1);
+        document.setProject(project);
+
+        annotationFolder = repository.newFolder("project", "1", "document", "1", "annotation");
+        historyFolder = new File(repository.getRoot(), "project/1/history");
+    }
+
+    @Test
+    public void testIdenticalSnapshotsAreShared()
+        throws Exception
+    {
+        File casUser1 = new File(annotationFolder, "user1.ser");
+        File casUser2 = new File(annotationFolder, "user2.ser");
+        FileUtils.writeStringToFile(casUser1, "same content", UTF_8);
+        FileUtils.writeStringToFile(casUser2, "same content", UTF_8);
+
+        Snapshot s1 = sut.addSnapshot(document, "user1", casUser1, 1000);
+        Snapshot s2 = sut.addSnapshot(document, "user2", casUser2, 2000);
+        assertEquals(s1.getHash(), s2.getHash());
+        assertEquals(1, historyFolder.list((d, n) -> n.endsWith(".gz")).length);
+
+        try (InputStream is = sut.openSnapshot(document.getProject(), s2)) {
+            assertEquals("same content", IOUtils.toString(is, UTF_8));
+        }
+
+        // The blob must survive as long as there is still a snapshot referring to it
+        List<Snapshot> history = sut.listSnapshots(annotationFolder, "user1");
+        assertEquals(1, history.size());
+        assertTrue(sut.removeSnapshot(document, "user1", history.get(0)) > 0);
+        assertEquals(1, historyFolder.list((d, n) -> n.endsWith(".gz")).length);
+
+        sut.removeSnapshot(document, "user2", s2);
+        assertEquals(0, historyFolder.list((d, n) -> n.endsWith(".gz")).length);
+        assertTrue(sut.listSnapshots(annotationFolder, "user2").isEmpty());
+    }
+
+    @Test
+    public void testRemoveHistory()
+        throws Exception
+    {
+        File casUser1 = new File(annotationFolder, "user1.ser");
+        File casUser2 = new File(annotationFolder, "user2.ser");
+        FileUtils.writeStringToFile(casUser1, "content 1", UTF_8);
+        FileUtils.writeStringToFile(casUser2, "content 2", UTF_8);
+        sut.addSnapshot(document, "user1", casUser1, 1000);
+        sut.addSnapshot(document, "user2", casUser2, 1000);
+        FileUtils.writeStringToFile(casUser1, "content 3", UTF_8);
+        sut.addSnapshot(document, "user1", casUser1, 2000);
+        assertEquals(3, historyFolder.list((d, n) -> n.endsWith(".gz")).length);
+
+        // Deleting the CAS of a user removes only the history of that user
+        assertTrue(sut.removeHistory(document, "user1", annotationFolder) > 0);
+        assertTrue(sut.listSnapshots(annotationFolder, "user1").isEmpty());
+        assertEquals(1, sut.listSnapshots(annotationFolder, "user2").size());
+        assertEquals(1, historyFolder.list((d, n) -> n.endsWith(".gz")).length);
+
+        // Deleting the document leaves neither references, nor markers, nor blobs behind
+        sut.removeHistory(document, annotationFolder);
+        assertEquals(0, annotationFolder.list((d, n) -> n.endsWith(".ref")).length);
+        assertEquals(0, historyFolder.list((d, n) -> n.endsWith(".gz") || n.endsWith(".refs"))
+                .length);
+    }
+
+    @Test
+    public void testLegacyBackupsAreListed()
+        throws Exception
+    {
+        File cas = new File(annotationFolder, "user.ser");
+        FileUtils.writeStringToFile(cas, "new content", UTF_8);
+        File legacy = new File(annotationFolder, "user.ser.1000.bak");
+        FileUtils.writeStringToFile(legacy, "old content", UTF_8);
+
+        sut.addSnapshot(document, "user", cas, 2000);
+
+        List<Snapshot> history = sut.listSnapshots(annotationFolder, "user");
+        assertEquals(2, history.size());
+        assertTrue(history.get(0).isLegacy());
+        assertEquals(1000, history.get(0).getTimestamp());
+        assertFalse(history.get(1).isLegacy());
+
+        sut.removeSnapshot(document, "user", history.get(0));
+        assertFalse(legacy.exists());
+    }
+}
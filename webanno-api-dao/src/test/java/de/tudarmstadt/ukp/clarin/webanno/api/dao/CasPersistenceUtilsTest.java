@@ -0,0 +1,190 @@
+/*
+ * Copyright 2017
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao;
+
+import static de.tudarmstadt.ukp.clarin.webanno.support.test.BenchmarkUtil.assumeBenchmark;
+import static de.tudarmstadt.ukp.clarin.webanno.support.test.BenchmarkUtil.isLargeBenchmark;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.uima.cas.CAS;
+import org.apache.uima.fit.factory.JCasFactory;
+import org.apache.uima.fit.factory.TypeSystemDescriptionFactory;
+import org.apache.uima.fit.util.JCasUtil;
+import org.apache.uima.jcas.JCas;
+import org.apache.uima.resource.metadata.TypeDescription;
+import org.apache.uima.resource.metadata.TypeSystemDescription;
+import org.apache.uima.util.CasCreationUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Sentence;
+import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Token;
+
+public class CasPersistenceUtilsTest
+{
+    private static final int REPETITIONS = 5;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testReadVariants()
+        throws Exception
+    {
+        File typeSystemFolder = folder.newFolder(CasPersistenceUtils.TYPE_SYSTEM_FOLDER);
+        File small = new File(folder.getRoot(), "small.ser");
+        File large = new File(folder.getRoot(), "large.ser");
+        CasPersistenceUtils.writeSerializedCas(createCas(10_000), small, typeSystemFolder);
+        CasPersistenceUtils.writeSerializedCas(createCas(2_000_000), large, typeSystemFolder);
+        assertTrue(large.length() >= 1024 * 1024);
+
+        for (File file : new File[] { small, large }) {
+            int expected = file == small ? 10_000 : 2_000_000;
+
+            JCas fromFile = JCasFactory.createJCas();
+            CasPersistenceUtils.readSerializedCas(fromFile, file, typeSystemFolder);
+            assertEquals(expected, fromFile.getDocumentText().length());
+
+            JCas fromStream = JCasFactory.createJCas();
+            try (InputStream is = CasPersistenceUtils.openCasFile(file)) {
+                assertTrue(is.markSupported());
+                CasPersistenceUtils.readSerializedCas(fromStream, is, typeSystemFolder);
+            }
+            assertEquals(JCasUtil.select(fromFile, Token.class).size(),
+                    JCasUtil.select(fromStream, Token.class).size());
+
+            // Reading from a buffer leaves the buffer untouched, so it can be read again
+            ByteBuffer buffer = CasPersistenceUtils.readCasFile(file);
+            assertEquals(file.length(), buffer.remaining());
+            for (int i = 0; i < 2; i++) {
+                JCas fromBuffer = JCasFactory.createJCas();
+                CasPersistenceUtils.readSerializedCas(fromBuffer, buffer, typeSystemFolder);
+                assertEquals(expected, fromBuffer.getDocumentText().length());
+            }
+
+            // The file is not held open or mapped, so it can be moved aside for the next version
+            assertTrue(file.renameTo(new File(file.getPath() + ".old")));
+        }
+    }
+
+    @Test
+    public void testAddressesArePreserved()
+        throws Exception
+    {
+        File typeSystemFolder = folder.newFolder(CasPersistenceUtils.TYPE_SYSTEM_FOLDER);
+        File file = new File(folder.getRoot(), "cas.ser");
+
+        // Removing a token from the indexes leaves a gap which must not shift the other tokens
+        JCas jcas = createCas(100);
+        List<Token> tokens = new ArrayList<>(JCasUtil.select(jcas, Token.class));
+        tokens.get(0).removeFromIndexes();
+        CasPersistenceUtils.writeSerializedCas(jcas, file, typeSystemFolder);
+
+        CAS cas = CasPersistenceUtils.readSerializedCas(new CasPool(1), file, typeSystemFolder);
+        List<Token> loaded = new ArrayList<>(JCasUtil.select(cas.getJCas(), Token.class));
+        assertEquals(tokens.size() - 1, loaded.size());
+        for (int i = 0; i < loaded.size(); i++) {
+            assertEquals(tokens.get(i + 1).getAddress(), loaded.get(i).getAddress());
+        }
+    }
+
+    @Test
+    public void testFingerprintIncludesArrayElementTypes()
+        throws Exception
+    {
+        String tokens = getFingerprint(Token.class.getName());
+        assertEquals(tokens, getFingerprint(Token.class.getName()));
+        assertNotEquals(tokens, getFingerprint(Sentence.class.getName()));
+    }
+
+    @Test
+    public void testReadPerformance()
+        throws Exception
+    {
+        assumeBenchmark();
+
+        // The largest size needs a few GB of heap, so it is only included on request
+        long[] sizes = isLargeBenchmark()
+                ? new long[] { 10_000, 1_000_000, 10_000_000, 200_000_000 }
+                : new long[] { 10_000, 1_000_000, 10_000_000 };
+
+        File typeSystemFolder = folder.newFolder(CasPersistenceUtils.TYPE_SYSTEM_FOLDER);
+        for (long size : sizes) {
+            File file = new File(folder.getRoot(), size + ".ser");
+            CasPersistenceUtils.writeSerializedCas(createCas(size), file, typeSystemFolder);
+
+            long streamed = Long.MAX_VALUE;
+            long channel = Long.MAX_VALUE;
+            for (int i = 0; i < REPETITIONS; i++) {
+                JCas jcas = JCasFactory.createJCas();
+                long start = System.nanoTime();
+                try (InputStream is = new BufferedInputStream(new FileInputStream(file))) {
+                    CasPersistenceUtils.readSerializedCas(jcas, is, typeSystemFolder);
+                }
+                streamed = Math.min(streamed, System.nanoTime() - start);
+
+                jcas = JCasFactory.createJCas();
+                start = System.nanoTime();
+                CasPersistenceUtils.readSerializedCas(jcas, file, typeSystemFolder);
+                channel = Math.min(channel, System.nanoTime() - start);
+            }
+
+            System.out.printf("Reading CAS of %,d bytes - stream: %d ms - channel: %d ms%n",
+                    file.length(), streamed / 1_000_000, channel / 1_000_000);
+        }
+    }
+
+    private String getFingerprint(String aElementType)
+        throws Exception
+    {
+        TypeSystemDescription tsd = TypeSystemDescriptionFactory.createTypeSystemDescription();
+        TypeDescription holder = tsd.addType("webanno.custom.Holder", "",
+                CAS.TYPE_NAME_ANNOTATION);
+        holder.addFeature("items", "", CAS.TYPE_NAME_FS_ARRAY, aElementType, false);
+        return CasPersistenceUtils.getFingerprint(CasCreationUtils.createCas(tsd, null, null));
+    }
+
+    private JCas createCas(long aLength)
+        throws Exception
+    {
+        // Random text, so the compressed CAS grows along with the document
+        Random random = new Random(aLength);
+        char[] text = new char[(int) aLength];
+        for (int i = 0; i < text.length; i++) {
+            text[i] = i % 5 == 4 ? ' ' : (char) ('a' + random.nextInt(26));
+        }
+        JCas jcas = JCasFactory.createJCas();
+        jcas.setDocumentText(new String(text));
+        for (int i = 0; i + 4 <= aLength; i += 5) {
+            new Token(jcas, i, i + 4).addToIndexes();
+        }
+        return jcas;
+    }
+}
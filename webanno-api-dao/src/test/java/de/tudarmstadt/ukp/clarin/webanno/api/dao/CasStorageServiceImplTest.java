@@ -0,0 +1,628 @@
+/*
+ * Copyright 2017
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao;
+
+import static de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst.INITIAL_CAS_PSEUDO_USER;
+import static de.tudarmstadt.ukp.clarin.webanno.support.test.BenchmarkUtil.assumeBenchmark;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.ObjectInputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.uima.cas.impl.CASCompleteSerializer;
+import org.apache.uima.cas.impl.Serialization;
+import org.apache.uima.fit.factory.JCasFactory;
+import org.apache.uima.fit.util.JCasUtil;
+import org.apache.uima.jcas.JCas;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.StorageMetrics.CacheStatistics;
+import de.tudarmstadt.ukp.clarin.webanno.diag.CasDoctor;
+import de.tudarmstadt.ukp.clarin.webanno.diag.checks.NoZeroSizeTokensAndSentencesCheck;
+import de.tudarmstadt.ukp.clarin.webanno.model.Project;
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
+import de.tudarmstadt.ukp.dkpro.core.api.metadata.type.DocumentMetaData;
+import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Sentence;
+import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Token;
+
+public class CasStorageServiceImplTest
+{
+    private static final int DOCUMENTS = 16;
+    private static final int ITERATIONS = 20;
+
+    @Rule
+    public TemporaryFolder repository = new TemporaryFolder();
+
+    private CasStorageServiceImpl sut;
+    private Project project;
+
+    @Before
+    public void setup()
+    {
+        sut = new CasStorageServiceImpl(repository.getRoot(), new CasDoctor());
+
+        project = new Project();
+        project.setId(1);
+        project.setName("test");
+    }
+
+    @Test
+    public void testWriteReadRoundTrip()
+        throws Exception
+    {
+        SourceDocument doc = makeDocument(1);
+
+        JCas jcas = JCasFactory.createJCas();
+        jcas.setDocumentText("This is a test.");
+        sut.writeCas(doc, jcas, "user");
+
+        JCas result = sut.readCas(doc, "user");
+        assertEquals("This is a test.", result.getDocumentText());
+    }
+
+    @Test
+    public void testCache()
+        throws Exception
+    {
+        SourceDocument doc = makeDocument(1);
+
+        JCas jcas = JCasFactory.createJCas();
+        jcas.setDocumentText("This is a test.");
+        sut.writeCas(doc, jcas, "user");
+
+        // The CAS which was just written is served from the cache - as a private copy
+        JCas cached = sut.readCas(doc, "user");
+        assertNotSame(jcas, cached);
+        assertEquals("This is a test.", cached.getDocumentText());
+        assertEquals(1, sut.getCache().getHits());
+
+        // Changes to a copy do not affect the other callers until they are written
+        new Token(cached, 0, 4).addToIndexes();
+        JCas fresh = sut.readCas(doc, "user");
+        assertNotSame(cached, fresh);
+        assertTrue(JCasUtil.select(fresh, Token.class).isEmpty());
+        assertEquals(2, sut.getCache().getHits());
+
+        // Changing the file behind the back of the cache invalidates the cached CAS
+        JCas other = JCasFactory.createJCas();
+        other.setDocumentText("This is another test.");
+        File casFile = new File(sut.getAnnotationFolder(doc), "user.ser");
+        CasPersistenceUtils.writeSerializedCas(other, casFile);
+        casFile.setLastModified(casFile.lastModified() + 1000);
+
+        JCas result = sut.readCas(doc, "user");
+        assertEquals("This is another test.", result.getDocumentText());
+        assertEquals(1, sut.getCache().getMisses());
+
+        // The statistics are published along with the storage metrics
+        CacheStatistics stats = sut.getMetrics().getCacheStatistics();
+        assertTrue(stats.isCacheEnabled());
+        assertEquals(2, stats.getCacheHits());
+        assertEquals(1, stats.getCacheMisses());
+        assertEquals(sut.getCache().getEntryCount(), stats.getCacheEntries());
+        assertEquals(sut.getCasPool().getCreated(), stats.getPoolCreated());
+
+        // Writing a CAS read for one user as the CAS of another user leaves the first one alone
+        new Token(result, 0, 4).addToIndexes();
+        sut.writeCas(doc, result, "curation");
+        assertEquals(1, JCasUtil.select(sut.readCas(doc, "curation"), Token.class).size());
+        assertTrue(JCasUtil.select(sut.readCas(doc, "user"), Token.class).isEmpty());
+    }
+
+    @Test
+    public void testBorrowedCasesAreReused()
+        throws Exception
+    {
+        SourceDocument doc = makeDocument(1);
+
+        JCas jcas = JCasFactory.createJCas();
+        jcas.setDocumentText("This is a test.");
+        sut.writeCas(doc, jcas, "user");
+
+        // A borrowed CAS is a private copy, not the cached one
+        JCas borrowed = sut.borrowCas(doc, "user");
+        assertNotSame(jcas, borrowed);
+        assertEquals("This is a test.", borrowed.getDocumentText());
+        sut.returnCas(borrowed);
+
+        // The returned CAS is handed out again
+        JCas again = sut.borrowCas(doc, "user");
+        assertSame(borrowed, again);
+        assertEquals("This is a test.", again.getDocumentText());
+        assertEquals(1, sut.getCasPool().getReused());
+
+        // A borrowed CAS can be returned after it has been written - the storage only keeps a
+        // serialized copy
+        new Token(again, 0, 4).addToIndexes();
+        sut.writeCas(doc, again, "user");
+        sut.returnCas(again);
+        assertEquals(1, JCasUtil.select(sut.readCas(doc, "user"), Token.class).size());
+
+        // A CAS which has not been borrowed is not reused
+        JCas read = sut.readCas(doc, "user");
+        sut.returnCas(read);
+        JCas other = sut.borrowCas(doc, "user");
+        assertNotSame(read, other);
+        assertEquals(1, JCasUtil.select(read, Token.class).size());
+        sut.returnCas(other);
+    }
+
+    @Test
+    public void testWriteCasIfUnchanged()
+        throws Exception
+    {
+        SourceDocument doc = makeDocument(1);
+
+        JCas jcas = JCasFactory.createJCas();
+        jcas.setDocumentText("This is a test.");
+        sut.writeCas(doc, jcas, "user");
+
+        // Nobody has touched the CAS, so the borrowed copy may be written back
+        JCas borrowed = sut.borrowCas(doc, "user");
+        new Token(borrowed, 0, 4).addToIndexes();
+        assertTrue(sut.writeCasIfUnchanged(doc, borrowed, "user"));
+        sut.returnCas(borrowed);
+
+        // A change made in the meantime must not be overwritten by the borrowed copy
+        borrowed = sut.borrowCas(doc, "user");
+        JCas edited = sut.readCas(doc, "user");
+        new Token(edited, 5, 7).addToIndexes();
+        sut.writeCas(doc, edited, "user");
+        new Token(borrowed, 8, 9).addToIndexes();
+        assertFalse(sut.writeCasIfUnchanged(doc, borrowed, "user"));
+        sut.returnCas(borrowed);
+        assertEquals(2, JCasUtil.select(sut.readCas(doc, "user"), Token.class).size());
+    }
+
+    @Test
+    public void testCopyCas()
+        throws Exception
+    {
+        SourceDocument doc = makeDocument(1);
+
+        JCas jcas = JCasFactory.createJCas();
+        jcas.setDocumentText("This is a test. And another one.");
+        new Sentence(jcas, 0, 15).addToIndexes();
+        new Sentence(jcas, 16, 32).addToIndexes();
+        sut.writeCas(doc, jcas, "initial");
+
+        sut.copyCas(doc, "initial", "user");
+
+        JCas copy = sut.readCas(doc, "user");
+        assertNotSame(jcas, copy);
+        assertEquals("This is a test. And another one.", copy.getDocumentText());
+
+        // Changing the copy leaves the original untouched
+        JCas changed = JCasFactory.createJCas();
+        changed.setDocumentText("This is a changed test.");
+        sut.writeCas(doc, changed, "user");
+        sut.getCache().remove(doc, "initial");
+        assertEquals("This is a test. And another one.",
+                sut.readCas(doc, "initial").getDocumentText());
+        assertEquals("This is a changed test.", sut.readCas(doc, "user").getDocumentText());
+    }
+
+    @Test
+    public void testCopyInitialCas()
+        throws Exception
+    {
+        SourceDocument doc = makeDocument(1);
+
+        JCas jcas = JCasFactory.createJCas();
+        jcas.setDocumentText("This is a test.");
+        new Token(jcas, 0, 4).addToIndexes();
+        sut.writeInitialCas(doc, jcas);
+
+        // The initial CAS is never edited, so it is not kept in memory
+        assertEquals(0, sut.getCache().getEntryCount());
+
+        // The stored copy carries the document ID of the user
+        sut.copyCas(doc, INITIAL_CAS_PSEUDO_USER, "user");
+        JCas borrowed = sut.borrowCas(doc, "user");
+        try {
+            assertEquals("This is a test.", borrowed.getDocumentText());
+            assertEquals(1, JCasUtil.select(borrowed, Token.class).size());
+            assertEquals("user", DocumentMetaData.get(borrowed).getDocumentId());
+        }
+        finally {
+            sut.returnCas(borrowed);
+        }
+
+        // The initial CAS is not affected
+        JCas initial = sut.readCas(doc, INITIAL_CAS_PSEUDO_USER);
+        assertEquals(INITIAL_CAS_PSEUDO_USER, DocumentMetaData.get(initial).getDocumentId());
+    }
+
+    @Test
+    public void testWriteBehind()
+        throws Exception
+    {
+        SourceDocument doc = makeDocument(1);
+        File casFile = new File(sut.getAnnotationFolder(doc), "user.ser");
+
+        // The first version is written immediately
+        sut.setWriteBehindInterval(3600);
+        JCas jcas = JCasFactory.createJCas();
+        jcas.setDocumentText("Version 1");
+        sut.writeCas(doc, jcas, "user");
+        assertTrue(casFile.exists());
+        long firstLength = casFile.length();
+
+        // Subsequent versions are coalesced in memory
+        for (int i = 2; i <= 5; i++) {
+            JCas next = JCasFactory.createJCas();
+            next.setDocumentText("Version " + i + " with some more text");
+            sut.writeCas(doc, next, "user");
+        }
+        assertEquals(firstLength, casFile.length());
+        assertEquals("Version 5 with some more text", sut.readCas(doc, "user").getDocumentText());
+
+        // Changes made after saving are neither visible to others nor written later
+        JCas changed = sut.readCas(doc, "user");
+        new Token(changed, 0, 7).addToIndexes();
+        assertTrue(JCasUtil.select(sut.readCas(doc, "user"), Token.class).isEmpty());
+
+        // Flushing the changes of another user leaves the pending version alone
+        sut.flush("other");
+        assertEquals(firstLength, casFile.length());
+
+        // Flushing persists the latest version
+        sut.flush("user");
+        JCas fromDisk = JCasFactory.createJCas();
+        CasPersistenceUtils.readSerializedCas(fromDisk, casFile, sut.getTypeSystemFolder(project));
+        assertEquals("Version 5 with some more text",
+                fromDisk.getCas().getJCas().getDocumentText());
+        assertTrue(JCasUtil.select(fromDisk, Token.class).isEmpty());
+    }
+
+    @Test
+    public void testJournal()
+        throws Exception
+    {
+        SourceDocument doc = makeDocument(1);
+        File casFile = new File(sut.getAnnotationFolder(doc), "user.ser");
+        File journalFile = sut.getJournal().getJournalFile(doc, "user");
+        sut.setJournalEnabled(true);
+
+        JCas jcas = JCasFactory.createJCas();
+        StringBuilder text = new StringBuilder();
+        while (text.length() < 100_000) {
+            text.append("This is a test. ");
+        }
+        jcas.setDocumentText(text.toString());
+        for (int i = 0; i + 15 <= text.length(); i += 16) {
+            new Sentence(jcas, i, i + 15).addToIndexes();
+            new Token(jcas, i, i + 4).addToIndexes();
+        }
+        sut.writeCas(doc, jcas, "user");
+        long casLength = casFile.length();
+        long casModified = casFile.lastModified();
+
+        // Changes to a loaded CAS are appended to the journal instead of rewriting the CAS
+        JCas loaded = sut.readCas(doc, "user");
+        new Token(loaded, 5, 7).addToIndexes();
+        sut.writeCas(doc, loaded, "user");
+        assertTrue(journalFile.exists());
+        long firstChange = journalFile.length();
+        new Token(loaded, 8, 9).addToIndexes();
+        sut.writeCas(doc, loaded, "user");
+        assertEquals(casLength, casFile.length());
+        assertEquals(casModified, casFile.lastModified());
+
+        System.out.printf("Storing one change - full CAS: %d bytes - journal: %d bytes%n",
+                casLength, firstChange);
+        assertTrue(firstChange < casLength);
+
+        // The journal is applied when the CAS is loaded again
+        CasStorageServiceImpl other = new CasStorageServiceImpl(repository.getRoot(),
+                new CasDoctor());
+        other.setJournalEnabled(true);
+        int tokens = JCasUtil.select(other.readCas(doc, "user"), Token.class).size();
+        assertEquals(JCasUtil.select(loaded, Token.class).size(), tokens);
+
+        // Flushing folds the journal into the stored CAS
+        sut.flush(doc);
+        assertFalse(journalFile.exists());
+        JCas fromDisk = JCasFactory.createJCas();
+        CasPersistenceUtils.readSerializedCas(fromDisk, casFile, sut.getTypeSystemFolder(project));
+        assertEquals(tokens, JCasUtil.select(fromDisk, Token.class).size());
+    }
+
+    @Test
+    public void testJournalIsCompactedWhenTooLarge()
+        throws Exception
+    {
+        SourceDocument doc = makeDocument(1);
+        File journalFile = sut.getJournal().getJournalFile(doc, "user");
+        sut.setJournalEnabled(true);
+        sut.setJournalCompactionThreshold(0.0);
+
+        JCas jcas = JCasFactory.createJCas();
+        jcas.setDocumentText("This is a test.");
+        sut.writeCas(doc, jcas, "user");
+
+        // The first change may always be journaled
+        JCas loaded = sut.readCas(doc, "user");
+        new Token(loaded, 0, 4).addToIndexes();
+        sut.writeCas(doc, loaded, "user");
+        assertTrue(journalFile.exists());
+
+        // Any further change exceeds the threshold and causes the full CAS to be written
+        new Token(loaded, 5, 7).addToIndexes();
+        sut.writeCas(doc, loaded, "user");
+        assertFalse(journalFile.exists());
+        assertEquals(2, JCasUtil.select(sut.readCas(doc, "user"), Token.class).size());
+    }
+
+    @Test
+    public void testUnchangedCasesAreNotTrackedForever()
+        throws Exception
+    {
+        sut.setJournalEnabled(true);
+        sut.setJournalCompactionInterval(0);
+        SourceDocument doc = makeDocument(1);
+        SourceDocument changedDoc = makeDocument(2);
+        for (SourceDocument d : new SourceDocument[] { doc, changedDoc }) {
+            JCas jcas = JCasFactory.createJCas();
+            jcas.setDocumentText("This is a test.");
+            sut.writeCas(d, jcas, "user");
+        }
+
+        // Every CAS loaded in the journal mode is tracked for changes...
+        sut.readCas(doc, "user");
+        JCas changed = sut.readCas(changedDoc, "user");
+        new Token(changed, 0, 4).addToIndexes();
+        sut.writeCas(changedDoc, changed, "user");
+        assertEquals(2, sut.getJournalStateCount());
+
+        // ... but once idle, unchanged CASes are dropped and changed ones are compacted
+        sut.runStorageMaintenance();
+        assertFalse(sut.getJournal().exists(changedDoc, "user"));
+        assertEquals(0, sut.getJournalStateCount());
+        assertEquals(1, JCasUtil.select(sut.readCas(changedDoc, "user"), Token.class).size());
+    }
+
+    @Test
+    public void testJournalRequiresFileSystemBackend()
+        throws Exception
+    {
+        sut = new CasStorageServiceImpl(repository.getRoot(), new CasDoctor(),
+                SegmentCasStorageBackend.NAME);
+        sut.setJournalEnabled(true);
+        SourceDocument doc = makeDocument(1);
+
+        JCas jcas = JCasFactory.createJCas();
+        jcas.setDocumentText("This is a test.");
+        sut.writeCas(doc, jcas, "user");
+
+        // The segment backend has no CAS files the journal could refer to, so every change is
+        // written in full through the backend
+        JCas loaded = sut.readCas(doc, "user");
+        new Token(loaded, 0, 4).addToIndexes();
+        sut.writeCas(doc, loaded, "user");
+        assertFalse(sut.getJournal().exists(doc, "user"));
+        assertEquals(1, JCasUtil.select(sut.readCas(doc, "user"), Token.class).size());
+    }
+
+    @Test
+    public void testLegacyCasIsReadAndMigrated()
+        throws Exception
+    {
+        SourceDocument doc = makeDocument(1);
+
+        JCas jcas = JCasFactory.createJCas();
+        jcas.setDocumentText("This is a legacy test.");
+        File casFile = new File(sut.getAnnotationFolder(doc), "user.ser");
+        try (OutputStream os = new FileOutputStream(casFile)) {
+            CasPersistenceUtils.writeSerializedCas(jcas, os);
+        }
+        assertFalse(CasPersistenceUtils.isCompact(casFile));
+        long legacySize = casFile.length();
+
+        JCas result = sut.readCas(doc, "user");
+        assertEquals("This is a legacy test.", result.getDocumentText());
+
+        // Writing the CAS back migrates it to the compact format
+        sut.writeCas(doc, result, "user");
+        assertTrue(CasPersistenceUtils.isCompact(casFile));
+        assertTrue(casFile.length() < legacySize);
+        System.out.printf("Legacy: %d bytes - compact: %d bytes%n", legacySize,
+                casFile.length());
+        assertEquals("This is a legacy test.", sut.readCas(doc, "user").getDocumentText());
+
+        // Exported CASes must be self-contained, i.e. use the legacy format
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        sut.exportCas(doc, "user", bos);
+        JCas exported = JCasFactory.createJCas();
+        try (ObjectInputStream is = new ObjectInputStream(
+                new ByteArrayInputStream(bos.toByteArray()))) {
+            Serialization.deserializeCASComplete((CASCompleteSerializer) is.readObject(),
+                    exported.getCasImpl());
+        }
+        assertEquals("This is a legacy test.", exported.getCas().getJCas().getDocumentText());
+    }
+
+    @Test
+    public void testAsyncDoctorQuarantinesBrokenCas()
+        throws Exception
+    {
+        sut = new CasStorageServiceImpl(repository.getRoot(),
+                new CasDoctor(NoZeroSizeTokensAndSentencesCheck.class));
+        sut.setDoctorMode(CasStorageServiceImpl.DOCTOR_MODE_ASYNC);
+        SourceDocument doc = makeDocument(1);
+
+        // Saving a broken CAS does not fail in the asynchronous mode...
+        JCas jcas = JCasFactory.createJCas();
+        jcas.setDocumentText("This is a test.");
+        new Token(jcas, 0, 0).addToIndexes();
+        sut.writeCas(doc, jcas, "user");
+
+        // ... but the CAS is quarantined shortly after
+        waitForQuarantine(doc, "user", true);
+        // The copy is kept outside of the storage backend, so it is not taken for a user
+        assertTrue(new File(repository.getRoot(), "project/" + doc.getProject().getId() + "/"
+                + CasStorageServiceImpl.QUARANTINE_FOLDER + "/" + doc.getId() + "/user.ser")
+                        .exists());
+        assertNull(sut.getBackend().getVersion(doc, "user.quarantine"));
+        assertEquals(1, sut.getQuarantine().size());
+        assertEquals("user", sut.getQuarantine().get(0).getUsername());
+
+        // Fixing the CAS releases it from the quarantine
+        JCas fixed = JCasFactory.createJCas();
+        fixed.setDocumentText("This is a fixed test.");
+        new Token(fixed, 0, 4).addToIndexes();
+        sut.writeCas(doc, fixed, "user");
+
+        waitForQuarantine(doc, "user", false);
+        assertTrue(sut.getQuarantine().isEmpty());
+
+        // Deleting the document also removes the quarantined copy
+        sut.writeCas(doc, jcas, "user");
+        waitForQuarantine(doc, "user", true);
+        sut.deleteCas(doc);
+        assertFalse(sut.isQuarantined(doc, "user"));
+        assertTrue(sut.getQuarantine().isEmpty());
+    }
+
+    private void waitForQuarantine(SourceDocument aDocument, String aUser, boolean aExpected)
+        throws Exception
+    {
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(30);
+        while (sut.isQuarantined(aDocument, aUser) != aExpected
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        assertEquals(aExpected, sut.isQuarantined(aDocument, aUser));
+    }
+
+    @Test
+    public void testParallelAccessToDifferentDocuments()
+        throws Exception
+    {
+        // Every writer sees its own data
+        List<SourceDocument> docs = new ArrayList<>();
+        for (int i = 0; i < DOCUMENTS; i++) {
+            docs.add(makeDocument(i + 1));
+        }
+        runWorkload(docs, 4, 3);
+
+        // A writer is not blocked by a writer on a document which uses a different lock
+        SourceDocument locked = docs.get(0);
+        SourceDocument other = docs.stream()
+                .filter(d -> sut.getLock(d, "user") != sut.getLock(locked, "user"))
+                .findFirst().get();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        sut.getLock(locked, "user").writeLock().lock();
+        try {
+            executor.submit(() -> {
+                JCas jcas = JCasFactory.createJCas();
+                jcas.setDocumentText("Not blocked");
+                sut.writeCas(other, jcas, "user");
+                assertEquals("Not blocked", sut.readCas(other, "user").getDocumentText());
+                return null;
+            }).get(30, TimeUnit.SECONDS);
+        }
+        finally {
+            sut.getLock(locked, "user").writeLock().unlock();
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testParallelAccessPerformance()
+        throws Exception
+    {
+        assumeBenchmark();
+
+        List<SourceDocument> docs = new ArrayList<>();
+        for (int i = 0; i < DOCUMENTS; i++) {
+            docs.add(makeDocument(i + 1));
+        }
+
+        // Warm up the UIMA/JCas infrastructure so that it does not distort the measurements
+        runWorkload(docs, 1, ITERATIONS);
+
+        long tSequential = runWorkload(docs, 1, ITERATIONS);
+        int threads = Math.max(2, Runtime.getRuntime().availableProcessors());
+        long tParallel = runWorkload(docs, threads, ITERATIONS);
+
+        System.out.printf("Sequential: %dms - parallel (%d threads): %dms - speedup: %.2f%n",
+                tSequential, threads, tParallel, (double) tSequential / (double) tParallel);
+    }
+
+    private long runWorkload(List<SourceDocument> aDocuments, int aThreads, int aIterations)
+        throws Exception
+    {
+        ExecutorService executor = Executors.newFixedThreadPool(aThreads);
+        try {
+            long tStart = System.currentTimeMillis();
+            List<Future<?>> futures = new ArrayList<>();
+            for (SourceDocument doc : aDocuments) {
+                futures.add(executor.submit(() -> {
+                    String user = "user" + doc.getId();
+                    for (int i = 0; i < aIterations; i++) {
+                        String text = "Iteration " + i + " of document " + doc.getId();
+                        JCas jcas = JCasFactory.createJCas();
+                        jcas.setDocumentText(text);
+                        sut.writeCas(doc, jcas, user);
+                        assertEquals(text, sut.readCas(doc, user).getDocumentText());
+                    }
+                    return null;
+                }));
+            }
+
+            for (Future<?> future : futures) {
+                // Propagates any assertion failure or exception from the workers
+                future.get();
+            }
+
+            return System.currentTimeMillis() - tStart;
+        }
+        finally {
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(1, TimeUnit.MINUTES));
+        }
+    }
+
+    private SourceDocument makeDocument(long aId)
+    {
+        SourceDocument doc = new SourceDocument();
+        doc.setId(aId);
+        doc.setName("doc" + aId + ".txt");
+        doc.setProject(project);
+        return doc;
+    }
+}
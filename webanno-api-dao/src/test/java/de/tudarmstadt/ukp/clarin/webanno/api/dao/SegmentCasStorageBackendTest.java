@@ -0,0 +1,258 @@
+/*
+ * Copyright 2017
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao;
+
+import static de.tudarmstadt.ukp.clarin.webanno.api.ProjectService.PROJECT;
+import static de.tudarmstadt.ukp.clarin.webanno.support.test.BenchmarkUtil.assumeBenchmark;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.uima.fit.factory.JCasFactory;
+import org.apache.uima.jcas.JCas;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import de.tudarmstadt.ukp.clarin.webanno.diag.CasDoctor;
+import de.tudarmstadt.ukp.clarin.webanno.model.Project;
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
+
+public class SegmentCasStorageBackendTest
+{
+    private static final int BENCHMARK_DOCUMENTS = 50;
+    private static final int BENCHMARK_ITERATIONS = 10;
+
+    @Rule
+    public TemporaryFolder repository = new TemporaryFolder();
+
+    private SegmentCasStorageBackend sut;
+    private Project project;
+
+    @Before
+    public void setup()
+    {
+        // Small segments so that the tests also cover rolling over to new segments
+        sut = new SegmentCasStorageBackend(repository.getRoot(), 1024, 0.5);
+
+        project = new Project();
+        project.setId(1);
+        project.setName("test");
+    }
+
+    @After
+    public void tearDown()
+        throws Exception
+    {
+        sut.close();
+    }
+
+    @Test
+    public void testWriteReadOverwriteDelete()
+        throws Exception
+    {
+        SourceDocument doc = makeDocument(1);
+
+        assertNull(sut.getVersion(doc, "user"));
+
+        write(doc, "user", "Version 1");
+        CasStorageBackend.Version v1 = sut.getVersion(doc, "user");
+        assertNotNull(v1);
+        assertEquals("Version 1", read(doc, "user"));
+
+        write(doc, "user", "Version 2");
+        CasStorageBackend.Version v2 = sut.getVersion(doc, "user");
+        assertNotEquals(v1, v2);
+        assertTrue(v2.getTimestamp() > v1.getTimestamp());
+        assertEquals("Version 2", read(doc, "user"));
+
+        sut.delete(doc, "user");
+        assertNull(sut.getVersion(doc, "user"));
+        try {
+            sut.read(doc, "user");
+            fail("Deleted CAS can still be read");
+        }
+        catch (FileNotFoundException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void testIndexIsRebuiltOnOpen()
+        throws Exception
+    {
+        for (int i = 1; i <= 20; i++) {
+            write(makeDocument(i), "user", "Document " + i + " version 1");
+            write(makeDocument(i), "user", "Document " + i + " version 2");
+        }
+        sut.delete(makeDocument(5), "user");
+        sut.delete(makeDocument(6));
+        sut.close();
+
+        sut = new SegmentCasStorageBackend(repository.getRoot(), 1024, 0.5);
+        for (int i = 1; i <= 20; i++) {
+            if (i == 5 || i == 6) {
+                assertNull(sut.getVersion(makeDocument(i), "user"));
+            }
+            else {
+                assertEquals("Document " + i + " version 2", read(makeDocument(i), "user"));
+            }
+        }
+    }
+
+    @Test
+    public void testIncompleteRecordIsTruncated()
+        throws Exception
+    {
+        SourceDocument doc = makeDocument(1);
+        write(doc, "user", "Complete");
+        write(doc, "user", "Incomplete");
+        sut.close();
+
+        // Simulate a crash in the middle of writing the last record
+        File segment = new File(repository.getRoot(), PROJECT + project.getId() + "/"
+                + SegmentCasStorageBackend.SEGMENT_FOLDER + "/1.seg");
+        try (RandomAccessFile raf = new RandomAccessFile(segment, "rw")) {
+            raf.setLength(raf.length() - 3);
+        }
+
+        sut = new SegmentCasStorageBackend(repository.getRoot(), 1024, 0.5);
+        assertEquals("Complete", read(doc, "user"));
+
+        // Appending after the recovery must work
+        write(doc, "user", "After recovery");
+        sut.close();
+        sut = new SegmentCasStorageBackend(repository.getRoot(), 1024, 0.5);
+        assertEquals("After recovery", read(doc, "user"));
+    }
+
+    @Test
+    public void testCompaction()
+        throws Exception
+    {
+        for (int v = 1; v <= 10; v++) {
+            for (int i = 1; i <= 10; i++) {
+                write(makeDocument(i), "user", "Document " + i + " version " + v);
+            }
+        }
+        sut.delete(makeDocument(3), "user");
+
+        long before = sut.getSize(project);
+        long reclaimed = sut.compact(project);
+        assertTrue(reclaimed > 0);
+        assertEquals(before - reclaimed, sut.getSize(project));
+
+        for (int i = 1; i <= 10; i++) {
+            if (i == 3) {
+                assertNull(sut.getVersion(makeDocument(i), "user"));
+            }
+            else {
+                assertEquals("Document " + i + " version 10", read(makeDocument(i), "user"));
+            }
+        }
+
+        // The compacted state survives re-opening and deleted CASes stay deleted
+        sut.compact(project);
+        sut.close();
+        sut = new SegmentCasStorageBackend(repository.getRoot(), 1024, 0.5);
+        assertNull(sut.getVersion(makeDocument(3), "user"));
+        assertEquals("Document 1 version 10", read(makeDocument(1), "user"));
+    }
+
+    @Test
+    public void testBackendThroughput()
+        throws Exception
+    {
+        assumeBenchmark();
+
+        String[] backends = { FileSystemCasStorageBackend.NAME, SegmentCasStorageBackend.NAME };
+        for (String backend : backends) {
+            File dir = repository.newFolder(backend);
+            CasStorageServiceImpl storage = new CasStorageServiceImpl(dir, new CasDoctor(),
+                    backend);
+            try {
+                // Warm up the UIMA/JCas infrastructure so that it does not distort the numbers
+                runWorkload(storage, 1);
+
+                long tStart = System.currentTimeMillis();
+                runWorkload(storage, BENCHMARK_ITERATIONS);
+                long duration = System.currentTimeMillis() - tStart;
+
+                System.out.printf("%-10s: %d writes + reads of small CASes in %dms%n", backend,
+                        BENCHMARK_DOCUMENTS * BENCHMARK_ITERATIONS, duration);
+            }
+            finally {
+                storage.destroy();
+            }
+        }
+    }
+
+    private void runWorkload(CasStorageServiceImpl aStorage, int aIterations)
+        throws Exception
+    {
+        for (int n = 0; n < aIterations; n++) {
+            for (int i = 1; i <= BENCHMARK_DOCUMENTS; i++) {
+                SourceDocument doc = makeDocument(i);
+                JCas jcas = JCasFactory.createJCas();
+                jcas.setDocumentText("Iteration " + n + " of document " + i);
+                aStorage.writeCas(doc, jcas, "user");
+                // Bypass the cache to measure the backend
+                aStorage.getCache().remove(doc, "user");
+                assertEquals(jcas.getDocumentText(), aStorage.readCas(doc, "user")
+                        .getDocumentText());
+            }
+        }
+    }
+
+    private void write(SourceDocument aDocument, String aUsername, String aData)
+        throws IOException
+    {
+        sut.write(aDocument, aUsername,
+            os -> os.write(aData.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private String read(SourceDocument aDocument, String aUsername)
+        throws IOException
+    {
+        try (InputStream is = sut.read(aDocument, aUsername)) {
+            return IOUtils.toString(is, StandardCharsets.UTF_8);
+        }
+    }
+
+    private SourceDocument makeDocument(long aId)
+    {
+        SourceDocument doc = new SourceDocument();
+        doc.setId(aId);
+        doc.setName("doc" + aId + ".txt");
+        doc.setProject(project);
+        return doc;
+    }
+}
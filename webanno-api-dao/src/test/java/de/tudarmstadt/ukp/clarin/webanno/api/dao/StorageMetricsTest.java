@@ -0,0 +1,161 @@
+/*
+ * Copyright 2017
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao;
+
+import static de.tudarmstadt.ukp.clarin.webanno.api.dao.StorageMetrics.Operation.READ;
+import static de.tudarmstadt.ukp.clarin.webanno.api.dao.StorageMetrics.Operation.WRITE;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.StorageMetrics.SlowOperation;
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.StorageMetrics.Statistics;
+import de.tudarmstadt.ukp.clarin.webanno.model.Project;
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
+
+public class StorageMetricsTest
+{
+    private StorageMetrics sut;
+    private SourceDocument document;
+
+    @Before
+    public void setup()
+    {
+        sut = new StorageMetrics();
+
+        Project project = new Project();
+        project.setId(1);
+        project.setName("project");
+        document = new SourceDocument();
+        document.setId(2);
+        document.setName("document");
+        document.setProject(project);
+    }
+
+    @Test
+    public void testHistogram()
+    {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 99; i++) {
+            histogram.record(MILLISECONDS.toNanos(1));
+        }
+        histogram.record(MILLISECONDS.toNanos(100));
+
+        assertEquals(100, histogram.getCount());
+        assertEquals(1.99, histogram.getMean(), 0.001);
+        assertEquals(100.0, histogram.getMax(), 0.001);
+        // Buckets are powers of two in microseconds, so 1 ms ends up in the 1024 µs bucket
+        assertEquals(1.024, histogram.getPercentile(0.5), 0.001);
+        assertEquals(1.024, histogram.getPercentile(0.99), 0.001);
+        assertEquals(100.0, histogram.getPercentile(1.0), 0.001);
+    }
+
+    @Test
+    public void testStatisticsAndSlowOperations()
+    {
+        sut.setSlowThreshold(50);
+
+        sut.record(READ, document, "user", MILLISECONDS.toNanos(10), 1000);
+        sut.record(READ, document, "user", MILLISECONDS.toNanos(100), 2000);
+        sut.record(WRITE, document, "user", MILLISECONDS.toNanos(5), 500);
+
+        List<Statistics> stats = sut.getStatistics();
+        assertEquals(2, stats.size());
+
+        Statistics read = stats.get(0);
+        assertEquals("READ", read.getOperation());
+        assertEquals(1, read.getProjectId());
+        assertEquals("project", read.getProjectName());
+        assertEquals(2, read.getCount());
+        assertEquals(3000, read.getBytes());
+        assertEquals(100.0, read.getMaxTime(), 0.001);
+
+        List<SlowOperation> slow = sut.getSlowOperations();
+        assertEquals(1, slow.size());
+        assertEquals("READ", slow.get(0).getOperation());
+        assertEquals("document", slow.get(0).getDocumentName());
+        assertEquals("user", slow.get(0).getUsername());
+        assertEquals(100, slow.get(0).getTime());
+
+        sut.reset();
+        assertTrue(sut.getStatistics().isEmpty());
+        assertTrue(sut.getSlowOperations().isEmpty());
+    }
+
+    @Test
+    public void testSlowOperationsAreBounded()
+    {
+        sut.setSlowThreshold(0);
+
+        for (int i = 0; i < StorageMetrics.MAX_SLOW_OPERATIONS * 2; i++) {
+            sut.record(WRITE, document, "user-" + i, 0, 0);
+        }
+
+        List<SlowOperation> slow = sut.getSlowOperations();
+        assertEquals(StorageMetrics.MAX_SLOW_OPERATIONS, slow.size());
+        // The oldest ones are dropped
+        assertEquals("user-" + (StorageMetrics.MAX_SLOW_OPERATIONS * 2 - 1),
+                slow.get(slow.size() - 1).getUsername());
+    }
+
+    @Test
+    public void testLockWait()
+        throws Exception
+    {
+        ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+        // Uncontended
+        sut.lock(lock.writeLock(), WRITE, document);
+        lock.writeLock().unlock();
+
+        // Contended - hold the lock in another thread for a while
+        CountDownLatch locked = new CountDownLatch(1);
+        Thread holder = new Thread(() -> {
+            lock.writeLock().lock();
+            try {
+                locked.countDown();
+                Thread.sleep(100);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            finally {
+                lock.writeLock().unlock();
+            }
+        });
+        holder.start();
+        locked.await();
+
+        sut.lock(lock.writeLock(), WRITE, document);
+        lock.writeLock().unlock();
+        holder.join();
+
+        Statistics write = sut.getStatistics().get(0);
+        assertTrue("Lock wait not recorded: " + write.getMaxLockWait(),
+                write.getMaxLockWait() >= 50);
+        // Acquiring the lock is not an operation in itself
+        assertEquals(0, write.getCount());
+    }
+}
@@ -0,0 +1,304 @@
+/*
+ * Copyright 2017
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao.migration;
+
+import static de.tudarmstadt.ukp.clarin.webanno.support.test.BenchmarkUtil.assumeBenchmark;
+import static de.tudarmstadt.ukp.clarin.webanno.support.test.BenchmarkUtil.isLargeBenchmark;
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+import javax.persistence.Index;
+import javax.persistence.Table;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocumentState;
+import de.tudarmstadt.ukp.clarin.webanno.model.PermissionLevel;
+
+public class AddDatabaseIndexesTest
+{
+    private static final int DOCUMENTS_PER_PROJECT = 1000;
+    private static final int EXECUTIONS = 200;
+
+    private Connection connection;
+
+    @Before
+    public void setup()
+        throws Exception
+    {
+        connection = DriverManager.getConnection(
+                "jdbc:hsqldb:mem:" + getClass().getSimpleName() + System.nanoTime(), "sa", "");
+        createTables();
+    }
+
+    @After
+    public void tearDown()
+        throws Exception
+    {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("SHUTDOWN");
+        }
+        connection.close();
+    }
+
+    @Test
+    public void testCreateMissingIndexes()
+        throws Exception
+    {
+        List<String> expected = new ArrayList<>();
+        for (Class<?> entity : AddDatabaseIndexes.ENTITIES) {
+            for (Index index : entity.getAnnotation(Table.class).indexes()) {
+                expected.add(index.name());
+            }
+        }
+
+        assertEquals(expected, AddDatabaseIndexes.createMissingIndexes(connection));
+
+        // Running the migration again does not do anything
+        assertTrue(AddDatabaseIndexes.createMissingIndexes(connection).isEmpty());
+    }
+
+    @Test
+    public void testRenamedIndexIsReplaced()
+        throws Exception
+    {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("CREATE INDEX idx_annotation_document_project_user "
+                    + "ON annotation_document (project,user,state)");
+        }
+
+        assertTrue(AddDatabaseIndexes.createMissingIndexes(connection)
+                .contains("idx_annotation_document_project_user_state"));
+
+        List<String> indexes = new ArrayList<>();
+        try (ResultSet rs = connection.getMetaData().getIndexInfo(null, null,
+                "ANNOTATION_DOCUMENT", false, true)) {
+            while (rs.next()) {
+                indexes.add(rs.getString("INDEX_NAME").toLowerCase(Locale.ROOT));
+            }
+        }
+        assertTrue(indexes.contains("idx_annotation_document_project_user_state"));
+        assertFalse(indexes.contains("idx_annotation_document_project_user"));
+    }
+
+    /**
+     * Measures the queries which the indexes are meant for before and after creating the indexes.
+     * The benchmark is only run with {@code -Dwebanno.benchmark=true}. By default, a small
+     * database is used so the test finishes quickly. The full benchmark with 100.000 documents and
+     * 50 users (5.000.000 annotation documents) additionally needs
+     * {@code -Dwebanno.benchmark.large=true} and a few GB of heap.
+     */
+    @Test
+    public void testQueryPerformance()
+        throws Exception
+    {
+        assumeBenchmark();
+
+        boolean large = isLargeBenchmark();
+        int documents = large ? 100_000 : 5_000;
+        int users = large ? 50 : 10;
+        int projects = documents / DOCUMENTS_PER_PROJECT;
+
+        long start = System.currentTimeMillis();
+        seed(projects, users);
+        System.out.printf("Seeded %,d documents and %,d annotation documents in %d ms%n",
+                documents, (long) documents * users, System.currentTimeMillis() - start);
+
+        Map<String, Long> before = runQueries(projects, users);
+        AddDatabaseIndexes.createMissingIndexes(connection);
+        Map<String, Long> after = runQueries(projects, users);
+
+        for (String query : before.keySet()) {
+            System.out.printf("%-40s before: %,8d us - after: %,8d us%n", query,
+                    before.get(query) / 1000, after.get(query) / 1000);
+        }
+    }
+
+    private void createTables()
+        throws SQLException
+    {
+        // Same tables and constraints as created by Hibernate, but without the new indexes.
+        // Foreign keys get an index of their own in most databases.
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("CREATE TABLE project (id BIGINT PRIMARY KEY, "
+                    + "name VARCHAR(255), UNIQUE (name))");
+            statement.execute("CREATE TABLE source_document (id BIGINT PRIMARY KEY, "
+                    + "name VARCHAR(255) NOT NULL, project BIGINT, state VARCHAR(255) NOT NULL, "
+                    + "trainingDocument BOOLEAN, UNIQUE (name, project), "
+                    + "FOREIGN KEY (project) REFERENCES project (id))");
+            statement.execute("CREATE TABLE annotation_document (id BIGINT PRIMARY KEY, "
+                    + "name VARCHAR(255) NOT NULL, project BIGINT, user VARCHAR(255), "
+                    + "document BIGINT, state VARCHAR(255) NOT NULL, "
+                    + "UNIQUE (name, project, user), "
+                    + "FOREIGN KEY (project) REFERENCES project (id), "
+                    + "FOREIGN KEY (document) REFERENCES source_document (id))");
+            statement.execute("CREATE TABLE project_permissions (id BIGINT PRIMARY KEY, "
+                    + "level VARCHAR(255), user VARCHAR(255), project BIGINT, "
+                    + "UNIQUE (user, level, project), "
+                    + "FOREIGN KEY (project) REFERENCES project (id))");
+        }
+    }
+
+    private void seed(int aProjects, int aUsers)
+        throws SQLException
+    {
+        Random random = new Random(0);
+        connection.setAutoCommit(false);
+        try (
+                PreparedStatement project = connection
+                        .prepareStatement("INSERT INTO project VALUES (?, ?)");
+                PreparedStatement document = connection.prepareStatement(
+                        "INSERT INTO source_document VALUES (?, ?, ?, 'NEW', FALSE)");
+                PreparedStatement annotationDocument = connection.prepareStatement(
+                        "INSERT INTO annotation_document VALUES (?, ?, ?, ?, ?, ?)");
+                PreparedStatement permission = connection.prepareStatement(
+                        "INSERT INTO project_permissions VALUES (?, ?, ?, ?)")) {
+            long documentId = 0;
+            long annotationDocumentId = 0;
+            long permissionId = 0;
+            for (int p = 0; p < aProjects; p++) {
+                project.setLong(1, p);
+                project.setString(2, "project" + p);
+                project.executeUpdate();
+
+                for (int u = 0; u < aUsers; u++) {
+                    List<PermissionLevel> levels = u == 0
+                            ? asList(PermissionLevel.values()) : asList(PermissionLevel.USER);
+                    for (PermissionLevel level : levels) {
+                        permission.setLong(1, permissionId++);
+                        permission.setString(2, level.getName());
+                        permission.setString(3, "user" + u);
+                        permission.setLong(4, p);
+                        permission.addBatch();
+                    }
+                }
+                permission.executeBatch();
+
+                for (int d = 0; d < DOCUMENTS_PER_PROJECT; d++) {
+                    document.setLong(1, documentId);
+                    document.setString(2, "document" + d + ".txt");
+                    document.setLong(3, p);
+                    document.executeUpdate();
+
+                    for (int u = 0; u < aUsers; u++) {
+                        AnnotationDocumentState state = AnnotationDocumentState
+                                .values()[random.nextInt(AnnotationDocumentState.values().length)];
+                        annotationDocument.setLong(1, annotationDocumentId++);
+                        annotationDocument.setString(2, "document" + d + ".txt");
+                        annotationDocument.setLong(3, p);
+                        annotationDocument.setString(4, "user" + u);
+                        annotationDocument.setLong(5, documentId);
+                        annotationDocument.setString(6, state.getName());
+                        annotationDocument.addBatch();
+                    }
+                    annotationDocument.executeBatch();
+                    documentId++;
+                }
+                connection.commit();
+            }
+        }
+        finally {
+            connection.setAutoCommit(true);
+        }
+    }
+
+    /**
+     * @return the mean time per execution of each query in nanoseconds.
+     */
+    private Map<String, Long> runQueries(int aProjects, int aUsers)
+        throws SQLException
+    {
+        String finished = AnnotationDocumentState.FINISHED.getName();
+        String user = PermissionLevel.USER.getName();
+        int documents = aProjects * DOCUMENTS_PER_PROJECT;
+
+        Map<String, Long> times = new LinkedHashMap<>();
+        // DocumentServiceImpl.listAnnotatableDocuments
+        times.put("annotation documents (user, project)", time(
+                "SELECT a.id FROM annotation_document a "
+                        + "WHERE a.user = ? AND a.state <> ? AND a.project = ?",
+                r -> new Object[] { "user" + r.nextInt(aUsers), finished,
+                        r.nextInt(aProjects) }));
+        // DocumentServiceImpl.isAnnotationFinished
+        times.put("annotation document (document, user)", time(
+                "SELECT a.id FROM annotation_document a WHERE a.document = ? AND a.user = ?",
+                r -> new Object[] { r.nextInt(documents), "user" + r.nextInt(aUsers) }));
+        // DocumentServiceImpl.listFinishedAnnotationDocuments
+        times.put("annotation documents (project, state)", time(
+                "SELECT a.id FROM annotation_document a WHERE a.project = ? AND a.state = ?",
+                r -> new Object[] { r.nextInt(aProjects), finished }));
+        // DocumentServiceImpl.getAllAnnotators / ProjectServiceImpl.listProjectUsersWithPermissions
+        times.put("users (project, level)", time(
+                "SELECT DISTINCT p.user FROM project_permissions p "
+                        + "WHERE p.project = ? AND p.level = ? ORDER BY p.user",
+                r -> new Object[] { r.nextInt(aProjects), user }));
+        // DocumentServiceImpl.listSourceDocuments
+        times.put("source documents (project)", time(
+                "SELECT s.id FROM source_document s WHERE s.project = ? ORDER BY s.name",
+                r -> new Object[] { r.nextInt(aProjects) }));
+        return times;
+    }
+
+    private long time(String aQuery, ParameterGenerator aParameters)
+        throws SQLException
+    {
+        // Same parameters before and after creating the indexes
+        Random random = new Random(aQuery.hashCode());
+        try (PreparedStatement statement = connection.prepareStatement(aQuery)) {
+            long total = 0;
+            for (int i = 0; i < EXECUTIONS; i++) {
+                Object[] parameters = aParameters.generate(random);
+                for (int p = 0; p < parameters.length; p++) {
+                    statement.setObject(p + 1, parameters[p]);
+                }
+
+                long start = System.nanoTime();
+                try (ResultSet rs = statement.executeQuery()) {
+                    while (rs.next()) {
+                        // Fetch the whole result
+                    }
+                }
+                total += System.nanoTime() - start;
+            }
+            return total / EXECUTIONS;
+        }
+    }
+
+    @FunctionalInterface
+    private interface ParameterGenerator
+    {
+        Object[] generate(Random aRandom);
+    }
+}
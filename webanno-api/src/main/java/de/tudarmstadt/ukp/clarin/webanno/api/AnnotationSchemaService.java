@@ -19,9 +19,12 @@ package de.tudarmstadt.ukp.clarin.webanno.api;
 
 import java.io.IOException;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
 
 import org.apache.uima.UIMAException;
 import org.apache.uima.cas.CAS;
+import org.apache.uima.resource.ResourceInitializationException;
 import org.apache.uima.resource.metadata.TypeSystemDescription;
 import org.springframework.security.access.prepost.PreAuthorize;
 
@@ -35,6 +38,10 @@ import de.tudarmstadt.ukp.clarin.webanno.model.TagSet;
 /**
  * This interface contains methods which are related to TagSet, Tag and Type for the annotation
  * project.
+ * <p>
+ * The layers, features, tagsets and tags returned for a project may be shared with other callers
+ * and must not be modified. To edit one of them, modify a copy and save it, e.g. using
+ * {@link #createLayer(AnnotationLayer)}. The returned lists and maps belong to the caller.
  */
 public interface AnnotationSchemaService
 {
@@ -318,6 +325,17 @@ public interface AnnotationSchemaService
      */
     List<AnnotationFeature> listAnnotationFeature(Project project);
 
+    /**
+     * List all features in the project grouped by their layer. Use this instead of calling
+     * {@link #listAnnotationFeature(AnnotationLayer)} for every layer of a project.
+     *
+     * @param project
+     *            the project.
+     * @return the features of each layer. Contains all layers of the project in the order of
+     *         {@link #listAnnotationLayer(Project)}, also those without features.
+     */
+    Map<AnnotationLayer, List<AnnotationFeature>> listAnnotationFeaturesByLayer(Project project);
+
     /**
      * list all {@link Tag} in the system
      *
@@ -334,6 +352,17 @@ public interface AnnotationSchemaService
      */
     List<Tag> listTags(TagSet tag);
 
+    /**
+     * List all tags in the project grouped by their tagset. Use this instead of calling
+     * {@link #listTags(TagSet)} for every tagset of a project.
+     *
+     * @param project
+     *            the project.
+     * @return the tags of each tagset. Contains all tagsets of the project in the order of
+     *         {@link #listTagSets(Project)}, also those without tags.
+     */
+    Map<TagSet, List<Tag>> listTagsByTagSet(Project project);
+
     /**
      * list all {@link TagSet} in the system
      *
@@ -389,7 +418,74 @@ public interface AnnotationSchemaService
                 throws IOException;
     
     List<TypeSystemDescription> getProjectTypes(Project aProject);
-    
+
+    /**
+     * Get the type system of the given project, i.e. the built-in types merged with the project
+     * types. The type system is cached until the layers, features or tagsets of the project
+     * change.
+     * 
+     * @param aProject
+     *            the project.
+     * @return the merged type system. It is shared and must not be modified.
+     * @throws ResourceInitializationException
+     *             if the type system cannot be created.
+     */
+    TypeSystemDescription getFullProjectTypeSystem(Project aProject)
+        throws ResourceInitializationException;
+
+    /**
+     * Create a new empty CAS using the type system of the given project.
+     * 
+     * @param aProject
+     *            the project.
+     * @return the CAS.
+     * @throws ResourceInitializationException
+     *             if the CAS cannot be created.
+     */
+    CAS createProjectCas(Project aProject)
+        throws ResourceInitializationException;
+
+    /**
+     * Get the schema version of the given project. The version changes whenever a layer,
+     * feature or tagset of the project is created, changed or removed. It is not persisted, so
+     * it must only be compared with versions obtained in the same run of the application.
+     * 
+     * @param aProject
+     *            the project.
+     * @return the schema version.
+     */
+    long getSchemaVersion(Project aProject);
+
+    /**
+     * Get data derived from the layers, features and tags of a project, e.g. the type adapters
+     * of its layers. The data is created once and shared until the schema of the project changes,
+     * so it must not be modified by the callers.
+     *
+     * @param aProject
+     *            the project.
+     * @param aKey
+     *            identifies the kind of data.
+     * @param aLoader
+     *            creates the data if it is not available for the current schema.
+     * @return the data.
+     */
+    <T> T getDerivedSchemaData(Project aProject, Object aKey, Function<Project, T> aLoader);
+
+    /**
+     * Upgrade the given CAS to the current type system of the project. If the CAS already uses a
+     * type system matching the project schema, it is left untouched.
+     * 
+     * @param aCas
+     *            the CAS to upgrade.
+     * @param aSourceDocument
+     *            the document the CAS belongs to.
+     * @param aUser
+     *            the user the CAS belongs to.
+     * @throws UIMAException
+     *             if the CAS cannot be upgraded.
+     * @throws IOException
+     *             if an I/O error occurs.
+     */
     void upgradeCas(CAS aCas, SourceDocument aSourceDocument, String aUser)
             throws UIMAException, IOException;
 }
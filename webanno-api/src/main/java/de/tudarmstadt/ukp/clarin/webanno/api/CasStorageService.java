@@ -19,11 +19,14 @@ package de.tudarmstadt.ukp.clarin.webanno.api;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 
 import org.apache.uima.cas.CAS;
 import org.apache.uima.jcas.JCas;
 
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocument;
+import de.tudarmstadt.ukp.clarin.webanno.model.Project;
 import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
 import de.tudarmstadt.ukp.clarin.webanno.model.User;
 
@@ -46,7 +49,9 @@ public interface CasStorageService
 
     /**
      * For a given {@link SourceDocument}, return the {@link AnnotationDocument} for the user or for
-     * the CURATION_USER
+     * the CURATION_USER. Every call returns a separate CAS instance, so modifications only become
+     * visible to other callers once they have been persisted using
+     * {@link #writeCas(SourceDocument, JCas, String)}.
      *
      * @param aDocument
      *            the {@link SourceDocument}
@@ -59,5 +64,160 @@ public interface CasStorageService
     File getAnnotationFolder(SourceDocument aDocument)
             throws IOException;
 
+    /**
+     * Read the CAS of the given user for the given document into a CAS instance which is not
+     * shared with any other caller. The instance is taken from a pool and should be handed back
+     * using {@link #returnCas(JCas)} once it is no longer needed, e.g. at the end of an export.
+     * Instances that are not returned are not reused, but they are not leaked either.
+     *
+     * @param aDocument
+     *            the {@link SourceDocument}
+     * @param aUsername
+     *            the {@link User} who annotates the {@link SourceDocument} or the CURATION_USER
+     */
+    JCas borrowCas(SourceDocument aDocument, String aUsername)
+        throws IOException;
+
+    /**
+     * Like {@link #borrowCas(SourceDocument, String)}, but optionally without running the CAS
+     * doctor on the CAS, e.g. for tools which run their own checks and repairs.
+     *
+     * @param aAnalyzeAndRepair
+     *            whether to apply the configured checks and repairs.
+     */
+    JCas borrowCas(SourceDocument aDocument, String aUsername, boolean aAnalyzeAndRepair)
+        throws IOException;
+
+    /**
+     * Write a CAS obtained from {@link #borrowCas(SourceDocument, String)} unless the stored CAS
+     * has been changed since the CAS was borrowed, e.g. by an annotator while a tool was repairing
+     * the borrowed copy.
+     *
+     * @return whether the CAS has been written.
+     */
+    boolean writeCasIfUnchanged(SourceDocument aDocument, JCas aJcas, String aUserName)
+        throws IOException;
+
+    /**
+     * Return a CAS obtained from {@link #borrowCas(SourceDocument, String)} such that it can be
+     * reused. The caller must not use the CAS anymore afterwards. This is also safe after the CAS
+     * has been written because the storage only keeps a serialized copy of a written CAS. Any
+     * other CAS, e.g. one obtained from {@link #readCas(SourceDocument, String)}, is ignored.
+     */
+    void returnCas(JCas aJCas);
+
+    /**
+     * Write all CASes of the given document which are still waiting to be written to disk. This
+     * only has an effect if write-behind is enabled.
+     */
+    void flush(SourceDocument aDocument)
+        throws IOException;
+
+    /**
+     * Write all CASes changed by the given user which are still waiting to be written to disk,
+     * e.g. when the session of the user ends. This only has an effect if write-behind is enabled.
+     */
+    void flush(String aUsername)
+        throws IOException;
+
+    /**
+     * Write all CASes which are still waiting to be written to disk. This only has an effect if
+     * write-behind is enabled.
+     */
+    void flush()
+        throws IOException;
+
+    /**
+     * Get the folder where the type systems shared by the CAS files of the given project are
+     * stored. Creates the folder if necessary.
+     */
+    File getTypeSystemFolder(Project aProject)
+        throws IOException;
+
+    /**
+     * Write the CAS of the given user for the given document to the stream in a self-contained
+     * format which does not depend on any other files in the repository, e.g. for exporting it.
+     *
+     * @param aDocument
+     *            the {@link SourceDocument}
+     * @param aUsername
+     *            the {@link User} who annotates the {@link SourceDocument} or the CURATION_USER
+     * @param aStream
+     *            the target stream. The stream is not closed.
+     */
+    void exportCas(SourceDocument aDocument, String aUsername, OutputStream aStream)
+        throws IOException;
+
+    /**
+     * Store a CAS that has been exported using
+     * {@link #exportCas(SourceDocument, String, OutputStream)}, e.g. when importing a project.
+     * An existing CAS is replaced.
+     *
+     * @param aDocument
+     *            the {@link SourceDocument}
+     * @param aUsername
+     *            the {@link User} who annotates the {@link SourceDocument} or the CURATION_USER
+     * @param aStream
+     *            the source stream. The stream is not closed.
+     */
+    void importCas(SourceDocument aDocument, String aUsername, InputStream aStream)
+        throws IOException;
+
+    /**
+     * Store the initial CAS of a document from which the CASes of the users are copied. The CAS
+     * doctor is not run because the caller has already analyzed and repaired the freshly imported
+     * CAS. Since the initial CAS is never edited, it is neither kept in memory nor recorded in the
+     * history. An existing initial CAS is replaced.
+     *
+     * @param aDocument
+     *            the {@link SourceDocument}
+     * @param aJcas
+     *            the initial CAS
+     */
+    void writeInitialCas(SourceDocument aDocument, JCas aJcas)
+        throws IOException;
+
+    /**
+     * Store a copy of the CAS of one user as the CAS of another user, e.g. to create the CAS of an
+     * annotator from the initial CAS of the document. The document ID in the metadata of the copy
+     * is set to the target user. An existing CAS of the target user is replaced.
+     *
+     * @param aDocument
+     *            the {@link SourceDocument}
+     * @param aSourceUsername
+     *            the user whose CAS is copied, e.g. the INITIAL_CAS_PSEUDO_USER
+     * @param aTargetUsername
+     *            the user who receives the copy
+     */
+    void copyCas(SourceDocument aDocument, String aSourceUsername, String aTargetUsername)
+        throws IOException;
+
+    /**
+     * Check if there is a CAS for the given user and document.
+     */
+    boolean existsCas(SourceDocument aDocument, String aUsername)
+        throws IOException;
+
+    /**
+     * Delete the CAS of the given user for the given document. Does nothing if there is no CAS.
+     */
+    void deleteCas(SourceDocument aDocument, String aUsername)
+        throws IOException;
+
+    /**
+     * Delete the CASes of all users for the given document, e.g. because the document is being
+     * removed.
+     */
+    void deleteCas(SourceDocument aDocument)
+        throws IOException;
+
     void analyzeAndRepair(SourceDocument aDocument, String aUsername, CAS aCas);
+
+    /**
+     * Check if the CAS doctor has found problems in the CAS of the given user for the given
+     * document when analyzing it in the background. The user can continue working on such a CAS,
+     * but an administrator should look into it.
+     */
+    boolean isQuarantined(SourceDocument aDocument, String aUsername)
+        throws IOException;
 }
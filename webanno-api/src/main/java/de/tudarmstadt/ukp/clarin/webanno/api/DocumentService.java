@@ -253,6 +253,20 @@ public interface DocumentService
     boolean existsCas(SourceDocument sourceDocument, String username)
         throws IOException;
 
+    /**
+     * List the users for whom a CAS of the given document exists. The initial CAS comes first,
+     * followed by the annotators and finally the curation and correction users.
+     *
+     * @param document
+     *            the source document.
+     * @return the usernames, including the pseudo-users of the initial, curation and correction
+     *         CASes.
+     * @throws IOException
+     *             if an I/O error occurs.
+     */
+    List<String> listCasUsers(SourceDocument document)
+        throws IOException;
+
     /**
      * Export a Serialized CAS annotation document from the file system
      *
@@ -261,7 +275,10 @@ public interface DocumentService
      * @param user
      *            the username.
      * @return the serialized CAS file.
+     * @deprecated The file only exists if the CASes are stored using the file system storage
+     *             backend. Use the {@link CasStorageService} to access the CASes instead.
      */
+    @Deprecated
     File getCasFile(SourceDocument document, String user);
 
     /**
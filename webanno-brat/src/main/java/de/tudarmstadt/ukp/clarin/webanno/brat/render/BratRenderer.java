@@ -53,6 +53,7 @@ import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationFeature;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationLayer;
 import de.tudarmstadt.ukp.clarin.webanno.model.LinkMode;
 import de.tudarmstadt.ukp.clarin.webanno.model.Mode;
+import de.tudarmstadt.ukp.clarin.webanno.model.Project;
 import de.tudarmstadt.ukp.clarin.webanno.model.ScriptDirection;
 import de.tudarmstadt.ukp.dkpro.core.api.lexmorph.type.pos.POS;
 import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Sentence;
@@ -87,6 +88,8 @@ public class BratRenderer
         renderTokenAndSentence(aJCas, aResponse, aState);
 
         // Render visible (custom) layers
+        Map<AnnotationLayer, List<AnnotationFeature>> featuresByLayer = getFeaturesByLayer(
+                aState.getProject(), aAnnotationService);
         Map<String[], Queue<String>> colorQueues = new HashMap<>();
         for (AnnotationLayer layer : aState.getAnnotationLayers()) {
             if (layer.getName().equals(Token.class.getName())
@@ -99,17 +102,18 @@ public class BratRenderer
                 continue;
             }
 
-            ColoringStrategy coloringStrategy = ColoringStrategy.getBestStrategy(
-                    aAnnotationService, layer, aState.getPreferences(), colorQueues);
+            List<AnnotationFeature> allFeatures = getFeatures(featuresByLayer, layer,
+                    aAnnotationService);
 
-            List<AnnotationFeature> features = aAnnotationService.listAnnotationFeature(layer);
-            List<AnnotationFeature> invisibleFeatures = new ArrayList<AnnotationFeature>();
-            for (AnnotationFeature feature : features) {
-                if (!feature.isVisible()) {
-                    invisibleFeatures.add(feature);
+            ColoringStrategy coloringStrategy = ColoringStrategy.getBestStrategy(layer,
+                    allFeatures, aState.getPreferences(), colorQueues);
+
+            List<AnnotationFeature> features = new ArrayList<AnnotationFeature>();
+            for (AnnotationFeature feature : allFeatures) {
+                if (feature.isVisible()) {
+                    features.add(feature);
                 }
             }
-            features.removeAll(invisibleFeatures);
             
             TypeAdapter adapter = getAdapter(aAnnotationService, layer);
             TypeRenderer renderer = getRenderer(adapter);
@@ -172,6 +176,8 @@ public class BratRenderer
         });
 
         // Now build the actual configuration
+        Map<AnnotationLayer, List<AnnotationFeature>> featuresByLayer = getFeaturesByLayer(
+                layers.isEmpty() ? null : layers.get(0).getProject(), aAnnotationService);
         Set<EntityType> entityTypes = new LinkedHashSet<EntityType>();
         for (AnnotationLayer layer : layers) {
             EntityType entityType = configureEntityType(layer);
@@ -181,7 +187,7 @@ public class BratRenderer
             // For link features, we also need to configure the arcs, even though there is no arc
             // layer here.
             boolean hasLinkFeatures = false;
-            for (AnnotationFeature f : aAnnotationService.listAnnotationFeature(layer)) {
+            for (AnnotationFeature f : getFeatures(featuresByLayer, layer, aAnnotationService)) {
                 if (!LinkMode.NONE.equals(f.getLinkMode())) {
                     hasLinkFeatures = true;
                     break;
@@ -206,6 +212,27 @@ public class BratRenderer
         return entityTypes;
     }
 
+    /**
+     * Fetch the features of all layers of the project at once instead of once per layer.
+     */
+    private static Map<AnnotationLayer, List<AnnotationFeature>> getFeaturesByLayer(
+            Project aProject, AnnotationSchemaService aAnnotationService)
+    {
+        if (aProject == null) {
+            return Collections.emptyMap();
+        }
+        return aAnnotationService.listAnnotationFeaturesByLayer(aProject);
+    }
+
+    private static List<AnnotationFeature> getFeatures(
+            Map<AnnotationLayer, List<AnnotationFeature>> aFeaturesByLayer, AnnotationLayer aLayer,
+            AnnotationSchemaService aAnnotationService)
+    {
+        List<AnnotationFeature> features = aFeaturesByLayer.get(aLayer);
+        // Layers which are not (yet) part of the project schema are looked up individually
+        return features != null ? features : aAnnotationService.listAnnotationFeature(aLayer);
+    }
+
     /**
      * Scan through the layers once to remember which layers attach to which layers.
      */
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2017
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.cli;
+
+import static java.util.Arrays.asList;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.support.ClassPathXmlApplicationContext;
+
+import de.tudarmstadt.ukp.clarin.webanno.diag.CasDoctorScan;
+import de.tudarmstadt.ukp.clarin.webanno.diag.CasDoctorScanOptions;
+import de.tudarmstadt.ukp.clarin.webanno.diag.CasDoctorScanReport;
+import de.tudarmstadt.ukp.clarin.webanno.diag.CasDoctorScanReport.Status;
+
+/**
+ * Command line entry point of the {@link CasDoctorScan}. Like the {@link RepositoryMigrationTool},
+ * it must only be used while WebAnno is not running.
+ */
+public class CasDoctorScanTool
+{
+    private static final Logger LOG = LoggerFactory.getLogger(CasDoctorScanTool.class);
+
+    public static final String USAGE = String.join("\n",
+            "Usage: java -Dwebanno.home=<home> -cp webanno-cli.jar "
+                    + CasDoctorScanTool.class.getName() + " [options]",
+            "",
+            "Options:",
+            "  --checks <a,b,...>    checks to run (default: all available checks)",
+            "  --repairs <a,b,...>   repairs to apply to CASes failing a check - repaired CASes",
+            "                        are saved (default: none)",
+            "  --threads <n>         number of worker threads (default: number of processors)",
+            "  --project <id>        only scan the given project (may be repeated)",
+            "  --report <file>       write the JSON report to the given file",
+            "                        (default: casdoctor-report.json)",
+            "  --help                show this message");
+
+    public static void main(String[] aArgs)
+    {
+        CasDoctorScanOptions options = new CasDoctorScanOptions();
+        File reportFile = new File("casdoctor-report.json");
+        try {
+            for (int i = 0; i < aArgs.length; i++) {
+                String arg = aArgs[i];
+                switch (arg) {
+                case "--checks":
+                    options.getChecks().addAll(asList(value(aArgs, ++i, arg).split(",")));
+                    break;
+                case "--repairs":
+                    options.getRepairs().addAll(asList(value(aArgs, ++i, arg).split(",")));
+                    break;
+                case "--threads":
+                    options.setThreads(Integer.parseInt(value(aArgs, ++i, arg)));
+                    break;
+                case "--project":
+                    options.getProjects().add(Long.parseLong(value(aArgs, ++i, arg)));
+                    break;
+                case "--report":
+                    reportFile = new File(value(aArgs, ++i, arg));
+                    break;
+                case "--help":
+                    System.out.println(USAGE);
+                    return;
+                default:
+                    throw new IllegalArgumentException("Unknown option [" + arg + "]");
+                }
+            }
+            if (options.getThreads() < 1) {
+                throw new IllegalArgumentException("Option [--threads] requires a positive "
+                        + "number");
+            }
+        }
+        catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println();
+            System.err.println(USAGE);
+            System.exit(2);
+            return;
+        }
+
+        int status;
+        try (ClassPathXmlApplicationContext context = new ClassPathXmlApplicationContext(
+                RepositoryMigrationTool.CONTEXT)) {
+            CasDoctorScan scan = context.getBean("casDoctorScan", CasDoctorScan.class);
+            CasDoctorScanReport report = scan.scan(options);
+
+            try (OutputStream out = new FileOutputStream(reportFile)) {
+                report.write(out);
+            }
+            LOG.info("Report written to [{}]", reportFile);
+
+            status = report.count(Status.FAILED) + report.count(Status.ERROR) > 0 ? 1 : 0;
+        }
+        catch (Exception e) {
+            LOG.error("Scan failed", e);
+            status = 3;
+        }
+
+        System.exit(status);
+    }
+
+    private static String value(String[] aArgs, int aIndex, String aOption)
+    {
+        if (aIndex >= aArgs.length) {
+            throw new IllegalArgumentException("Option [" + aOption + "] requires a value");
+        }
+        return aArgs[aIndex];
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2017
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.cli;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Arrays.asList;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.io.FileUtils;
+
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
+
+/**
+ * Remembers which CASes have already been migrated, so an interrupted migration can be resumed.
+ * The journal is a text file with one line per migrated CAS. The first line records the
+ * operations of the migration, so a journal is never resumed by a migration doing something else.
+ * <p>
+ * Every line is flushed immediately. If the process is killed while writing a line, the partial
+ * line does not match any CAS and the CAS is simply migrated again.
+ */
+public class MigrationJournal
+    implements Closeable
+{
+    private static final String HEADER_PREFIX = "# ";
+
+    private final Set<String> done = ConcurrentHashMap.newKeySet();
+    private final Writer writer;
+
+    /**
+     * Open the journal, loading the entries of a previous run if the journal exists.
+     *
+     * @param aFile
+     *            the journal file.
+     * @param aOperations
+     *            the operations of the migration.
+     * @throws IllegalStateException
+     *             if the journal has been written by a migration with different operations.
+     */
+    public MigrationJournal(File aFile, List<String> aOperations)
+        throws IOException
+    {
+        String header = HEADER_PREFIX + String.join(",", aOperations);
+
+        boolean exists = aFile.exists() && aFile.length() > 0;
+        boolean partialLine = false;
+        if (exists) {
+            String text = FileUtils.readFileToString(aFile, UTF_8);
+            partialLine = !text.endsWith("\n");
+            List<String> lines = asList(text.split("\n"));
+            if (!header.equals(lines.get(0))) {
+                throw new IllegalStateException("Journal [" + aFile + "] belongs to a migration "
+                        + "with different operations [" + lines.get(0).substring(
+                                Math.min(HEADER_PREFIX.length(), lines.get(0).length()))
+                        + "] - use a different journal or restart");
+            }
+            done.addAll(lines.subList(1, lines.size()));
+        }
+
+        writer = new BufferedWriter(
+                new OutputStreamWriter(new FileOutputStream(aFile, true), UTF_8));
+        if (!exists) {
+            writer.write(header);
+            writer.write('\n');
+            writer.flush();
+        }
+        else if (partialLine) {
+            // Terminate the partial line so it does not run into the next entry
+            writer.write('\n');
+            writer.flush();
+        }
+    }
+
+    public static String getKey(SourceDocument aDocument, String aUsername)
+    {
+        return aDocument.getProject().getId() + "/" + aDocument.getId() + "/" + aUsername;
+    }
+
+    public boolean isDone(String aKey)
+    {
+        return done.contains(aKey);
+    }
+
+    public synchronized void markDone(String aKey)
+        throws IOException
+    {
+        writer.write(aKey);
+        writer.write('\n');
+        writer.flush();
+        done.add(aKey);
+    }
+
+    /**
+     * @return the number of CASes migrated so far, including those of previous runs.
+     */
+    public int size()
+    {
+        return done.size();
+    }
+
+    @Override
+    public synchronized void close()
+        throws IOException
+    {
+        writer.close();
+    }
+}
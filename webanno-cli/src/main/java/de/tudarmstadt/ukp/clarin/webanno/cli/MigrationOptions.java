@@ -0,0 +1,223 @@
+/*
+ * Copyright 2017
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.cli;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Command line options of the {@link RepositoryMigrationTool}.
+ */
+public class MigrationOptions
+{
+    public static final String USAGE = String.join("\n",
+            "Usage: java -Dwebanno.home=<home> -jar webanno-cli.jar [options]",
+            "",
+            "Operations (at least one is required):",
+            "  --upgrade             upgrade all CASes to the current type system of their project",
+            "  --compact             rewrite CASes which are not yet stored in the compact format",
+            "  --verify              run all CAS doctor checks on every CAS",
+            "  --convert-to <name>   copy all CASes into the given storage backend",
+            "",
+            "Options:",
+            "  --threads <n>         number of worker threads (default: number of processors)",
+            "  --project <id>        only process the given project (may be repeated)",
+            "  --journal <file>      journal used to resume an interrupted run",
+            "                        (default: <repository>/migration.journal)",
+            "  --restart             ignore the journal and process all CASes again",
+            "  --report <file>       write the summary report to the given file",
+            "                        (default: <repository>/migration-report.txt)",
+            "  --progress <seconds>  interval in which progress is reported (default: 10)",
+            "  --help                show this message");
+
+    private boolean upgrade;
+    private boolean compact;
+    private boolean verify;
+    private String convertTo;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private final Set<Long> projects = new HashSet<>();
+    private File journal;
+    private boolean restart;
+    private File report;
+    private long progressInterval = 10;
+    private boolean help;
+
+    /**
+     * Parse the command line arguments.
+     *
+     * @throws IllegalArgumentException
+     *             if the arguments are invalid.
+     */
+    public static MigrationOptions parse(String... aArgs)
+    {
+        MigrationOptions options = new MigrationOptions();
+        for (int i = 0; i < aArgs.length; i++) {
+            String arg = aArgs[i];
+            switch (arg) {
+            case "--upgrade":
+                options.upgrade = true;
+                break;
+            case "--compact":
+                options.compact = true;
+                break;
+            case "--verify":
+                options.verify = true;
+                break;
+            case "--convert-to":
+                options.convertTo = value(aArgs, ++i, arg);
+                break;
+            case "--threads":
+                options.threads = number(aArgs, ++i, arg);
+                break;
+            case "--project":
+                options.projects.add((long) number(aArgs, ++i, arg));
+                break;
+            case "--journal":
+                options.journal = new File(value(aArgs, ++i, arg));
+                break;
+            case "--restart":
+                options.restart = true;
+                break;
+            case "--report":
+                options.report = new File(value(aArgs, ++i, arg));
+                break;
+            case "--progress":
+                options.progressInterval = number(aArgs, ++i, arg);
+                break;
+            case "--help":
+                options.help = true;
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown option [" + arg + "]");
+            }
+        }
+
+        if (!options.help && options.getOperations().isEmpty()) {
+            throw new IllegalArgumentException("No operation specified");
+        }
+
+        return options;
+    }
+
+    private static String value(String[] aArgs, int aIndex, String aOption)
+    {
+        if (aIndex >= aArgs.length) {
+            throw new IllegalArgumentException("Option [" + aOption + "] requires a value");
+        }
+        return aArgs[aIndex];
+    }
+
+    private static int number(String[] aArgs, int aIndex, String aOption)
+    {
+        String value = value(aArgs, aIndex, aOption);
+        try {
+            int number = Integer.parseInt(value);
+            if (number < 1) {
+                throw new NumberFormatException();
+            }
+            return number;
+        }
+        catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Option [" + aOption
+                    + "] requires a positive number but was [" + value + "]");
+        }
+    }
+
+    /**
+     * @return the operations to perform, e.g. to make sure a journal is only resumed by a run
+     *         performing the same operations.
+     */
+    public List<String> getOperations()
+    {
+        List<String> operations = new ArrayList<>();
+        if (upgrade) {
+            operations.add("upgrade");
+        }
+        if (compact) {
+            operations.add("compact");
+        }
+        if (verify) {
+            operations.add("verify");
+        }
+        if (convertTo != null) {
+            operations.add("convert-to=" + convertTo);
+        }
+        return operations;
+    }
+
+    public boolean isUpgrade()
+    {
+        return upgrade;
+    }
+
+    public boolean isCompact()
+    {
+        return compact;
+    }
+
+    public boolean isVerify()
+    {
+        return verify;
+    }
+
+    public String getConvertTo()
+    {
+        return convertTo;
+    }
+
+    public int getThreads()
+    {
+        return threads;
+    }
+
+    /**
+     * @return the IDs of the projects to process or an empty set to process all projects.
+     */
+    public Set<Long> getProjects()
+    {
+        return projects;
+    }
+
+    public File getJournal()
+    {
+        return journal;
+    }
+
+    public boolean isRestart()
+    {
+        return restart;
+    }
+
+    public File getReport()
+    {
+        return report;
+    }
+
+    public long getProgressInterval()
+    {
+        return progressInterval;
+    }
+
+    public boolean isHelp()
+    {
+        return help;
+    }
+}
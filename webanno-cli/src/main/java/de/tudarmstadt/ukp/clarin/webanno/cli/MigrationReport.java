@@ -0,0 +1,175 @@
+/*
+ * Copyright 2017
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.cli;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.commons.lang3.time.DurationFormatUtils;
+
+/**
+ * Counts the outcome of a migration and produces the summary report. All methods may be called
+ * concurrently by the workers.
+ */
+public class MigrationReport
+{
+    private final long startTime = System.currentTimeMillis();
+    private volatile long endTime;
+
+    private volatile long total;
+    private final LongAdder skipped = new LongAdder();
+    private final LongAdder processed = new LongAdder();
+    private final LongAdder upgraded = new LongAdder();
+    private final LongAdder compacted = new LongAdder();
+    private final LongAdder verified = new LongAdder();
+    private final LongAdder converted = new LongAdder();
+    private final LongAdder bytesConverted = new LongAdder();
+    private final Queue<String> failures = new ConcurrentLinkedQueue<>();
+
+    public void setTotal(long aTotal)
+    {
+        total = aTotal;
+    }
+
+    /**
+     * @return the number of CASes to be processed in this run.
+     */
+    public long getTotal()
+    {
+        return total;
+    }
+
+    /**
+     * A CAS was skipped because it had already been migrated by a previous run.
+     */
+    public void skipped()
+    {
+        skipped.increment();
+    }
+
+    /**
+     * A CAS was processed successfully.
+     */
+    public void processed()
+    {
+        processed.increment();
+    }
+
+    public void upgraded()
+    {
+        upgraded.increment();
+    }
+
+    public void compacted()
+    {
+        compacted.increment();
+    }
+
+    public void verified()
+    {
+        verified.increment();
+    }
+
+    public void converted(long aBytes)
+    {
+        converted.increment();
+        bytesConverted.add(aBytes);
+    }
+
+    /**
+     * A CAS could not be processed. It is not recorded in the journal and processed again by the
+     * next run.
+     */
+    public void failed(String aKey, String aMessage)
+    {
+        failures.add(aKey + ": " + aMessage);
+    }
+
+    public long getProcessed()
+    {
+        return processed.sum();
+    }
+
+    public long getFailed()
+    {
+        return failures.size();
+    }
+
+    /**
+     * @return the number of CASes processed or failed so far in this run.
+     */
+    public long getDone()
+    {
+        return getProcessed() + getFailed();
+    }
+
+    public List<String> getFailures()
+    {
+        return new ArrayList<>(failures);
+    }
+
+    public void finish()
+    {
+        endTime = System.currentTimeMillis();
+    }
+
+    public long getDuration()
+    {
+        return (endTime > 0 ? endTime : System.currentTimeMillis()) - startTime;
+    }
+
+    /**
+     * @return a one-line progress message.
+     */
+    public String getProgress()
+    {
+        long done = getDone();
+        long duration = getDuration();
+        double rate = duration > 0 ? done * 1000.0 / duration : 0;
+        String eta = rate > 0 && done < total
+                ? DurationFormatUtils.formatDuration(
+                        TimeUnit.SECONDS.toMillis((long) ((total - done) / rate)), "HH:mm:ss")
+                : "-";
+        return String.format("%d/%d CASes (%.1f%%), %d failed, %.1f CASes/s, remaining %s", done,
+                total, total > 0 ? done * 100.0 / total : 100.0, getFailed(), rate, eta);
+    }
+
+    public void write(PrintWriter aOut)
+    {
+        aOut.printf("Duration          : %s%n",
+                DurationFormatUtils.formatDuration(getDuration(), "HH:mm:ss"));
+        aOut.printf("CASes in this run : %d%n", total);
+        aOut.printf("Skipped (journal) : %d%n", skipped.sum());
+        aOut.printf("Processed         : %d%n", processed.sum());
+        aOut.printf("Upgraded          : %d%n", upgraded.sum());
+        aOut.printf("Compacted         : %d%n", compacted.sum());
+        aOut.printf("Verified          : %d%n", verified.sum());
+        aOut.printf("Converted         : %d (%d bytes)%n", converted.sum(),
+                bytesConverted.sum());
+        aOut.printf("Failed            : %d%n", failures.size());
+        for (String failure : failures) {
+            aOut.printf("  %s%n", failure);
+        }
+        aOut.flush();
+    }
+}
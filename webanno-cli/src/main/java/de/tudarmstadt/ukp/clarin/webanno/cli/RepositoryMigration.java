@@ -0,0 +1,301 @@
+/*
+ * Copyright 2017
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.cli;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Resource;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.apache.uima.jcas.JCas;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.AnnotationSchemaService;
+import de.tudarmstadt.ukp.clarin.webanno.api.DocumentService;
+import de.tudarmstadt.ukp.clarin.webanno.api.ProjectService;
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.CasPersistenceUtils;
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.CasStorageBackend;
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.CasStorageServiceImpl;
+import de.tudarmstadt.ukp.clarin.webanno.diag.CasDoctor;
+import de.tudarmstadt.ukp.clarin.webanno.model.Project;
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
+
+/**
+ * Migrates all CASes in the repository in one go, e.g. after a schema change or before switching
+ * to a different storage backend. WebAnno must not be running while the migration runs.
+ * <p>
+ * The CASes are processed in parallel by a fixed number of workers. Every CAS which has been
+ * migrated successfully is recorded in a {@link MigrationJournal}, so an interrupted migration
+ * continues where it stopped. CASes which fail are reported and retried by the next run.
+ */
+public class RepositoryMigration
+{
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    @Value(value = "${repository.path}")
+    private File dir;
+
+    @Value(value = "${cas.storage.backend}")
+    private String backendName;
+
+    @Resource(name = "projectService")
+    private ProjectService projectService;
+
+    @Resource(name = "documentService")
+    private DocumentService documentService;
+
+    @Resource(name = "annotationService")
+    private AnnotationSchemaService annotationService;
+
+    @Resource(name = "casStorageService")
+    private CasStorageServiceImpl casStorageService;
+
+    @Resource(name = "casDoctor")
+    private CasDoctor casDoctor;
+
+    public File getDir()
+    {
+        return dir;
+    }
+
+    public MigrationReport run(MigrationOptions aOptions)
+        throws IOException, InterruptedException
+    {
+        if (backendName.equals(aOptions.getConvertTo())) {
+            throw new IllegalArgumentException("CASes are already stored in the [" + backendName
+                    + "] backend");
+        }
+
+        // The CASes are verified with all checks. Broken CASes make the migration of the CAS
+        // fail and are listed in the report.
+        if (aOptions.isVerify()) {
+            casDoctor.activateAllChecks();
+        }
+
+        File journalFile = aOptions.getJournal() != null ? aOptions.getJournal()
+                : new File(dir, "migration.journal");
+        if (aOptions.isRestart()) {
+            FileUtils.deleteQuietly(journalFile);
+        }
+
+        MigrationReport report = new MigrationReport();
+        CasStorageBackend target = null;
+        if (aOptions.getConvertTo() != null) {
+            target = CasStorageServiceImpl.createBackend(aOptions.getConvertTo(), dir);
+        }
+
+        try (MigrationJournal journal = new MigrationJournal(journalFile,
+                aOptions.getOperations())) {
+            List<Item> items = listItems(aOptions, journal, report);
+            report.setTotal(items.size());
+            log.info("Migrating {} CASes using {} threads ({} already migrated)", items.size(),
+                    aOptions.getThreads(), journal.size());
+
+            // The queue is bounded - if the workers cannot keep up, the main thread helps out
+            ThreadPoolExecutor workers = new ThreadPoolExecutor(aOptions.getThreads(),
+                    aOptions.getThreads(), 0, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<>(aOptions.getThreads() * 4),
+                    new NamedThreadFactory("migration-worker"),
+                    new ThreadPoolExecutor.CallerRunsPolicy());
+            ScheduledExecutorService progress = Executors.newSingleThreadScheduledExecutor(
+                    new NamedThreadFactory("migration-progress"));
+            progress.scheduleAtFixedRate(() -> log.info("Progress: {}", report.getProgress()),
+                    aOptions.getProgressInterval(), aOptions.getProgressInterval(),
+                    TimeUnit.SECONDS);
+            try {
+                CasStorageBackend targetBackend = target;
+                for (Item item : items) {
+                    workers.execute(() -> migrate(item, aOptions, targetBackend, journal, report));
+                }
+                workers.shutdown();
+                while (!workers.awaitTermination(1, TimeUnit.MINUTES)) {
+                    // Keep waiting - progress is reported separately
+                }
+            }
+            finally {
+                progress.shutdownNow();
+                workers.shutdownNow();
+            }
+
+            casStorageService.flush();
+        }
+        finally {
+            if (target != null) {
+                target.close();
+            }
+        }
+
+        report.finish();
+        log.info("Finished: {}", report.getProgress());
+
+        return report;
+    }
+
+    private List<Item> listItems(MigrationOptions aOptions, MigrationJournal aJournal,
+            MigrationReport aReport)
+        throws IOException
+    {
+        List<Item> items = new ArrayList<>();
+        for (Project project : projectService.listProjects()) {
+            if (!aOptions.getProjects().isEmpty()
+                    && !aOptions.getProjects().contains(project.getId())) {
+                continue;
+            }
+
+            for (SourceDocument document : documentService.listSourceDocuments(project)) {
+                for (String user : documentService.listCasUsers(document)) {
+                    if (aJournal.isDone(MigrationJournal.getKey(document, user))) {
+                        aReport.skipped();
+                    }
+                    else {
+                        items.add(new Item(document, user));
+                    }
+                }
+            }
+        }
+        return items;
+    }
+
+    private void migrate(Item aItem, MigrationOptions aOptions, CasStorageBackend aTarget,
+            MigrationJournal aJournal, MigrationReport aReport)
+    {
+        SourceDocument document = aItem.document;
+        String user = aItem.username;
+        String key = MigrationJournal.getKey(document, user);
+        try {
+            if (aOptions.isUpgrade() || aOptions.isCompact() || aOptions.isVerify()) {
+                boolean legacy = aOptions.isCompact() && !isCompact(document, user);
+
+                // The CAS is only needed by this worker, so it does not have to be shared with
+                // the other callers of the storage. It is verified explicitly below.
+                JCas jcas = casStorageService.borrowCas(document, user, false);
+                try {
+                    boolean modified = legacy;
+
+                    if (aOptions.isUpgrade()) {
+                        String before = CasPersistenceUtils.getFingerprint(jcas.getCas());
+                        annotationService.upgradeCas(jcas.getCas(), document, user);
+                        if (!before.equals(
+                                CasPersistenceUtils.getFingerprint(jcas.getCas()))) {
+                            modified = true;
+                            aReport.upgraded();
+                        }
+                    }
+
+                    // Verify before writing, so a broken CAS is not stored again
+                    if (aOptions.isVerify()) {
+                        casDoctor.analyze(document.getProject(), jcas.getCas(),
+                                new ArrayList<>(), true);
+                    }
+
+                    // CASes are always written in the compact format
+                    if (modified && !casStorageService.writeCasIfUnchanged(document, jcas,
+                            user)) {
+                        throw new IOException("CAS has been changed during the migration");
+                    }
+                }
+                finally {
+                    casStorageService.returnCas(jcas);
+                }
+
+                if (legacy) {
+                    aReport.compacted();
+                }
+                if (aOptions.isVerify()) {
+                    aReport.verified();
+                }
+            }
+
+            if (aTarget != null) {
+                // Make sure the CAS has actually been written before copying it
+                casStorageService.flush(document);
+                long[] bytes = { 0 };
+                try (InputStream is = casStorageService.getBackend().read(document, user)) {
+                    aTarget.write(document, user, os -> bytes[0] = IOUtils.copyLarge(is, os));
+                }
+                aReport.converted(bytes[0]);
+            }
+
+            aJournal.markDone(key);
+            aReport.processed();
+        }
+        catch (Exception e) {
+            log.error("Unable to migrate CAS of user [{}] for document [{}]({}) in project "
+                    + "[{}]({})", user, document.getName(), document.getId(),
+                    document.getProject().getName(), document.getProject().getId(), e);
+            aReport.failed(key, ExceptionUtils.getRootCauseMessage(e));
+        }
+    }
+
+    private boolean isCompact(SourceDocument aDocument, String aUsername)
+        throws IOException
+    {
+        try (InputStream is = new BufferedInputStream(
+                casStorageService.getBackend().read(aDocument, aUsername))) {
+            return CasPersistenceUtils.isCompact(is);
+        }
+    }
+
+    private static final class Item
+    {
+        private final SourceDocument document;
+        private final String username;
+
+        public Item(SourceDocument aDocument, String aUsername)
+        {
+            document = aDocument;
+            username = aUsername;
+        }
+    }
+
+    private static final class NamedThreadFactory
+        implements ThreadFactory
+    {
+        private final String prefix;
+        private final AtomicInteger counter = new AtomicInteger();
+
+        public NamedThreadFactory(String aPrefix)
+        {
+            prefix = aPrefix;
+        }
+
+        @Override
+        public Thread newThread(Runnable aRunnable)
+        {
+            Thread t = new Thread(aRunnable, prefix + "-" + counter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2017
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.cli;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.support.ClassPathXmlApplicationContext;
+
+/**
+ * Command line entry point of the {@link RepositoryMigration}. It uses the same
+ * {@code settings.properties} in the WebAnno home folder as the web application.
+ */
+public class RepositoryMigrationTool
+{
+    private static final Logger LOG = LoggerFactory.getLogger(RepositoryMigrationTool.class);
+
+    public static final String CONTEXT = "classpath:/META-INF/webanno-cli-context.xml";
+
+    public static void main(String[] aArgs)
+    {
+        MigrationOptions options;
+        try {
+            options = MigrationOptions.parse(aArgs);
+        }
+        catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println();
+            System.err.println(MigrationOptions.USAGE);
+            System.exit(2);
+            return;
+        }
+
+        if (options.isHelp()) {
+            System.out.println(MigrationOptions.USAGE);
+            return;
+        }
+
+        int status;
+        try (ClassPathXmlApplicationContext context = new ClassPathXmlApplicationContext(
+                CONTEXT)) {
+            RepositoryMigration migration = context.getBean("repositoryMigration",
+                    RepositoryMigration.class);
+            MigrationReport report = migration.run(options);
+
+            File reportFile = options.getReport() != null ? options.getReport()
+                    : new File(migration.getDir(), "migration-report.txt");
+            try (PrintWriter out = new PrintWriter(
+                    new OutputStreamWriter(new FileOutputStream(reportFile), UTF_8))) {
+                report.write(out);
+            }
+            report.write(new PrintWriter(new OutputStreamWriter(System.out, UTF_8)));
+            LOG.info("Report written to [{}]", reportFile);
+
+            status = report.getFailed() > 0 ? 1 : 0;
+        }
+        catch (Exception e) {
+            LOG.error("Migration failed", e);
+            status = 3;
+        }
+
+        System.exit(status);
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2017
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.cli;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import de.tudarmstadt.ukp.clarin.webanno.model.Project;
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
+
+public class MigrationJournalTest
+{
+    private static final List<String> OPERATIONS = asList("upgrade", "verify");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testResume()
+        throws Exception
+    {
+        File file = new File(folder.getRoot(), "migration.journal");
+        String key1 = MigrationJournal.getKey(document(1, 2), "user1");
+        String key2 = MigrationJournal.getKey(document(1, 2), "user2");
+        assertEquals("1/2/user1", key1);
+
+        try (MigrationJournal journal = new MigrationJournal(file, OPERATIONS)) {
+            assertFalse(journal.isDone(key1));
+            journal.markDone(key1);
+            assertTrue(journal.isDone(key1));
+        }
+
+        // Simulate a crash while writing the second entry
+        FileUtils.writeStringToFile(file, key2.substring(0, 3), UTF_8, true);
+
+        try (MigrationJournal journal = new MigrationJournal(file, OPERATIONS)) {
+            assertTrue(journal.isDone(key1));
+            assertFalse(journal.isDone(key2));
+            journal.markDone(key2);
+        }
+
+        try (MigrationJournal journal = new MigrationJournal(file, OPERATIONS)) {
+            assertTrue(journal.isDone(key1));
+            assertTrue(journal.isDone(key2));
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testDifferentOperations()
+        throws Exception
+    {
+        File file = new File(folder.getRoot(), "migration.journal");
+        try (MigrationJournal journal = new MigrationJournal(file, OPERATIONS)) {
+            journal.markDone("1/2/user");
+        }
+
+        new MigrationJournal(file, asList("convert-to=segment")).close();
+    }
+
+    @Test
+    public void testOptions()
+    {
+        MigrationOptions options = MigrationOptions.parse("--upgrade", "--verify", "--threads",
+                "4", "--project", "7");
+        assertEquals(OPERATIONS, options.getOperations());
+        assertEquals(4, options.getThreads());
+        assertTrue(options.getProjects().contains(7L));
+    }
+
+    private static SourceDocument document(long aProjectId, long aDocumentId)
+    {
+        Project project = new Project();
+        project.setId(aProjectId);
+        SourceDocument document = new SourceDocument();
+        document.setId(aDocumentId);
+        document.setProject(project);
+        return document;
+    }
+}
@@ -19,7 +19,6 @@ package de.tudarmstadt.ukp.clarin.webanno.curation.storage;
 
 import static de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst.CURATION_USER;
 
-import java.io.File;
 import java.io.IOException;
 import java.sql.Timestamp;
 import java.util.Date;
@@ -29,7 +28,6 @@ import javax.annotation.Resource;
 import javax.persistence.EntityManager;
 import javax.persistence.PersistenceContext;
 
-import org.apache.commons.io.FileUtils;
 import org.apache.uima.jcas.JCas;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -65,10 +63,8 @@ public class CurationDocumentServiceImpl
     public void removeCurationDocumentContent(SourceDocument aSourceDocument, String aUsername)
         throws IOException
     {
-        if (new File(casStorageService.getAnnotationFolder(aSourceDocument),
-                WebAnnoConst.CURATION_USER + ".ser").exists()) {
-            FileUtils.forceDelete(new File(casStorageService.getAnnotationFolder(aSourceDocument),
-                    WebAnnoConst.CURATION_USER + ".ser"));
+        if (casStorageService.existsCas(aSourceDocument, WebAnnoConst.CURATION_USER)) {
+            casStorageService.deleteCas(aSourceDocument, WebAnnoConst.CURATION_USER);
 
             try (MDC.MDCCloseable closable = MDC.putCloseable(Logging.KEY_PROJECT_ID,
                     String.valueOf(aSourceDocument.getProject().getId()))) {
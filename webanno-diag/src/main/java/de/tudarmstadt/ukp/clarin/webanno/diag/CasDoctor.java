@@ -20,6 +20,14 @@ package de.tudarmstadt.ukp.clarin.webanno.diag;
 import java.lang.reflect.Modifier;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
 import org.apache.commons.lang3.StringUtils;
@@ -29,6 +37,7 @@ import org.slf4j.LoggerFactory;
 import org.apache.uima.cas.CAS;
 import org.reflections.Reflections;
 import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.ApplicationContext;
@@ -39,8 +48,13 @@ import de.tudarmstadt.ukp.clarin.webanno.diag.repairs.Repair;
 import de.tudarmstadt.ukp.clarin.webanno.model.Project;
 import de.tudarmstadt.ukp.clarin.webanno.support.SettingsUtil;
 
+/**
+ * Runs checks and repairs on CASes. Checks and repairs must be stateless: each is instantiated
+ * once and then shared. Checks must not modify the CAS, so they may run concurrently on the same
+ * CAS if {@code debug.casDoctor.threads} is larger than {@code 1}.
+ */
 public class CasDoctor
-    implements InitializingBean, ApplicationContextAware
+    implements InitializingBean, DisposableBean, ApplicationContextAware
 {
     private Logger log = LoggerFactory.getLogger(getClass());
 
@@ -61,6 +75,13 @@ public class CasDoctor
     @Value(value = "${debug.casDoctor.forceReleaseBehavior}")
     private boolean disableAutoScan = false;
 
+    @Value(value = "${debug.casDoctor.threads}")
+    private int threads = 1;
+
+    private final Map<Class<?>, Object> instances = new ConcurrentHashMap<>();
+    private final CasDoctorMetrics metrics = new CasDoctorMetrics();
+    private ExecutorService executor;
+
     public CasDoctor()
     {
         // Bean operation
@@ -118,6 +139,27 @@ public class CasDoctor
         return fatalChecks;
     }
 
+    /**
+     * Set the number of threads used to run checks concurrently. With {@code 1}, the checks run
+     * one after another in the calling thread.
+     */
+    public synchronized void setThreads(int aThreads)
+    {
+        threads = aThreads;
+        if (executor != null) {
+            executor.shutdown();
+            executor = null;
+        }
+    }
+
+    /**
+     * @return the timing of the individual checks and repairs.
+     */
+    public CasDoctorMetrics getMetrics()
+    {
+        return metrics;
+    }
+
     public void repair(Project aProject, CAS aCas)
     {
         List<LogMessage> messages = new ArrayList<>();
@@ -139,19 +181,29 @@ public class CasDoctor
             return;
         }
         
+        repair(aProject, aCas, aMessages, repairClasses);
+        
+        // POST-CONDITION: CAS must be consistent
+        // Ensure that the repairs actually fixed the CAS
+        analyze(aProject, aCas, aMessages, true);
+    }
+
+    /**
+     * Apply the given repairs in the given order. Unlike {@link #repair(Project, CAS, List)}, this
+     * does not check the CAS afterwards.
+     */
+    public void repair(Project aProject, CAS aCas, List<LogMessage> aMessages,
+            List<Class<? extends Repair>> aRepairs)
+    {
         // APPLY REPAIRS
         long tStart = System.currentTimeMillis();
-        for (Class<? extends Repair> repairClass : repairClasses) {
+        for (Class<? extends Repair> repairClass : aRepairs) {
             try {
-                long tStartTask = System.currentTimeMillis();
-                Repair repair = repairClass.newInstance();
-                if (context != null) {
-                    context.getAutowireCapableBeanFactory().autowireBean(repair);
-                }
-                log.info("CasDoctor repair [" + repairClass.getSimpleName() + "] running...");
+                long tStartTask = System.nanoTime();
+                Repair repair = getInstance(repairClass);
+                log.debug("CasDoctor repair [" + repairClass.getSimpleName() + "] running...");
                 repair.repair(aProject, aCas, aMessages);
-                log.info("CasDoctor repair [" + repairClass.getSimpleName() + "] completed in "
-                        + (System.currentTimeMillis() - tStartTask) + "ms");
+                metrics.record(repairClass, System.nanoTime() - tStartTask, true);
             }
             catch (Exception e) {
 //                aMessages.add(new LogMessage(this, LogLevel.ERROR, "Cannot perform repair [%s]: %s",
@@ -162,11 +214,8 @@ public class CasDoctor
             }
         }
         
-        log.info("CasDoctor completed all repairs in " + (System.currentTimeMillis() - tStart) + "ms");
-        
-        // POST-CONDITION: CAS must be consistent
-        // Ensure that the repairs actually fixed the CAS
-        analyze(aProject, aCas, aMessages, true);
+        log.debug("CasDoctor completed all repairs in " + (System.currentTimeMillis() - tStart)
+                + "ms");
     }
     
     public boolean analyze(Project aProject, CAS aCas)
@@ -189,26 +238,58 @@ public class CasDoctor
     public boolean analyze(Project aProject, CAS aCas, List<LogMessage> aMessages,
             boolean aFatalChecks)
         throws CasDoctorException
+    {
+        return analyze(aProject, aCas, aMessages, aFatalChecks, checkClasses);
+    }
+
+    /**
+     * Run the given checks instead of the configured ones.
+     */
+    public boolean analyze(Project aProject, CAS aCas, List<LogMessage> aMessages,
+            boolean aFatalChecks, List<Class<? extends Check>> aChecks)
+        throws CasDoctorException
     {
         long tStart = System.currentTimeMillis();
         
         boolean ok = true;
-        for (Class<? extends Check> checkClass : checkClasses) {
-            try {
-                long tStartTask = System.currentTimeMillis();
-                Check check = checkClass.newInstance();
-                if (context != null) {
-                    context.getAutowireCapableBeanFactory().autowireBean(check);
-                }
-                log.debug("CasDoctor analysis [" + checkClass.getSimpleName() + "] running...");
-                ok &= check.check(aProject, aCas, aMessages);
-                log.debug("CasDoctor analysis [" + checkClass.getSimpleName() + "] completed in "
-                        + (System.currentTimeMillis() - tStartTask) + "ms");
+        List<Class<? extends Check>> checks = new ArrayList<>(aChecks);
+        ExecutorService checkExecutor = getExecutor();
+        if (checkExecutor == null || checks.size() < 2) {
+            for (Class<? extends Check> checkClass : checks) {
+                ok &= runCheck(checkClass, aProject, aCas, aMessages);
             }
-            catch (InstantiationException | IllegalAccessException e) {
-                aMessages.add(new LogMessage(this, LogLevel.ERROR, "Cannot instantiate [%s]: %s",
-                        checkClass.getSimpleName(), ExceptionUtils.getRootCauseMessage(e)));
-                log.error("Error running check", e);
+        }
+        else {
+            // Each check collects its messages separately. They are added in the order of the
+            // checks, so the output does not depend on which check finishes first.
+            List<Future<Boolean>> results = new ArrayList<>();
+            List<List<LogMessage>> messages = new ArrayList<>();
+            for (Class<? extends Check> checkClass : checks) {
+                List<LogMessage> checkMessages = new ArrayList<>();
+                messages.add(checkMessages);
+                results.add(checkExecutor.submit(
+                    (Callable<Boolean>) () -> runCheck(checkClass, aProject, aCas,
+                            checkMessages)));
+            }
+
+            for (int i = 0; i < results.size(); i++) {
+                try {
+                    ok &= results.get(i).get();
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    results.forEach(f -> f.cancel(true));
+                    throw new IllegalStateException("Interrupted while running checks", e);
+                }
+                catch (ExecutionException e) {
+                    ok = false;
+                    messages.get(i).add(new LogMessage(this, LogLevel.ERROR,
+                            "Error running check [%s]: %s",
+                            checks.get(i).getSimpleName(),
+                            ExceptionUtils.getRootCauseMessage(e)));
+                    log.error("Error running check", e.getCause());
+                }
+                aMessages.addAll(messages.get(i));
             }
         }
 
@@ -225,6 +306,80 @@ public class CasDoctor
         return ok;
     }
 
+    private boolean runCheck(Class<? extends Check> aCheckClass, Project aProject, CAS aCas,
+            List<LogMessage> aMessages)
+    {
+        Check check;
+        try {
+            check = getInstance(aCheckClass);
+        }
+        catch (IllegalStateException e) {
+            aMessages.add(new LogMessage(this, LogLevel.ERROR, "Cannot instantiate [%s]: %s",
+                    aCheckClass.getSimpleName(), ExceptionUtils.getRootCauseMessage(e)));
+            log.error("Error running check", e);
+            return true;
+        }
+
+        long tStartTask = System.nanoTime();
+        boolean ok = check.check(aProject, aCas, aMessages);
+        metrics.record(aCheckClass, System.nanoTime() - tStartTask, ok);
+        return ok;
+    }
+
+    /**
+     * Get the shared instance of the given check or repair, creating it on first use. Instances
+     * are created lazily because the services they depend on may not be available yet while the
+     * CAS doctor itself is being set up.
+     */
+    @SuppressWarnings("unchecked")
+    private <T> T getInstance(Class<T> aClass)
+    {
+        Object instance = instances.get(aClass);
+        if (instance == null) {
+            try {
+                instance = aClass.newInstance();
+            }
+            catch (InstantiationException | IllegalAccessException e) {
+                throw new IllegalStateException(e);
+            }
+            if (context != null) {
+                context.getAutowireCapableBeanFactory().autowireBean(instance);
+            }
+            // If another thread was faster, use its instance
+            Object existing = instances.putIfAbsent(aClass, instance);
+            if (existing != null) {
+                instance = existing;
+            }
+        }
+        return (T) instance;
+    }
+
+    private synchronized ExecutorService getExecutor()
+    {
+        if (threads <= 1) {
+            return null;
+        }
+
+        if (executor == null) {
+            AtomicInteger counter = new AtomicInteger();
+            executor = Executors.newFixedThreadPool(threads, r -> {
+                Thread t = new Thread(r, "cas-doctor-check-" + counter.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        return executor;
+    }
+
+    @Override
+    public synchronized void destroy()
+    {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
     public void setActiveChecks(String aActiveChecks)
     {
         activeChecks = aActiveChecks;
@@ -246,10 +401,7 @@ public class CasDoctor
                 version.contains("-SNAPSHOT") || 
                 version.contains("-beta-"))
         ) {
-            Reflections reflections = new Reflections(Check.class.getPackage().getName());
-            checkClasses.addAll(reflections.getSubTypesOf(Check.class).stream()
-                    .filter(c -> !Modifier.isAbstract(c.getModifiers()))
-                    .collect(Collectors.toList()));
+            checkClasses.addAll(getAvailableChecks());
             log.info("Detected SNAPSHOT/beta version - automatically enabling all checks");
         }
         
@@ -286,6 +438,45 @@ public class CasDoctor
         }
     }
 
+    /**
+     * Activate all available checks in addition to the configured ones, e.g. to verify CASes
+     * offline.
+     */
+    public void activateAllChecks()
+    {
+        for (Class<? extends Check> c : getAvailableChecks()) {
+            if (!checkClasses.contains(c)) {
+                checkClasses.add(c);
+                log.info("Check activated: " + c.getSimpleName());
+            }
+        }
+    }
+
+    /**
+     * @return all checks, whether active or not.
+     */
+    public static List<Class<? extends Check>> getAvailableChecks()
+    {
+        return scan(Check.class);
+    }
+
+    /**
+     * @return all repairs, whether active or not.
+     */
+    public static List<Class<? extends Repair>> getAvailableRepairs()
+    {
+        return scan(Repair.class);
+    }
+
+    private static <T> List<Class<? extends T>> scan(Class<T> aInterface)
+    {
+        Reflections reflections = new Reflections(aInterface.getPackage().getName());
+        return reflections.getSubTypesOf(aInterface).stream()
+                .filter(c -> !Modifier.isAbstract(c.getModifiers()) && !c.isInterface())
+                .sorted((c1, c2) -> c1.getSimpleName().compareTo(c2.getSimpleName()))
+                .collect(Collectors.toList());
+    }
+
     public static enum LogLevel
     {
         INFO, ERROR
@@ -0,0 +1,143 @@
+/*
+ * Copyright 2017
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.diag;
+
+import java.beans.ConstructorProperties;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Records how often each check and repair of the {@link CasDoctor} has run, how long it took and
+ * how often a check failed. The metrics are exposed via JMX (see {@link CasDoctorMetricsMXBean})
+ * and via the {@code /admin/metrics} endpoint.
+ */
+public class CasDoctorMetrics
+    implements CasDoctorMetricsMXBean
+{
+    private final Map<Class<?>, TaskMetrics> metrics = new ConcurrentHashMap<>();
+
+    /**
+     * Record a run of a check or repair.
+     *
+     * @param aTask
+     *            the check or repair class.
+     * @param aNanos
+     *            the duration in nanoseconds.
+     * @param aOk
+     *            whether the check passed. Always {@code true} for repairs.
+     */
+    public void record(Class<?> aTask, long aNanos, boolean aOk)
+    {
+        TaskMetrics m = metrics.computeIfAbsent(aTask, k -> new TaskMetrics());
+        m.count.increment();
+        m.total.add(aNanos);
+        m.max.accumulateAndGet(aNanos, Math::max);
+        if (!aOk) {
+            m.failures.increment();
+        }
+    }
+
+    @Override
+    public List<Statistics> getStatistics()
+    {
+        List<Statistics> result = new ArrayList<>();
+        for (Map.Entry<Class<?>, TaskMetrics> e : metrics.entrySet()) {
+            TaskMetrics m = e.getValue();
+            long count = m.count.sum();
+            result.add(new Statistics(e.getKey().getSimpleName(), count, m.failures.sum(),
+                    count == 0 ? 0 : toMillis(m.total.sum()) / count, toMillis(m.max.get())));
+        }
+        result.sort(Comparator.comparing(Statistics::getName));
+        return result;
+    }
+
+    @Override
+    public void reset()
+    {
+        metrics.clear();
+    }
+
+    private static double toMillis(long aNanos)
+    {
+        return aNanos / 1_000_000.0;
+    }
+
+    private static final class TaskMetrics
+    {
+        private final LongAdder count = new LongAdder();
+        private final LongAdder failures = new LongAdder();
+        private final LongAdder total = new LongAdder();
+        private final AtomicLong max = new AtomicLong();
+    }
+
+    /**
+     * The metrics of one check or repair. Durations are in milliseconds.
+     */
+    public static final class Statistics
+    {
+        private final String name;
+        private final long count;
+        private final long failures;
+        private final double meanTime;
+        private final double maxTime;
+
+        @ConstructorProperties({ "name", "count", "failures", "meanTime", "maxTime" })
+        public Statistics(String aName, long aCount, long aFailures, double aMeanTime,
+                double aMaxTime)
+        {
+            name = aName;
+            count = aCount;
+            failures = aFailures;
+            meanTime = aMeanTime;
+            maxTime = aMaxTime;
+        }
+
+        public String getName()
+        {
+            return name;
+        }
+
+        public long getCount()
+        {
+            return count;
+        }
+
+        /**
+         * @return how often a check has found problems.
+         */
+        public long getFailures()
+        {
+            return failures;
+        }
+
+        public double getMeanTime()
+        {
+            return meanTime;
+        }
+
+        public double getMaxTime()
+        {
+            return maxTime;
+        }
+    }
+}
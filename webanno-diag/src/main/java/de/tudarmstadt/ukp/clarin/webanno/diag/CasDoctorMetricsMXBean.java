@@ -0,0 +1,38 @@
+/*
+ * Copyright 2017
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.diag;
+
+import java.util.List;
+
+import de.tudarmstadt.ukp.clarin.webanno.diag.CasDoctorMetrics.Statistics;
+
+/**
+ * JMX view on the {@link CasDoctorMetrics}.
+ */
+public interface CasDoctorMetricsMXBean
+{
+    /**
+     * @return the statistics for each check and repair.
+     */
+    List<Statistics> getStatistics();
+
+    /**
+     * Discard all statistics collected so far.
+     */
+    void reset();
+}
@@ -0,0 +1,349 @@
+/*
+ * Copyright 2017
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.diag;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import javax.annotation.Resource;
+
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.apache.uima.jcas.JCas;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.CasStorageService;
+import de.tudarmstadt.ukp.clarin.webanno.api.DocumentService;
+import de.tudarmstadt.ukp.clarin.webanno.api.ProjectService;
+import de.tudarmstadt.ukp.clarin.webanno.diag.CasDoctor.LogLevel;
+import de.tudarmstadt.ukp.clarin.webanno.diag.CasDoctor.LogMessage;
+import de.tudarmstadt.ukp.clarin.webanno.diag.CasDoctorScanReport.Result;
+import de.tudarmstadt.ukp.clarin.webanno.diag.CasDoctorScanReport.Status;
+import de.tudarmstadt.ukp.clarin.webanno.diag.checks.Check;
+import de.tudarmstadt.ukp.clarin.webanno.diag.repairs.Repair;
+import de.tudarmstadt.ukp.clarin.webanno.model.Project;
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
+
+/**
+ * Runs the CAS doctor on all CASes of a project or of the whole repository, e.g. to find broken
+ * CASes before users run into them. Unlike the checks performed when a CAS is loaded or saved,
+ * the scan never fails: each CAS is recorded in a {@link CasDoctorScanReport} with the checks
+ * which failed and the repairs which were applied.
+ * <p>
+ * The CASes are processed in parallel by a fixed number of workers. Each worker borrows the CAS
+ * from the storage without running the configured checks and repairs, runs the checks of the
+ * scan and returns the CAS afterwards.
+ */
+public class CasDoctorScan
+    implements DisposableBean
+{
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    @Resource(name = "projectService")
+    private ProjectService projectService;
+
+    @Resource(name = "documentService")
+    private DocumentService documentService;
+
+    @Resource(name = "casStorageService")
+    private CasStorageService casStorageService;
+
+    @Resource(name = "casDoctor")
+    private CasDoctor casDoctor;
+
+    private final Map<Long, CasDoctorScanReport> reports = new ConcurrentHashMap<>();
+    private final Set<Thread> backgroundScans = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Scan the CASes selected by the given options and wait until the scan is complete.
+     */
+    public CasDoctorScanReport scan(CasDoctorScanOptions aOptions)
+        throws IOException, InterruptedException
+    {
+        CasDoctorScanReport report = new CasDoctorScanReport();
+        run(prepare(aOptions, report), report);
+        return report;
+    }
+
+    /**
+     * Scan the given project in the background. If a scan of the project is already running, no
+     * new scan is started.
+     *
+     * @return the report of the running scan.
+     */
+    public synchronized CasDoctorScanReport startScan(Project aProject,
+            CasDoctorScanOptions aOptions)
+        throws IOException
+    {
+        CasDoctorScanReport running = reports.get(aProject.getId());
+        if (running != null && !running.isFinished()) {
+            return running;
+        }
+
+        CasDoctorScanOptions options = new CasDoctorScanOptions();
+        options.getProjects().add(aProject.getId());
+        options.getChecks().addAll(aOptions.getChecks());
+        options.getRepairs().addAll(aOptions.getRepairs());
+        options.setThreads(aOptions.getThreads());
+
+        // The CASes are listed by the calling thread because the services may require the
+        // permissions of the calling user
+        CasDoctorScanReport report = new CasDoctorScanReport();
+        Scan scan = prepare(options, report);
+        reports.put(aProject.getId(), report);
+
+        Thread thread = new Thread(() -> {
+            try {
+                run(scan, report);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                report.finish();
+            }
+            catch (Exception e) {
+                log.error("Unable to scan project [{}]({})", aProject.getName(),
+                        aProject.getId(), e);
+                report.finish();
+            }
+            finally {
+                backgroundScans.remove(Thread.currentThread());
+            }
+        }, "cas-doctor-scan-" + aProject.getId());
+        thread.setDaemon(true);
+        backgroundScans.add(thread);
+        thread.start();
+
+        return report;
+    }
+
+    /**
+     * @return the report of the last scan of the given project started using
+     *         {@link #startScan(Project, CasDoctorScanOptions)} or {@code null} if there is none.
+     */
+    public CasDoctorScanReport getReport(Project aProject)
+    {
+        return reports.get(aProject.getId());
+    }
+
+    @Override
+    public void destroy()
+    {
+        backgroundScans.forEach(Thread::interrupt);
+    }
+
+    private Scan prepare(CasDoctorScanOptions aOptions, CasDoctorScanReport aReport)
+        throws IOException
+    {
+        Scan scan = new Scan();
+        scan.threads = aOptions.getThreads();
+        scan.checks = select(CasDoctor.getAvailableChecks(), aOptions.getChecks(), true);
+        scan.repairs = select(CasDoctor.getAvailableRepairs(), aOptions.getRepairs(), false);
+        scan.items = listItems(aOptions);
+        aReport.setTotal(scan.items.size());
+        return scan;
+    }
+
+    private void run(Scan aScan, CasDoctorScanReport aReport)
+        throws InterruptedException
+    {
+        List<Class<? extends Check>> checks = aScan.checks;
+        List<Class<? extends Repair>> repairs = aScan.repairs;
+        log.info("Scanning {} CASes using {} threads with checks {} and repairs {}",
+                aScan.items.size(), aScan.threads, names(checks), names(repairs));
+
+        // The queue is bounded - if the workers cannot keep up, the scanning thread helps out
+        AtomicInteger counter = new AtomicInteger();
+        ThreadPoolExecutor workers = new ThreadPoolExecutor(aScan.threads, aScan.threads, 0,
+                TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(aScan.threads * 4), r -> {
+                    Thread t = new Thread(r, "cas-doctor-scan-worker-"
+                            + counter.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }, new ThreadPoolExecutor.CallerRunsPolicy());
+        try {
+            for (Item item : aScan.items) {
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new InterruptedException();
+                }
+                workers.execute(() -> aReport.add(scan(item, checks, repairs)));
+            }
+            workers.shutdown();
+            while (!workers.awaitTermination(1, TimeUnit.MINUTES)) {
+                log.info("Progress: {}", aReport.getProgress());
+            }
+        }
+        finally {
+            workers.shutdownNow();
+            aReport.finish();
+        }
+
+        log.info("Finished: {}", aReport.getProgress());
+    }
+
+    private Result scan(Item aItem, List<Class<? extends Check>> aChecks,
+            List<Class<? extends Repair>> aRepairs)
+    {
+        SourceDocument document = aItem.document;
+        Project project = document.getProject();
+        long start = System.currentTimeMillis();
+
+        Status status;
+        Set<String> failedChecks = new LinkedHashSet<>();
+        Set<String> appliedRepairs = new LinkedHashSet<>();
+        List<LogMessage> messages = new ArrayList<>();
+        JCas jcas = null;
+        try {
+            jcas = casStorageService.borrowCas(document, aItem.username, false);
+
+            boolean ok = casDoctor.analyze(project, jcas.getCas(), messages, false, aChecks);
+            messages.stream().filter(m -> m.level == LogLevel.ERROR && m.source != null)
+                    .forEach(m -> failedChecks.add(m.source.getSimpleName()));
+
+            if (ok) {
+                status = Status.OK;
+            }
+            else if (aRepairs.isEmpty()) {
+                status = Status.FAILED;
+            }
+            else {
+                List<LogMessage> repairMessages = new ArrayList<>();
+                casDoctor.repair(project, jcas.getCas(), repairMessages, aRepairs);
+                repairMessages.stream().filter(m -> m.source != null)
+                        .forEach(m -> appliedRepairs.add(m.source.getSimpleName()));
+                messages.addAll(repairMessages);
+
+                // Only save the CAS if the repairs actually fixed it - and only if nobody has
+                // changed the CAS while it was being repaired, otherwise the repaired copy would
+                // overwrite these changes
+                List<LogMessage> recheckMessages = new ArrayList<>();
+                if (!appliedRepairs.isEmpty() && casDoctor.analyze(project, jcas.getCas(),
+                        recheckMessages, false, aChecks)) {
+                    if (casStorageService.writeCasIfUnchanged(document, jcas, aItem.username)) {
+                        status = Status.REPAIRED;
+                    }
+                    else {
+                        messages.add(new LogMessage(this, LogLevel.INFO,
+                                "CAS has been changed during the scan - repairs not saved"));
+                        status = Status.SKIPPED;
+                    }
+                }
+                else {
+                    messages.addAll(recheckMessages);
+                    status = Status.FAILED;
+                }
+            }
+        }
+        catch (Exception e) {
+            log.error("Unable to scan CAS of user [{}] for document [{}]({}) in project [{}]({})",
+                    aItem.username, document.getName(), document.getId(), project.getName(),
+                    project.getId(), e);
+            messages.add(new LogMessage(this, LogLevel.ERROR, "%s",
+                    ExceptionUtils.getRootCauseMessage(e)));
+            status = Status.ERROR;
+        }
+        finally {
+            casStorageService.returnCas(jcas);
+        }
+
+        return new Result(project.getId(), project.getName(), document.getId(),
+                document.getName(), aItem.username, status, new ArrayList<>(failedChecks),
+                new ArrayList<>(appliedRepairs),
+                messages.stream().map(LogMessage::toString).collect(Collectors.toList()),
+                System.currentTimeMillis() - start);
+    }
+
+    private List<Item> listItems(CasDoctorScanOptions aOptions)
+        throws IOException
+    {
+        List<Item> items = new ArrayList<>();
+        for (Project project : projectService.listProjects()) {
+            if (!aOptions.getProjects().isEmpty()
+                    && !aOptions.getProjects().contains(project.getId())) {
+                continue;
+            }
+
+            for (SourceDocument document : documentService.listSourceDocuments(project)) {
+                for (String user : documentService.listCasUsers(document)) {
+                    items.add(new Item(document, user));
+                }
+            }
+        }
+        return items;
+    }
+
+    /**
+     * Select the checks or repairs with the given names, keeping the order of the names.
+     *
+     * @param aAllIfEmpty
+     *            whether to select all available ones if no names are given.
+     */
+    private static <T> List<Class<? extends T>> select(List<Class<? extends T>> aAvailable,
+            List<String> aNames, boolean aAllIfEmpty)
+    {
+        if (aNames.isEmpty()) {
+            return aAllIfEmpty ? aAvailable : new ArrayList<>();
+        }
+
+        List<Class<? extends T>> selected = new ArrayList<>();
+        for (String name : aNames) {
+            Class<? extends T> clazz = aAvailable.stream()
+                    .filter(c -> c.getSimpleName().equals(name.trim())).findFirst()
+                    .orElseThrow(() -> new IllegalArgumentException("Unknown check or repair ["
+                            + name + "]"));
+            selected.add(clazz);
+        }
+        return selected;
+    }
+
+    private static String names(List<? extends Class<?>> aClasses)
+    {
+        return aClasses.stream().map(Class::getSimpleName).collect(Collectors.joining(", ",
+                "[", "]"));
+    }
+
+    private static final class Scan
+    {
+        private int threads;
+        private List<Class<? extends Check>> checks;
+        private List<Class<? extends Repair>> repairs;
+        private List<Item> items;
+    }
+
+    private static final class Item
+    {
+        private final SourceDocument document;
+        private final String username;
+
+        public Item(SourceDocument aDocument, String aUsername)
+        {
+            document = aDocument;
+            username = aUsername;
+        }
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2017
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.diag;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Options of a {@link CasDoctorScan}.
+ */
+public class CasDoctorScanOptions
+    implements Serializable
+{
+    private static final long serialVersionUID = 7411283349061498532L;
+
+    private final Set<Long> projects = new HashSet<>();
+    private final List<String> checks = new ArrayList<>();
+    private final List<String> repairs = new ArrayList<>();
+    private int threads = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * @return the IDs of the projects to scan or an empty set to scan all projects.
+     */
+    public Set<Long> getProjects()
+    {
+        return projects;
+    }
+
+    /**
+     * @return the names of the checks to run or an empty list to run all available checks.
+     */
+    public List<String> getChecks()
+    {
+        return checks;
+    }
+
+    /**
+     * @return the names of the repairs to apply to CASes which fail a check, in the order in which
+     *         they are applied. Repaired CASes are saved. If empty, the scan does not modify any
+     *         CAS.
+     */
+    public List<String> getRepairs()
+    {
+        return repairs;
+    }
+
+    public int getThreads()
+    {
+        return threads;
+    }
+
+    public void setThreads(int aThreads)
+    {
+        threads = aThreads;
+    }
+}
@@ -0,0 +1,252 @@
+/*
+ * Copyright 2017
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.diag;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang3.time.DurationFormatUtils;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Collects the results of a {@link CasDoctorScan}. Results may be added concurrently by the
+ * workers while the report is being inspected, e.g. to show the progress.
+ */
+public class CasDoctorScanReport
+{
+    public enum Status
+    {
+        /**
+         * All checks passed.
+         */
+        OK,
+
+        /**
+         * At least one check failed. If repairs were applied, they did not fix the CAS.
+         */
+        FAILED,
+
+        /**
+         * At least one check failed, but the repairs fixed the CAS and it has been saved.
+         */
+        REPAIRED,
+
+        /**
+         * At least one check failed and the repairs fixed the CAS, but it has not been saved
+         * because it was changed by someone else during the scan.
+         */
+        SKIPPED,
+
+        /**
+         * The CAS could not be processed, e.g. because it could not be read.
+         */
+        ERROR
+    }
+
+    private final long startTime = System.currentTimeMillis();
+    private volatile long endTime;
+    private volatile long total;
+    private final Queue<Result> results = new ConcurrentLinkedQueue<>();
+
+    public void setTotal(long aTotal)
+    {
+        total = aTotal;
+    }
+
+    /**
+     * @return the number of CASes to scan.
+     */
+    public long getTotal()
+    {
+        return total;
+    }
+
+    public void add(Result aResult)
+    {
+        results.add(aResult);
+    }
+
+    /**
+     * @return the results in the order in which the CASes have been scanned.
+     */
+    public List<Result> getResults()
+    {
+        return new ArrayList<>(results);
+    }
+
+    public long getDone()
+    {
+        return results.size();
+    }
+
+    public long count(Status aStatus)
+    {
+        return results.stream().filter(r -> r.getStatus() == aStatus).count();
+    }
+
+    public void finish()
+    {
+        endTime = System.currentTimeMillis();
+    }
+
+    public boolean isFinished()
+    {
+        return endTime > 0;
+    }
+
+    public long getDuration()
+    {
+        return (endTime > 0 ? endTime : System.currentTimeMillis()) - startTime;
+    }
+
+    /**
+     * @return a one-line progress message.
+     */
+    public String getProgress()
+    {
+        long done = getDone();
+        long duration = getDuration();
+        double rate = duration > 0 ? done * 1000.0 / duration : 0;
+        String eta = rate > 0 && done < total
+                ? DurationFormatUtils.formatDuration(
+                        TimeUnit.SECONDS.toMillis((long) ((total - done) / rate)), "HH:mm:ss")
+                : "-";
+        return String.format("%d/%d CASes (%.1f%%), %d failed, %d repaired, %d skipped, "
+                + "%d errors, %.1f CASes/s, remaining %s", done, total,
+                total > 0 ? done * 100.0 / total : 100.0, count(Status.FAILED),
+                count(Status.REPAIRED), count(Status.SKIPPED), count(Status.ERROR), rate, eta);
+    }
+
+    /**
+     * Write the report as JSON. The stream is not closed.
+     */
+    public void write(OutputStream aOut)
+        throws IOException
+    {
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("startTime", startTime);
+        summary.put("duration", getDuration());
+        summary.put("total", total);
+        for (Status status : Status.values()) {
+            summary.put(status.name().toLowerCase(), count(status));
+        }
+
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("summary", summary);
+        report.put("results", getResults());
+
+        ObjectMapper mapper = new ObjectMapper();
+        mapper.configure(JsonGenerator.Feature.AUTO_CLOSE_TARGET, false);
+        mapper.writerWithDefaultPrettyPrinter().writeValue(aOut, report);
+    }
+
+    /**
+     * The result of scanning the CAS of one user for one document.
+     */
+    public static final class Result
+    {
+        private final long projectId;
+        private final String projectName;
+        private final long documentId;
+        private final String documentName;
+        private final String user;
+        private final Status status;
+        private final List<String> failedChecks;
+        private final List<String> appliedRepairs;
+        private final List<String> messages;
+        private final long time;
+
+        public Result(long aProjectId, String aProjectName, long aDocumentId,
+                String aDocumentName, String aUser, Status aStatus, List<String> aFailedChecks,
+                List<String> aAppliedRepairs, List<String> aMessages, long aTime)
+        {
+            projectId = aProjectId;
+            projectName = aProjectName;
+            documentId = aDocumentId;
+            documentName = aDocumentName;
+            user = aUser;
+            status = aStatus;
+            failedChecks = aFailedChecks;
+            appliedRepairs = aAppliedRepairs;
+            messages = aMessages;
+            time = aTime;
+        }
+
+        public long getProjectId()
+        {
+            return projectId;
+        }
+
+        public String getProjectName()
+        {
+            return projectName;
+        }
+
+        public long getDocumentId()
+        {
+            return documentId;
+        }
+
+        public String getDocumentName()
+        {
+            return documentName;
+        }
+
+        public String getUser()
+        {
+            return user;
+        }
+
+        public Status getStatus()
+        {
+            return status;
+        }
+
+        public List<String> getFailedChecks()
+        {
+            return failedChecks;
+        }
+
+        public List<String> getAppliedRepairs()
+        {
+            return appliedRepairs;
+        }
+
+        public List<String> getMessages()
+        {
+            return messages;
+        }
+
+        /**
+         * @return the time taken to scan (and possibly repair) the CAS in milliseconds.
+         */
+        public long getTime()
+        {
+            return time;
+        }
+    }
+}
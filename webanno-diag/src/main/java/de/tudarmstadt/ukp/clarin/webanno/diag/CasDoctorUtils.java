@@ -17,127 +17,287 @@
  */
 package de.tudarmstadt.ukp.clarin.webanno.diag;
 
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.Set;
-import java.util.TreeMap;
-import java.util.TreeSet;
 
 import org.apache.uima.cas.CAS;
 import org.apache.uima.cas.FSIterator;
 import org.apache.uima.cas.Feature;
 import org.apache.uima.cas.FeatureStructure;
+import org.apache.uima.cas.Type;
 import org.apache.uima.cas.TypeSystem;
 import org.apache.uima.cas.impl.LowLevelCAS;
+import org.apache.uima.cas.impl.LowLevelTypeSystem;
 
+/**
+ * Helpers to find feature structures which are reachable from the index but not indexed
+ * themselves.
+ * <p>
+ * Feature structures are tracked by their address in the CAS heap, so sets of feature structures
+ * are plain bit sets and no wrapper objects are created while walking the CAS. References are
+ * followed using an explicit work list instead of recursion, so long chains (e.g. coreference
+ * chains) cannot overflow the stack.
+ */
 public class CasDoctorUtils
 {
-    public static Set<FeatureStructure> collectIndexed(CAS aCas)
+    /**
+     * @return the addresses of all feature structures in the indexes of the given view.
+     */
+    public static BitSet collectIndexedAddresses(CAS aCas)
     {
         LowLevelCAS llcas = aCas.getLowLevelCAS();
-        Set<FeatureStructure> fses = new TreeSet<>((fs1, fs2) -> llcas.ll_getFSRef(fs1)
-                - llcas.ll_getFSRef(fs2));
+        BitSet indexed = new BitSet();
 
         FSIterator<FeatureStructure> i = aCas.getIndexRepository().getAllIndexedFS(
                 aCas.getTypeSystem().getTopType());
 
-        i.forEachRemaining(fs -> fses.add(fs));
+        i.forEachRemaining(fs -> indexed.set(llcas.ll_getFSRef(fs)));
 
-        return fses;
+        return indexed;
     }
 
-    public static Set<FeatureStructure> collectReachable(CAS aCas)
+    /**
+     * @return the addresses of all feature structures which are indexed or reachable from an
+     *         indexed feature structure through non-primitive features.
+     */
+    public static BitSet collectReachableAddresses(CAS aCas)
     {
-        LowLevelCAS llcas = aCas.getLowLevelCAS();
-        Set<FeatureStructure> fses = new TreeSet<>((fs1, fs2) -> llcas.ll_getFSRef(fs1)
-                - llcas.ll_getFSRef(fs2));
-
-        FSIterator<FeatureStructure> i = aCas.getIndexRepository().getAllIndexedFS(
-                aCas.getTypeSystem().getTopType());
-
-        i.forEachRemaining(fs -> collect(fses, fs));
-
-        return fses;
+        return collectReachable(aCas, new TypeTable(aCas), collectIndexedAddresses(aCas), null);
     }
 
-    public static void collect(Set<FeatureStructure> aFSes, FeatureStructure aFS)
+    public static Set<FeatureStructure> collectIndexed(CAS aCas)
     {
-        if (aFS != null && !aFSes.contains(aFS)) {
-            aFSes.add(aFS);
+        return toFSes(aCas, collectIndexedAddresses(aCas));
+    }
 
-            for (Feature f : aFS.getType().getFeatures()) {
-                if (!f.getRange().isPrimitive() && !CAS.FEATURE_BASE_NAME_SOFA.equals(f.getShortName())) {
-                    collect(aFSes, aFS.getFeatureValue(f));
-                }
-            }
-        }
+    public static Set<FeatureStructure> collectReachable(CAS aCas)
+    {
+        return toFSes(aCas, collectReachableAddresses(aCas));
     }
 
     /**
-     * Recursively collect referenced FSes and also record for each the last indexed FS that refers
-     * the them.
+     * Walk all feature structures reachable from the given indexed feature structures.
+     * 
+     * @param aCas
+     *            the CAS.
+     * @param aTypes
+     *            the type table of the CAS.
+     * @param aIndexed
+     *            the addresses of the indexed feature structures.
+     * @param aOwners
+     *            if not {@code null}, receives for each reachable feature structure which is not
+     *            indexed the last indexed feature structure on the path through which it was
+     *            found.
+     * @return the addresses of all reachable feature structures, including the indexed ones.
      */
-    public static void collect(Map<FeatureStructure, FeatureStructure> aFSes,
-            Set<FeatureStructure> aIndexed, FeatureStructure aFS, FeatureStructure aLastIndexed)
+    private static BitSet collectReachable(CAS aCas, TypeTable aTypes, BitSet aIndexed,
+            Map<Integer, Integer> aOwners)
     {
-        if (aFS != null && !aFSes.containsKey(aFS)) {
-            // We might find an annotation indirectly. In that case make sure we consider it as 
-            // an indexed annotation instead of wrongly recording it as non-indexed
-            if (aIndexed.contains(aFS)) {
-                aFSes.put(aFS, aFS);
-            }
-            else {
-                aFSes.put(aFS, aLastIndexed);
+        LowLevelCAS llcas = aCas.getLowLevelCAS();
+        BitSet reachable = new BitSet();
+        AddressStack worklist = new AddressStack();
+
+        for (int root = aIndexed.nextSetBit(0); root >= 0; root = aIndexed.nextSetBit(root + 1)) {
+            if (reachable.get(root)) {
+                continue;
             }
 
-            for (Feature f : aFS.getType().getFeatures()) {
-                if (!f.getRange().isPrimitive() && !CAS.FEATURE_BASE_NAME_SOFA.equals(f.getShortName())) {
-                    collect(aFSes, aIndexed, aFS.getFeatureValue(f), aIndexed.contains(aFS) ? aFS
-                            : aLastIndexed);
+            reachable.set(root);
+            worklist.push(root, root);
+
+            while (!worklist.isEmpty()) {
+                int owner = worklist.peekOwner();
+                int addr = worklist.pop();
+
+                for (int feature : aTypes.getReferenceFeatures(llcas.ll_getFSRefType(addr))) {
+                    int ref = llcas.ll_getRefValue(addr, feature);
+                    if (ref == LowLevelCAS.NULL_FS_REF || reachable.get(ref)) {
+                        continue;
+                    }
+
+                    reachable.set(ref);
+
+                    // We might find an annotation indirectly. In that case make sure we consider
+                    // it as an indexed annotation instead of wrongly recording it as non-indexed
+                    if (aIndexed.get(ref)) {
+                        worklist.push(ref, ref);
+                    }
+                    else {
+                        if (aOwners != null) {
+                            aOwners.put(ref, owner);
+                        }
+                        worklist.push(ref, owner);
+                    }
                 }
             }
         }
+
+        return reachable;
     }
 
     public static Set<FeatureStructure> getNonIndexedFSes(CAS aCas)
     {
-        TypeSystem ts = aCas.getTypeSystem();
-
-        Set<FeatureStructure> allIndexedFS = collectIndexed(aCas);
-        Set<FeatureStructure> allReachableFS = collectReachable(aCas);
+        TypeTable types = new TypeTable(aCas);
+        BitSet indexed = collectIndexedAddresses(aCas);
+        BitSet nonIndexed = collectReachable(aCas, types, indexed, null);
 
         // Remove all that are indexed
-        allReachableFS.removeAll(allIndexedFS);
+        nonIndexed.andNot(indexed);
 
         // Remove all that are not annotations
-        allReachableFS.removeIf(fs -> !ts.subsumes(aCas.getAnnotationType(), fs.getType()));
+        removeNonAnnotations(aCas, types, nonIndexed);
 
         // All that is left are non-index annotations
-        return allReachableFS;
+        return toFSes(aCas, nonIndexed);
     }
 
+    /**
+     * @return the non-indexed annotations which are reachable from an indexed feature structure,
+     *         each mapped to the last indexed feature structure on the path through which it is
+     *         reachable.
+     */
     public static Map<FeatureStructure, FeatureStructure> getNonIndexedFSesWithOwner(CAS aCas)
     {
-        TypeSystem ts = aCas.getTypeSystem();
-        
         LowLevelCAS llcas = aCas.getLowLevelCAS();
 
-        Set<FeatureStructure> allIndexedFS = collectIndexed(aCas);
-        Map<FeatureStructure, FeatureStructure> allReachableFS = new TreeMap<>(
-                (fs1, fs2) -> llcas.ll_getFSRef(fs1) - llcas.ll_getFSRef(fs2));
-        
-        FSIterator<FeatureStructure> i = aCas.getIndexRepository().getAllIndexedFS(
-                aCas.getTypeSystem().getTopType());
+        TypeTable types = new TypeTable(aCas);
+        BitSet indexed = collectIndexedAddresses(aCas);
+        Map<Integer, Integer> owners = new HashMap<>();
+        BitSet nonIndexed = collectReachable(aCas, types, indexed, owners);
 
-        i.forEachRemaining(fs -> collect(allReachableFS, allIndexedFS, fs, fs));
+        // Remove all that are indexed
+        nonIndexed.andNot(indexed);
 
         // Remove all that are not annotations
-        allReachableFS.entrySet().removeIf(
-                e -> !ts.subsumes(aCas.getAnnotationType(), e.getKey().getType()));
-        
-        // Remove all that are indexed
-        allReachableFS.entrySet().removeIf(e -> e.getKey() == e.getValue());
+        removeNonAnnotations(aCas, types, nonIndexed);
 
         // All that is left are non-index annotations
-        return allReachableFS;
+        Map<FeatureStructure, FeatureStructure> result = new LinkedHashMap<>();
+        for (int addr = nonIndexed.nextSetBit(0); addr >= 0; addr = nonIndexed
+                .nextSetBit(addr + 1)) {
+            result.put(llcas.ll_getFSForRef(addr), llcas.ll_getFSForRef(owners.get(addr)));
+        }
+        return result;
+    }
+
+    private static void removeNonAnnotations(CAS aCas, TypeTable aTypes, BitSet aAddresses)
+    {
+        LowLevelCAS llcas = aCas.getLowLevelCAS();
+        for (int addr = aAddresses.nextSetBit(0); addr >= 0; addr = aAddresses
+                .nextSetBit(addr + 1)) {
+            if (!aTypes.isAnnotation(llcas.ll_getFSRefType(addr))) {
+                aAddresses.clear(addr);
+            }
+        }
+    }
+
+    private static Set<FeatureStructure> toFSes(CAS aCas, BitSet aAddresses)
+    {
+        LowLevelCAS llcas = aCas.getLowLevelCAS();
+        Set<FeatureStructure> fses = new LinkedHashSet<>();
+        for (int addr = aAddresses.nextSetBit(0); addr >= 0; addr = aAddresses
+                .nextSetBit(addr + 1)) {
+            fses.add(llcas.ll_getFSForRef(addr));
+        }
+        return fses;
+    }
+
+    /**
+     * Per type code, the features through which other feature structures can be reached and
+     * whether the type is an annotation type. Looking these up once per type avoids going through
+     * the high-level type system API for every feature structure.
+     */
+    private static final class TypeTable
+    {
+        private static final int[] NO_FEATURES = new int[0];
+
+        private final int[][] referenceFeatures;
+        private final BitSet annotationTypes = new BitSet();
+
+        public TypeTable(CAS aCas)
+        {
+            TypeSystem ts = aCas.getTypeSystem();
+            LowLevelTypeSystem lts = aCas.getLowLevelCAS().ll_getTypeSystem();
+            Type annotationType = aCas.getAnnotationType();
+
+            int maxTypeCode = 0;
+            for (Iterator<Type> i = ts.getTypeIterator(); i.hasNext();) {
+                maxTypeCode = Math.max(maxTypeCode, lts.ll_getCodeForType(i.next()));
+            }
+
+            referenceFeatures = new int[maxTypeCode + 1][];
+            for (Iterator<Type> i = ts.getTypeIterator(); i.hasNext();) {
+                Type type = i.next();
+                int typeCode = lts.ll_getCodeForType(type);
+
+                int[] features = new int[type.getNumberOfFeatures()];
+                int n = 0;
+                for (Feature f : type.getFeatures()) {
+                    if (!f.getRange().isPrimitive()
+                            && !CAS.FEATURE_BASE_NAME_SOFA.equals(f.getShortName())) {
+                        features[n++] = lts.ll_getCodeForFeature(f);
+                    }
+                }
+                referenceFeatures[typeCode] = n > 0 ? Arrays.copyOf(features, n) : NO_FEATURES;
+
+                if (ts.subsumes(annotationType, type)) {
+                    annotationTypes.set(typeCode);
+                }
+            }
+        }
+
+        public int[] getReferenceFeatures(int aTypeCode)
+        {
+            return referenceFeatures[aTypeCode];
+        }
+
+        public boolean isAnnotation(int aTypeCode)
+        {
+            return annotationTypes.get(aTypeCode);
+        }
+    }
+
+    /**
+     * Work list of feature structure addresses, each paired with the last indexed feature
+     * structure on the path through which it was found.
+     */
+    private static final class AddressStack
+    {
+        private int[] addresses = new int[64];
+        private int[] owners = new int[64];
+        private int size;
+
+        public void push(int aAddress, int aOwner)
+        {
+            if (size == addresses.length) {
+                addresses = Arrays.copyOf(addresses, size * 2);
+                owners = Arrays.copyOf(owners, size * 2);
+            }
+            addresses[size] = aAddress;
+            owners[size] = aOwner;
+            size++;
+        }
+
+        public int peekOwner()
+        {
+            return owners[size - 1];
+        }
+
+        public int pop()
+        {
+            size--;
+            return addresses[size];
+        }
+
+        public boolean isEmpty()
+        {
+            return size == 0;
+        }
     }
 }
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2017
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.diag;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import de.tudarmstadt.ukp.clarin.webanno.diag.CasDoctorScanReport.Result;
+import de.tudarmstadt.ukp.clarin.webanno.diag.CasDoctorScanReport.Status;
+
+public class CasDoctorScanReportTest
+{
+    @Test
+    public void testWrite()
+        throws Exception
+    {
+        CasDoctorScanReport report = new CasDoctorScanReport();
+        report.setTotal(3);
+        report.add(new Result(1, "project", 2, "doc1", "user1", Status.OK, emptyList(),
+                emptyList(), emptyList(), 5));
+        report.add(new Result(1, "project", 3, "doc2", "user1", Status.REPAIRED,
+                asList("AllFeatureStructuresIndexedCheck"),
+                asList("ReindexFeatureAttachedSpanAnnotationsRepair"),
+                asList("Unindexed feature structure"), 7));
+        report.add(new Result(1, "project", 4, "doc3", "user2", Status.ERROR, emptyList(),
+                emptyList(), asList("Unable to read CAS"), 1));
+        report.finish();
+
+        assertTrue(report.isFinished());
+        assertEquals(3, report.getDone());
+        assertEquals(1, report.count(Status.REPAIRED));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        report.write(out);
+
+        JsonNode json = new ObjectMapper().readTree(out.toByteArray());
+        assertEquals(3, json.get("summary").get("total").asLong());
+        assertEquals(1, json.get("summary").get("ok").asLong());
+        assertEquals(0, json.get("summary").get("failed").asLong());
+        assertEquals(1, json.get("summary").get("repaired").asLong());
+        assertEquals(1, json.get("summary").get("error").asLong());
+
+        JsonNode results = json.get("results");
+        assertEquals(3, results.size());
+        assertEquals("doc2", results.get(1).get("documentName").asText());
+        assertEquals("REPAIRED", results.get(1).get("status").asText());
+        assertEquals("AllFeatureStructuresIndexedCheck",
+                results.get(1).get("failedChecks").get(0).asText());
+        assertEquals("ReindexFeatureAttachedSpanAnnotationsRepair",
+                results.get(1).get("appliedRepairs").get(0).asText());
+        assertEquals(7, results.get(1).get("time").asLong());
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright 2017
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.diag;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import org.apache.uima.fit.factory.JCasFactory;
+import org.apache.uima.jcas.JCas;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.tudarmstadt.ukp.clarin.webanno.diag.CasDoctor.LogMessage;
+import de.tudarmstadt.ukp.clarin.webanno.diag.CasDoctorMetrics.Statistics;
+import de.tudarmstadt.ukp.clarin.webanno.diag.checks.AllFeatureStructuresIndexedCheck;
+import de.tudarmstadt.ukp.clarin.webanno.diag.checks.InstanceCountingCheck;
+import de.tudarmstadt.ukp.clarin.webanno.diag.checks.NoZeroSizeTokensAndSentencesCheck;
+import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Token;
+
+public class CasDoctorTest
+{
+    private CasDoctor sut;
+    private JCas jcas;
+
+    @Before
+    public void setup()
+        throws Exception
+    {
+        sut = new CasDoctor(NoZeroSizeTokensAndSentencesCheck.class,
+                AllFeatureStructuresIndexedCheck.class, InstanceCountingCheck.class);
+
+        jcas = JCasFactory.createJCas();
+        jcas.setDocumentText("This is a test.");
+        new Token(jcas, 0, 4).addToIndexes();
+        new Token(jcas, 5, 5).addToIndexes();
+    }
+
+    @After
+    public void tearDown()
+    {
+        sut.destroy();
+    }
+
+    @Test
+    public void testSequential()
+    {
+        assertChecks();
+    }
+
+    @Test
+    public void testConcurrent()
+    {
+        sut.setThreads(3);
+        assertChecks();
+    }
+
+    private void assertChecks()
+    {
+        int instances = InstanceCountingCheck.INSTANCES.get();
+
+        for (int i = 1; i <= 3; i++) {
+            List<LogMessage> messages = new ArrayList<>();
+            assertFalse(sut.analyze(null, jcas.getCas(), messages));
+
+            // Only the zero-size token is reported
+            assertEquals(1, messages.size());
+            assertEquals(NoZeroSizeTokensAndSentencesCheck.class, messages.get(0).source);
+
+            Map<String, Statistics> stats = sut.getMetrics().getStatistics().stream()
+                    .collect(Collectors.toMap(Statistics::getName, Function.identity()));
+            assertEquals(3, stats.size());
+            assertEquals(i, stats.get("NoZeroSizeTokensAndSentencesCheck").getCount());
+            assertEquals(i, stats.get("NoZeroSizeTokensAndSentencesCheck").getFailures());
+            assertEquals(i, stats.get("AllFeatureStructuresIndexedCheck").getCount());
+            assertEquals(0, stats.get("AllFeatureStructuresIndexedCheck").getFailures());
+        }
+
+        // Checks are instantiated once and then reused
+        assertEquals(instances + 1, InstanceCountingCheck.INSTANCES.get());
+        assertTrue(sut.getMetrics().getStatistics().stream()
+                .allMatch(s -> s.getMaxTime() >= s.getMeanTime()));
+    }
+}
@@ -0,0 +1,223 @@
+/*
+ * Copyright 2017
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.diag;
+
+import static de.tudarmstadt.ukp.clarin.webanno.support.test.BenchmarkUtil.assumeBenchmark;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.apache.uima.UIMAFramework;
+import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.Feature;
+import org.apache.uima.cas.FeatureStructure;
+import org.apache.uima.cas.Type;
+import org.apache.uima.cas.impl.LowLevelCAS;
+import org.apache.uima.cas.text.AnnotationFS;
+import org.apache.uima.resource.metadata.TypeDescription;
+import org.apache.uima.resource.metadata.TypeSystemDescription;
+import org.apache.uima.util.CasCreationUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CasDoctorUtilsTest
+{
+    private static final String REF_TYPE = "RefType";
+
+    private CAS cas;
+    private Type refType;
+    private Feature refFeature;
+
+    @Before
+    public void setup()
+        throws Exception
+    {
+        TypeSystemDescription tsd = UIMAFramework.getResourceSpecifierFactory()
+                .createTypeSystemDescription();
+        TypeDescription refTypeDesc = tsd.addType(REF_TYPE, null, CAS.TYPE_NAME_ANNOTATION);
+        refTypeDesc.addFeature("ref", null, CAS.TYPE_NAME_ANNOTATION);
+
+        cas = CasCreationUtils.createCas(tsd, null, null);
+        refType = cas.getTypeSystem().getType(REF_TYPE);
+        refFeature = refType.getFeatureByBaseName("ref");
+    }
+
+    @Test
+    public void testNonIndexedWithOwner()
+    {
+        // A non-indexed annotation reachable through another non-indexed one
+        AnnotationFS hidden2 = cas.createAnnotation(cas.getAnnotationType(), 0, 1);
+        AnnotationFS hidden1 = cas.createAnnotation(refType, 0, 1);
+        hidden1.setFeatureValue(refFeature, hidden2);
+
+        // An indexed annotation reachable through a non-indexed one
+        AnnotationFS indexed2 = cas.createAnnotation(refType, 0, 1);
+        indexed2.setFeatureValue(refFeature, hidden1);
+        cas.addFsToIndexes(indexed2);
+        AnnotationFS hidden0 = cas.createAnnotation(refType, 0, 1);
+        hidden0.setFeatureValue(refFeature, indexed2);
+
+        AnnotationFS indexed1 = cas.createAnnotation(refType, 0, 1);
+        indexed1.setFeatureValue(refFeature, hidden0);
+        cas.addFsToIndexes(indexed1);
+
+        Map<FeatureStructure, FeatureStructure> nonIndexed = CasDoctorUtils
+                .getNonIndexedFSesWithOwner(cas);
+
+        assertEquals(3, nonIndexed.size());
+        assertEquals(indexed1, nonIndexed.get(hidden0));
+        assertEquals(indexed2, nonIndexed.get(hidden1));
+        assertEquals(indexed2, nonIndexed.get(hidden2));
+
+        Set<FeatureStructure> nonIndexedFSes = CasDoctorUtils.getNonIndexedFSes(cas);
+        assertEquals(nonIndexed.keySet(), nonIndexedFSes);
+
+        Set<FeatureStructure> indexed = CasDoctorUtils.collectIndexed(cas);
+        assertTrue(indexed.contains(indexed1));
+        assertTrue(indexed.contains(indexed2));
+        assertFalse(indexed.contains(hidden0));
+
+        Set<FeatureStructure> reachable = CasDoctorUtils.collectReachable(cas);
+        assertTrue(reachable.containsAll(indexed));
+        assertTrue(reachable.containsAll(nonIndexedFSes));
+    }
+
+    @Test
+    public void testLongChain()
+    {
+        // Used to overflow the stack when references were followed recursively
+        int length = 200_000;
+        AnnotationFS head = makeChain(length);
+        cas.addFsToIndexes(head);
+
+        Map<FeatureStructure, FeatureStructure> nonIndexed = CasDoctorUtils
+                .getNonIndexedFSesWithOwner(cas);
+
+        assertEquals(length - 1, nonIndexed.size());
+        assertTrue(nonIndexed.values().stream().allMatch(owner -> owner.equals(head)));
+    }
+
+    @Test
+    public void testSameResultAsLegacy()
+    {
+        makeChains(500);
+
+        assertEquals(legacyGetNonIndexedFSesWithOwner(cas),
+                CasDoctorUtils.getNonIndexedFSesWithOwner(cas));
+    }
+
+    @Test
+    public void testPerformance()
+    {
+        assumeBenchmark();
+
+        // A large CAS with short reference chains which the legacy implementation can still walk
+        makeChains(50_000);
+
+        int rounds = 5;
+        long legacyTime = 0;
+        long time = 0;
+        for (int i = 0; i < rounds; i++) {
+            long tStart = System.nanoTime();
+            legacyGetNonIndexedFSesWithOwner(cas);
+            legacyTime += System.nanoTime() - tStart;
+
+            tStart = System.nanoTime();
+            CasDoctorUtils.getNonIndexedFSesWithOwner(cas);
+            time += System.nanoTime() - tStart;
+        }
+
+        System.out.printf("Legacy (object sets, recursive) : %dms%n",
+                legacyTime / rounds / 1_000_000);
+        System.out.printf("Address bit sets, work list     : %dms%n",
+                time / rounds / 1_000_000);
+    }
+
+    /**
+     * Create short chains of which most are indexed completely, so only a few annotations are
+     * not indexed.
+     */
+    private void makeChains(int aCount)
+    {
+        for (int i = 0; i < aCount; i++) {
+            AnnotationFS head = makeChain(4);
+            cas.addFsToIndexes(head);
+            if (i % 10 != 0) {
+                AnnotationFS next = (AnnotationFS) head.getFeatureValue(refFeature);
+                while (next != null) {
+                    cas.addFsToIndexes(next);
+                    next = (AnnotationFS) next.getFeatureValue(refFeature);
+                }
+            }
+        }
+    }
+
+    /**
+     * Create a chain of non-indexed annotations linked through the {@code ref} feature.
+     * 
+     * @return the head of the chain.
+     */
+    private AnnotationFS makeChain(int aLength)
+    {
+        AnnotationFS next = null;
+        for (int i = 0; i < aLength; i++) {
+            AnnotationFS fs = cas.createAnnotation(refType, 0, 1);
+            fs.setFeatureValue(refFeature, next);
+            next = fs;
+        }
+        return next;
+    }
+
+    /**
+     * The original implementation which collects wrapper objects into sorted maps and follows
+     * references recursively. Kept for comparison.
+     */
+    private static Map<FeatureStructure, FeatureStructure> legacyGetNonIndexedFSesWithOwner(
+            CAS aCas)
+    {
+        LowLevelCAS llcas = aCas.getLowLevelCAS();
+        Set<FeatureStructure> indexed = CasDoctorUtils.collectIndexed(aCas);
+        Map<FeatureStructure, FeatureStructure> reachable = new TreeMap<>(
+                (fs1, fs2) -> llcas.ll_getFSRef(fs1) - llcas.ll_getFSRef(fs2));
+        aCas.getIndexRepository().getAllIndexedFS(aCas.getTypeSystem().getTopType())
+                .forEachRemaining(fs -> legacyCollect(reachable, indexed, fs, fs));
+        reachable.entrySet().removeIf(e -> !aCas.getTypeSystem()
+                .subsumes(aCas.getAnnotationType(), e.getKey().getType()));
+        reachable.entrySet().removeIf(e -> e.getKey() == e.getValue());
+        return reachable;
+    }
+
+    private static void legacyCollect(Map<FeatureStructure, FeatureStructure> aFSes,
+            Set<FeatureStructure> aIndexed, FeatureStructure aFS, FeatureStructure aLastIndexed)
+    {
+        if (aFS != null && !aFSes.containsKey(aFS)) {
+            aFSes.put(aFS, aIndexed.contains(aFS) ? aFS : aLastIndexed);
+            for (Feature f : aFS.getType().getFeatures()) {
+                if (!f.getRange().isPrimitive()
+                        && !CAS.FEATURE_BASE_NAME_SOFA.equals(f.getShortName())) {
+                    legacyCollect(aFSes, aIndexed, aFS.getFeatureValue(f),
+                            aIndexed.contains(aFS) ? aFS : aLastIndexed);
+                }
+            }
+        }
+    }
+}
@@ -24,6 +24,7 @@ import javax.persistence.Column;
 import javax.persistence.Entity;
 import javax.persistence.GeneratedValue;
 import javax.persistence.Id;
+import javax.persistence.Index;
 import javax.persistence.JoinColumn;
 import javax.persistence.ManyToOne;
 import javax.persistence.Table;
@@ -40,7 +41,13 @@ import org.hibernate.annotations.Type;
  */
 @Entity
 @Table(name = "annotation_document", uniqueConstraints = { @UniqueConstraint(columnNames = {
-        "name", "project", "user" }) })
+        "name", "project", "user" }) }, indexes = {
+                @Index(name = "idx_annotation_document_project_user_state",
+                        columnList = "project,user,state"),
+                @Index(name = "idx_annotation_document_document_user",
+                        columnList = "document,user"),
+                @Index(name = "idx_annotation_document_project_state",
+                        columnList = "project,state") })
 public class AnnotationDocument
     implements Serializable
 {
@@ -19,14 +19,18 @@ package de.tudarmstadt.ukp.clarin.webanno.model;
 
 import java.io.Serializable;
 
+import javax.persistence.Cacheable;
 import javax.persistence.Entity;
 import javax.persistence.GeneratedValue;
 import javax.persistence.Id;
+import javax.persistence.Index;
 import javax.persistence.JoinColumn;
 import javax.persistence.ManyToOne;
 import javax.persistence.Table;
 import javax.persistence.UniqueConstraint;
 
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 import org.hibernate.annotations.Type;
 /**
  * A persistence object for project permission. A user can have one or multiple permissions on a project.
@@ -34,8 +38,12 @@ import org.hibernate.annotations.Type;
  *
  */
 @Entity
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
 @Table(name = "project_permissions", uniqueConstraints = { @UniqueConstraint(columnNames = {
-        "user", "level", "project" }) })
+        "user", "level", "project" }) }, indexes = {
+                @Index(name = "idx_project_permissions_project_level",
+                        columnList = "project,level,user") })
 public class ProjectPermission
     implements Serializable
 {
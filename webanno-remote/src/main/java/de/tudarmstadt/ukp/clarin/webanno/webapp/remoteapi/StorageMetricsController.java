@@ -0,0 +1,98 @@
+/*
+ * Copyright 2017
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.webapp.remoteapi;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.annotation.Resource;
+
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.DatabaseCacheMetrics;
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.StorageMetrics;
+import de.tudarmstadt.ukp.clarin.webanno.diag.CasDoctorMetrics;
+
+/**
+ * Exposes the {@link StorageMetrics}, the {@link CasDoctorMetrics} and the
+ * {@link DatabaseCacheMetrics} as JSON. Access is restricted to administrators by the security
+ * configuration of the {@code /admin/**} paths.
+ */
+@RequestMapping(StorageMetricsController.BASE)
+@Controller
+public class StorageMetricsController
+{
+    public static final String BASE = "/admin/metrics";
+
+    @Resource(name = "storageMetrics")
+    private StorageMetrics metrics;
+
+    @Resource(name = "casDoctorMetrics")
+    private CasDoctorMetrics casDoctorMetrics;
+
+    @Resource(name = "databaseCacheMetrics")
+    private DatabaseCacheMetrics databaseCacheMetrics;
+
+    @RequestMapping(
+            method = RequestMethod.GET,
+            produces = MediaType.APPLICATION_JSON_UTF8_VALUE)
+    public ResponseEntity<Map<String, Object>> metrics()
+    {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("slowThreshold", metrics.getSlowThreshold());
+        result.put("statistics", metrics.getStatistics());
+        result.put("slowOperations", metrics.getSlowOperations());
+        result.put("cache", metrics.getCacheStatistics());
+        result.put("casDoctor", casDoctorMetrics.getStatistics());
+        result.put("database", databaseCacheMetrics());
+        return ResponseEntity.ok(result);
+    }
+
+    @RequestMapping(
+            value = "/reset",
+            method = RequestMethod.POST,
+            produces = MediaType.TEXT_PLAIN_VALUE)
+    public ResponseEntity<String> reset()
+    {
+        metrics.reset();
+        casDoctorMetrics.reset();
+        databaseCacheMetrics.reset();
+        return ResponseEntity.ok("Metrics reset");
+    }
+
+    private Map<String, Object> databaseCacheMetrics()
+    {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("cacheEnabled", databaseCacheMetrics.isCacheEnabled());
+        result.put("statisticsEnabled", databaseCacheMetrics.isStatisticsEnabled());
+        result.put("secondLevelCacheHitCount", databaseCacheMetrics.getSecondLevelCacheHitCount());
+        result.put("secondLevelCacheMissCount",
+                databaseCacheMetrics.getSecondLevelCacheMissCount());
+        result.put("secondLevelCachePutCount", databaseCacheMetrics.getSecondLevelCachePutCount());
+        result.put("queryCacheHitCount", databaseCacheMetrics.getQueryCacheHitCount());
+        result.put("queryCacheMissCount", databaseCacheMetrics.getQueryCacheMissCount());
+        result.put("queryCachePutCount", databaseCacheMetrics.getQueryCachePutCount());
+        result.put("queryExecutionCount", databaseCacheMetrics.getQueryExecutionCount());
+        result.put("regions", databaseCacheMetrics.getRegions());
+        return result;
+    }
+}
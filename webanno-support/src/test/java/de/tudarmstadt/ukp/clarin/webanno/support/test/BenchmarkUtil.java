@@ -0,0 +1,54 @@
+/*
+ * Copyright 2017
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.support.test;
+
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Benchmarks only measure and print their results, so they are skipped unless they are requested
+ * with {@code -Dwebanno.benchmark=true}. Benchmarks which need a lot of time or heap for their
+ * full size additionally check {@link #isLargeBenchmark()}.
+ */
+public final class BenchmarkUtil
+{
+    public static final String PROP_BENCHMARK = "webanno.benchmark";
+    public static final String PROP_BENCHMARK_LARGE = "webanno.benchmark.large";
+
+    private BenchmarkUtil()
+    {
+        // No instances
+    }
+
+    /**
+     * Skip the current test unless benchmarks have been requested.
+     */
+    public static void assumeBenchmark()
+    {
+        assumeTrue("Benchmarks are only run with -D" + PROP_BENCHMARK + "=true",
+                Boolean.getBoolean(PROP_BENCHMARK));
+    }
+
+    /**
+     * @return whether the benchmarks should run at their full size, as requested with
+     *         {@code -Dwebanno.benchmark.large=true}.
+     */
+    public static boolean isLargeBenchmark()
+    {
+        return Boolean.getBoolean(PROP_BENCHMARK_LARGE);
+    }
+}
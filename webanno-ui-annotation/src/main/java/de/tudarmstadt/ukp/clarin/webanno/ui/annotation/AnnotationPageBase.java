@@ -21,6 +21,7 @@ import static org.apache.uima.fit.util.CasUtil.select;
 
 import java.io.IOException;
 import java.util.List;
+import java.util.Map.Entry;
 
 import org.apache.uima.cas.CAS;
 import org.apache.uima.cas.text.AnnotationFS;
@@ -36,6 +37,7 @@ import org.apache.wicket.spring.injection.annot.SpringBean;
 import org.slf4j.LoggerFactory;
 
 import de.tudarmstadt.ukp.clarin.webanno.api.AnnotationSchemaService;
+import de.tudarmstadt.ukp.clarin.webanno.api.CasStorageService;
 import de.tudarmstadt.ukp.clarin.webanno.api.DocumentService;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.adapter.TypeAdapter;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.model.AnnotatorState;
@@ -60,6 +62,9 @@ public abstract class AnnotationPageBase
     @SpringBean(name = "documentService")
     private DocumentService documentService;
     
+    @SpringBean(name = "casStorageService")
+    private CasStorageService casStorageService;
+    
     private ChallengeResponseDialog resetDocumentDialog;
     private LambdaAjaxLink resetDocumentLink;
     private Label numberOfPages;
@@ -166,6 +171,7 @@ public abstract class AnnotationPageBase
      */
     protected void actionShowPreviousDocument(AjaxRequestTarget aTarget)
     {
+        flushCurrentDocument();
         getModelObject().moveToPreviousDocument(getListOfDocs());
         actionLoadDocument(aTarget);
     }
@@ -175,6 +181,7 @@ public abstract class AnnotationPageBase
      */
     protected void actionShowNextDocument(AjaxRequestTarget aTarget)
     {
+        flushCurrentDocument();
         getModelObject().moveToNextDocument(getListOfDocs());
         actionLoadDocument(aTarget);
     }
@@ -182,6 +189,7 @@ public abstract class AnnotationPageBase
     protected void actionShowPreviousPage(AjaxRequestTarget aTarget)
         throws Exception
     {
+        flushCurrentDocument();
         JCas jcas = getEditorCas();
         getModelObject().moveToPreviousPage(jcas);
         actionRefreshDocument(aTarget, jcas);
@@ -190,6 +198,7 @@ public abstract class AnnotationPageBase
     protected void actionShowNextPage(AjaxRequestTarget aTarget)
         throws Exception
     {
+        flushCurrentDocument();
         JCas jcas = getEditorCas();
         getModelObject().moveToNextPage(jcas);
         actionRefreshDocument(aTarget, jcas);
@@ -198,6 +207,7 @@ public abstract class AnnotationPageBase
     protected void actionShowFirstPage(AjaxRequestTarget aTarget)
         throws Exception
     {
+        flushCurrentDocument();
         JCas jcas = getEditorCas();
         getModelObject().moveToFirstPage(jcas);
         actionRefreshDocument(aTarget, jcas);
@@ -206,6 +216,7 @@ public abstract class AnnotationPageBase
     protected void actionShowLastPage(AjaxRequestTarget aTarget)
         throws Exception
     {
+        flushCurrentDocument();
         JCas jcas = getEditorCas();
         getModelObject().moveToLastPage(jcas);
         actionRefreshDocument(aTarget, jcas);
@@ -220,6 +231,23 @@ public abstract class AnnotationPageBase
         actionLoadDocument(aTarget);
     }
 
+    /**
+     * Persist changes to the current document which are still waiting to be written to disk. Called
+     * when the user moves to another page or document.
+     */
+    protected void flushCurrentDocument()
+    {
+        SourceDocument document = getModelObject().getDocument();
+        if (document != null) {
+            try {
+                casStorageService.flush(document);
+            }
+            catch (IOException e) {
+                handleException(null, e);
+            }
+        }
+    }
+
     protected void handleException(AjaxRequestTarget aTarget, Exception aException)
     {
         LoggerFactory.getLogger(getClass()).error("Error: " + aException.getMessage(), aException);
@@ -258,9 +286,11 @@ public abstract class AnnotationPageBase
         AnnotatorState state = getModelObject();
         JCas editorJCas = aJcas;
         CAS editorCas = editorJCas.getCas();
-        for (AnnotationLayer layer : annotationService.listAnnotationLayer(state.getProject())) {
+        for (Entry<AnnotationLayer, List<AnnotationFeature>> entry : annotationService
+                .listAnnotationFeaturesByLayer(state.getProject()).entrySet()) {
+            AnnotationLayer layer = entry.getKey();
+            List<AnnotationFeature> features = entry.getValue();
             TypeAdapter adapter = TypeUtil.getAdapter(annotationService, layer);
-            List<AnnotationFeature> features = annotationService.listAnnotationFeature(layer);
             
             // If no feature is required, then we can skip the whole procedure
             if (features.stream().allMatch((f) -> !f.isRequired())) {
@@ -41,6 +41,7 @@ import java.util.Set;
 import javax.persistence.NoResultException;
 
 import org.apache.commons.lang3.ObjectUtils;
+import org.apache.commons.lang3.SerializationUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.exception.ExceptionUtils;
 import org.slf4j.Logger;
@@ -2063,11 +2064,13 @@ public class AnnotationDetailEditorPanel
                     //Matching values found in tagset and shown in dropdown
                     rulesIndicator.rulesApplied();
                     // HACK BEGIN
-                    tag.setReordered(true);
+                    // The tags of the tagset are shared, so we flag a copy
+                    Tag reorderedTag = SerializationUtils.clone(tag);
+                    reorderedTag.setReordered(true);
                     // HACK END
                     //Avoid duplicate entries
-                    if(!returnList.contains(tag)){ 
-                        returnList.add(tag); 
+                    if(!returnList.contains(reorderedTag)){ 
+                        returnList.add(reorderedTag); 
                     }
                 }
             }
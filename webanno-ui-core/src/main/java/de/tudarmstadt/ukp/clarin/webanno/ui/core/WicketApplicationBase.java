@@ -18,14 +18,18 @@
 package de.tudarmstadt.ukp.clarin.webanno.ui.core;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Pattern;
 
 import org.apache.commons.lang3.StringUtils;
 import org.apache.wicket.Page;
 import org.apache.wicket.RuntimeConfigurationType;
+import org.apache.wicket.Session;
 import org.apache.wicket.authroles.authentication.AuthenticatedWebApplication;
 import org.apache.wicket.authroles.authentication.AuthenticatedWebSession;
 import org.apache.wicket.devutils.stateless.StatelessChecker;
@@ -39,10 +43,14 @@ import org.apache.wicket.resource.loader.IStringResourceLoader;
 import org.apache.wicket.resource.loader.NestedStringResourceLoader;
 import org.apache.wicket.settings.ExceptionSettings;
 import org.apache.wicket.spring.injection.annot.SpringComponentInjector;
+import org.slf4j.LoggerFactory;
 import org.slf4j.MDC;
 import org.springframework.context.ApplicationContext;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
 import org.wicketstuff.annotation.scan.AnnotatedMountScanner;
 
+import de.tudarmstadt.ukp.clarin.webanno.api.CasStorageService;
 import de.tudarmstadt.ukp.clarin.webanno.api.DocumentService;
 import de.tudarmstadt.ukp.clarin.webanno.model.support.spring.ApplicationContextProvider;
 import de.tudarmstadt.ukp.clarin.webanno.security.SpringAuthenticatedWebSession;
@@ -61,6 +69,12 @@ public abstract class WicketApplicationBase
 {
     protected boolean isInitialized = false;
 
+    /**
+     * The user signed in to each session, so the changes of the user can be persisted once the
+     * session ends.
+     */
+    private final Map<String, String> sessionUsers = new ConcurrentHashMap<>();
+
     @Override
     protected void init()
     {
@@ -98,6 +112,27 @@ public abstract class WicketApplicationBase
         initShowExceptionPage();
 
         initMDCLifecycle();
+
+        initSessionUserTracking();
+    }
+
+    protected void initSessionUserTracking()
+    {
+        getRequestCycleListeners().add(new AbstractRequestCycleListener()
+        {
+            @Override
+            public void onEndRequest(RequestCycle cycle)
+            {
+                if (!Session.exists() || Session.get().isTemporary()) {
+                    return;
+                }
+                Authentication authentication = SecurityContextHolder.getContext()
+                        .getAuthentication();
+                if (authentication != null && AuthenticatedWebSession.get().isSignedIn()) {
+                    sessionUsers.put(Session.get().getId(), authentication.getName());
+                }
+            };
+        });
     }
 
     protected void initMDCLifecycle()
@@ -203,4 +238,24 @@ public abstract class WicketApplicationBase
     {
         return SpringAuthenticatedWebSession.class;
     }
+
+    @Override
+    public void sessionUnbound(String aSessionId)
+    {
+        super.sessionUnbound(aSessionId);
+        
+        // Make sure that annotations pending in the write-behind queue are persisted when the
+        // user logs out or the session times out
+        String username = sessionUsers.remove(aSessionId);
+        ApplicationContext ctx = ApplicationContextProvider.getApplicationContext();
+        if (ctx != null && username != null) {
+            try {
+                ctx.getBean(CasStorageService.class).flush(username);
+            }
+            catch (IOException e) {
+                LoggerFactory.getLogger(getClass()).error("Unable to write pending annotations",
+                        e);
+            }
+        }
+    }
 }
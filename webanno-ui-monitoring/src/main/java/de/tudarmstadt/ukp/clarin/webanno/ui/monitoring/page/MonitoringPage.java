@@ -104,6 +104,7 @@ import org.springframework.security.core.context.SecurityContextHolder;
 import org.wicketstuff.annotation.mount.MountPath;
 
 import de.tudarmstadt.ukp.clarin.webanno.api.AnnotationSchemaService;
+import de.tudarmstadt.ukp.clarin.webanno.api.CasStorageService;
 import de.tudarmstadt.ukp.clarin.webanno.api.DocumentService;
 import de.tudarmstadt.ukp.clarin.webanno.api.ProjectService;
 import de.tudarmstadt.ukp.clarin.webanno.api.UserDao;
@@ -182,6 +183,9 @@ public class MonitoringPage
     @SpringBean(name = "documentService")
     private DocumentService documentService;
 
+    @SpringBean(name = "casStorageService")
+    private CasStorageService casStorageService;
+
     @SpringBean(name = "projectService")
     private ProjectService projectService;
 
@@ -1205,7 +1209,9 @@ public class MonitoringPage
                             document, user);
                     if (annotationDocument.getState().equals(AnnotationDocumentState.FINISHED)) {
                         try {
-                            jCas = documentService.readAnnotationCas(annotationDocument);
+                            // The CAS is upgraded and modified below, so we must not use the
+                            // one that may currently be shared with the annotator
+                            jCas = casStorageService.borrowCas(document, user.getUsername());
                             documentService.upgradeCas(jCas.getCas(), annotationDocument);
                             // REC: I think there is no need to write the CASes here. We would not
                             // want to interfere with currently active annotator users
@@ -1234,11 +1240,23 @@ public class MonitoringPage
         return cachedCASes;
     }
 
+    private void releaseCachedCASes()
+    {
+        if (cachedCASes != null) {
+            for (List<JCas> cases : cachedCASes.values()) {
+                for (JCas jcas : cases) {
+                    casStorageService.returnCas(jcas);
+                }
+            }
+            cachedCASes = null;
+        }
+    }
+
     private void updateAgreementTable(AjaxRequestTarget aTarget, boolean aClearCache)
     {
         try {
             if (aClearCache) {
-                cachedCASes = null;
+                releaseCachedCASes();
             }
             agreementForm.agreementTable2.getDefaultModel().detach();
             if (aTarget != null) {
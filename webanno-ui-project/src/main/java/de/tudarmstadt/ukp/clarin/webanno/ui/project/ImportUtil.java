@@ -19,6 +19,7 @@ package de.tudarmstadt.ukp.clarin.webanno.ui.project;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Enumeration;
 import java.util.HashMap;
@@ -34,12 +35,14 @@ import java.util.zip.ZipFile;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.lang3.SerializationUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.apache.uima.cas.CAS;
 import org.springframework.security.core.context.SecurityContextHolder;
 
 import de.tudarmstadt.ukp.clarin.webanno.api.AnnotationSchemaService;
+import de.tudarmstadt.ukp.clarin.webanno.api.CasStorageService;
 import de.tudarmstadt.ukp.clarin.webanno.api.DocumentService;
 import de.tudarmstadt.ukp.clarin.webanno.api.ProjectService;
 import de.tudarmstadt.ukp.clarin.webanno.api.UserDao;
@@ -230,14 +233,16 @@ public class ImportUtil
         for (de.tudarmstadt.ukp.clarin.webanno.model.export.AnnotationLayer exLayer : aImportedProjectSetting
                 .getLayers()) {
             if (aAnnotationService.existsLayer(exLayer.getName(), exLayer.getType(), aProject)) {
-                AnnotationLayer layer = aAnnotationService.getLayer(exLayer.getName(), aProject);
+                // The schema service hands out shared instances, so we update a copy
+                AnnotationLayer layer = SerializationUtils
+                        .clone(aAnnotationService.getLayer(exLayer.getName(), aProject));
                 setLayer(aAnnotationService, layer, exLayer, aProject, aUser);
                 layersMap.put(exLayer, layer);
                 for (de.tudarmstadt.ukp.clarin.webanno.model.export.AnnotationFeature exfeature : exLayer
                         .getFeatures()) {
                     if (aAnnotationService.existsFeature(exfeature.getName(), layer)) {
-                        AnnotationFeature feature = aAnnotationService.getFeature(
-                                exfeature.getName(), layer);
+                        AnnotationFeature feature = SerializationUtils.clone(
+                                aAnnotationService.getFeature(exfeature.getName(), layer));
                         setFeature(aAnnotationService, feature, exfeature, aProject, aUser);
                         featuresMap.put(exfeature, feature);
                         continue;
@@ -271,7 +276,8 @@ public class ImportUtil
         for (de.tudarmstadt.ukp.clarin.webanno.model.export.AnnotationLayer exLayer : aImportedProjectSetting
                 .getLayers()) {
             if (exLayer.getAttachType() != null) {
-                AnnotationLayer layer = aAnnotationService.getLayer(exLayer.getName(), aProject);
+                AnnotationLayer layer = SerializationUtils
+                        .clone(aAnnotationService.getLayer(exLayer.getName(), aProject));
                 AnnotationLayer attachLayer = aAnnotationService.getLayer(exLayer.getAttachType()
                         .getName(), aProject);
                 layer.setAttachType(attachLayer);
@@ -580,11 +586,12 @@ public class ImportUtil
      * @param zip the ZIP file.
      * @param aProject the project.
      * @param aRepository the repository service.
+     * @param aCasStorageService the CAS storage service.
      * @throws IOException if an I/O error occurs.
      */
     @SuppressWarnings("rawtypes")
     public static void createAnnotationDocumentContent(ZipFile zip, Project aProject,
-            DocumentService aRepository)
+            DocumentService aRepository, CasStorageService aCasStorageService)
         throws IOException
     {
         for (Enumeration zipEnumerate = zip.entries(); zipEnumerate.hasMoreElements();) {
@@ -607,9 +614,10 @@ public class ImportUtil
                 fileName = fileName.replace(FilenameUtils.getName(fileName), "").replace("/", "");
                 de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument sourceDocument = aRepository
                         .getSourceDocument(aProject, fileName);
-                File annotationFilePath = aRepository.getCasFile(sourceDocument, username);
 
-                FileUtils.copyInputStreamToFile(zip.getInputStream(entry), annotationFilePath);
+                try (InputStream is = zip.getInputStream(entry)) {
+                    aCasStorageService.importCas(sourceDocument, username, is);
+                }
                 
                 LOG.info("Imported annotation document content for user [" + username
                         + "] for source document [" + sourceDocument.getId() + "] in project ["
@@ -623,11 +631,12 @@ public class ImportUtil
      * @param zip the ZIP file.
      * @param aProject the project.
      * @param aRepository the repository service.
+     * @param aCasStorageService the CAS storage service.
      * @throws IOException if an I/O error occurs.
      */
     @SuppressWarnings("rawtypes")
     public static void createCurationDocumentContent(ZipFile zip, Project aProject,
-            DocumentService aRepository)
+            DocumentService aRepository, CasStorageService aCasStorageService)
         throws IOException
     {
         for (Enumeration zipEnumerate = zip.entries(); zipEnumerate.hasMoreElements();) {
@@ -649,9 +658,10 @@ public class ImportUtil
                 }
                 de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument sourceDocument = aRepository
                         .getSourceDocument(aProject, fileName);
-                File annotationFilePath = aRepository.getCasFile(sourceDocument, username);
 
-                FileUtils.copyInputStreamToFile(zip.getInputStream(entry), annotationFilePath);
+                try (InputStream is = zip.getInputStream(entry)) {
+                    aCasStorageService.importCas(sourceDocument, username, is);
+                }
                 
                 LOG.info("Imported curation document content for user [" + username
                         + "] for source document [" + sourceDocument.getId() + "] in project ["
@@ -0,0 +1,226 @@
+/*
+ * Copyright 2017
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.ui.project;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.apache.wicket.ajax.AjaxSelfUpdatingTimerBehavior;
+import org.apache.wicket.markup.html.WebMarkupContainer;
+import org.apache.wicket.markup.html.basic.Label;
+import org.apache.wicket.markup.html.form.Button;
+import org.apache.wicket.markup.html.form.CheckBoxMultipleChoice;
+import org.apache.wicket.markup.html.link.DownloadLink;
+import org.apache.wicket.markup.html.list.ListItem;
+import org.apache.wicket.markup.html.list.ListView;
+import org.apache.wicket.model.IModel;
+import org.apache.wicket.model.LoadableDetachableModel;
+import org.apache.wicket.model.Model;
+import org.apache.wicket.spring.injection.annot.SpringBean;
+import org.apache.wicket.util.time.Duration;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.ProjectService;
+import de.tudarmstadt.ukp.clarin.webanno.api.UserDao;
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.SecurityUtil;
+import de.tudarmstadt.ukp.clarin.webanno.diag.CasDoctor;
+import de.tudarmstadt.ukp.clarin.webanno.diag.CasDoctorScan;
+import de.tudarmstadt.ukp.clarin.webanno.diag.CasDoctorScanOptions;
+import de.tudarmstadt.ukp.clarin.webanno.diag.CasDoctorScanReport;
+import de.tudarmstadt.ukp.clarin.webanno.diag.CasDoctorScanReport.Result;
+import de.tudarmstadt.ukp.clarin.webanno.diag.CasDoctorScanReport.Status;
+import de.tudarmstadt.ukp.clarin.webanno.model.Project;
+import de.tudarmstadt.ukp.clarin.webanno.ui.core.settings.ProjectSettingsPanel;
+import de.tudarmstadt.ukp.clarin.webanno.ui.core.settings.ProjectSettingsPanelBase;
+
+/**
+ * A Panel used to run the CAS doctor on all documents of the selected {@link Project}. Only
+ * administrators may use it.
+ */
+@ProjectSettingsPanel(label = "CAS Doctor", prio = 800)
+public class ProjectCasDoctorPanel
+    extends ProjectSettingsPanelBase
+{
+    private static final long serialVersionUID = -3263286616374744916L;
+
+    /**
+     * Maximum number of problems listed in the panel. The downloadable report contains all.
+     */
+    private static final int MAX_PROBLEMS = 100;
+
+    @SpringBean(name = "casDoctorScan")
+    private CasDoctorScan casDoctorScan;
+
+    @SpringBean(name = "projectService")
+    private ProjectService projectService;
+
+    @SpringBean(name = "userRepository")
+    private UserDao userRepository;
+
+    private final ArrayList<String> selectedRepairs = new ArrayList<>();
+
+    public ProjectCasDoctorPanel(String id, IModel<Project> aProjectModel)
+    {
+        super(id, aProjectModel);
+
+        boolean admin = SecurityUtil.isSuperAdmin(projectService, userRepository
+                .get(SecurityContextHolder.getContext().getAuthentication().getName()));
+
+        add(new Label("notAdmin", "Only administrators can run the CAS doctor.")
+                .setVisible(!admin));
+
+        WebMarkupContainer content = new WebMarkupContainer("content");
+        content.setVisible(admin);
+        add(content);
+
+        List<String> repairs = CasDoctor.getAvailableRepairs().stream()
+                .map(Class::getSimpleName).collect(Collectors.toList());
+        content.add(new CheckBoxMultipleChoice<>("repairs", new Model<>(selectedRepairs),
+                repairs));
+
+        content.add(new Button("scan", Model.of("Scan"))
+        {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public void onSubmit()
+            {
+                actionScan();
+            }
+        });
+
+        WebMarkupContainer status = new WebMarkupContainer("status");
+        status.setOutputMarkupId(true);
+        status.add(new AjaxSelfUpdatingTimerBehavior(Duration.seconds(2)));
+        content.add(status);
+
+        status.add(new Label("progress", new LoadableDetachableModel<String>()
+        {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected String load()
+            {
+                CasDoctorScanReport report = getReport();
+                if (report == null) {
+                    return "The project has not been scanned yet.";
+                }
+                return (report.isFinished() ? "Finished: " : "Running: ")
+                        + report.getProgress();
+            }
+        }));
+
+        status.add(new ListView<Result>("problems", new LoadableDetachableModel<List<Result>>()
+        {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected List<Result> load()
+            {
+                CasDoctorScanReport report = getReport();
+                if (report == null) {
+                    return Collections.emptyList();
+                }
+                return report.getResults().stream().filter(r -> r.getStatus() != Status.OK)
+                        .limit(MAX_PROBLEMS).collect(Collectors.toList());
+            }
+        })
+        {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected void populateItem(ListItem<Result> aItem)
+            {
+                Result result = aItem.getModelObject();
+                aItem.add(new Label("document", result.getDocumentName()));
+                aItem.add(new Label("user", result.getUser()));
+                aItem.add(new Label("result", result.getStatus().name()));
+                aItem.add(new Label("checks", String.join(", ", result.getFailedChecks())));
+                aItem.add(new Label("repairs", String.join(", ", result.getAppliedRepairs())));
+            }
+        });
+
+        status.add(new DownloadLink("download", new LoadableDetachableModel<File>()
+        {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected File load()
+            {
+                return writeReport();
+            }
+        }, "casdoctor-report.json")
+        {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected void onConfigure()
+            {
+                super.onConfigure();
+                CasDoctorScanReport report = getReport();
+                setVisible(report != null && report.isFinished());
+            }
+        }.setDeleteAfterDownload(true));
+    }
+
+    private CasDoctorScanReport getReport()
+    {
+        Project project = getModelObject();
+        return project.getId() != 0 ? casDoctorScan.getReport(project) : null;
+    }
+
+    private void actionScan()
+    {
+        CasDoctorScanOptions options = new CasDoctorScanOptions();
+        options.getRepairs().addAll(selectedRepairs);
+        try {
+            casDoctorScan.startScan(getModelObject(), options);
+            info("Scan started");
+        }
+        catch (Exception e) {
+            error("Unable to start scan: " + ExceptionUtils.getRootCauseMessage(e));
+        }
+    }
+
+    private File writeReport()
+    {
+        CasDoctorScanReport report = getReport();
+        if (report == null) {
+            return null;
+        }
+
+        try {
+            File file = File.createTempFile("webanno-casdoctor", ".json");
+            try (OutputStream out = new FileOutputStream(file)) {
+                report.write(out);
+            }
+            return file;
+        }
+        catch (IOException e) {
+            error("Unable to write report: " + ExceptionUtils.getRootCauseMessage(e));
+            return null;
+        }
+    }
+}
@@ -19,7 +19,9 @@ package de.tudarmstadt.ukp.clarin.webanno.ui.project;
 
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.Serializable;
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
@@ -59,6 +61,7 @@ import org.wicketstuff.progressbar.Progression;
 import org.wicketstuff.progressbar.ProgressionModel;
 
 import de.tudarmstadt.ukp.clarin.webanno.api.AnnotationSchemaService;
+import de.tudarmstadt.ukp.clarin.webanno.api.CasStorageService;
 import de.tudarmstadt.ukp.clarin.webanno.api.DocumentService;
 import de.tudarmstadt.ukp.clarin.webanno.api.ImportExportService;
 import de.tudarmstadt.ukp.clarin.webanno.api.ProjectService;
@@ -133,6 +136,9 @@ public class ProjectExportPanel
     @SpringBean(name = "importExportService")
     private ImportExportService importExportService;
 
+    @SpringBean(name = "casStorageService")
+    private CasStorageService casStorageService;
+
     @SpringBean(name = "constraintsService")
     private ConstraintsService constraintsService;
 
@@ -175,7 +181,21 @@ public class ProjectExportPanel
 		}
 		return curationDocumentExist;
 	}
-	
+
+    /**
+     * Write the CAS of the given user into the target folder. The CAS files in the repository may
+     * refer to a type system shared across the project, so they are not copied verbatim but
+     * re-written in a self-contained format which can be imported again.
+     */
+    private void exportCas(de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument aDocument,
+            String aUsername, File aTargetDir)
+        throws IOException
+    {
+        try (OutputStream os = new FileOutputStream(new File(aTargetDir, aUsername + ".ser"))) {
+            casStorageService.exportCas(aDocument, aUsername, os);
+        }
+    }
+
     /**
      * Copy, if exists, curation documents to a folder that will be exported as Zip file
      * 
@@ -219,10 +239,9 @@ public class ProjectExportPanel
                     SourceDocumentState.CURATION_IN_PROGRESS.equals(sourceDocument.getState())) ||
                 SourceDocumentState.CURATION_FINISHED.equals(sourceDocument.getState())
             ) {
-                File curationCasFile = documentService.getCasFile(sourceDocument, CURATION_USER);
-                if (curationCasFile.exists()) {
+                if (documentService.existsCas(sourceDocument, CURATION_USER)) {
                     // Copy CAS - this is used when importing the project again
-                    FileUtils.copyFileToDirectory(curationCasFile, curationCasDir);
+                    exportCas(sourceDocument, CURATION_USER, curationCasDir);
                     
                     // Copy secondary export format for convenience - not used during import
                     try {
@@ -839,17 +858,17 @@ public class ProjectExportPanel
                         FileUtils.forceMkdir(annotationDocumentAsSerialisedCasDir);
                         FileUtils.forceMkdir(annotationDocumentDir);
 
-                        File annotationFileAsSerialisedCas = documentService.getCasFile(
-                                sourceDocument, annotationDocument.getUser());
+                        boolean casExists = documentService.existsCas(sourceDocument,
+                                annotationDocument.getUser());
 
                         File annotationFile = null;
-                        if (annotationFileAsSerialisedCas.exists() && writer != null) {
+                        if (casExists && writer != null) {
                             annotationFile = importExportService.exportAnnotationDocument(sourceDocument,
                                     annotationDocument.getUser(), writer,
                                     annotationDocument.getUser(), Mode.ANNOTATION, false);
                         }
-                        if (annotationFileAsSerialisedCas.exists()) {
-                            FileUtils.copyFileToDirectory(annotationFileAsSerialisedCas,
+                        if (casExists) {
+                            exportCas(sourceDocument, annotationDocument.getUser(),
                                     annotationDocumentAsSerialisedCasDir);
                             if (writer != null) {
                                 FileUtils
@@ -865,14 +884,12 @@ public class ProjectExportPanel
                 // folder as CURATION_FOLDER
                 if (aModel.project.getMode().equals(Mode.AUTOMATION)
                         || aModel.project.getMode().equals(Mode.CORRECTION)) {
-                    File correctionCasFile = documentService.getCasFile(sourceDocument,
-                            CORRECTION_USER);
-                    if (correctionCasFile.exists()) {
+                    if (documentService.existsCas(sourceDocument, CORRECTION_USER)) {
                         // Copy CAS - this is used when importing the project again
                         File curationCasDir = new File(aCopyDir + CURATION_AS_SERIALISED_CAS
                                 + sourceDocument.getName());
                         FileUtils.forceMkdir(curationCasDir);
-                        FileUtils.copyFileToDirectory(correctionCasFile, curationCasDir);
+                        exportCas(sourceDocument, CORRECTION_USER, curationCasDir);
                         
                         // Copy secondary export format for convenience - not used during import
                         File curationDir = new File(aCopyDir + CURATION_FOLDER + sourceDocument.getName());
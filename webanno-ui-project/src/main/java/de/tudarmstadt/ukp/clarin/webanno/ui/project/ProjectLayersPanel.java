@@ -39,6 +39,7 @@ import java.util.List;
 import java.util.Map;
 
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.SerializationUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.text.WordUtils;
 import org.apache.commons.lang3.exception.ExceptionUtils;
@@ -342,7 +343,9 @@ public class ProjectLayersPanel
                     AnnotationLayer layer;
                     if (annotationService.existsLayer(aExLayer.getName(), aExLayer.getType(),
                             project)) {
-                        layer = annotationService.getLayer(aExLayer.getName(), project);
+                        // The schema service hands out shared instances, so we update a copy
+                        layer = SerializationUtils
+                                .clone(annotationService.getLayer(aExLayer.getName(), project));
                         ImportUtil.setLayer(annotationService, layer, aExLayer, project, aUser);
                     }
                     else {
@@ -358,7 +361,8 @@ public class ProjectLayersPanel
                         TagSet tagSet = null;
                         if (exTagset != null
                                 && annotationService.existsTagSet(exTagset.getName(), project)) {
-                            tagSet = annotationService.getTagSet(exTagset.getName(), project);
+                            tagSet = SerializationUtils.clone(
+                                    annotationService.getTagSet(exTagset.getName(), project));
                             ImportUtil.createTagSet(tagSet, exTagset, project, aUser,
                                     annotationService);
                         }
@@ -368,8 +372,8 @@ public class ProjectLayersPanel
                                     annotationService);
                         }
                         if (annotationService.existsFeature(exfeature.getName(), layer)) {
-                            AnnotationFeature feature = annotationService.getFeature(
-                                    exfeature.getName(), layer);
+                            AnnotationFeature feature = SerializationUtils.clone(
+                                    annotationService.getFeature(exfeature.getName(), layer));
                             feature.setTagset(tagSet);
                             ImportUtil.setFeature(annotationService, feature, exfeature, project,
                                     aUser);
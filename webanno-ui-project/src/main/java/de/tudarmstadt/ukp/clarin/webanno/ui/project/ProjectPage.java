@@ -69,6 +69,7 @@ import org.springframework.security.core.context.SecurityContextHolder;
 import org.wicketstuff.annotation.mount.MountPath;
 
 import de.tudarmstadt.ukp.clarin.webanno.api.AnnotationSchemaService;
+import de.tudarmstadt.ukp.clarin.webanno.api.CasStorageService;
 import de.tudarmstadt.ukp.clarin.webanno.api.DocumentService;
 import de.tudarmstadt.ukp.clarin.webanno.api.ProjectLifecycleAware;
 import de.tudarmstadt.ukp.clarin.webanno.api.ProjectService;
@@ -124,6 +125,9 @@ public class ProjectPage
     @SpringBean(name = "documentService")
     private DocumentService documentService;
 
+    @SpringBean(name = "casStorageService")
+    private CasStorageService casStorageService;
+
     @SpringBean(name = "projectService")
     private ProjectService projectService;
     
@@ -641,10 +645,12 @@ public class ProjectPage
                 ImportUtil.createAnnotationDocument(importedProjectSetting, importedProject,
                         documentService);
                 // Import annotation document content
-                ImportUtil.createAnnotationDocumentContent(zip, importedProject, documentService);
+                ImportUtil.createAnnotationDocumentContent(zip, importedProject, documentService,
+                        casStorageService);
                 
                 // Import curation document content
-                ImportUtil.createCurationDocumentContent(zip, importedProject, documentService);
+                ImportUtil.createCurationDocumentContent(zip, importedProject, documentService,
+                        casStorageService);
             }
             catch (Exception e) {
                 error("Error Importing Project " + ExceptionUtils.getRootCauseMessage(e));
@@ -36,6 +36,7 @@ import java.util.Map;
 import java.util.Set;
 
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.SerializationUtils;
 import org.apache.commons.lang3.exception.ExceptionUtils;
 import org.apache.wicket.AttributeModifier;
 import org.apache.wicket.ajax.AjaxRequestTarget;
@@ -318,7 +319,9 @@ public class ProjectTagSetsPanel
 											
 											// If overwrite is enabled
 											if (overwriteTagsetFlag.getModelObject()) { 
-												tagSet = annotationService.getTagSet(tagSetName, project);
+												// The schema service hands out shared instances, so we update a copy
+												tagSet = SerializationUtils.clone(
+														annotationService.getTagSet(tagSetName, project));
 												annotationService.removeAllTags(tagSet);
 											} else {
 												tagSet = new de.tudarmstadt.ukp.clarin.webanno.model.TagSet();
@@ -457,8 +460,9 @@ public class ProjectTagSetsPanel
                         for (AnnotationFeature ft : annotationService.listAnnotationFeature(tagSet
                                 .getProject())) {
                             if (ft.getTagset() != null && ft.getTagset().equals(tagSet)) {
-                                ft.setTagset(null);
-                                annotationService.createFeature(ft);
+                                AnnotationFeature feature = SerializationUtils.clone(ft);
+                                feature.setTagset(null);
+                                annotationService.createFeature(feature);
                             }
                         }
                         annotationService.removeTagSet(tagSet);